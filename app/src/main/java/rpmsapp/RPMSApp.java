@@ -0,0 +1,9705 @@
+package rpmsapp;
+
+// Importing necessary libraries for email sending, user input
+import jakarta.mail.*;
+import jakarta.mail.internet.*;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+// Custom exception for vital sign threshold violations
+class VitalThresholdException extends Exception {
+    public VitalThresholdException(String message) {
+        super(message);
+    }
+}
+
+// Custom exception for notification-related errors
+class NotificationException extends Exception {
+    public NotificationException(String message) {
+        super(message);
+    }
+}
+
+// Base class for all users (patients, doctors, administrators) with common attributes
+class User {
+    private String id;      // Unique identifier for the user
+    private String name;    // User's name
+    private String email;   // User's email address
+    private String password;// User's password for authentication
+
+    // Constructor to initialize a user
+    public User(String id, String name, String email, String password) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+        this.password = password;
+    }
+
+    // Getters and setters for user attributes
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public String getEmail() { return email; }
+    public void setEmail(String email) { this.email = email; }
+    public String getPassword() { return password; }
+    public void setPassword(String password) { this.password = password; }
+
+    // Displays user information
+    public void displayInfo() {
+        System.out.println("User ID: " + id + " | Name: " + name + " | Email: " + email);
+    }
+}
+
+// Patient class, inherits from User, manages patient-specific data
+class Patient extends User {
+    private MedicalHistory medicalHistory; // Stores patient's medical history
+
+    // Constructor to initialize a patient
+    public Patient(String id, String name, String email, String password) {
+        super(id, name, email, password);
+        medicalHistory = new MedicalHistory(this);
+    }
+
+    // Overrides displayInfo to include patient role
+    @Override
+    public void displayInfo() {
+        super.displayInfo();
+        System.out.println("Role: Patient");
+    }
+
+    // Uploads vital signs to the database for monitoring
+    public void uploadVitals(VitalsDatabase db, VitalSign vital) {
+        db.addVitalSign(getId(), vital);
+        System.out.println("Vitals uploaded successfully for patient " + getName());
+    }
+
+    // Uploads vital signs through the ingestion pipeline, which also evaluates them and alerts the care team
+    public IngestOutcome uploadVitals(VitalsIngestionPipeline pipeline, VitalSign vital, long now) {
+        return reportUpload(pipeline.submit(this, vital, now));
+    }
+
+    // Uploads a reading from a device that numbers its readings; a retransmission is ignored
+    public IngestOutcome uploadVitals(VitalsIngestionPipeline pipeline, VitalSign vital, long now,
+                                      String deviceId, long sequence) {
+        return reportUpload(pipeline.submit(this, vital, now, deviceId, sequence));
+    }
+
+    private IngestOutcome reportUpload(IngestOutcome outcome) {
+        if (outcome.getStatus() == IngestStatus.PROCESSED) {
+            System.out.println("Vitals uploaded successfully for patient " + getName());
+        } else {
+            System.out.println(outcome.describe() + " (patient " + getName() + ")");
+        }
+        return outcome;
+    }
+
+    // Adds feedback to the patient's medical history; RPMSApp.addFeedback also tells the application's listeners
+    public void addFeedback(Feedback feedback) {
+        medicalHistory.addFeedback(feedback);
+    }
+
+    // Displays the patient's medical history
+    public void viewMedicalHistory() {
+        System.out.println("Medical History for " + getName() + ":");
+        medicalHistory.displayHistory();
+    }
+
+    // Getter for medical history
+    public MedicalHistory getMedicalHistory() { return medicalHistory; }
+}
+
+// Doctor class, inherits from User, manages doctor-specific data
+class Doctor extends User {
+    private List<Patient> patients;      // List of patients assigned to the doctor
+    private Set<Patient> patientSet;     // Same patients, for constant-time membership checks
+
+    // Constructor to initialize a doctor
+    public Doctor(String id, String name, String email, String password) {
+        super(id, name, email, password);
+        patients = new ArrayList<>();
+        patientSet = new HashSet<>();
+    }
+
+    // Overrides displayInfo to include doctor role and patient count
+    @Override
+    public void displayInfo() {
+        super.displayInfo();
+        System.out.println("Role: Doctor | Number of Patients: " + getPatients().size());
+    }
+
+    // Returns a copy of the doctor's patients
+    public synchronized List<Patient> getPatients() { return new ArrayList<>(patients); }
+
+    // Adds a patient to the doctor's list if not already present; returns true if added
+    public boolean addPatient(Patient patient) {
+        if (assignPatient(patient)) {
+            System.out.println("Patient " + patient.getName() + " added to Dr. " + getName() + "'s list.");
+            return true;
+        }
+        return false;
+    }
+
+    // Same as addPatient without the console message, for bulk imports
+    public synchronized boolean assignPatient(Patient patient) {
+        if (patientSet.add(patient)) {
+            patients.add(patient);
+            return true;
+        }
+        return false;
+    }
+
+    // Removes a patient from the doctor's list (e.g., after moving to another shard); returns true if removed
+    public synchronized boolean removePatient(Patient patient) {
+        if (patientSet.remove(patient)) {
+            patients.remove(patient);
+            return true;
+        }
+        return false;
+    }
+
+    // Provides feedback and prescription for a patient
+    public Feedback provideFeedback(String feedbackText, Prescription prescription) {
+        Feedback feedback = new Feedback(feedbackText, prescription);
+        System.out.println("Feedback provided by Dr. " + getName());
+        return feedback;
+    }
+}
+
+// Administrator class, inherits from User, manages admin-specific actions
+class Administrator extends User {
+    // Constructor to initialize an administrator
+    public Administrator(String id, String name, String email, String password) {
+        super(id, name, email, password);
+    }
+
+    // Overrides displayInfo to include admin role
+    @Override
+    public void displayInfo() {
+        super.displayInfo();
+        System.out.println("Role: Administrator");
+    }
+}
+
+// Class to store a patient's vital signs
+class VitalSign {
+    private int heartRate;      // Heart rate in beats per minute
+    private int oxygenLevel;    // Oxygen saturation percentage
+    private String bloodPressure; // Blood pressure in format "systolic/diastolic"
+    private double systolic;    // Parsed systolic pressure, NaN if the text was malformed
+    private double diastolic;   // Parsed diastolic pressure, NaN if the text was malformed
+    private double temperature; // Body temperature in Celsius
+
+    // Constructor to initialize vital signs; the blood pressure text is parsed once here
+    public VitalSign(int heartRate, int oxygenLevel, String bloodPressure, double temperature) {
+        this.heartRate = heartRate;
+        this.oxygenLevel = oxygenLevel;
+        this.bloodPressure = bloodPressure;
+        this.temperature = temperature;
+        this.systolic = Double.NaN;
+        this.diastolic = Double.NaN;
+        int slash = bloodPressure == null ? -1 : bloodPressure.indexOf('/');
+        if (slash > 0 && bloodPressure.indexOf('/', slash + 1) < 0) {
+            try {
+                this.systolic = Double.parseDouble(bloodPressure.substring(0, slash));
+                this.diastolic = Double.parseDouble(bloodPressure.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                this.systolic = Double.NaN;
+                this.diastolic = Double.NaN;
+            }
+        }
+    }
+
+    // Constructor to initialize vital signs from already parsed values
+    public VitalSign(int heartRate, int oxygenLevel, double systolic, double diastolic, double temperature) {
+        this.heartRate = heartRate;
+        this.oxygenLevel = oxygenLevel;
+        this.systolic = systolic;
+        this.diastolic = diastolic;
+        this.temperature = temperature;
+    }
+
+    // Getters for vital sign attributes
+    public int getHeartRate() { return heartRate; }
+    public int getOxygenLevel() { return oxygenLevel; }
+    public double getSystolic() { return systolic; }
+    public double getDiastolic() { return diastolic; }
+    public double getTemperature() { return temperature; }
+
+    // Blood pressure text, formatted on first use when built from parsed values
+    public String getBloodPressure() {
+        if (bloodPressure == null) {
+            bloodPressure = formatBloodPressure(systolic, diastolic);
+        }
+        return bloodPressure;
+    }
+
+    // Blood pressure text for parsed values, e.g. 120/80
+    public static String formatBloodPressure(double systolic, double diastolic) {
+        return formatPressure(systolic) + "/" + formatPressure(diastolic);
+    }
+
+    // True if both blood pressure values were parsed successfully
+    public boolean hasValidBloodPressure() {
+        return !Double.isNaN(systolic) && !Double.isNaN(diastolic);
+    }
+
+    private static String formatPressure(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    // Displays the vital signs
+    public void displayVitals() {
+        System.out.println("Heart Rate: " + heartRate + " bpm, Oxygen Level: " + oxygenLevel +
+                           "%, Blood Pressure: " + getBloodPressure() + ", Temperature: " + temperature + " °C");
+    }
+}
+
+// Shared table of repeated clinical strings (patient IDs, medications, dosages, schedules) and their int codes.
+// Records keep the code instead of the string, so each distinct value is held once and equality checks are
+// int comparisons. Codes are handed out in order and never change; when the dictionary is backed by a file,
+// every new string is appended to it, so codes written to disk stay readable after a restart.
+class StringDictionary {
+    private static final StringDictionary GLOBAL = new StringDictionary();
+
+    private Map<String, Integer> codes; // Code of each known string
+    private volatile String[] values;   // Strings by code; replaced by a larger copy when full
+    private int size;                   // Codes handed out (guarded by this)
+    private BufferedWriter journal;     // Backing file, one escaped string per line; null when in memory only
+    private Path file;                  // Path of the backing file once one is attached (guarded by this)
+
+    // Constructor to initialize an in-memory dictionary
+    public StringDictionary() {
+        codes = new ConcurrentHashMap<>();
+        values = new String[256];
+    }
+
+    // Opens a dictionary backed by a file, loading the codes already in it
+    public static StringDictionary open(Path file) throws IOException {
+        StringDictionary dictionary = new StringDictionary();
+        dictionary.attach(file);
+        return dictionary;
+    }
+
+    // Dictionary used by domain records, for the whole process; it is never replaced, only backed by a file
+    public static StringDictionary global() { return GLOBAL; }
+
+    // Backs the dictionary with a file without changing any code already handed out: strings in the file
+    // beyond those known are loaded, and known strings beyond those in the file are written to it. Attaching
+    // the file already in use does nothing; another file, or one giving a known code to a different string, is
+    // refused with IllegalStateException.
+    public synchronized void attach(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        if (path.equals(this.file)) return;
+        if (this.file != null) {
+            throw new IllegalStateException("The string dictionary is already saved to " + this.file + ".");
+        }
+        List<String> saved = new ArrayList<>();
+        if (Files.exists(path)) {
+            try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    saved.add(unescape(line));
+                }
+            }
+        }
+        int known = size;
+        for (int code = 0; code < Math.min(known, saved.size()); code++) {
+            if (!values[code].equals(saved.get(code))) {
+                throw new IllegalStateException(path + " gives code " + code + " to a different string.");
+            }
+        }
+        BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                                        StandardOpenOption.APPEND);
+        try {
+            for (int code = saved.size(); code < known; code++) {
+                writer.write(escape(values[code]));
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException e) {
+            writer.close();
+            throw e;
+        }
+        for (int code = known; code < saved.size(); code++) {
+            append(saved.get(code));
+        }
+        this.file = path;
+        this.journal = writer;
+    }
+
+    // Code of a string, adding it if new; null is encoded as -1
+    public int encode(String value) {
+        if (value == null) return -1;
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    // Code of a known string, or -1 if it has never been encoded
+    public int codeOf(String value) {
+        Integer code = value == null ? null : codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    // String of a code; -1 decodes to null
+    public String decode(int code) {
+        return code < 0 ? null : values[code];
+    }
+
+    // Codes of every known string equal to the given one ignoring case (one scan of the dictionary)
+    public int[] codesIgnoringCase(String value) {
+        String[] snapshot;
+        int known;
+        synchronized (this) { // Read together: the array is replaced by a larger copy as strings are added
+            snapshot = values;
+            known = size;
+        }
+        int[] matches = new int[4];
+        int count = 0;
+        for (int code = 0; code < known; code++) {
+            if (snapshot[code].equalsIgnoreCase(value)) {
+                if (count == matches.length) matches = Arrays.copyOf(matches, count * 2);
+                matches[count++] = code;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    // Number of distinct strings
+    public synchronized int size() { return size; }
+
+    // Closes the backing file
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    // Adds a string seen for the first time; racing callers get the same code
+    private synchronized int add(String value) {
+        Integer code = codes.get(value);
+        if (code != null) return code;
+        if (journal != null) {
+            try {
+                journal.write(escape(value));
+                journal.newLine();
+                journal.flush();
+            } catch (IOException e) {
+                System.out.println("Error: could not save dictionary to " + file + "; new codes are kept in memory only. "
+                                   + e.getMessage());
+                journal = null;
+            }
+        }
+        return append(value);
+    }
+
+    private synchronized int append(String value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        codes.put(value, size); // Published after the array slot, so a code seen by a reader always decodes
+        return size++;
+    }
+
+    // Backslash, newline and carriage return are escaped so every string is one line
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String line) {
+        StringBuilder out = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                out.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
+
+// Kinds of change to a patient's records, as published to PatientEvents
+enum PatientChange {
+    READING,     // A vital reading was stored
+    ALERT,       // An alert episode opened, escalated or resolved
+    FEEDBACK,    // Feedback (possibly with a prescription) was added to the medical history
+    APPOINTMENT, // An appointment was requested, approved, cancelled or moved
+    REMOVED      // The patient's readings were removed (e.g., moved to another shard)
+}
+
+// Receives patient changes; called on the thread that made the change, after it is visible, so it must be quick
+interface PatientChangeListener {
+    void patientChanged(String patientId, PatientChange change);
+}
+
+// Tells components that keep views derived from a patient's records (e.g. the summary cache) that the records
+// changed. Each application has its own, shared by its stores, so applications in one JVM never see each other's
+// changes. With no listener, publishing is a check of an empty list.
+class PatientEvents {
+    private List<PatientChangeListener> listeners = new CopyOnWriteArrayList<>(); // Registered listeners
+
+    public void subscribe(PatientChangeListener listener) { listeners.add(listener); }
+    public void unsubscribe(PatientChangeListener listener) { listeners.remove(listener); }
+
+    // Notifies every listener of a change to one patient
+    public void publish(String patientId, PatientChange change) {
+        for (PatientChangeListener listener : listeners) {
+            listener.patientChanged(patientId, change);
+        }
+    }
+}
+
+// One patient's readings in arrival order. Appends for a patient may race with readers, which see a prefix of
+// the series; release() gives up the storage once the patient's readings are removed.
+interface VitalSeries {
+    // Adds a reading at the end; false if the series was already released
+    boolean append(VitalSign vital);
+
+    // Number of readings stored
+    int size();
+
+    // Cursor over the readings in arrival order; readings appended meanwhile may or may not be seen
+    Iterator<VitalSign> iterator();
+
+    // Gives up the series' storage; it reads as empty afterwards
+    default void release() {}
+}
+
+// Readings kept as objects on the heap
+class HeapVitalSeries implements VitalSeries {
+    private final Queue<VitalSign> readings = new ConcurrentLinkedQueue<>(); // Appended without locking
+    private final AtomicInteger count = new AtomicInteger(); // The queue's size() is a full scan
+    private volatile boolean released;
+
+    @Override
+    public boolean append(VitalSign vital) {
+        if (released) return false;
+        readings.add(vital);
+        count.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public int size() { return released ? 0 : count.get(); }
+
+    @Override
+    public Iterator<VitalSign> iterator() {
+        return released ? Collections.emptyIterator() : readings.iterator();
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        readings.clear();
+    }
+}
+
+// Off-heap memory for vital readings. Slabs of direct memory are allocated up front and cut into chunks of
+// 1 KB to 8 KB; chunks given back are kept on a free list per size and handed out again, so a long-running
+// server reuses the same slabs instead of allocating. The garbage collector sees a few slab objects however
+// many readings are stored. Once closed, the arena hands out no more chunks and drops its slabs; their memory
+// is returned to the system when the last buffer referring to them is collected.
+class VitalsArena implements Closeable {
+    static final int MIN_CHUNK_BYTES = 1024;       // Smallest chunk: a patient's first readings
+    static final int MAX_CHUNK_BYTES = 8 * 1024;   // Largest chunk: series grow by chunks of this size, so at
+                                                   // most this much is unused per patient
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_CHUNK_BYTES / MIN_CHUNK_BYTES) + 1;
+
+    private final int slabBytes;                // Size of each direct allocation
+    private final List<ByteBuffer> slabs = new ArrayList<>(); // Every slab allocated (guarded by this)
+    private final List<Deque<ByteBuffer>> free; // Returned chunks by size class (guarded by this)
+    private ByteBuffer slab;                    // Slab chunks are currently cut from
+    private int slabOffset;                     // First unused byte of the current slab
+    private long reservedBytes;                 // Direct memory held in slabs
+    private long usedBytes;                     // Bytes in chunks handed out and not yet returned
+    private boolean closed;
+
+    // Constructor to initialize an arena that allocates direct memory in slabs of the given size (a multiple of 8 KB)
+    public VitalsArena(int slabBytes) {
+        if (slabBytes < MAX_CHUNK_BYTES || slabBytes % MAX_CHUNK_BYTES != 0) {
+            throw new IllegalArgumentException("Slab size must be a positive multiple of " + MAX_CHUNK_BYTES + " bytes");
+        }
+        this.slabBytes = slabBytes;
+        free = new ArrayList<>(SIZE_CLASSES);
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            free.add(new ArrayDeque<>());
+        }
+    }
+
+    // A new or reused chunk of exactly the given size, a power of two from MIN_CHUNK_BYTES to MAX_CHUNK_BYTES
+    public synchronized ByteBuffer allocate(int bytes) {
+        if (closed) {
+            throw new IllegalStateException("Vitals arena is closed");
+        }
+        int sizeClass = sizeClass(bytes);
+        ByteBuffer chunk = free.get(sizeClass).pollFirst();
+        if (chunk == null) {
+            if (slab == null || slabBytes - slabOffset < bytes) {
+                retireSlab();
+                slab = ByteBuffer.allocateDirect(slabBytes);
+                slabs.add(slab);
+                slabOffset = 0;
+                reservedBytes += slabBytes;
+            }
+            chunk = slab.slice(slabOffset, bytes).order(ByteOrder.nativeOrder());
+            slabOffset += bytes;
+        }
+        usedBytes += bytes;
+        return chunk;
+    }
+
+    // Returns a chunk for reuse; chunks returned after close are dropped
+    public synchronized void free(ByteBuffer chunk) {
+        if (closed) return;
+        free.get(sizeClass(chunk.capacity())).addFirst(chunk);
+        usedBytes -= chunk.capacity();
+    }
+
+    public synchronized long getReservedBytes() { return reservedBytes; }
+    public synchronized long getUsedBytes() { return usedBytes; }
+    public synchronized boolean isClosed() { return closed; }
+
+    // Stops handing out chunks and drops the slabs
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        for (Deque<ByteBuffer> chunks : free) {
+            chunks.clear();
+        }
+        slabs.clear();
+        slab = null;
+        reservedBytes = 0;
+        usedBytes = 0;
+    }
+
+    // Cuts what is left of the current slab into free chunks, largest first, so no tail goes unused
+    private void retireSlab() {
+        if (slab == null) return;
+        for (int bytes = MAX_CHUNK_BYTES; bytes >= MIN_CHUNK_BYTES; bytes >>= 1) {
+            while (slabBytes - slabOffset >= bytes) {
+                free.get(sizeClass(bytes)).addLast(slab.slice(slabOffset, bytes).order(ByteOrder.nativeOrder()));
+                slabOffset += bytes;
+            }
+        }
+    }
+
+    private static int sizeClass(int bytes) {
+        if (bytes < MIN_CHUNK_BYTES || bytes > MAX_CHUNK_BYTES || Integer.bitCount(bytes) != 1) {
+            throw new IllegalArgumentException("Invalid chunk size: " + bytes);
+        }
+        return Integer.numberOfTrailingZeros(bytes / MIN_CHUNK_BYTES);
+    }
+}
+
+// Readings kept in arena chunks as fixed 32-byte records (heart rate, oxygen level, systolic, diastolic,
+// temperature), so the heap holds no object per reading. The first chunk holds 32 readings and each next one
+// twice as many, up to 256 per chunk. Blood pressure text that the parsed values would not reproduce (a
+// malformed reading, or a spelling such as 120.0/80) is kept on the side. Readers check every index against the
+// size and fail rather than read a chunk that was released and handed to another patient.
+class OffHeapVitalSeries implements VitalSeries {
+    static final int RECORD_BYTES = 32;
+    private static final int FIRST_CHUNK_RECORDS = VitalsArena.MIN_CHUNK_BYTES / RECORD_BYTES;
+    private static final int MAX_CHUNK_RECORDS = VitalsArena.MAX_CHUNK_BYTES / RECORD_BYTES;
+    private static final int GROWING_CHUNKS = Integer.numberOfTrailingZeros(MAX_CHUNK_RECORDS / FIRST_CHUNK_RECORDS);
+    private static final int GROWING_RECORDS = FIRST_CHUNK_RECORDS * ((1 << GROWING_CHUNKS) - 1); // Before fixed-size chunks
+
+    private final VitalsArena arena;
+    private final StampedLock lifecycle = new StampedLock(); // Write-locked by release(); readers validate against it
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0]; // Replaced by a longer copy when a chunk is added
+    private volatile int count;                // Readings written; published after the record's bytes
+    private volatile boolean released;
+    private volatile Map<Integer, String> pressureText; // Unusual blood pressure text by reading index, created on first use
+
+    // Constructor to initialize an empty series taking its chunks from the arena
+    public OffHeapVitalSeries(VitalsArena arena) {
+        this.arena = arena;
+    }
+
+    @Override
+    public synchronized boolean append(VitalSign vital) {
+        if (released) return false;
+        int index = count;
+        int chunk = chunkOf(index);
+        ByteBuffer[] current = chunks;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, chunk + 1);
+            current[chunk] = arena.allocate(chunkRecords(chunk) * RECORD_BYTES);
+            chunks = current;
+        }
+        ByteBuffer buffer = current[chunk];
+        int offset = slotOf(index, chunk) * RECORD_BYTES;
+        buffer.putInt(offset, vital.getHeartRate());
+        buffer.putInt(offset + 4, vital.getOxygenLevel());
+        buffer.putDouble(offset + 8, vital.getSystolic());
+        buffer.putDouble(offset + 16, vital.getDiastolic());
+        buffer.putDouble(offset + 24, vital.getTemperature());
+        String text = vital.getBloodPressure();
+        if (!VitalSign.formatBloodPressure(vital.getSystolic(), vital.getDiastolic()).equals(text)) {
+            if (pressureText == null) pressureText = new ConcurrentHashMap<>();
+            pressureText.put(index, text);
+        }
+        count = index + 1;
+        return true;
+    }
+
+    @Override
+    public int size() { return count; }
+
+    // Reading at an index, copied out of the arena
+    public VitalSign get(int index) {
+        long stamp = lifecycle.tryOptimisticRead();
+        int size = count;
+        if (released) {
+            throw new IllegalStateException("Readings were removed");
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Reading " + index + " of " + size);
+        }
+        int chunk = chunkOf(index);
+        ByteBuffer[] current = chunks;
+        if (chunk >= current.length) { // Released after the checks above
+            throw new IllegalStateException("Readings were removed while being read");
+        }
+        ByteBuffer buffer = current[chunk];
+        int offset = slotOf(index, chunk) * RECORD_BYTES;
+        int heartRate = buffer.getInt(offset);
+        int oxygenLevel = buffer.getInt(offset + 4);
+        double systolic = buffer.getDouble(offset + 8);
+        double diastolic = buffer.getDouble(offset + 16);
+        double temperature = buffer.getDouble(offset + 24);
+        if (!lifecycle.validate(stamp)) {
+            throw new IllegalStateException("Readings were removed while being read");
+        }
+        Map<Integer, String> texts = pressureText;
+        String text = texts == null ? null : texts.get(index);
+        return text == null ? new VitalSign(heartRate, oxygenLevel, systolic, diastolic, temperature)
+                            : new VitalSign(heartRate, oxygenLevel, text, temperature);
+    }
+
+    @Override
+    public Iterator<VitalSign> iterator() {
+        return new Iterator<VitalSign>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() { return next < count; }
+
+            @Override
+            public VitalSign next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+
+    // Returns the chunks to the arena; readers still walking the series fail instead of reading reused memory
+    @Override
+    public synchronized void release() {
+        if (released) return;
+        long stamp = lifecycle.writeLock();
+        try {
+            released = true;
+            for (ByteBuffer chunk : chunks) {
+                arena.free(chunk);
+            }
+            chunks = new ByteBuffer[0];
+            count = 0;
+            pressureText = null;
+        } finally {
+            lifecycle.unlockWrite(stamp);
+        }
+    }
+
+    // Chunk holding a reading index: growing chunks first, then fixed-size ones
+    private static int chunkOf(int index) {
+        if (index < GROWING_RECORDS) {
+            return 31 - Integer.numberOfLeadingZeros(index / FIRST_CHUNK_RECORDS + 1);
+        }
+        return GROWING_CHUNKS + (index - GROWING_RECORDS) / MAX_CHUNK_RECORDS;
+    }
+
+    private static int slotOf(int index, int chunk) {
+        if (chunk < GROWING_CHUNKS) {
+            return index - FIRST_CHUNK_RECORDS * ((1 << chunk) - 1);
+        }
+        return (index - GROWING_RECORDS) % MAX_CHUNK_RECORDS;
+    }
+
+    private static int chunkRecords(int chunk) {
+        return chunk < GROWING_CHUNKS ? FIRST_CHUNK_RECORDS << chunk : MAX_CHUNK_RECORDS;
+    }
+}
+
+// Class to manage a database of vital sign records, grouped by patient so one patient's readings are read
+// without walking everyone else's. Readings are kept on the heap, or off the heap in an arena when one is given.
+class VitalsDatabase implements Closeable {
+    private Map<Integer, VitalSeries> byPatient; // Readings of each patient (by ID code) in arrival order
+    private AtomicInteger recordCount;           // Number of stored records
+    private VitalsArena arena;                   // Off-heap storage for readings, or null to keep them on the heap
+    private PatientEvents events;                // Told of stored and removed readings
+
+    // Constructor to initialize a database keeping readings on the heap
+    public VitalsDatabase() {
+        this(null);
+    }
+
+    // Constructor to initialize a database keeping readings in the given arena (null for the heap)
+    public VitalsDatabase(VitalsArena arena) {
+        this(arena, new PatientEvents());
+    }
+
+    // Constructor to initialize a database publishing its changes to the given events
+    public VitalsDatabase(VitalsArena arena, PatientEvents events) {
+        byPatient = new ConcurrentHashMap<>();
+        recordCount = new AtomicInteger();
+        this.arena = arena;
+        this.events = events;
+    }
+
+    // Adds a vital sign record to the database
+    public void addVitalSign(String patientId, VitalSign vital) {
+        int code = StringDictionary.global().encode(patientId);
+        VitalSeries series = byPatient.computeIfAbsent(code,
+                k -> arena == null ? new HeapVitalSeries() : new OffHeapVitalSeries(arena));
+        if (series.append(vital)) { // False only if the patient was removed meanwhile
+            recordCount.incrementAndGet();
+            events.publish(patientId, PatientChange.READING);
+        }
+    }
+
+    // Number of stored readings
+    public int size() { return recordCount.get(); }
+
+    // Off-heap storage in use, or null when readings are on the heap
+    public VitalsArena getArena() { return arena; }
+
+    // Where changes to the stored readings are published
+    public PatientEvents getEvents() { return events; }
+
+    // Readings of one patient in arrival order (exact ID)
+    public List<VitalSign> getVitals(String patientId) {
+        List<VitalSign> vitals = new ArrayList<>();
+        for (VitalSign v : readings(patientId)) {
+            vitals.add(v);
+        }
+        return vitals;
+    }
+
+    // Cursor over one patient's readings in arrival order (exact ID); nothing is copied, and readings added
+    // while it is walked may or may not be seen
+    public Iterable<VitalSign> readings(String patientId) {
+        VitalSeries series = byPatient.get(StringDictionary.global().codeOf(patientId));
+        if (series == null) return Collections.emptyList();
+        return series::iterator;
+    }
+
+    // Removes every reading of one patient (exact ID); returns the number removed
+    public int removePatient(String patientId) {
+        VitalSeries series = byPatient.remove(StringDictionary.global().codeOf(patientId));
+        if (series == null) return 0;
+        int removed = series.size();
+        series.release();
+        recordCount.addAndGet(-removed);
+        events.publish(patientId, PatientChange.REMOVED);
+        return removed;
+    }
+
+    // Displays all vital signs for a given patient
+    public void displayPatientVitals(String patientId) {
+        boolean found = false;
+        System.out.println("Vitals for patient ID " + patientId + ":");
+        for (int code : StringDictionary.global().codesIgnoringCase(patientId)) { // Every spelling of the ID seen so far
+            VitalSeries series = byPatient.get(code);
+            if (series == null) continue;
+            for (Iterator<VitalSign> it = series.iterator(); it.hasNext(); ) {
+                it.next().displayVitals();
+                found = true;
+            }
+        }
+        if (!found) {
+            System.out.println("No vitals recorded for patient with ID " + patientId);
+        }
+    }
+
+    // Releases every series and closes the arena; the database is empty afterwards
+    @Override
+    public void close() {
+        for (Iterator<VitalSeries> it = byPatient.values().iterator(); it.hasNext(); ) {
+            it.next().release();
+            it.remove();
+        }
+        recordCount.set(0);
+        if (arena != null) {
+            arena.close();
+        }
+    }
+}
+
+// Clinical response levels for an aggregate early warning score
+enum EarlyWarningLevel {
+    NONE,       // Aggregate score of 0
+    LOW,        // Aggregate score of 1-4
+    LOW_MEDIUM, // A single vital scored 3 on its own
+    MEDIUM,     // Aggregate score of 5-6
+    HIGH        // Aggregate score of 7 or more
+}
+
+// NEWS2-style scoring table for the vitals captured by RPMS (no respiration rate or consciousness)
+class EarlyWarningScore {
+    // Scores a heart rate in beats per minute
+    public static int scoreHeartRate(int heartRate) {
+        if (heartRate <= 40) return 3;
+        if (heartRate <= 50) return 1;
+        if (heartRate <= 90) return 0;
+        if (heartRate <= 110) return 1;
+        if (heartRate <= 130) return 2;
+        return 3;
+    }
+
+    // Scores an oxygen saturation percentage
+    public static int scoreOxygenLevel(int oxygenLevel) {
+        if (oxygenLevel <= 91) return 3;
+        if (oxygenLevel <= 93) return 2;
+        if (oxygenLevel <= 95) return 1;
+        return 0;
+    }
+
+    // Scores a systolic blood pressure (NaN means the reading could not be parsed)
+    public static int scoreSystolic(double systolic) {
+        if (Double.isNaN(systolic) || systolic <= 90) return 3;
+        if (systolic <= 100) return 2;
+        if (systolic <= 110) return 1;
+        if (systolic < 220) return 0;
+        return 3;
+    }
+
+    // Scores a body temperature in Celsius
+    public static int scoreTemperature(double temperature) {
+        if (temperature <= 35.0) return 3;
+        if (temperature <= 36.0) return 1;
+        if (temperature <= 38.0) return 0;
+        if (temperature <= 39.0) return 1;
+        return 2;
+    }
+
+    // Maps an aggregate score and the highest single-vital score to a response level
+    public static EarlyWarningLevel levelFor(int total, int maxComponent) {
+        if (total >= 7) return EarlyWarningLevel.HIGH;
+        if (total >= 5) return EarlyWarningLevel.MEDIUM;
+        if (maxComponent >= 3) return EarlyWarningLevel.LOW_MEDIUM;
+        if (total >= 1) return EarlyWarningLevel.LOW;
+        return EarlyWarningLevel.NONE;
+    }
+}
+
+// Rolling per-vital baseline: a fast and a slow exponentially weighted mean plus the reading-to-reading noise
+class VitalBaseline {
+    private static final double FAST_ALPHA = 0.3;  // Weight of a new reading in the short-term mean
+    private static final double SLOW_ALPHA = 0.05; // Weight of a new reading in the long-term baseline
+    private final double minStdDev; // Noise floor so a very stable patient does not alert on tiny changes
+    private double fastMean;
+    private double slowMean;
+    private double noiseVariance;   // Variance of readings around the short-term mean (excludes slow trends)
+    private int count;
+
+    // Constructor to initialize a baseline with a noise floor in the vital's own unit
+    public VitalBaseline(double minStdDev) {
+        this.minStdDev = minStdDev;
+    }
+
+    // Folds a new reading into the baseline in constant time
+    public void update(double value) {
+        if (count == 0) {
+            fastMean = value;
+            slowMean = value;
+        } else {
+            double residual = value - fastMean;
+            noiseVariance += SLOW_ALPHA * (residual * residual - noiseVariance);
+            fastMean += FAST_ALPHA * residual;
+            slowMean += SLOW_ALPHA * (value - slowMean);
+        }
+        count++;
+    }
+
+    // Z-score of the short-term mean against the long-term baseline; a single outlier only moves it partly
+    public double drift() {
+        double stdDev = Math.max(Math.sqrt(noiseVariance), minStdDev);
+        return (fastMean - slowMean) / stdDev;
+    }
+
+    // Drift the baseline would show after update(value), leaving it unchanged
+    public double driftWith(double value) {
+        if (count == 0) return 0;
+        double residual = value - fastMean;
+        double variance = noiseVariance + SLOW_ALPHA * (residual * residual - noiseVariance);
+        double stdDev = Math.max(Math.sqrt(variance), minStdDev);
+        return (fastMean + FAST_ALPHA * residual - slowMean - SLOW_ALPHA * (value - slowMean)) / stdDev;
+    }
+
+    public int getCount() { return count; }
+}
+
+// Small per-patient state kept by the early warning engine
+class PatientWarningState {
+    private final VitalBaseline heartRate = new VitalBaseline(3.0);
+    private final VitalBaseline oxygenLevel = new VitalBaseline(0.5);
+    private final VitalBaseline systolic = new VitalBaseline(5.0);
+    private final VitalBaseline temperature = new VitalBaseline(0.1);
+    private double smoothedScore; // Exponentially weighted aggregate score
+    private int readings;         // Number of readings folded in so far
+
+    public VitalBaseline getHeartRate() { return heartRate; }
+    public VitalBaseline getOxygenLevel() { return oxygenLevel; }
+    public VitalBaseline getSystolic() { return systolic; }
+    public VitalBaseline getTemperature() { return temperature; }
+    public double getSmoothedScore() { return smoothedScore; }
+    public void setSmoothedScore(double smoothedScore) { this.smoothedScore = smoothedScore; }
+    public int getReadings() { return readings; }
+    public void incrementReadings() { readings++; }
+}
+
+// Outcome of evaluating one reading against the score table and the patient's baseline
+class EarlyWarningResult {
+    private final int score;              // Aggregate early warning score
+    private final EarlyWarningLevel level; // Response level for the score
+    private final double scoreRise;       // Score minus the patient's smoothed score before this reading
+    private final double drift;           // Largest baseline drift (z-score) across vitals
+    private final String driftVital;      // Vital with the largest drift
+    private final String reason;          // Why an alert is raised, or null if none
+
+    // Constructor to initialize an evaluation result
+    public EarlyWarningResult(int score, EarlyWarningLevel level, double scoreRise, double drift,
+                              String driftVital, String reason) {
+        this.score = score;
+        this.level = level;
+        this.scoreRise = scoreRise;
+        this.drift = drift;
+        this.driftVital = driftVital;
+        this.reason = reason;
+    }
+
+    // Getters for result attributes
+    public int getScore() { return score; }
+    public EarlyWarningLevel getLevel() { return level; }
+    public double getScoreRise() { return scoreRise; }
+    public double getDrift() { return drift; }
+    public String getDriftVital() { return driftVital; }
+    public String getReason() { return reason; }
+    public boolean isAlert() { return reason != null; }
+
+    // Short human-readable summary of the score
+    public String describe() {
+        return "Early warning score " + score + " (" + level + ")" + (reason != null ? ": " + reason : "");
+    }
+}
+
+// Streaming early warning engine: aggregate score plus per-patient rolling baselines, O(1) per reading
+class EarlyWarningEngine {
+    private static final int WARMUP_READINGS = 5;       // Readings before baseline drift is trusted
+    private static final double DRIFT_THRESHOLD = 2.0;  // Z-score that counts as a significant trend
+    private static final double RISE_THRESHOLD = 3.0;   // Score points above the smoothed score that count as rapid worsening
+    private static final double SCORE_ALPHA = 0.3;      // Weight of a new score in the smoothed score
+
+    private static final String[] VITAL_NAMES = {"heart rate", "oxygen level", "systolic pressure", "temperature"};
+
+    private Map<String, PatientWarningState> states; // Per-patient state keyed by the patient's canonical ID
+
+    // Constructor to initialize the engine
+    public EarlyWarningEngine() {
+        states = new ConcurrentHashMap<>();
+    }
+
+    // Scores a reading, updates the patient's baseline and decides whether to alert; readings of one
+    // patient are applied one at a time, readings of different patients run in parallel
+    public EarlyWarningResult evaluate(String patientId, VitalSign vital) {
+        PatientWarningState state = states.get(patientId);
+        if (state == null) {
+            state = states.computeIfAbsent(patientId, k -> new PatientWarningState());
+        }
+        synchronized (state) {
+            return evaluate(state, vital);
+        }
+    }
+
+    private EarlyWarningResult evaluate(PatientWarningState state, VitalSign vital) {
+        double systolic = vital.getSystolic();
+
+        int hrScore = EarlyWarningScore.scoreHeartRate(vital.getHeartRate());
+        int o2Score = EarlyWarningScore.scoreOxygenLevel(vital.getOxygenLevel());
+        int bpScore = EarlyWarningScore.scoreSystolic(systolic);
+        int tempScore = EarlyWarningScore.scoreTemperature(vital.getTemperature());
+        int score = hrScore + o2Score + bpScore + tempScore;
+        int maxComponent = Math.max(Math.max(hrScore, o2Score), Math.max(bpScore, tempScore));
+        EarlyWarningLevel level = EarlyWarningScore.levelFor(score, maxComponent);
+
+        // Update baselines first so a single reading contributes only a fraction of the short-term mean
+        state.getHeartRate().update(vital.getHeartRate());
+        state.getOxygenLevel().update(vital.getOxygenLevel());
+        if (!Double.isNaN(systolic)) {
+            state.getSystolic().update(systolic);
+        }
+        state.getTemperature().update(vital.getTemperature());
+
+        double drift = 0;
+        String driftVital = null;
+        if (state.getReadings() >= WARMUP_READINGS) {
+            for (int i = 0; i < VITAL_NAMES.length; i++) {
+                double candidate = baselineAt(state, i).drift();
+                if (Math.abs(candidate) > Math.abs(drift)) {
+                    drift = candidate;
+                    driftVital = VITAL_NAMES[i];
+                }
+            }
+        }
+
+        double scoreRise = state.getReadings() > 0 ? score - state.getSmoothedScore() : 0;
+        state.setSmoothedScore(state.getReadings() > 0
+                ? state.getSmoothedScore() + SCORE_ALPHA * (score - state.getSmoothedScore())
+                : score);
+        state.incrementReadings();
+
+        String reason = null;
+        if (level.compareTo(EarlyWarningLevel.LOW_MEDIUM) >= 0) {
+            reason = "score level " + level;
+        } else if (scoreRise >= RISE_THRESHOLD) {
+            reason = String.format("score rising quickly (+%.1f over recent average)", scoreRise);
+        } else if (Math.abs(drift) >= DRIFT_THRESHOLD) {
+            reason = String.format("%s trending %s baseline (z=%.1f)", driftVital, drift > 0 ? "above" : "below", drift);
+        }
+        return new EarlyWarningResult(score, level, scoreRise, drift, driftVital, reason);
+    }
+
+    // Whether evaluate would raise an alert for the reading (score level, rapid rise or baseline drift), without
+    // changing the patient's state; lets admission control tell such readings from routine ones
+    public boolean wouldAlert(String patientId, VitalSign vital) {
+        int hrScore = EarlyWarningScore.scoreHeartRate(vital.getHeartRate());
+        int o2Score = EarlyWarningScore.scoreOxygenLevel(vital.getOxygenLevel());
+        int bpScore = EarlyWarningScore.scoreSystolic(vital.getSystolic());
+        int tempScore = EarlyWarningScore.scoreTemperature(vital.getTemperature());
+        int score = hrScore + o2Score + bpScore + tempScore;
+        int maxComponent = Math.max(Math.max(hrScore, o2Score), Math.max(bpScore, tempScore));
+        if (EarlyWarningScore.levelFor(score, maxComponent).compareTo(EarlyWarningLevel.LOW_MEDIUM) >= 0) {
+            return true;
+        }
+        PatientWarningState state = states.get(patientId);
+        if (state == null) return false;
+        synchronized (state) {
+            if (state.getReadings() > 0 && score - state.getSmoothedScore() >= RISE_THRESHOLD) return true;
+            if (state.getReadings() < WARMUP_READINGS) return false;
+            double[] values = {vital.getHeartRate(), vital.getOxygenLevel(), vital.getSystolic(), vital.getTemperature()};
+            for (int i = 0; i < VITAL_NAMES.length; i++) {
+                VitalBaseline baseline = baselineAt(state, i);
+                double drift = Double.isNaN(values[i]) ? baseline.drift() : baseline.driftWith(values[i]);
+                if (Math.abs(drift) >= DRIFT_THRESHOLD) return true;
+            }
+        }
+        return false;
+    }
+
+    // Forgets a patient's baseline (e.g., after discharge or a move to another shard)
+    public void reset(String patientId) {
+        states.remove(patientId);
+    }
+
+    // Baseline for the vital at the given position in VITAL_NAMES
+    private static VitalBaseline baselineAt(PatientWarningState state, int index) {
+        switch (index) {
+            case 0: return state.getHeartRate();
+            case 1: return state.getOxygenLevel();
+            case 2: return state.getSystolic();
+            default: return state.getTemperature();
+        }
+    }
+}
+
+// Immutable list with cheap updates, for point-in-time snapshots that writers never have to lock against.
+// Elements sit in a 32-way trie plus a tail array of up to 32 elements; plus and with copy only the path to
+// the changed leaf (at most ceil(log32 n) small arrays), and every older version stays valid and unchanged.
+final class PersistentVector<E> extends AbstractList<E> implements RandomAccess {
+    private static final int BITS = 5;             // Index bits consumed per trie level
+    private static final int WIDTH = 1 << BITS;    // Children per node
+    private static final int MASK = WIDTH - 1;
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, new Object[0], new Object[0]);
+
+    private final int size;       // Number of elements
+    private final int shift;      // Index bits below the root level
+    private final Object[] root;  // Trie of full 32-element leaves
+    private final Object[] tail;  // Last elements, not yet pushed into the trie
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    // The empty vector
+    @SuppressWarnings("unchecked")
+    static <E> PersistentVector<E> empty() { return (PersistentVector<E>) EMPTY; }
+
+    // A vector of the elements, in order
+    static <E> PersistentVector<E> of(Iterable<? extends E> elements) {
+        PersistentVector<E> result = empty();
+        for (E e : elements) result = result.plus(e);
+        return result;
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        Objects.checkIndex(index, size);
+        return (E) leafFor(index)[index & MASK];
+    }
+
+    // A new vector with the element appended
+    PersistentVector<E> plus(E element) {
+        int inTail = size - tailOffset();
+        if (inTail < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, inTail + 1);
+            newTail[inTail] = element;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+        // The tail is full: it becomes a leaf of the trie, adding a level when the root is full too
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[] {root, newPath(shift, tail)};
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[] {element});
+    }
+
+    // A new vector with the element at index replaced
+    PersistentVector<E> with(int index, E element) {
+        Objects.checkIndex(index, size);
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = element;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, replace(shift, root, index, element), tail);
+    }
+
+    // A new vector without the elements matching the filter (rebuilt, so O(n))
+    PersistentVector<E> without(Predicate<? super E> filter) {
+        PersistentVector<E> result = empty();
+        for (E e : this) {
+            if (!filter.test(e)) result = result.plus(e);
+        }
+        return result.size == size ? this : result;
+    }
+
+    // Walks one leaf at a time instead of descending the trie for every element
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int index;
+            private Object[] leaf = size == 0 ? null : leafFor(0);
+
+            @Override
+            public boolean hasNext() { return index < size; }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (index >= size) throw new NoSuchElementException();
+                if ((index & MASK) == 0 && index > 0) leaf = leafFor(index);
+                return (E) leaf[index++ & MASK];
+            }
+        };
+    }
+
+    // Index of the first element held in the tail
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int index) {
+        if (index >= tailOffset()) return tail;
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] leaf) {
+        int child = ((size - 1) >>> level) & MASK;
+        Object[] copy = Arrays.copyOf(parent, Math.max(parent.length, child + 1));
+        if (level == BITS) {
+            copy[child] = leaf;
+        } else {
+            Object[] existing = child < parent.length ? (Object[]) parent[child] : null;
+            copy[child] = existing != null ? pushTail(level - BITS, existing, leaf) : newPath(level - BITS, leaf);
+        }
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] leaf) {
+        return level == 0 ? leaf : new Object[] {newPath(level - BITS, leaf)};
+    }
+
+    private static Object[] replace(int level, Object[] node, int index, Object element) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = element;
+        } else {
+            int child = (index >>> level) & MASK;
+            copy[child] = replace(level - BITS, (Object[]) node[child], index, element);
+        }
+        return copy;
+    }
+}
+
+// Class to represent an appointment between a doctor and a patient
+// Immutable: a status change creates a new Appointment, so snapshots keep the status they were taken with.
+class Appointment {
+    private final String appointmentDate; // Date of the appointment
+    private final Doctor doctor;         // Doctor for the appointment
+    private final Patient patient;       // Patient for the appointment
+    private final String status;         // Status of the appointment (Requested, Approved, Cancelled)
+
+    // Constructor to initialize an appointment
+    public Appointment(String appointmentDate, Doctor doctor, Patient patient, String status) {
+        this.appointmentDate = appointmentDate;
+        this.doctor = doctor;
+        this.patient = patient;
+        this.status = status;
+    }
+
+    // Getters for appointment attributes
+    public String getAppointmentDate() { return appointmentDate; }
+    public Doctor getDoctor() { return doctor; }
+    public Patient getPatient() { return patient; }
+    public String getStatus() { return status; }
+
+    // The same appointment with another status
+    public Appointment withStatus(String status) {
+        return new Appointment(appointmentDate, doctor, patient, status);
+    }
+
+    // Displays appointment details
+    public void displayAppointment() {
+        System.out.println("Appointment Date: " + appointmentDate + " | Doctor: " + doctor.getName() +
+                           " | Patient: " + patient.getName() + " | Status: " + status);
+    }
+}
+
+// Class to manage appointments. The list is a persistent vector published through a volatile field: writers
+// take the lock among themselves and publish a new version, while readers (listings, reminder runs, exports)
+// take the current version without locking and keep a consistent view however long they hold it. Only open and
+// upcoming appointments stay in the list: archive() moves cancelled and past ones to an AppointmentArchive,
+// so listings, index operations and reminder runs do not slow down as the years go by.
+class AppointmentManager {
+    private static final LatencyHistogram REQUEST_LATENCY = operationTimer("request");
+    private static final LatencyHistogram APPROVE_LATENCY = operationTimer("approve");
+    private static final LatencyHistogram CANCEL_LATENCY = operationTimer("cancel");
+    private static final LatencyHistogram ARCHIVE_LATENCY = operationTimer("archive");
+    private static final LongAdder ARCHIVED = MetricsRegistry.global().counter(
+            "rpms_appointments_archived_total", "Appointments moved from memory to the archive");
+
+    private volatile PersistentVector<Appointment> appointments; // Open and upcoming appointments, latest version
+    private AppointmentArchive archive;                          // Where cancelled and past ones go; null keeps them all
+    private PatientEvents events;                                // Told of every change to a patient's appointments
+
+    // Constructor to initialize the appointment manager without an archive
+    public AppointmentManager() {
+        this(null);
+    }
+
+    // Constructor to initialize the appointment manager with an archive for cancelled and past appointments
+    public AppointmentManager(AppointmentArchive archive) {
+        this(archive, new PatientEvents());
+    }
+
+    // Constructor to initialize the appointment manager publishing its changes to the given events
+    public AppointmentManager(AppointmentArchive archive, PatientEvents events) {
+        appointments = PersistentVector.empty();
+        this.archive = archive;
+        this.events = events;
+    }
+
+    // Requests a new appointment
+    public synchronized void requestAppointment(String date, Doctor doctor, Patient patient) {
+        long start = System.nanoTime();
+        appointments = appointments.plus(new Appointment(date, doctor, patient, "Requested"));
+        events.publish(patient.getId(), PatientChange.APPOINTMENT);
+        System.out.println("Appointment requested on " + date + " for patient " + patient.getName());
+        REQUEST_LATENCY.record(System.nanoTime() - start);
+    }
+
+    // Approves an appointment by index
+    public synchronized void approveAppointment(int index) {
+        long start = System.nanoTime();
+        PersistentVector<Appointment> current = appointments;
+        if (index >= 0 && index < current.size()) {
+            appointments = current.with(index, current.get(index).withStatus("Approved"));
+            events.publish(current.get(index).getPatient().getId(), PatientChange.APPOINTMENT);
+            System.out.println("Appointment approved.");
+        } else {
+            System.out.println("Invalid appointment index.");
+        }
+        APPROVE_LATENCY.record(System.nanoTime() - start);
+    }
+
+    // Cancels an appointment by index
+    public synchronized void cancelAppointment(int index) {
+        long start = System.nanoTime();
+        PersistentVector<Appointment> current = appointments;
+        if (index >= 0 && index < current.size()) {
+            appointments = current.with(index, current.get(index).withStatus("Cancelled"));
+            events.publish(current.get(index).getPatient().getId(), PatientChange.APPOINTMENT);
+            System.out.println("Appointment cancelled.");
+        } else {
+            System.out.println("Invalid appointment index.");
+        }
+        CANCEL_LATENCY.record(System.nanoTime() - start);
+    }
+
+    private static LatencyHistogram operationTimer(String operation) {
+        return MetricsRegistry.global().timer("rpms_appointment_operation_seconds",
+                                              "Latency of appointment operations", "operation", operation);
+    }
+
+    // Snapshot of all appointments in index order; unmodifiable and unaffected by later changes
+    public List<Appointment> getAppointments() { return appointments; }
+
+    // Appointment at the given index, or null if there is none
+    public Appointment getAppointment(int index) {
+        PersistentVector<Appointment> current = appointments;
+        return index >= 0 && index < current.size() ? current.get(index) : null;
+    }
+
+    // Number of appointments in memory
+    public int size() { return appointments.size(); }
+
+    // Archive of cancelled and past appointments, or null
+    public AppointmentArchive getArchive() { return archive; }
+
+    // Appointments to archive: cancelled ones, and ones dated more than keepDays before today (ISO dates;
+    // other dates are never taken for past)
+    public static Predicate<Appointment> archivable(LocalDate today, int keepDays) {
+        LocalDate cutoff = today.minusDays(keepDays);
+        return a -> {
+            if ("Cancelled".equals(a.getStatus())) return true;
+            try {
+                return LocalDate.parse(a.getAppointmentDate()).isBefore(cutoff);
+            } catch (DateTimeParseException | NullPointerException e) {
+                return false;
+            }
+        };
+    }
+
+    // Moves the matching appointments to the archive and returns how many moved; later appointments move down
+    // to fill the indexes. The segment is written while other writers wait, readers carry on undisturbed.
+    public synchronized int archive(Predicate<Appointment> due) throws IOException {
+        if (archive == null) return 0;
+        long start = System.nanoTime();
+        PersistentVector<Appointment> current = appointments;
+        Set<Appointment> leaving = new HashSet<>();
+        List<ArchivedAppointment> records = new ArrayList<>();
+        for (Appointment a : current) {
+            if (due.test(a)) {
+                leaving.add(a);
+                records.add(ArchivedAppointment.of(a));
+            }
+        }
+        if (!leaving.isEmpty()) {
+            archive.add(records);
+            appointments = current.without(leaving::contains); // No PatientEvents: only cancelled and past ones leave
+            ARCHIVED.add(leaving.size());
+        }
+        ARCHIVE_LATENCY.record(System.nanoTime() - start);
+        return leaving.size();
+    }
+
+    // Adds an appointment as it is (e.g., moved from another shard)
+    public synchronized void addAppointment(Appointment appointment) {
+        appointments = appointments.plus(appointment);
+        events.publish(appointment.getPatient().getId(), PatientChange.APPOINTMENT);
+    }
+
+    // Removes and returns the patient's appointments; later appointments move down to fill the indexes
+    public synchronized List<Appointment> removeAppointmentsOf(Patient patient) {
+        List<Appointment> removed = new ArrayList<>();
+        for (Appointment a : appointments) {
+            if (a.getPatient() == patient) removed.add(a);
+        }
+        if (!removed.isEmpty()) {
+            appointments = appointments.without(a -> a.getPatient() == patient);
+            events.publish(patient.getId(), PatientChange.APPOINTMENT);
+        }
+        return removed;
+    }
+
+    // Displays all appointments as of one snapshot, without holding up writers
+    public void displayAppointments() {
+        List<Appointment> snapshot = appointments;
+        if (snapshot.isEmpty()) {
+            System.out.println("No appointments scheduled.");
+        } else {
+            int i = 0;
+            for (Appointment a : snapshot) {
+                System.out.println("Index: " + i++);
+                a.displayAppointment();
+            }
+        }
+    }
+}
+
+// An appointment as kept in the archive, with user IDs instead of user objects
+class ArchivedAppointment {
+    private final String patientId;       // Patient's ID
+    private final String doctorId;        // Doctor's ID
+    private final String appointmentDate; // Date of the appointment
+    private final String status;          // Status when it was archived
+
+    // Constructor to initialize an archived appointment
+    public ArchivedAppointment(String patientId, String doctorId, String appointmentDate, String status) {
+        this.patientId = patientId;
+        this.doctorId = doctorId;
+        this.appointmentDate = appointmentDate;
+        this.status = status;
+    }
+
+    // The archived form of an appointment
+    public static ArchivedAppointment of(Appointment a) {
+        return new ArchivedAppointment(a.getPatient().getId(), a.getDoctor().getId(), a.getAppointmentDate(), a.getStatus());
+    }
+
+    // Getters for archived appointment attributes
+    public String getPatientId() { return patientId; }
+    public String getDoctorId() { return doctorId; }
+    public String getAppointmentDate() { return appointmentDate; }
+    public String getStatus() { return status; }
+}
+
+// Cancelled and past appointments moved out of memory into immutable segment files. Each archive run writes one
+// segment holding its appointments twice, sorted by patient and sorted by doctor (then date), each section
+// followed by an index of fixed-size entries (key hash, run offset, run length) sorted by hash. A lookup
+// binary-searches the index on disk and reads only that ID's run, so nothing but the segment list stays on
+// the heap. Once there are more than maxSegments segments they are merged into one in a streaming k-way merge.
+//
+// Segment layout: int magic "RPAS", byte version, long count; patient section; doctor section; patient index;
+// doctor index; trailer (long patient index offset, int entries, long doctor section offset, long doctor index
+// offset, int entries). A record is a byte (1 if the section key follows, 0 if it is the previous record's),
+// the key, the other user's ID and the date as UTF strings, and a status code (3 = the status string follows).
+class AppointmentArchive {
+    private static final int MAGIC = 0x52504153;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 1 + 8;
+    private static final int TRAILER_BYTES = 8 + 4 + 8 + 8 + 4;
+    private static final int INDEX_ENTRY_BYTES = 8 + 8 + 4;
+    private static final String[] STATUSES = {"Requested", "Approved", "Cancelled"};
+    private static final Comparator<ArchivedAppointment> BY_PATIENT = Comparator
+            .comparing(ArchivedAppointment::getPatientId).thenComparing(ArchivedAppointment::getAppointmentDate)
+            .thenComparing(ArchivedAppointment::getDoctorId).thenComparing(ArchivedAppointment::getStatus);
+    private static final Comparator<ArchivedAppointment> BY_DOCTOR = Comparator
+            .comparing(ArchivedAppointment::getDoctorId).thenComparing(ArchivedAppointment::getAppointmentDate)
+            .thenComparing(ArchivedAppointment::getPatientId).thenComparing(ArchivedAppointment::getStatus);
+
+    private Path directory;                  // Segment directory; a temporary one is created on first write when null
+    private int maxSegments;                 // Segments allowed before they are merged
+    private List<Path> segments;             // Segment files (changed under the write lock)
+    private long archived;                   // Appointments across all segments
+    private long nextSegment;                // Number of the next segment file
+    private ReentrantReadWriteLock lock;     // Lookups read the segments; merges replace them
+
+    // Constructor to open an archive, keeping segments already in the directory; a null directory uses a
+    // temporary one removed at exit
+    public AppointmentArchive(Path directory, int maxSegments) throws IOException {
+        if (maxSegments < 1) throw new IllegalArgumentException("The archive needs room for at least one segment.");
+        this.directory = directory;
+        this.maxSegments = maxSegments;
+        this.segments = new ArrayList<>();
+        this.lock = new ReentrantReadWriteLock();
+        if (directory != null && Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "appointments-*.seg")) {
+                for (Path file : files) segments.add(file);
+            }
+            segments.sort(Comparator.comparing(Path::toString));
+            for (Path file : segments) {
+                archived += readCount(file);
+                String name = file.getFileName().toString();
+                nextSegment = Math.max(nextSegment, Long.parseLong(name.substring(13, name.length() - 4)) + 1);
+            }
+        }
+    }
+
+    // Appointments in the archive
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return archived;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Segment files in the archive
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Writes the appointments as a new segment, merging the segments if there are now too many
+    public synchronized void add(List<ArchivedAppointment> appointments) throws IOException {
+        if (appointments.isEmpty()) return;
+        List<ArchivedAppointment> byPatient = new ArrayList<>(appointments);
+        byPatient.sort(BY_PATIENT);
+        List<ArchivedAppointment> byDoctor = new ArrayList<>(appointments);
+        byDoctor.sort(BY_DOCTOR);
+        Path file = newSegmentFile();
+        writeSegment(file, appointments.size(), byPatient.iterator(), byDoctor.iterator());
+        lock.writeLock().lock();
+        try {
+            segments.add(file);
+            archived += appointments.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (segments.size() > maxSegments) {
+            merge();
+        }
+    }
+
+    // Archived appointments of a patient, oldest date first
+    public List<ArchivedAppointment> findByPatient(String patientId) { return find(patientId, false); }
+
+    // Archived appointments with a doctor, oldest date first
+    public List<ArchivedAppointment> findByDoctor(String doctorId) { return find(doctorId, true); }
+
+    private List<ArchivedAppointment> find(String key, boolean byDoctor) {
+        List<ArchivedAppointment> found = new ArrayList<>();
+        long hash = keyHash(key);
+        lock.readLock().lock();
+        try {
+            for (Path segment : segments) {
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                    ByteBuffer trailer = readAt(channel, channel.size() - TRAILER_BYTES, TRAILER_BYTES);
+                    long indexOffset = byDoctor ? trailer.getLong(20) : trailer.getLong(0);
+                    int entries = byDoctor ? trailer.getInt(28) : trailer.getInt(8);
+                    int low = 0;
+                    int high = entries;
+                    while (low < high) {
+                        int mid = (low + high) >>> 1;
+                        if (readAt(channel, indexOffset + (long) mid * INDEX_ENTRY_BYTES, 8).getLong(0) < hash) {
+                            low = mid + 1;
+                        } else {
+                            high = mid;
+                        }
+                    }
+                    // Entries with the same hash may belong to other keys; the run's first record says which
+                    for (int i = low; i < entries; i++) {
+                        ByteBuffer entry = readAt(channel, indexOffset + (long) i * INDEX_ENTRY_BYTES, INDEX_ENTRY_BYTES);
+                        if (entry.getLong(0) != hash) break;
+                        SectionReader run = new SectionReader(channel, entry.getLong(8), entry.getInt(16), byDoctor);
+                        if (run.next() && key.equals(run.key)) {
+                            do {
+                                found.add(run.current);
+                            } while (run.next());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the appointment archive", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        found.sort(Comparator.comparing(ArchivedAppointment::getAppointmentDate));
+        return found;
+    }
+
+    // Replaces every segment with one holding all their appointments; lookups wait only for the swap
+    private void merge() throws IOException {
+        List<Path> merging = new ArrayList<>(segments);
+        long count = 0;
+        for (Path file : merging) count += readCount(file);
+        Path merged = newSegmentFile();
+        try (MergedSection byPatient = new MergedSection(merging, false);
+             MergedSection byDoctor = new MergedSection(merging, true)) {
+            writeSegment(merged, count, byPatient, byDoctor);
+        }
+        lock.writeLock().lock();
+        try {
+            segments.removeAll(merging);
+            segments.add(0, merged);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Path file : merging) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Writes both sections, their indexes and the trailer to a temporary file, then moves it into place
+    private static void writeSegment(Path file, long count, Iterator<ArchivedAppointment> byPatient,
+                                     Iterator<ArchivedAppointment> byDoctor) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (CountingOutputStream counter = new CountingOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024));
+             DataOutputStream out = new DataOutputStream(counter)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(count);
+            List<long[]> patientIndex = writeSection(out, counter, byPatient, false);
+            long doctorSection = counter.getCount();
+            List<long[]> doctorIndex = writeSection(out, counter, byDoctor, true);
+            long patientIndexOffset = counter.getCount();
+            writeIndex(out, patientIndex);
+            long doctorIndexOffset = counter.getCount();
+            writeIndex(out, doctorIndex);
+            out.writeLong(patientIndexOffset);
+            out.writeInt(patientIndex.size());
+            out.writeLong(doctorSection);
+            out.writeLong(doctorIndexOffset);
+            out.writeInt(doctorIndex.size());
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Writes sorted records and returns one {hash, offset, length} entry per key run
+    private static List<long[]> writeSection(DataOutputStream out, CountingOutputStream counter,
+                                             Iterator<ArchivedAppointment> records, boolean byDoctor) throws IOException {
+        List<long[]> index = new ArrayList<>();
+        String previousKey = null;
+        long[] run = null;
+        while (records.hasNext()) {
+            ArchivedAppointment a = records.next();
+            String key = byDoctor ? a.getDoctorId() : a.getPatientId();
+            boolean newKey = !key.equals(previousKey);
+            if (newKey) {
+                run = new long[] {keyHash(key), counter.getCount(), 0};
+                index.add(run);
+                previousKey = key;
+            }
+            out.writeByte(newKey ? 1 : 0);
+            if (newKey) out.writeUTF(key);
+            out.writeUTF(byDoctor ? a.getPatientId() : a.getDoctorId());
+            out.writeUTF(a.getAppointmentDate());
+            int status = Arrays.asList(STATUSES).indexOf(a.getStatus());
+            out.writeByte(status < 0 ? STATUSES.length : status);
+            if (status < 0) out.writeUTF(a.getStatus());
+            run[2]++;
+        }
+        return index;
+    }
+
+    private static void writeIndex(DataOutputStream out, List<long[]> index) throws IOException {
+        index.sort((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+        for (long[] entry : index) {
+            out.writeLong(entry[0]);
+            out.writeLong(entry[1]);
+            out.writeInt((int) entry[2]);
+        }
+    }
+
+    // Stable across JVMs, since it is stored in the segment indexes
+    private static long keyHash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return BloomFilter.mix(h);
+    }
+
+    private static long readCount(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readAt(channel, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+                throw new IOException("Not an appointment archive segment: " + file);
+            }
+            return header.getLong(5);
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Appointment archive segment is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private synchronized Path newSegmentFile() throws IOException {
+        if (directory == null) {
+            directory = Files.createTempDirectory("rpms-appointments");
+            Path created = directory;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteDirectory(created), "appointment-archive-cleanup"));
+        } else {
+            Files.createDirectories(directory);
+        }
+        return directory.resolve(String.format("appointments-%08d.seg", nextSegment++));
+    }
+
+    private static void deleteDirectory(Path dir) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            // Best effort; the temporary directory is left behind
+        }
+    }
+
+    // Reads the records of one key run or one whole section in order
+    private static class SectionReader {
+        private final DataInputStream in;
+        private final boolean byDoctor;
+        private long remaining;          // Records still to read
+        String key;                      // Section key of the current record
+        ArchivedAppointment current;     // Record read by the last successful next()
+
+        SectionReader(FileChannel channel, long offset, long count, boolean byDoctor) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(offset)), 8192));
+            this.remaining = count;
+            this.byDoctor = byDoctor;
+        }
+
+        // Reads the next record into current; false at the end
+        boolean next() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            if (in.readByte() == 1) key = in.readUTF();
+            String other = in.readUTF();
+            String date = in.readUTF();
+            int status = in.readByte();
+            String statusText = status < STATUSES.length ? STATUSES[status] : in.readUTF();
+            current = byDoctor ? new ArchivedAppointment(other, key, date, statusText)
+                               : new ArchivedAppointment(key, other, date, statusText);
+            return true;
+        }
+    }
+
+    // One section of several segments merged into a single sorted stream
+    private static class MergedSection implements Iterator<ArchivedAppointment>, Closeable {
+        private final List<FileChannel> channels = new ArrayList<>();
+        private final PriorityQueue<SectionReader> heads;
+
+        MergedSection(List<Path> files, boolean byDoctor) throws IOException {
+            Comparator<ArchivedAppointment> order = byDoctor ? BY_DOCTOR : BY_PATIENT;
+            heads = new PriorityQueue<>((x, y) -> order.compare(x.current, y.current));
+            try {
+                for (Path file : files) {
+                    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                    channels.add(channel);
+                    long count = readAt(channel, 0, HEADER_BYTES).getLong(5);
+                    long start = byDoctor ? readAt(channel, channel.size() - TRAILER_BYTES, TRAILER_BYTES).getLong(12)
+                                          : HEADER_BYTES;
+                    SectionReader reader = new SectionReader(channel, start, count, byDoctor);
+                    if (reader.next()) heads.add(reader);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() { return !heads.isEmpty(); }
+
+        @Override
+        public ArchivedAppointment next() {
+            SectionReader reader = heads.poll();
+            if (reader == null) throw new NoSuchElementException();
+            ArchivedAppointment a = reader.current;
+            try {
+                if (reader.next()) heads.add(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the appointment archive", e);
+            }
+            return a;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (FileChannel channel : channels) channel.close();
+        }
+    }
+
+    // Output stream that counts the bytes written through it, for section and index offsets
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() { return count; }
+    }
+}
+
+// Class to represent a prescription for a patient
+class Prescription {
+    private int medicationCode; // Dictionary code of the medication name
+    private int dosageCode;     // Dictionary code of the dosage instructions
+    private int scheduleCode;   // Dictionary code of the schedule for taking the medication
+    private Patient patient;    // Patient associated with the prescription
+
+    // Constructor to initialize a prescription
+    public Prescription(String medication, String dosage, String schedule, Patient patient) {
+        StringDictionary dictionary = StringDictionary.global();
+        this.medicationCode = dictionary.encode(medication);
+        this.dosageCode = dictionary.encode(dosage);
+        this.scheduleCode = dictionary.encode(schedule);
+        this.patient = patient;
+    }
+
+    // Getters for prescription attributes
+    public String getMedication() { return StringDictionary.global().decode(medicationCode); }
+    public String getDosage() { return StringDictionary.global().decode(dosageCode); }
+    public String getSchedule() { return StringDictionary.global().decode(scheduleCode); }
+    public int getMedicationCode() { return medicationCode; }
+    public Patient getPatient() { return patient; }
+
+    // Displays prescription details
+    public void displayPrescription() {
+        System.out.println("Medication: " + getMedication() + " | Dosage: " + getDosage() + " | Schedule: " + getSchedule());
+    }
+}
+
+// Patients by prescribed medication, keyed by dictionary code, for "all patients on drug X" lookups, plus every
+// prescription in a persistent vector so reminder runs read a snapshot instead of walking each medical history
+class MedicationIndex {
+    private Map<Integer, Set<Patient>> patientsByMedication; // Medication code to the patients prescribed it
+    private volatile PersistentVector<Prescription> prescriptions; // All prescriptions, latest version
+
+    // Constructor to initialize an empty index
+    public MedicationIndex() {
+        patientsByMedication = new ConcurrentHashMap<>();
+        prescriptions = PersistentVector.empty();
+    }
+
+    // Records a prescription
+    public void add(Prescription prescription) {
+        if (prescription.getPatient() == null) return;
+        synchronized (this) {
+            prescriptions = prescriptions.plus(prescription);
+        }
+        if (prescription.getMedicationCode() < 0) return;
+        patientsByMedication.computeIfAbsent(prescription.getMedicationCode(), code -> ConcurrentHashMap.newKeySet())
+                            .add(prescription.getPatient());
+    }
+
+    // Forgets a patient (e.g., after moving to another shard)
+    public void remove(Patient patient) {
+        for (Set<Patient> patients : patientsByMedication.values()) {
+            patients.remove(patient);
+        }
+        synchronized (this) {
+            prescriptions = prescriptions.without(p -> p.getPatient() == patient);
+        }
+    }
+
+    // Snapshot of all prescriptions in the order they were written; unaffected by later changes
+    public List<Prescription> getPrescriptions() { return prescriptions; }
+
+    // Patients ever prescribed the medication (name compared ignoring case)
+    public List<Patient> patientsOn(String medication) {
+        Set<Patient> result = new LinkedHashSet<>();
+        for (int code : StringDictionary.global().codesIgnoringCase(medication.trim())) {
+            Set<Patient> patients = patientsByMedication.get(code);
+            if (patients != null) result.addAll(patients);
+        }
+        return new ArrayList<>(result);
+    }
+}
+
+// Class to store feedback from a doctor, optionally with a prescription
+class Feedback {
+    private String feedbackText; // Text of the feedback
+    private Prescription prescription; // Associated prescription, if any
+
+    // Constructor to initialize feedback
+    public Feedback(String feedbackText, Prescription prescription) {
+        this.feedbackText = feedbackText;
+        this.prescription = prescription;
+    }
+
+    // Getters for feedback attributes
+    public String getFeedbackText() { return feedbackText; }
+    public Prescription getPrescription() { return prescription; }
+
+    // Displays feedback and associated prescription
+    public void displayFeedback() {
+        System.out.println("Feedback: " + feedbackText);
+        if (prescription != null) {
+            System.out.println("Prescription:");
+            prescription.displayPrescription();
+        }
+    }
+}
+
+// Where medical histories spill older feedback, and how much of it stays on the heap. A history keeps at most
+// two segments of its newest entries in memory and appends older segments to its own file; segments read
+// back from disk share one LRU cache, so heap use does not grow with history length.
+class HistoryStorage {
+    private static final LongAdder SEGMENTS_SPILLED = MetricsRegistry.global().counter(
+            "rpms_history_segments_spilled_total", "Medical history segments written to disk");
+    private static final LongAdder SEGMENTS_LOADED = MetricsRegistry.global().counter(
+            "rpms_history_segments_loaded_total", "Medical history segments read back from disk");
+    private static volatile HistoryStorage current = new HistoryStorage(null, 64, 256);
+
+    private Path directory;                   // Spill directory; a temporary one is created on first spill when null
+    private int segmentSize;                  // Feedback entries per segment
+    private int cachedSegments;               // Most segments kept in the cache
+    private LinkedHashMap<Long, List<Feedback>> cache; // Segments read back from disk, least recently used first
+    private AtomicLong nextFileId;            // Last history identifier handed out
+
+    // Constructor to initialize storage; a null directory uses a temporary one
+    public HistoryStorage(Path directory, int segmentSize, int cachedSegments) {
+        if (segmentSize < 1 || cachedSegments < 0) {
+            throw new IllegalArgumentException("Segment size must be positive and the cache size non-negative.");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.cachedSegments = cachedSegments;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+        this.nextFileId = new AtomicLong();
+    }
+
+    // Storage used by histories created from now on
+    public static HistoryStorage current() { return current; }
+    public static void configure(HistoryStorage storage) { current = storage; }
+
+    public int getSegmentSize() { return segmentSize; }
+
+    // Identifier for a history's file and its cached segments
+    long nextHistoryId() { return nextFileId.incrementAndGet(); }
+
+    // File of a history; the directory is created on first use
+    synchronized Path fileFor(String ownerId, long historyId) throws IOException {
+        if (directory == null) {
+            directory = Files.createTempDirectory("rpms-history");
+            Path created = directory;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteDirectory(created), "history-cleanup"));
+        } else {
+            Files.createDirectories(directory);
+        }
+        return directory.resolve(ownerId.replaceAll("[^A-Za-z0-9_-]", "_") + "-" + historyId + ".history");
+    }
+
+    // Cache key of one segment of one history
+    private static Long key(long historyId, int segment) {
+        return (historyId << 32) | segment;
+    }
+
+    // A cached segment, or null if it has to be read from disk
+    synchronized List<Feedback> cachedSegment(long historyId, int segment) {
+        return cache.get(key(historyId, segment));
+    }
+
+    // Caches a segment just read from disk, evicting the least recently used ones beyond the limit
+    synchronized void cacheSegment(long historyId, int segment, List<Feedback> entries) {
+        SEGMENTS_LOADED.increment();
+        if (cachedSegments == 0) return;
+        cache.put(key(historyId, segment), entries);
+        Iterator<List<Feedback>> eldest = cache.values().iterator();
+        while (cache.size() > cachedSegments) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    // Records a segment written to disk
+    void segmentSpilled() { SEGMENTS_SPILLED.increment(); }
+
+    private static void deleteDirectory(Path dir) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            // Best effort; the temporary directory is left behind
+        }
+    }
+}
+
+// One page of a medical history, newest entry first, with the cursor for the next (older) page
+class HistoryPage {
+    private List<Feedback> entries; // Entries on the page, newest first
+    private int nextCursor;         // Cursor for the next page, or -1 if this is the oldest page
+    private int total;              // Entries in the whole history
+
+    // Constructor to initialize a page
+    public HistoryPage(List<Feedback> entries, int nextCursor, int total) {
+        this.entries = entries;
+        this.nextCursor = nextCursor;
+        this.total = total;
+    }
+
+    // Getters for page attributes
+    public List<Feedback> getEntries() { return entries; }
+    public int getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return nextCursor >= 0; }
+    public int getTotal() { return total; }
+}
+
+// Class to manage a patient's medical history. Entries are numbered from 0 in the order they were added and
+// never change, so a position is a stable pagination cursor. Only the newest one to two segments stay in
+// memory; older segments are appended to a spill file and read back (through the shared cache) on demand.
+class MedicalHistory {
+    private Patient owner;             // Patient the history belongs to (restored into spilled prescriptions)
+    private HistoryStorage storage;    // Spill location, segment size and segment cache
+    private List<Feedback> recent;     // Entries not yet spilled, oldest first
+    private int spilledSegments;       // Segments written to the spill file
+    private long[] segmentOffsets;     // Start of each spilled segment in the file, plus the end of the last one
+    private long historyId;            // Identifier in the storage, assigned on first spill
+    private Path file;                 // Spill file, created on first spill
+    private boolean spillFailed;       // Set after a failed spill; the history then stays in memory
+
+    // Constructor to initialize medical history
+    public MedicalHistory(Patient owner) {
+        this.owner = owner;
+        this.storage = HistoryStorage.current();
+        this.recent = new ArrayList<>();
+        this.segmentOffsets = new long[8];
+    }
+
+    // Adds feedback to the medical history
+    public void addFeedback(Feedback feedback) {
+        synchronized (this) {
+            recent.add(feedback);
+            if (!spillFailed && recent.size() >= 2 * storage.getSegmentSize()) {
+                spillOldestSegment();
+            }
+        }
+    }
+
+    // Number of entries in the history
+    public synchronized int size() {
+        return spilledSegments * storage.getSegmentSize() + recent.size();
+    }
+
+    // Up to limit entries older than the cursor, newest first; start with cursor -1 for the newest page
+    public HistoryPage page(int cursor, int limit) {
+        int total = size();
+        int end = cursor < 0 || cursor > total ? total : cursor;
+        int start = Math.max(0, end - Math.max(limit, 0));
+        List<Feedback> entries = new ArrayList<>(end - start);
+        for (Feedback f : range(start, end, true)) {
+            entries.add(f);
+        }
+        return new HistoryPage(entries, start > 0 ? start : -1, total);
+    }
+
+    // All entries, newest first, loading spilled segments one at a time
+    public Iterable<Feedback> newestFirst() {
+        return range(0, size(), true);
+    }
+
+    // All entries in the order they were added, loading spilled segments one at a time
+    public Iterable<Feedback> oldestFirst() {
+        return range(0, size(), false);
+    }
+
+    // Displays all feedback in the medical history, newest first
+    public void displayHistory() {
+        if (size() == 0) {
+            System.out.println("No medical history available.");
+        } else {
+            for (Feedback f : newestFirst()) {
+                f.displayFeedback();
+            }
+        }
+    }
+
+    // Entries in [start, end), walked segment by segment in either direction
+    private Iterable<Feedback> range(int start, int end, boolean newestFirst) {
+        int segmentSize = storage.getSegmentSize();
+        return () -> new Iterator<Feedback>() {
+            private int next = newestFirst ? end - 1 : start; // Position of the next entry to return
+            private int loadedSegment = -1;
+            private List<Feedback> loaded;
+
+            @Override
+            public boolean hasNext() {
+                return newestFirst ? next >= start : next < end;
+            }
+
+            @Override
+            public Feedback next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int segment = next / segmentSize;
+                if (segment != loadedSegment) {
+                    loaded = segment(segment);
+                    loadedSegment = segment;
+                }
+                Feedback f = loaded.get(next % segmentSize);
+                next += newestFirst ? -1 : 1;
+                return f;
+            }
+        };
+    }
+
+    // Entries of one segment, from memory, the cache or the spill file
+    private synchronized List<Feedback> segment(int segment) {
+        int segmentSize = storage.getSegmentSize();
+        if (segment >= spilledSegments) {
+            int from = (segment - spilledSegments) * segmentSize;
+            return new ArrayList<>(recent.subList(from, Math.min(from + segmentSize, recent.size())));
+        }
+        List<Feedback> entries = storage.cachedSegment(historyId, segment);
+        if (entries == null) {
+            try {
+                entries = readSegment(segment);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read medical history of " + owner.getId(), e);
+            }
+            storage.cacheSegment(historyId, segment, entries);
+        }
+        return entries;
+    }
+
+    // Appends the oldest in-memory segment to the spill file and drops it from memory
+    private void spillOldestSegment() {
+        int segmentSize = storage.getSegmentSize();
+        try {
+            if (file == null) {
+                historyId = storage.nextHistoryId();
+                file = storage.fileFor(owner.getId(), historyId);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (Feedback f : recent.subList(0, segmentSize)) {
+                writeFeedback(out, f);
+            }
+            StandardOpenOption[] options = spilledSegments == 0
+                    ? new StandardOpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING}
+                    : new StandardOpenOption[] {StandardOpenOption.WRITE, StandardOpenOption.APPEND};
+            try (FileChannel channel = FileChannel.open(file, options)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            if (spilledSegments + 1 >= segmentOffsets.length) {
+                segmentOffsets = Arrays.copyOf(segmentOffsets, segmentOffsets.length * 2);
+            }
+            segmentOffsets[spilledSegments + 1] = segmentOffsets[spilledSegments] + bytes.size();
+            spilledSegments++;
+            recent.subList(0, segmentSize).clear();
+            storage.segmentSpilled();
+        } catch (IOException e) {
+            spillFailed = true;
+            System.out.println("Error: could not spill medical history of " + owner.getId() + " to disk; keeping it in memory. "
+                               + e.getMessage());
+        }
+    }
+
+    // Reads one spilled segment back from the file
+    private List<Feedback> readSegment(int segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (segmentOffsets[segment + 1] - segmentOffsets[segment]));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = segmentOffsets[segment];
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) throw new IOException("Medical history file is truncated: " + file);
+                position += read;
+            }
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+        List<Feedback> entries = new ArrayList<>(storage.getSegmentSize());
+        for (int i = 0; i < storage.getSegmentSize(); i++) {
+            entries.add(readFeedback(in));
+        }
+        return entries;
+    }
+
+    // Record layout: feedback text, then a flag and the dictionary codes of the prescription fields if there is one
+    private static void writeFeedback(DataOutputStream out, Feedback f) throws IOException {
+        writeString(out, f.getFeedbackText());
+        Prescription p = f.getPrescription();
+        out.writeBoolean(p != null);
+        if (p != null) {
+            StringDictionary dictionary = StringDictionary.global();
+            out.writeInt(dictionary.encode(p.getMedication()));
+            out.writeInt(dictionary.encode(p.getDosage()));
+            out.writeInt(dictionary.encode(p.getSchedule()));
+        }
+    }
+
+    private Feedback readFeedback(DataInputStream in) throws IOException {
+        String text = readString(in);
+        Prescription prescription = null;
+        if (in.readBoolean()) {
+            StringDictionary dictionary = StringDictionary.global();
+            prescription = new Prescription(dictionary.decode(in.readInt()), dictionary.decode(in.readInt()),
+                                            dictionary.decode(in.readInt()), owner);
+        }
+        return new Feedback(text, prescription);
+    }
+
+    // Strings are written as a byte length and UTF-8 bytes; -1 stands for null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Kinds of text held by the search index
+enum DocumentKind {
+    FEEDBACK,     // A doctor's feedback text
+    PRESCRIPTION, // Medication, dosage and schedule of a prescription
+    CHAT          // One chat message
+}
+
+// One search hit: the document's kind, the patient and doctor it belongs to, and its text
+class SearchHit {
+    private int documentId;     // Position in the index; higher is newer
+    private DocumentKind kind;  // What the text is
+    private String patientId;   // Patient the text concerns, or null
+    private String doctorId;    // Doctor who wrote or took part in it, or null
+    private String text;        // The indexed text
+
+    // Constructor to initialize a hit
+    public SearchHit(int documentId, DocumentKind kind, String patientId, String doctorId, String text) {
+        this.documentId = documentId;
+        this.kind = kind;
+        this.patientId = patientId;
+        this.doctorId = doctorId;
+        this.text = text;
+    }
+
+    // Getters for hit attributes
+    public int getDocumentId() { return documentId; }
+    public DocumentKind getKind() { return kind; }
+    public String getPatientId() { return patientId; }
+    public String getDoctorId() { return doctorId; }
+    public String getText() { return text; }
+}
+
+// Incrementally updated full-text index over feedback, prescriptions and chat messages. Each term has a posting
+// list of (document, positions) entries, delta- and varint-encoded into one growing byte array; terms are kept
+// sorted so a prefix query is a range of the term map. Every document is also posted under hidden scope terms
+// for its patient and doctor, so a scoped query is one more intersection rather than a filter over all hits.
+// Queries: words are ANDed, "quoted words" must be adjacent, and word* matches every word starting with word.
+// Newest documents are returned first.
+class TextIndex {
+    private static final LatencyHistogram QUERY_LATENCY = MetricsRegistry.global().timer(
+            "rpms_search_query_seconds", "Time to answer a full-text search");
+    private static final char SCOPE_MARK = '\u0001'; // Starts the hidden scope terms, which no token can contain
+
+    private TreeMap<String, PostingList> terms; // Posting list per term, in term order for prefix ranges
+    private byte[] kinds;                       // Kind ordinal per document
+    private int[] patientCodes;                 // Dictionary code of each document's patient ID, -1 if none
+    private int[] doctorCodes;                  // Dictionary code of each document's doctor ID, -1 if none
+    private List<byte[]> texts;                 // UTF-8 text per document
+    private BitSet deleted;                     // Documents removed from the index
+    private int documentCount;                  // Documents added so far
+    private ReentrantReadWriteLock lock;        // One writer at a time; queries run in parallel
+
+    // Postings of one term: for each document, varint(document delta), varint(count), varint(position deltas)
+    private static class PostingList {
+        private byte[] data = new byte[8];
+        private int length;
+        private int lastDocument = -1;
+        private int documents;
+
+        void add(int document, int[] positions, int count) {
+            writeVarint(document - lastDocument);
+            writeVarint(count);
+            int last = 0;
+            for (int i = 0; i < count; i++) {
+                writeVarint(positions[i] - last);
+                last = positions[i];
+            }
+            lastDocument = document;
+            documents++;
+        }
+
+        private void writeVarint(int value) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        // Documents in increasing order; with positions, also the offsets into the position array
+        Decoded decode(boolean withPositions) {
+            Decoded d = new Decoded(documents, withPositions);
+            int[] cursor = {0};
+            int document = -1;
+            int positionCount = 0;
+            for (int i = 0; i < documents; i++) {
+                document += readVarint(cursor);
+                d.documents[i] = document;
+                int count = readVarint(cursor);
+                if (withPositions) {
+                    d.offsets[i] = positionCount;
+                    if (d.positions.length < positionCount + count) {
+                        d.positions = Arrays.copyOf(d.positions, Math.max(d.positions.length * 2, positionCount + count));
+                    }
+                    int position = 0;
+                    for (int p = 0; p < count; p++) {
+                        position += readVarint(cursor);
+                        d.positions[positionCount++] = position;
+                    }
+                } else {
+                    for (int p = 0; p < count; p++) {
+                        readVarint(cursor);
+                    }
+                }
+            }
+            if (withPositions) d.offsets[documents] = positionCount;
+            return d;
+        }
+
+        private int readVarint(int[] cursor) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[cursor[0]++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    // A decoded posting list
+    private static class Decoded {
+        int[] documents;
+        int[] offsets;   // Start of each document's positions; one extra entry marks the end
+        int[] positions;
+
+        Decoded(int count, boolean withPositions) {
+            documents = new int[count];
+            if (withPositions) {
+                offsets = new int[count + 1];
+                positions = new int[Math.max(16, count)];
+            }
+        }
+
+        // Positions of the document at index i
+        boolean hasPosition(int i, int position) {
+            for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+                if (positions[p] == position) return true;
+            }
+            return false;
+        }
+    }
+
+    // Constructor to initialize an empty index
+    public TextIndex() {
+        terms = new TreeMap<>();
+        kinds = new byte[1024];
+        patientCodes = new int[1024];
+        doctorCodes = new int[1024];
+        texts = new ArrayList<>();
+        deleted = new BitSet();
+        lock = new ReentrantReadWriteLock();
+    }
+
+    // Indexes a doctor's feedback and its prescription, if any
+    public void addFeedback(Doctor doctor, Patient patient, Feedback feedback) {
+        String doctorId = doctor != null ? doctor.getId() : null;
+        String patientId = patient != null ? patient.getId() : null;
+        add(DocumentKind.FEEDBACK, patientId, doctorId, feedback.getFeedbackText());
+        Prescription p = feedback.getPrescription();
+        if (p != null) {
+            add(DocumentKind.PRESCRIPTION, patientId, doctorId, p.getMedication() + " " + p.getDosage() + " " + p.getSchedule());
+        }
+    }
+
+    // Adds one document; returns its ID
+    public int add(DocumentKind kind, String patientId, String doctorId, String text) {
+        if (text == null) text = "";
+        List<String> tokens = tokenize(text);
+        Map<String, int[]> positions = new HashMap<>(); // Term to {count, positions...}
+        for (int i = 0; i < tokens.size(); i++) {
+            int[] entry = positions.get(tokens.get(i));
+            if (entry == null) {
+                entry = new int[4];
+            } else if (entry[0] + 1 == entry.length) {
+                entry = Arrays.copyOf(entry, entry.length * 2);
+            }
+            entry[++entry[0]] = i;
+            positions.put(tokens.get(i), entry);
+        }
+        StringDictionary dictionary = StringDictionary.global();
+        lock.writeLock().lock();
+        try {
+            int document = documentCount++;
+            if (document == kinds.length) {
+                kinds = Arrays.copyOf(kinds, document * 2);
+                patientCodes = Arrays.copyOf(patientCodes, document * 2);
+                doctorCodes = Arrays.copyOf(doctorCodes, document * 2);
+            }
+            kinds[document] = (byte) kind.ordinal();
+            patientCodes[document] = dictionary.encode(patientId);
+            doctorCodes[document] = dictionary.encode(doctorId);
+            texts.add(text.getBytes(StandardCharsets.UTF_8));
+            for (Map.Entry<String, int[]> e : positions.entrySet()) {
+                int[] entry = e.getValue();
+                terms.computeIfAbsent(e.getKey(), t -> new PostingList())
+                     .add(document, Arrays.copyOfRange(entry, 1, entry[0] + 1), entry[0]);
+            }
+            int[] none = new int[0];
+            if (patientId != null) terms.computeIfAbsent(patientScope(patientId), t -> new PostingList()).add(document, none, 0);
+            if (doctorId != null) terms.computeIfAbsent(doctorScope(doctorId), t -> new PostingList()).add(document, none, 0);
+            return document;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes every document of a patient (e.g., after the patient moved to another shard)
+    public void removePatient(String patientId) {
+        lock.writeLock().lock();
+        try {
+            PostingList scope = terms.get(patientScope(patientId));
+            if (scope == null) return;
+            for (int document : scope.decode(false).documents) {
+                deleted.set(document);
+                texts.set(document, new byte[0]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Newest documents matching the query, limited to a patient and/or doctor when their IDs are given
+    public List<SearchHit> search(String query, String patientId, String doctorId, int limit) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            List<int[]> clauses = new ArrayList<>();
+            if (patientId != null) clauses.add(documentsOf(patientScope(patientId)));
+            if (doctorId != null) clauses.add(documentsOf(doctorScope(doctorId)));
+            boolean hasText = false;
+            for (String clause : parseClauses(query)) {
+                if (clause.startsWith("\"")) {
+                    List<String> words = tokenize(clause);
+                    if (words.isEmpty()) continue;
+                    clauses.add(words.size() == 1 ? documentsOf(words.get(0)) : phrase(words));
+                } else if (clause.endsWith("*")) {
+                    List<String> stem = tokenize(clause.substring(0, clause.length() - 1));
+                    if (stem.size() != 1) continue;
+                    clauses.add(prefix(stem.get(0)));
+                } else {
+                    for (String word : tokenize(clause)) {
+                        clauses.add(documentsOf(word));
+                    }
+                }
+                hasText = true;
+            }
+            List<SearchHit> hits = new ArrayList<>();
+            if (!hasText) return hits;
+            clauses.sort(Comparator.comparingInt(c -> c.length));
+            int[] candidates = clauses.get(0);
+            StringDictionary dictionary = StringDictionary.global();
+            for (int i = candidates.length - 1; i >= 0 && hits.size() < limit; i--) {
+                int document = candidates[i];
+                if (deleted.get(document) || !inAll(clauses, document)) continue;
+                hits.add(new SearchHit(document, DocumentKind.values()[kinds[document]],
+                                       dictionary.decode(patientCodes[document]), dictionary.decode(doctorCodes[document]),
+                                       new String(texts.get(document), StandardCharsets.UTF_8)));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+            QUERY_LATENCY.record(System.nanoTime() - start);
+        }
+    }
+
+    // Documents in the index, including removed ones
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Lower-cased runs of letters and digits
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Splits a query into quoted phrases (kept with their opening quote) and single words
+    private static List<String> parseClauses(String query) {
+        List<String> clauses = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) end = query.length();
+                clauses.add(query.substring(i, end));
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '"') end++;
+                clauses.add(query.substring(i, end));
+                i = end;
+            }
+        }
+        return clauses;
+    }
+
+    private int[] documentsOf(String term) {
+        PostingList postings = terms.get(term);
+        return postings == null ? new int[0] : postings.decode(false).documents;
+    }
+
+    // Union of the documents of every term starting with the stem
+    private int[] prefix(String stem) {
+        BitSet union = new BitSet(documentCount);
+        for (PostingList postings : terms.subMap(stem, true, stem + Character.MAX_VALUE, false).values()) {
+            for (int document : postings.decode(false).documents) {
+                union.set(document);
+            }
+        }
+        return union.stream().toArray();
+    }
+
+    // Documents where the words appear one after another
+    private int[] phrase(List<String> words) {
+        Decoded[] lists = new Decoded[words.size()];
+        for (int w = 0; w < lists.length; w++) {
+            PostingList postings = terms.get(words.get(w));
+            if (postings == null) return new int[0];
+            lists[w] = postings.decode(true);
+        }
+        int[] matches = new int[lists[0].documents.length];
+        int count = 0;
+        for (int i = 0; i < lists[0].documents.length; i++) {
+            int document = lists[0].documents[i];
+            int[] at = new int[lists.length];
+            boolean inAll = true;
+            for (int w = 1; w < lists.length && inAll; w++) {
+                at[w] = Arrays.binarySearch(lists[w].documents, document);
+                inAll = at[w] >= 0;
+            }
+            if (!inAll) continue;
+            for (int p = lists[0].offsets[i]; p < lists[0].offsets[i + 1]; p++) {
+                int start = lists[0].positions[p];
+                boolean adjacent = true;
+                for (int w = 1; w < lists.length && adjacent; w++) {
+                    adjacent = lists[w].hasPosition(at[w], start + w);
+                }
+                if (adjacent) {
+                    matches[count++] = document;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private static boolean inAll(List<int[]> clauses, int document) {
+        for (int i = 1; i < clauses.size(); i++) {
+            if (Arrays.binarySearch(clauses.get(i), document) < 0) return false;
+        }
+        return true;
+    }
+
+    private static String patientScope(String patientId) {
+        return SCOPE_MARK + "patient:" + patientId.toLowerCase(Locale.ROOT);
+    }
+
+    private static String doctorScope(String doctorId) {
+        return SCOPE_MARK + "doctor:" + doctorId.toLowerCase(Locale.ROOT);
+    }
+}
+
+// Interface for sending notifications (e.g., email, SMS)
+interface Notifiable {
+    void sendNotification(String message, String recipient) throws NotificationException;
+}
+
+// Class to send email notifications using Jakarta Mail
+class EmailNotification implements Notifiable {
+    private String smtpHost = "smtp.gmail.com"; // SMTP server host (Gmail)
+    private String smtpPort = "587";            // SMTP server port
+    private String username;                    // SMTP username (email address)
+    private String password;                    // SMTP password (or app-specific password)
+
+    // Constructor to initialize email notification with credentials
+    public EmailNotification(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    // Sends a notification email to the recipient
+    @Override
+    public void sendNotification(String message, String recipient) throws NotificationException {
+        if (recipient == null || recipient.isEmpty()) {
+            throw new NotificationException("Invalid recipient for email.");
+        }
+        if (username == null || password == null) {
+            throw new NotificationException("SMTP username or password not provided.");
+        }
+        sendEmail(message, recipient, username, password);
+    }
+
+    // Configures and sends the email using Jakarta Mail
+    private void sendEmail(String message, String recipient, String username, String password) throws NotificationException {
+        Properties properties = new Properties();
+        properties.put("mail.smtp.host", smtpHost);
+        properties.put("mail.smtp.port", smtpPort);
+        properties.put("mail.smtp.auth", "true");
+        properties.put("mail.smtp.starttls.enable", "true");
+        properties.put("mail.smtp.connectiontimeout", "10000"); // Do not hang forever on a dead server
+        properties.put("mail.smtp.timeout", "10000");
+
+        // Create a session with authentication
+        Session session = Session.getInstance(properties, new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication(username, password);
+            }
+        });
+
+        try {
+            // Create and send the email message
+            MimeMessage mimeMessage = new MimeMessage(session);
+            mimeMessage.setFrom(new InternetAddress(username));
+            mimeMessage.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
+            mimeMessage.setSubject("RPMS Notification");
+            mimeMessage.setText(message);
+            Transport.send(mimeMessage);
+            System.out.println("Real email sent to " + recipient + ": " + message);
+        } catch (MessagingException e) {
+            throw new NotificationException("Error sending email: " + e.getMessage());
+        }
+    }
+}
+
+// Class to send SMS notifications (simulated by console output)
+class SMSNotification implements Notifiable {
+    // Sends an SMS notification to the recipient
+    @Override
+    public void sendNotification(String message, String recipient) throws NotificationException {
+        if (recipient == null || recipient.isEmpty()) {
+            throw new NotificationException("Invalid recipient for SMS.");
+        }
+        System.out.println("SMS sent to " + recipient + ": " + message);
+    }
+}
+
+// States of a channel's circuit breaker
+enum CircuitState {
+    CLOSED,    // Requests flow normally
+    OPEN,      // Requests fail fast until the cool-down has elapsed
+    HALF_OPEN  // A single trial request decides whether to close again
+}
+
+// Circuit breaker that opens after consecutive failures and retries with one trial request after a cool-down
+class CircuitBreaker {
+    private int failureThreshold;    // Consecutive failures that open the circuit
+    private long openMillis;         // Cool-down before a trial request is allowed
+    private CircuitState state;      // Current state
+    private int consecutiveFailures; // Failures since the last success
+    private long openedAt;           // Time the circuit last opened (epoch millis)
+    private boolean trialInFlight;   // True while the half-open trial request is running
+
+    // Constructor to initialize a closed circuit breaker
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.state = CircuitState.CLOSED;
+    }
+
+    // Returns true if a request may proceed now
+    public synchronized boolean allowRequest(long now) {
+        if (state == CircuitState.OPEN && now - openedAt >= openMillis) {
+            state = CircuitState.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == CircuitState.CLOSED) return true;
+        if (state == CircuitState.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+    // Records a successful request and closes the circuit
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = CircuitState.CLOSED;
+    }
+
+    // Records a failed request, opening the circuit if the threshold is reached or the trial failed
+    public synchronized void recordFailure(long now) {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == CircuitState.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = CircuitState.OPEN;
+            openedAt = now;
+        }
+    }
+
+    public synchronized CircuitState getState() { return state; }
+}
+
+// Lock-free log-linear latency histogram (HDR-style): exact below 16, then 16 sub-buckets per power of two,
+// so any recorded value is reported within about 6%
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private AtomicLongArray counts; // Recorded values per bucket
+    private LongAdder total;        // Number of recorded values
+    private LongAdder sum;          // Sum of recorded values
+    private AtomicLong max;         // Largest recorded value
+
+    // Constructor to initialize an empty histogram
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKET_COUNT);
+        total = new LongAdder();
+        sum = new LongAdder();
+        max = new AtomicLong();
+    }
+
+    // Records one value (e.g., a latency in nanoseconds); negative values count as zero
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(indexFor(v));
+        total.increment();
+        sum.add(v);
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    // Getters for summary statistics
+    public long getCount() { return total.sum(); }
+    public long getMax() { return max.get(); }
+    public long getSum() { return sum.sum(); }
+    public double getMean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // Value at or below which the given percentage of recorded values fall (upper bound of its bucket)
+    public long valueAtPercentile(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Calls the visitor with (bucket upper bound, count) for every non-empty bucket, in increasing order
+    public void forEachBucket(BiConsumer<Long, Long> visitor) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = counts.get(i);
+            if (c > 0) {
+                visitor.accept(upperBoundOf(i), c);
+            }
+        }
+    }
+
+    private static int indexFor(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((magnitude - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int magnitude = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        int sub = index & (SUB_BUCKETS - 1);
+        long lower = (long) (SUB_BUCKETS | sub) << (magnitude - SUB_BUCKET_BITS);
+        return lower + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
+
+// Process-wide registry of named counters, latency timers and gauges. Recording only touches LongAdders and
+// the lock-free histograms; the map lookups happen once, when an instrumented class resolves its metrics.
+class MetricsRegistry {
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999}; // Quantiles exported for every timer
+
+    private Map<String, LongAdder> counters;       // Counters keyed by series (name plus labels)
+    private Map<String, LatencyHistogram> timers;  // Latency histograms in nanoseconds, keyed by series
+    private Map<String, DoubleSupplier> gauges;    // Values sampled when read, keyed by series
+    private Map<String, String> help;              // Description per metric name
+
+    // Constructor to initialize an empty registry
+    public MetricsRegistry() {
+        counters = new ConcurrentHashMap<>();
+        timers = new ConcurrentHashMap<>();
+        gauges = new ConcurrentHashMap<>();
+        help = new ConcurrentHashMap<>();
+    }
+
+    // Registry shared by the application and its instrumented classes
+    public static MetricsRegistry global() { return GLOBAL; }
+
+    // Counter for the series, created on first use; labels are given as name/value pairs
+    public LongAdder counter(String name, String description, String... labels) {
+        help.putIfAbsent(name, description);
+        return counters.computeIfAbsent(seriesOf(name, labels), k -> new LongAdder());
+    }
+
+    // Latency timer (nanoseconds) for the series, created on first use
+    public LatencyHistogram timer(String name, String description, String... labels) {
+        help.putIfAbsent(name, description);
+        return timers.computeIfAbsent(seriesOf(name, labels), k -> new LatencyHistogram());
+    }
+
+    // Registers (or replaces) a gauge sampled each time metrics are read
+    public void gauge(String name, String description, DoubleSupplier value, String... labels) {
+        help.putIfAbsent(name, description);
+        gauges.put(seriesOf(name, labels), value);
+    }
+
+    // Removes a gauge if it is still the one registered for the series, so an owner shutting down neither
+    // stays reachable through it nor removes the gauge of an instance that replaced it
+    public void removeGauge(String name, DoubleSupplier value, String... labels) {
+        gauges.remove(seriesOf(name, labels), value);
+    }
+
+    // Current value of every series; timers contribute _count, _sum (seconds) and quantiles (seconds)
+    public Map<String, Double> snapshot() {
+        Map<String, Double> values = new TreeMap<>();
+        counters.forEach((series, counter) -> values.put(series, (double) counter.sum()));
+        gauges.forEach((series, gauge) -> values.put(series, gauge.getAsDouble()));
+        timers.forEach((series, timer) -> {
+            String name = nameOf(series);
+            String labels = series.substring(name.length());
+            values.put(name + "_count" + labels, (double) timer.getCount());
+            values.put(name + "_sum" + labels, timer.getSum() / 1e9);
+            for (double q : QUANTILES) {
+                values.put(withLabel(series, "quantile", Double.toString(q)), timer.valueAtPercentile(q * 100) / 1e9);
+            }
+        });
+        return values;
+    }
+
+    // Renders every metric in the Prometheus text exposition format (version 0.0.4)
+    public String toPrometheusText() {
+        Map<String, String> types = new TreeMap<>();
+        Map<String, List<String>> seriesByName = new TreeMap<>();
+        collect(counters.keySet(), "counter", types, seriesByName);
+        collect(gauges.keySet(), "gauge", types, seriesByName);
+        collect(timers.keySet(), "summary", types, seriesByName);
+
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, List<String>> entry : seriesByName.entrySet()) {
+            String name = entry.getKey();
+            String type = types.get(name);
+            out.append("# HELP ").append(name).append(' ').append(help.getOrDefault(name, name)).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (String series : entry.getValue()) {
+                if ("counter".equals(type)) {
+                    LongAdder counter = counters.get(series);
+                    appendSample(out, series, counter == null ? 0 : counter.sum());
+                } else if ("gauge".equals(type)) {
+                    DoubleSupplier gauge = gauges.get(series);
+                    appendSample(out, series, gauge == null ? 0 : gauge.getAsDouble());
+                } else {
+                    LatencyHistogram timer = timers.get(series);
+                    if (timer == null) continue;
+                    for (double q : QUANTILES) {
+                        appendSample(out, withLabel(series, "quantile", Double.toString(q)),
+                                     timer.valueAtPercentile(q * 100) / 1e9);
+                    }
+                    String labels = series.substring(name.length());
+                    appendSample(out, name + "_sum" + labels, timer.getSum() / 1e9);
+                    appendSample(out, name + "_count" + labels, timer.getCount());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    // Prints a readable summary: counters and gauges as values, timers as count and latency percentiles
+    public void display() {
+        Map<String, String> lines = new TreeMap<>();
+        counters.forEach((series, counter) -> lines.put(series, series + " = " + counter.sum()));
+        gauges.forEach((series, gauge) -> lines.put(series, String.format("%s = %.0f", series, gauge.getAsDouble())));
+        timers.forEach((series, timer) -> lines.put(series, String.format(
+                "%s: count=%d p50=%.3f ms p99=%.3f ms max=%.3f ms", series, timer.getCount(),
+                timer.valueAtPercentile(50) / 1e6, timer.valueAtPercentile(99) / 1e6, timer.getMax() / 1e6)));
+        if (lines.isEmpty()) {
+            System.out.println("No metrics recorded.");
+        }
+        for (String line : lines.values()) {
+            System.out.println(line);
+        }
+    }
+
+    private static void collect(Iterable<String> series, String type, Map<String, String> types,
+                                Map<String, List<String>> seriesByName) {
+        for (String s : series) {
+            String name = nameOf(s);
+            types.putIfAbsent(name, type);
+            seriesByName.computeIfAbsent(name, k -> new ArrayList<>()).add(s);
+        }
+        seriesByName.values().forEach(Collections::sort);
+    }
+
+    private static void appendSample(StringBuilder out, String series, double value) {
+        out.append(series).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    // Series key in exposition syntax, e.g. name{channel="email",outcome="success"}
+    private static String seriesOf(String name, String... labels) {
+        if (labels.length == 0) return name;
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs: " + name);
+        }
+        StringBuilder series = new StringBuilder(name).append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) series.append(',');
+            series.append(labels[i]).append("=\"").append(escapeLabel(labels[i + 1])).append('"');
+        }
+        return series.append('}').toString();
+    }
+
+    private static String nameOf(String series) {
+        int brace = series.indexOf('{');
+        return brace < 0 ? series : series.substring(0, brace);
+    }
+
+    private static String withLabel(String series, String label, String value) {
+        String pair = label + "=\"" + value + "\"";
+        return series.endsWith("}") ? series.substring(0, series.length() - 1) + "," + pair + "}"
+                                    : series + "{" + pair + "}";
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
+
+// Serves the registry in Prometheus text format at /metrics on a local port
+class MetricsHttpServer {
+    private HttpServer server;         // JDK built-in HTTP server
+    private ExecutorService executor;  // Single thread answering scrapes
+
+    // Constructor to bind the endpoint; port 0 picks a free port
+    public MetricsHttpServer(MetricsRegistry registry, String host, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                byte[] body = registry.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(200, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // Address the endpoint is listening on
+    public InetSocketAddress getAddress() { return server.getAddress(); }
+
+    // Stops accepting scrapes
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+}
+
+// Delivery statistics for one notification channel, kept in the metrics registry under the channel's label
+class ChannelStats {
+    private LongAdder attempts;   // Sends that were started
+    private LongAdder successes;  // Sends that completed
+    private LongAdder failures;   // Sends that threw an error
+    private LongAdder timeouts;   // Sends abandoned after the channel timeout
+    private LongAdder rejected;   // Sends refused by the circuit breaker or concurrency limit
+    private LatencyHistogram latency; // Latency of completed sends in nanoseconds
+
+    // Constructor to resolve the channel's metrics
+    public ChannelStats(String channel, MetricsRegistry metrics) {
+        String help = "Notification sends by channel and outcome";
+        attempts = metrics.counter("rpms_notification_sends_total", help, "channel", channel, "outcome", "attempted");
+        successes = metrics.counter("rpms_notification_sends_total", help, "channel", channel, "outcome", "success");
+        failures = metrics.counter("rpms_notification_sends_total", help, "channel", channel, "outcome", "failure");
+        timeouts = metrics.counter("rpms_notification_sends_total", help, "channel", channel, "outcome", "timeout");
+        rejected = metrics.counter("rpms_notification_sends_total", help, "channel", channel, "outcome", "rejected");
+        latency = metrics.timer("rpms_notification_send_seconds", "Latency of successful notification sends",
+                                "channel", channel);
+    }
+
+    public void recordAttempt() { attempts.increment(); }
+    public void recordFailure() { failures.increment(); }
+    public void recordTimeout() { timeouts.increment(); }
+    public void recordRejected() { rejected.increment(); }
+
+    // Records a successful send and its latency
+    public void recordSuccess(long latencyNanos) {
+        successes.increment();
+        latency.record(latencyNanos);
+    }
+
+    // Getters for statistics
+    public long getAttempts() { return attempts.sum(); }
+    public long getSuccesses() { return successes.sum(); }
+    public long getFailures() { return failures.sum(); }
+    public long getTimeouts() { return timeouts.sum(); }
+    public long getRejected() { return rejected.sum(); }
+    public LatencyHistogram getLatency() { return latency; }
+    public double getAverageLatencyMillis() { return latency.getMean() / 1e6; }
+    public double getMaxLatencyMillis() { return latency.getMax() / 1e6; }
+    public double getSuccessRate() {
+        long total = attempts.sum() + rejected.sum();
+        return total == 0 ? 1.0 : (double) successes.sum() / total;
+    }
+}
+
+// One delivery channel guarded by a timeout, a concurrency limit and a circuit breaker
+class NotificationChannel implements Notifiable {
+    private String name;             // Channel name (e.g., "email")
+    private Notifiable notifier;     // Underlying notifier
+    private long timeoutMillis;      // Longest a caller waits for a send
+    private Semaphore permits;       // Limits sends in flight, including ones that timed out but still run
+    private CircuitBreaker breaker;  // Fails fast while the channel is down
+    private ChannelStats stats;      // Latency and outcome counters
+    private ExecutorService executor;// Runs the underlying blocking sends
+
+    // Constructor to initialize a guarded channel
+    public NotificationChannel(String name, Notifiable notifier, long timeoutMillis, int maxConcurrent,
+                               CircuitBreaker breaker, ExecutorService executor) {
+        this.name = name;
+        this.notifier = notifier;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(maxConcurrent);
+        this.breaker = breaker;
+        this.stats = new ChannelStats(name, MetricsRegistry.global());
+        this.executor = executor;
+    }
+
+    // Getters for channel attributes
+    public String getName() { return name; }
+    public long getTimeoutMillis() { return timeoutMillis; }
+    public CircuitBreaker getBreaker() { return breaker; }
+    public ChannelStats getStats() { return stats; }
+
+    // A send in flight; whichever of completion or timeout settles it first records the outcome
+    static class PendingSend {
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private Future<?> future;
+    }
+
+    // Starts a guarded send; it fails immediately if the circuit is open or the channel is saturated
+    public PendingSend submit(String message, String recipient) {
+        PendingSend send = new PendingSend();
+        // The permit is taken first: a half-open breaker lets a single trial through, and a trial that could
+        // not start would never report back, leaving the circuit half-open for good
+        if (!permits.tryAcquire()) {
+            stats.recordRejected();
+            send.future = CompletableFuture.failedFuture(new NotificationException("Channel " + name + " is saturated."));
+            return send;
+        }
+        if (!breaker.allowRequest(System.currentTimeMillis())) {
+            permits.release();
+            stats.recordRejected();
+            send.future = CompletableFuture.failedFuture(new NotificationException("Channel " + name + " circuit is open."));
+            return send;
+        }
+        stats.recordAttempt();
+        send.future = executor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                notifier.sendNotification(message, recipient);
+                if (send.settled.compareAndSet(false, true)) {
+                    stats.recordSuccess(System.nanoTime() - start);
+                    breaker.recordSuccess();
+                }
+            } catch (NotificationException | RuntimeException e) {
+                if (send.settled.compareAndSet(false, true)) {
+                    stats.recordFailure();
+                    breaker.recordFailure(System.currentTimeMillis());
+                }
+                throw e;
+            } finally {
+                permits.release();
+            }
+            return null;
+        });
+        return send;
+    }
+
+    // Waits for a submitted send until the deadline, converting failures into NotificationException
+    public void await(PendingSend send, long deadlineNanos) throws NotificationException {
+        try {
+            send.future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (send.settled.compareAndSet(false, true)) {
+                stats.recordTimeout();
+                breaker.recordFailure(System.currentTimeMillis());
+            }
+            send.future.cancel(true);
+            throw new NotificationException("Channel " + name + " timed out after " + timeoutMillis + " ms.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NotificationException("Interrupted while sending via " + name + ".");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof NotificationException ? (NotificationException) cause
+                  : new NotificationException("Channel " + name + " failed: " + cause.getMessage());
+        }
+    }
+
+    // Sends through this channel alone, honouring its guards
+    @Override
+    public void sendNotification(String message, String recipient) throws NotificationException {
+        await(submit(message, recipient), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    // Displays the channel's state and statistics
+    public void displayStats() {
+        System.out.printf("Channel: %s | Circuit: %s | Attempts: %d | Successes: %d | Failures: %d | Timeouts: %d | " +
+                          "Rejected: %d | Success rate: %.1f%% | Avg latency: %.1f ms | Max latency: %.1f ms%n",
+                          name, breaker.getState(), stats.getAttempts(), stats.getSuccesses(), stats.getFailures(),
+                          stats.getTimeouts(), stats.getRejected(), stats.getSuccessRate() * 100,
+                          stats.getAverageLatencyMillis(), stats.getMaxLatencyMillis());
+    }
+}
+
+// Sends one notification to several channels in parallel; succeeds if at least one channel delivers
+class NotificationRouter implements Notifiable {
+    private List<NotificationChannel> channels; // Channels every notification fans out to
+    private ExecutorService executor;           // Shared pool running the channel sends
+
+    // Constructor to initialize a router with its own daemon send pool
+    public NotificationRouter() {
+        this.channels = new ArrayList<>();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "notification-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Adds a guarded channel and returns it
+    public NotificationChannel addChannel(String name, Notifiable notifier, long timeoutMillis, int maxConcurrent,
+                                          int failureThreshold, long openMillis) {
+        NotificationChannel channel = new NotificationChannel(name, notifier, timeoutMillis, maxConcurrent,
+                                                              new CircuitBreaker(failureThreshold, openMillis), executor);
+        channels.add(channel);
+        return channel;
+    }
+
+    // Finds a channel by name
+    public NotificationChannel getChannel(String name) {
+        for (NotificationChannel channel : channels) {
+            if (channel.getName().equals(name)) return channel;
+        }
+        return null;
+    }
+
+    // Getter for the channels
+    public List<NotificationChannel> getChannels() { return channels; }
+
+    // Fans the notification out to all channels; fails only if every channel failed
+    @Override
+    public void sendNotification(String message, String recipient) throws NotificationException {
+        if (channels.isEmpty()) {
+            throw new NotificationException("No notification channels configured.");
+        }
+        long start = System.nanoTime();
+        List<NotificationChannel.PendingSend> sends = new ArrayList<>(channels.size());
+        for (NotificationChannel channel : channels) {
+            sends.add(channel.submit(message, recipient));
+        }
+        int delivered = 0;
+        StringBuilder errors = new StringBuilder();
+        for (int i = 0; i < channels.size(); i++) {
+            NotificationChannel channel = channels.get(i);
+            try {
+                channel.await(sends.get(i), start + TimeUnit.MILLISECONDS.toNanos(channel.getTimeoutMillis()));
+                delivered++;
+            } catch (NotificationException e) {
+                errors.append(errors.length() > 0 ? "; " : "").append(e.getMessage());
+            }
+        }
+        if (delivered == 0) {
+            throw new NotificationException("All channels failed: " + errors);
+        }
+        if (errors.length() > 0) {
+            System.out.println("Notification delivered on " + delivered + " of " + channels.size() +
+                               " channels. " + errors);
+        }
+    }
+
+    // Displays statistics for all channels
+    public void displayStats() {
+        for (NotificationChannel channel : channels) {
+            channel.displayStats();
+        }
+    }
+}
+
+// A notification stored in the outbox until it is delivered or dead-lettered
+class OutboxRecord {
+    private final long id;          // Sequence number assigned at enqueue time
+    private final String channel;   // Name of the channel that delivers it (e.g., "email")
+    private final String recipient; // Recipient address for the channel
+    private final String message;   // Notification text
+    private int attempts;           // Failed delivery attempts so far
+    private long nextAttemptAt;     // Earliest time of the next attempt (epoch millis)
+    private String lastError;       // Error from the last failed attempt
+    private final AtomicBoolean claimed = new AtomicBoolean(); // Set while a worker is delivering it
+
+    // Constructor to initialize an outbox record
+    public OutboxRecord(long id, String channel, String recipient, String message, int attempts, long nextAttemptAt) {
+        this.id = id;
+        this.channel = channel;
+        this.recipient = recipient;
+        this.message = message;
+        this.attempts = attempts;
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    // Getters and setters for record attributes
+    public long getId() { return id; }
+    public String getChannel() { return channel; }
+    public String getRecipient() { return recipient; }
+    public String getMessage() { return message; }
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    public long getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(long nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    // Claims the record for delivery; false if another worker already holds it
+    public boolean tryClaim() { return claimed.compareAndSet(false, true); }
+    public void release() { claimed.set(false); }
+
+    // Journal line recording the record as enqueued: E, id, attempts, next attempt, channel, recipient, message
+    public String toJournalLine() {
+        return "E\t" + id + "\t" + attempts + "\t" + nextAttemptAt + "\t" + OutboxJournal.escape(channel) + "\t" +
+               OutboxJournal.escape(recipient) + "\t" + OutboxJournal.escape(message);
+    }
+
+    // Rebuilds a record from the fields of an "E" journal line
+    public static OutboxRecord fromJournalFields(String[] fields) {
+        return new OutboxRecord(Long.parseLong(fields[1]), OutboxJournal.unescape(fields[4]),
+                                OutboxJournal.unescape(fields[5]), OutboxJournal.unescape(fields[6]),
+                                Integer.parseInt(fields[2]), Long.parseLong(fields[3]));
+    }
+}
+
+// Append-only journal file; appends from many threads are group-committed with one fsync per batch. Once the
+// file reaches the compaction size, the writer thread swaps in a copy holding only the live lines, so a
+// long-running outbox does not keep every enqueue and ack it ever wrote.
+class OutboxJournal {
+    private static final int MAX_BATCH = 4096; // Most lines written by a single fsync
+
+    private Path file;                         // Journal file
+    private FileChannel channel;               // Open journal file (used by the writer thread only)
+    private BlockingQueue<JournalWrite> queue; // Lines waiting for the writer thread
+    private Thread writer;                     // Background thread performing group commits
+    private volatile boolean running;          // Cleared on close to drain and stop the writer
+    private long compactBytes;                 // Journal size that triggers a compaction; 0 never compacts
+    private long nextCompaction;               // Size at which the next compaction runs
+    private Supplier<List<String>> liveLines;  // Lines describing everything still live, for a compaction
+    private AtomicLong compactions;            // Compactions done since the journal was opened
+
+    // A pending append and the future completed once it is on disk
+    private static class JournalWrite {
+        private final String line;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        JournalWrite(String line) { this.line = line; }
+    }
+
+    // Constructor to open the journal for appending and start the writer thread; it is never compacted
+    public OutboxJournal(Path file) throws IOException {
+        this(file, 0, null);
+    }
+
+    // Constructor to open the journal and compact it to liveLines whenever it grows to compactBytes. Owners must
+    // change the state liveLines reports before appending the line for the change, so a compaction taken
+    // between the two keeps the change.
+    public OutboxJournal(Path file, long compactBytes, Supplier<List<String>> liveLines) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        queue = new LinkedBlockingQueue<>();
+        this.compactBytes = compactBytes;
+        this.nextCompaction = compactBytes;
+        this.liveLines = liveLines;
+        this.compactions = new AtomicLong();
+        running = true;
+        writer = new Thread(this::writeLoop, "outbox-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queues a line for appending; the returned future completes once the line is durable
+    public CompletableFuture<Void> append(String line) {
+        JournalWrite write = new JournalWrite(line);
+        if (running) {
+            queue.add(write);
+            // A close that raced with the add may have stopped the writer already; then the write is ours to fail
+            if (running || !queue.remove(write)) return write.done;
+        }
+        write.done.completeExceptionally(new IOException("Outbox journal is closed."));
+        return write.done;
+    }
+
+    // Appends waiting for the writer thread
+    public int getQueueDepth() { return queue.size(); }
+
+    // Compactions done since the journal was opened
+    public long getCompactionCount() { return compactions.get(); }
+
+    // Writer loop: drain everything queued, write it in one go, fsync once, then complete the futures
+    private void writeLoop() {
+        List<JournalWrite> batch = new ArrayList<>();
+        StringBuilder buffer = new StringBuilder();
+        while (running || !queue.isEmpty()) {
+            try {
+                JournalWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (JournalWrite write : batch) {
+                    buffer.append(write.line).append('\n');
+                }
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(buffer));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+                for (JournalWrite write : batch) {
+                    write.done.complete(null);
+                }
+                if (compactBytes > 0 && channel.size() >= nextCompaction) {
+                    compact();
+                }
+            } catch (IOException e) {
+                for (JournalWrite write : batch) {
+                    write.done.completeExceptionally(e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+                buffer.setLength(0);
+            }
+        }
+    }
+
+    // Replaces the file with the live lines while appends wait in the queue. The copy is written and synced
+    // under a temporary name, then moved over the journal; the writer keeps appending through the copy's
+    // channel, so there is no window in which the journal is missing or unopened. On failure the old file
+    // stays in use.
+    private void compact() {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel copy = null;
+        try {
+            copy = writeFresh(temp, liveLines.get());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error: could not compact outbox journal: " + e.getMessage());
+            closeQuietly(copy);
+            nextCompaction += compactBytes; // Retried once the journal has grown by another step
+            return;
+        }
+        closeQuietly(channel);
+        channel = copy;
+        compactions.incrementAndGet();
+        try {
+            // When the live lines alone come near the limit, wait for as much again before compacting
+            nextCompaction = Math.max(compactBytes, 2 * channel.size());
+        } catch (IOException e) {
+            nextCompaction = compactBytes;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more to release
+        }
+    }
+
+    // Flushes outstanding appends and closes the file; appends still queued if the writer stopped early fail
+    public void close() throws IOException {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        JournalWrite left;
+        while ((left = queue.poll()) != null) {
+            left.done.completeExceptionally(new IOException("Outbox journal is closed."));
+        }
+        channel.close();
+    }
+
+    // Passes each complete line to the consumer in file order, reading a buffer at a time; a torn last line
+    // left by a crash mid-write is ignored
+    public static void forEachLine(Path file, Consumer<String> consumer) throws IOException {
+        if (!Files.exists(file)) return;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(Files.newInputStream(file),
+                                                                          StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n') continue;
+                    line.append(buffer, start, i - start);
+                    if (line.length() > 0) consumer.accept(line.toString());
+                    line.setLength(0);
+                    start = i + 1;
+                }
+                line.append(buffer, start, read - start);
+            }
+        }
+    }
+
+    // Atomically replaces the journal with the given lines (used to compact it on startup)
+    public static void rewrite(Path file, List<String> lines) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        writeFresh(temp, lines).close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Creates or truncates the file, writes the lines and syncs them; returns the channel, positioned at the end
+    private static FileChannel writeFresh(Path file, List<String> lines) throws IOException {
+        FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            StringBuilder buffer = new StringBuilder();
+            for (String line : lines) {
+                buffer.append(line).append('\n');
+            }
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(buffer));
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(true);
+            return out;
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    // Escapes backslashes, tabs and line breaks so a field fits on one tab-separated line
+    public static String escape(String value) {
+        if (value == null) return "\\0";
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Reverses escape
+    public static String unescape(String value) {
+        if ("\\0".equals(value)) return null;
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
+
+// Disk-backed notification outbox: records are journaled before delivery, retried with exponential
+// backoff, dead-lettered after too many failures, and resumed after a restart (at-least-once delivery)
+class NotificationOutbox {
+    private static final String JOURNAL_FILE = "outbox.log";
+    private static final String DEAD_LETTER_FILE = "dead-letter.log";
+    private static final long MAX_BACKOFF_MILLIS = 10 * 60 * 1000; // Cap on the delay between attempts
+    private static final long COMPACT_BYTES = 16L * 1024 * 1024;    // Journal size that triggers a compaction
+    private static final long ENQUEUE_TIMEOUT_SECONDS = 30;         // Longest wait for a notification to be on disk
+
+    private Path directory;          // Directory holding the journal and dead-letter files
+    private int workerCount;         // Number of delivery worker threads
+    private int maxAttempts;         // Attempts before a record is dead-lettered
+    private long baseBackoffMillis;  // Delay after the first failure; doubles with each further failure
+    private Map<String, Notifiable> channels;  // Registered delivery channels by name
+    private Map<Long, OutboxRecord> pending;   // Records not yet acknowledged or dead-lettered
+    private AtomicLong nextId;                 // Last assigned record ID
+    private AtomicLong deadLetters;            // Records dead-lettered since startup
+    private OutboxJournal journal;             // Append-only journal of record state changes
+    private ScheduledExecutorService workers;  // Delivery workers, created by start()
+    private long compactBytes;                 // Journal size that triggers a compaction
+
+    // Constructor to open (and recover) the outbox in the given directory
+    public NotificationOutbox(Path directory, int workerCount, int maxAttempts, long baseBackoffMillis) throws IOException {
+        this(directory, workerCount, maxAttempts, baseBackoffMillis, COMPACT_BYTES);
+    }
+
+    // Constructor to open the outbox, compacting its journal whenever it grows to compactBytes
+    public NotificationOutbox(Path directory, int workerCount, int maxAttempts, long baseBackoffMillis,
+                              long compactBytes) throws IOException {
+        this.directory = directory;
+        this.compactBytes = compactBytes;
+        this.workerCount = workerCount;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.channels = new ConcurrentHashMap<>();
+        this.pending = new ConcurrentHashMap<>();
+        this.nextId = new AtomicLong();
+        this.deadLetters = new AtomicLong();
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    // Replays the journal to rebuild the pending set, then compacts it down to the pending records
+    private void recover() throws IOException {
+        Path file = directory.resolve(JOURNAL_FILE);
+        AtomicLong maxId = new AtomicLong();
+        OutboxJournal.forEachLine(file, line -> {
+            String[] fields = line.split("\t", -1);
+            try {
+                switch (fields[0]) {
+                    case "E":
+                        OutboxRecord record = OutboxRecord.fromJournalFields(fields);
+                        pending.put(record.getId(), record);
+                        maxId.accumulateAndGet(record.getId(), Math::max);
+                        break;
+                    case "R":
+                        OutboxRecord retried = pending.get(Long.parseLong(fields[1]));
+                        if (retried != null) {
+                            retried.setAttempts(Integer.parseInt(fields[2]));
+                            retried.setNextAttemptAt(Long.parseLong(fields[3]));
+                        }
+                        break;
+                    case "A":
+                    case "D":
+                        pending.remove(Long.parseLong(fields[1]));
+                        break;
+                    default:
+                        System.out.println("Skipping unknown outbox journal entry: " + fields[0]);
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Skipping corrupt outbox journal entry: " + e.getMessage());
+            }
+        });
+        nextId.set(maxId.get());
+        OutboxJournal.rewrite(file, liveLines());
+        journal = new OutboxJournal(file, compactBytes, this::liveLines);
+    }
+
+    // One "E" line per pending record, oldest first, carrying its current attempts and next attempt time
+    private List<String> liveLines() {
+        List<OutboxRecord> live = new ArrayList<>(pending.values());
+        live.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+        List<String> lines = new ArrayList<>(live.size());
+        for (OutboxRecord record : live) {
+            lines.add(record.toJournalLine());
+        }
+        return lines;
+    }
+
+    // Registers the notifier that delivers records for a channel
+    public void registerChannel(String name, Notifiable notifier) {
+        channels.put(name, notifier);
+    }
+
+    // Starts the delivery workers and schedules everything still pending from before a restart
+    public void start() {
+        workers = Executors.newScheduledThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "outbox-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (OutboxRecord record : pending.values()) {
+            schedule(record);
+        }
+    }
+
+    // Durably appends a notification and returns its ID; delivery happens asynchronously. The record is pending
+    // before its line is written, so a journal compaction in between keeps it; if the write fails or times out
+    // it is withdrawn, though a line that still reaches the disk means it is delivered after a restart.
+    public long enqueue(String channel, String recipient, String message) throws NotificationException {
+        OutboxRecord record = new OutboxRecord(nextId.incrementAndGet(), channel, recipient, message, 0,
+                                               System.currentTimeMillis());
+        pending.put(record.getId(), record);
+        try {
+            journal.append(record.toJournalLine()).get(ENQUEUE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            pending.remove(record.getId());
+            Thread.currentThread().interrupt();
+            throw new NotificationException("Interrupted while queueing notification.");
+        } catch (ExecutionException e) {
+            pending.remove(record.getId());
+            throw new NotificationException("Could not persist notification: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            pending.remove(record.getId());
+            throw new NotificationException("Timed out persisting notification after " + ENQUEUE_TIMEOUT_SECONDS + " s.");
+        }
+        if (workers != null) {
+            schedule(record);
+        }
+        return record.getId();
+    }
+
+    private void schedule(OutboxRecord record) {
+        long delay = Math.max(0, record.getNextAttemptAt() - System.currentTimeMillis());
+        workers.schedule(() -> deliver(record), delay, TimeUnit.MILLISECONDS);
+    }
+
+    // Attempts one delivery; acknowledges on success, otherwise backs off or dead-letters
+    private void deliver(OutboxRecord record) {
+        if (!record.tryClaim()) return;
+        Notifiable notifier = channels.get(record.getChannel());
+        try {
+            if (notifier == null) {
+                throw new NotificationException("No notifier registered for channel " + record.getChannel() + ".");
+            }
+            notifier.sendNotification(record.getMessage(), record.getRecipient());
+            pending.remove(record.getId());
+            journal.append("A\t" + record.getId()); // Lost acks only cause a redelivery after a crash
+        } catch (NotificationException | RuntimeException e) {
+            record.setLastError(e.getMessage());
+            record.setAttempts(record.getAttempts() + 1);
+            if (record.getAttempts() >= maxAttempts) {
+                deadLetter(record);
+                return;
+            }
+            record.setNextAttemptAt(System.currentTimeMillis() + backoffMillis(record.getAttempts()));
+            journal.append("R\t" + record.getId() + "\t" + record.getAttempts() + "\t" + record.getNextAttemptAt());
+            record.release();
+            schedule(record);
+        }
+    }
+
+    // Exponential backoff with up to 20% jitter so retries of a shared outage do not line up
+    private long backoffMillis(int attempts) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempts - 1, 20));
+        return delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+    }
+
+    // Moves a poison record to the dead-letter file and removes it from the outbox
+    private void deadLetter(OutboxRecord record) {
+        String line = record.toJournalLine() + "\t" + OutboxJournal.escape(record.getLastError()) + "\n";
+        synchronized (this) {
+            try {
+                Files.write(directory.resolve(DEAD_LETTER_FILE), line.getBytes(StandardCharsets.UTF_8),
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.out.println("Error writing dead letter " + record.getId() + ": " + e.getMessage());
+                return; // Keep it pending so it is retried after a restart
+            }
+        }
+        pending.remove(record.getId());
+        deadLetters.incrementAndGet();
+        journal.append("D\t" + record.getId());
+        System.out.println("Notification " + record.getId() + " to " + record.getRecipient() +
+                           " dead-lettered: " + record.getLastError());
+    }
+
+    // Number of records still waiting for delivery
+    public int getPendingCount() { return pending.size(); }
+
+    // Journal writes waiting for the next group commit
+    public int getJournalQueueDepth() { return journal.getQueueDepth(); }
+
+    // Journal compactions since the outbox was opened
+    public long getJournalCompactionCount() { return journal.getCompactionCount(); }
+
+    // Number of records dead-lettered since startup
+    public long getDeadLetterCount() { return deadLetters.get(); }
+
+    // Stops the workers and closes the journal; undelivered records stay on disk for the next start
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+            try {
+                workers.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Error closing outbox journal: " + e.getMessage());
+        }
+    }
+}
+
+// Notifier that hands messages to the outbox instead of sending them inline
+class OutboxNotification implements Notifiable {
+    private NotificationOutbox outbox; // Outbox that stores and delivers the message
+    private String channel;            // Channel that will deliver it
+
+    // Constructor to initialize an outbox-backed notifier
+    public OutboxNotification(NotificationOutbox outbox, String channel) {
+        this.outbox = outbox;
+        this.channel = channel;
+    }
+
+    // Queues the notification; it is on disk when this returns
+    @Override
+    public void sendNotification(String message, String recipient) throws NotificationException {
+        if (recipient == null || recipient.isEmpty()) {
+            throw new NotificationException("Invalid recipient for " + channel + ".");
+        }
+        long id = outbox.enqueue(channel, recipient, message);
+        System.out.println("Notification " + id + " queued for " + recipient + " via " + channel + ".");
+    }
+}
+
+// Service class to handle sending notifications
+class NotificationService {
+    private Notifiable notifier; // Notifier implementation (e.g., EmailNotification)
+    private String recipient;   // Recipient of the notification
+
+    // Constructor to initialize the notification service
+    public NotificationService(Notifiable notifier, String recipient) {
+        this.notifier = notifier;
+        this.recipient = recipient;
+    }
+
+    // Sends an alert using the configured notifier
+    public void sendAlert(String message) throws NotificationException {
+        if (notifier == null) {
+            throw new NotificationException("Notification service not configured.");
+        }
+        notifier.sendNotification(message, recipient);
+    }
+}
+
+// Interface for triggering alerts
+interface Alertable {
+    void triggerAlert(String message) throws NotificationException;
+}
+
+// Class to handle emergency alerts based on vital signs
+class EmergencyAlert implements Alertable {
+    private VitalSign vital;               // Vital sign to check
+    private NotificationService notificationService; // Service to send alerts
+    private Patient patient;               // Patient associated with the alert
+    private EarlyWarningResult warning;    // Early warning evaluation of the vital, if available
+
+    // Constructor to initialize an emergency alert
+    public EmergencyAlert(Patient patient, VitalSign vital, NotificationService notificationService) {
+        this.patient = patient;
+        this.vital = vital;
+        this.notificationService = notificationService;
+    }
+
+    // Constructor to initialize an emergency alert driven by an early warning evaluation
+    public EmergencyAlert(Patient patient, VitalSign vital, EarlyWarningResult warning,
+                          NotificationService notificationService) {
+        this(patient, vital, notificationService);
+        this.warning = warning;
+    }
+
+    // Checks if vital signs are within normal thresholds
+    public static boolean isWithinThreshold(VitalSign vital) {
+        if (vital == null) return true;
+        if (!vital.hasValidBloodPressure()) {
+            return false;
+        }
+        double systolic = vital.getSystolic();
+        double diastolic = vital.getDiastolic();
+
+        // Define normal ranges for vital signs
+        boolean heartRateOk = vital.getHeartRate() >= 60 && vital.getHeartRate() <= 100;
+        boolean oxygenOk = vital.getOxygenLevel() >= 95;
+        boolean bpOk = systolic >= 90 && systolic <= 140 && diastolic >= 60 && diastolic <= 90;
+        boolean tempOk = vital.getTemperature() >= 36.1 && vital.getTemperature() <= 37.2;
+
+        return heartRateOk && oxygenOk && bpOk && tempOk;
+    }
+
+    // Checks vital signs and triggers an alert if abnormal
+    public void checkVitals() throws VitalThresholdException, NotificationException {
+        if (vital == null || patient == null) {
+            throw new VitalThresholdException("Vital or patient information missing.");
+        }
+        // With an early warning evaluation, score level and trend decide; otherwise fall back to fixed bounds
+        boolean abnormal = warning != null ? warning.isAlert() : !isWithinThreshold(vital);
+        if (abnormal) {
+            String message = "Alert! Patient " + patient.getId() + "'s vital signs are abnormal: " +
+                             "HR=" + vital.getHeartRate() + ", O2=" + vital.getOxygenLevel() +
+                             ", BP=" + vital.getBloodPressure() + ", Temp=" + vital.getTemperature();
+            if (warning != null) {
+                message += ". " + warning.describe();
+            }
+            triggerAlert(message);
+        }
+    }
+
+    // Sends one notification summarizing the alert episode changes caused by this vital
+    public void notifyEvents(List<AlertEvent> events, long now) throws VitalThresholdException, NotificationException {
+        if (patient == null) {
+            throw new VitalThresholdException("Patient information missing.");
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder("Alert update for patient " + patient.getId() + ":");
+        for (AlertEvent event : events) {
+            message.append("\n- ").append(event.describe(now));
+        }
+        triggerAlert(message.toString());
+    }
+
+    // Triggers the alert using the notification service
+    @Override
+    public void triggerAlert(String message) throws NotificationException {
+        notificationService.sendAlert(message);
+    }
+}
+
+// Class to handle panic button alerts
+class PanicButton implements Alertable {
+    private Patient patient;               // Patient triggering the alert
+    private NotificationService notificationService; // Service to send alerts
+    private Doctor doctor;                 // Doctor to be notified
+
+    // Constructor to initialize a panic button
+    public PanicButton(Patient patient, Doctor doctor, NotificationService notificationService) {
+        this.patient = patient;
+        this.doctor = doctor;
+        this.notificationService = notificationService;
+    }
+
+    // Triggers an emergency alert
+    @Override
+    public void triggerAlert(String message) throws NotificationException {
+        if (patient == null || doctor == null) {
+            throw new NotificationException("Patient or doctor information missing.");
+        }
+        message = "Emergency! Patient " + patient.getId() + " needs immediate attention.";
+        notificationService.sendAlert(message);
+        System.out.println("Doctor " + doctor.getName() + " notified of panic alert.");
+    }
+
+    // Simulates pressing the panic button
+    public void pressPanicButton() throws NotificationException {
+        triggerAlert("");
+    }
+}
+
+// Conditions tracked as alert episodes; an episode opens outside [low, high] and closes only
+// once the value is back inside the tighter band [low + margin, high - margin]
+enum AlertCondition {
+    HEART_RATE("Heart rate", 60, 100, 5),
+    OXYGEN_LEVEL("Oxygen level", 95, Double.MAX_VALUE, 1),
+    SYSTOLIC_PRESSURE("Systolic pressure", 90, 140, 5),
+    DIASTOLIC_PRESSURE("Diastolic pressure", 60, 90, 5),
+    TEMPERATURE("Temperature", 36.1, 37.2, 0.2),
+    EARLY_WARNING("Early warning score", 0, 0, 0); // Opened and closed from the early warning result
+
+    private final String label;
+    private final double low;
+    private final double high;
+    private final double margin;
+
+    AlertCondition(String label, double low, double high, double margin) {
+        this.label = label;
+        this.low = low;
+        this.high = high;
+        this.margin = margin;
+    }
+
+    public String getLabel() { return label; }
+
+    // True if the value is outside the normal range and should open an episode
+    public boolean isAbnormal(double value) {
+        return Double.isNaN(value) || value < low || value > high;
+    }
+
+    // True if the value is far enough inside the normal range to close an open episode
+    public boolean isRecovered(double value) {
+        return !Double.isNaN(value) && value >= low + margin && value <= high - margin;
+    }
+
+    // True if any vital of the reading is outside its normal range
+    public static boolean anyAbnormal(VitalSign vital) {
+        return HEART_RATE.isAbnormal(vital.getHeartRate()) || OXYGEN_LEVEL.isAbnormal(vital.getOxygenLevel())
+               || SYSTOLIC_PRESSURE.isAbnormal(vital.getSystolic()) || DIASTOLIC_PRESSURE.isAbnormal(vital.getDiastolic())
+               || TEMPERATURE.isAbnormal(vital.getTemperature());
+    }
+
+    // Severity 1-3, growing by one for every four margins the value lies outside the normal range
+    public int severityOf(double value) {
+        if (Double.isNaN(value)) return 3;
+        double distance = value < low ? low - value : value - high;
+        return (int) Math.min(3, 1 + Math.max(0, distance) / (4 * margin));
+    }
+}
+
+// Kinds of notification an alert episode can produce
+enum AlertEventType {
+    OPENED,    // Condition became abnormal
+    ESCALATED, // Condition got worse than anything notified so far in the episode
+    REPEATED,  // Condition still abnormal after the repeat window elapsed
+    RESOLVED   // Condition returned inside its recovery band
+}
+
+// One open alert episode for a patient and condition
+class AlertEpisode {
+    private AlertCondition condition; // Condition being tracked
+    private long openedAt;            // Time the episode opened (epoch millis)
+    private long lastNotifiedAt;      // Time of the last notification sent for the episode
+    private int notifiedSeverity;     // Highest severity notified so far
+    private int suppressedCount;      // Readings that did not produce a notification
+
+    // Constructor to initialize an episode
+    public AlertEpisode(AlertCondition condition, int severity, long now) {
+        this.condition = condition;
+        this.openedAt = now;
+        this.lastNotifiedAt = now;
+        this.notifiedSeverity = severity;
+    }
+
+    // Getters and setters for episode attributes
+    public AlertCondition getCondition() { return condition; }
+    public long getOpenedAt() { return openedAt; }
+    public long getLastNotifiedAt() { return lastNotifiedAt; }
+    public void setLastNotifiedAt(long lastNotifiedAt) { this.lastNotifiedAt = lastNotifiedAt; }
+    public int getNotifiedSeverity() { return notifiedSeverity; }
+    public void setNotifiedSeverity(int notifiedSeverity) { this.notifiedSeverity = notifiedSeverity; }
+    public int getSuppressedCount() { return suppressedCount; }
+    public void incrementSuppressed() { suppressedCount++; }
+}
+
+// A notification-worthy change in an alert episode
+class AlertEvent {
+    private AlertEventType type;      // What happened to the episode
+    private AlertCondition condition; // Condition concerned
+    private int severity;             // Severity at the time of the event
+    private String detail;            // Current value or reason
+    private AlertEpisode episode;     // Episode the event belongs to
+
+    // Constructor to initialize an alert event
+    public AlertEvent(AlertEventType type, AlertCondition condition, int severity, String detail, AlertEpisode episode) {
+        this.type = type;
+        this.condition = condition;
+        this.severity = severity;
+        this.detail = detail;
+        this.episode = episode;
+    }
+
+    // Getters for alert event attributes
+    public AlertEventType getType() { return type; }
+    public AlertCondition getCondition() { return condition; }
+    public int getSeverity() { return severity; }
+    public String getDetail() { return detail; }
+    public AlertEpisode getEpisode() { return episode; }
+
+    // Describes the event in one line
+    public String describe(long now) {
+        switch (type) {
+            case OPENED:
+                return condition.getLabel() + " abnormal (severity " + severity + "): " + detail;
+            case ESCALATED:
+                return condition.getLabel() + " worsening (severity " + severity + "): " + detail;
+            case REPEATED:
+                return condition.getLabel() + " still abnormal after " + minutesSince(now) + " min (" +
+                       episode.getSuppressedCount() + " readings suppressed): " + detail;
+            default:
+                return condition.getLabel() + " resolved after " + minutesSince(now) + " min: " + detail;
+        }
+    }
+
+    private long minutesSince(long now) {
+        return (now - episode.getOpenedAt()) / 60000;
+    }
+}
+
+// Tracks alert episodes per patient and condition so notifications follow real events, not upload rate
+class AlertTracker {
+    private static final AlertCondition[] CONDITIONS = AlertCondition.values();
+
+    private long repeatWindowMillis;               // Minimum time between repeats of an unchanged episode
+    private Map<String, AlertEpisode[]> episodes;  // Open episodes per patient ID, indexed by condition ordinal
+    private AtomicInteger openEpisodes;            // Number of open episodes across all patients
+
+    // Constructor to initialize the tracker with a repeat-suppression window
+    public AlertTracker(long repeatWindowMillis) {
+        this.repeatWindowMillis = repeatWindowMillis;
+        this.episodes = new ConcurrentHashMap<>();
+        this.openEpisodes = new AtomicInteger();
+    }
+
+    // Drops a patient's open episodes without notifying (e.g., after the patient moved to another shard)
+    public void forget(String patientId) {
+        AlertEpisode[] open = episodes.remove(patientId);
+        if (open == null) return;
+        synchronized (open) {
+            for (int i = 0; i < open.length; i++) {
+                if (open[i] != null) {
+                    open[i] = null;
+                    openEpisodes.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    // Updates all conditions for a reading and returns the events that should be notified (usually none);
+    // a patient's episodes are updated by one reading at a time
+    public List<AlertEvent> update(String patientId, VitalSign vital, EarlyWarningResult warning, long now) {
+        AlertEpisode[] open = episodes.get(patientId);
+        if (open == null) {
+            open = episodes.computeIfAbsent(patientId, k -> new AlertEpisode[CONDITIONS.length]);
+        }
+        synchronized (open) {
+            return update(open, vital, warning, now);
+        }
+    }
+
+    private List<AlertEvent> update(AlertEpisode[] open, VitalSign vital, EarlyWarningResult warning, long now) {
+        List<AlertEvent> events = null;
+        events = observeValue(events, open, AlertCondition.HEART_RATE, vital.getHeartRate(), now);
+        events = observeValue(events, open, AlertCondition.OXYGEN_LEVEL, vital.getOxygenLevel(), now);
+        events = observeValue(events, open, AlertCondition.SYSTOLIC_PRESSURE, vital.getSystolic(), now);
+        events = observeValue(events, open, AlertCondition.DIASTOLIC_PRESSURE, vital.getDiastolic(), now);
+        events = observeValue(events, open, AlertCondition.TEMPERATURE, vital.getTemperature(), now);
+        if (warning != null) {
+            int severity = warning.getLevel() == EarlyWarningLevel.HIGH ? 3
+                         : warning.getLevel() == EarlyWarningLevel.MEDIUM ? 2 : 1;
+            // Close only once the score is low again and no vital is still drifting noticeably
+            boolean recovered = !warning.isAlert() && warning.getLevel().compareTo(EarlyWarningLevel.LOW) <= 0
+                                && Math.abs(warning.getDrift()) < 1.0;
+            events = observe(events, open, AlertCondition.EARLY_WARNING, warning.isAlert(), recovered,
+                             severity, Double.NaN, warning, now);
+        }
+        return events != null ? events : Collections.emptyList();
+    }
+
+    // Number of currently open episodes
+    public int openEpisodeCount() { return openEpisodes.get(); }
+
+    // Number of open episodes of one patient
+    public int openEpisodeCount(String patientId) {
+        AlertEpisode[] open = episodes.get(patientId);
+        if (open == null) return 0;
+        int count = 0;
+        synchronized (open) {
+            for (AlertEpisode episode : open) {
+                if (episode != null) count++;
+            }
+        }
+        return count;
+    }
+
+    // Highest notified severity among one patient's open episodes (0 if none)
+    public int maxOpenSeverity(String patientId) {
+        AlertEpisode[] open = episodes.get(patientId);
+        if (open == null) return 0;
+        int max = 0;
+        synchronized (open) {
+            for (AlertEpisode episode : open) {
+                if (episode != null) max = Math.max(max, episode.getNotifiedSeverity());
+            }
+        }
+        return max;
+    }
+
+    private List<AlertEvent> observeValue(List<AlertEvent> events, AlertEpisode[] open, AlertCondition condition,
+                                          double value, long now) {
+        return observe(events, open, condition, condition.isAbnormal(value), condition.isRecovered(value),
+                       condition.severityOf(value), value, null, now);
+    }
+
+    // Applies the episode state machine for one condition; the event list is only allocated when needed
+    private List<AlertEvent> observe(List<AlertEvent> events, AlertEpisode[] open, AlertCondition condition,
+                                     boolean abnormal, boolean recovered, int severity, double value,
+                                     EarlyWarningResult warning, long now) {
+        int slot = condition.ordinal();
+        AlertEpisode episode = open[slot];
+        AlertEventType type = null;
+        if (episode == null) {
+            if (abnormal) {
+                episode = new AlertEpisode(condition, severity, now);
+                open[slot] = episode;
+                openEpisodes.incrementAndGet();
+                type = AlertEventType.OPENED;
+            }
+        } else if (recovered) {
+            open[slot] = null;
+            openEpisodes.decrementAndGet();
+            type = AlertEventType.RESOLVED;
+            severity = 0;
+        } else if (abnormal && severity > episode.getNotifiedSeverity()) {
+            episode.setNotifiedSeverity(severity);
+            episode.setLastNotifiedAt(now);
+            type = AlertEventType.ESCALATED;
+        } else if (abnormal && now - episode.getLastNotifiedAt() >= repeatWindowMillis) {
+            episode.setLastNotifiedAt(now);
+            type = AlertEventType.REPEATED;
+        } else {
+            // Same or lower severity inside the window, or inside the hysteresis band
+            episode.incrementSuppressed();
+        }
+        if (type == null) {
+            return events;
+        }
+        if (events == null) {
+            events = new ArrayList<>(2);
+        }
+        events.add(new AlertEvent(type, condition, severity, describe(condition, value, warning), episode));
+        return events;
+    }
+
+    // Current value of a condition for the notification text
+    private static String describe(AlertCondition condition, double value, EarlyWarningResult warning) {
+        if (warning != null) return warning.describe();
+        if (Double.isNaN(value)) return "unreadable";
+        String formatted = value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+        switch (condition) {
+            case HEART_RATE: return formatted + " bpm";
+            case OXYGEN_LEVEL: return formatted + "%";
+            case TEMPERATURE: return formatted + " °C";
+            default: return formatted + " mmHg";
+        }
+    }
+}
+
+// Executors that run each task on its own virtual thread when the runtime has them (JDK 21+), so tasks may
+// block on I/O cheaply; older runtimes get a cached pool of daemon threads instead
+final class VirtualThreads {
+    private VirtualThreads() {}
+
+    static ExecutorService newPerTaskExecutor(String fallbackThreadName) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, fallbackThreadName);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
+
+// One ingested reading as seen by live subscribers, with the alert events it raised. When a slow subscriber
+// has several readings of a patient pending, they are conflated into the latest one, which then carries
+// every pending alert event and the number of readings it replaced.
+class VitalsUpdate {
+    private String patientId;          // Patient the reading belongs to
+    private VitalSign vital;           // Latest reading
+    private EarlyWarningResult warning;// Its early warning evaluation
+    private List<AlertEvent> events;   // Alert events of this and any replaced readings, oldest first
+    private long timestamp;            // When the latest reading was ingested
+    private int replaced;              // Earlier readings conflated into this update
+
+    // Constructor to initialize an update
+    public VitalsUpdate(String patientId, VitalSign vital, EarlyWarningResult warning, List<AlertEvent> events,
+                        long timestamp, int replaced) {
+        this.patientId = patientId;
+        this.vital = vital;
+        this.warning = warning;
+        this.events = events;
+        this.timestamp = timestamp;
+        this.replaced = replaced;
+    }
+
+    // Getters for update attributes
+    public String getPatientId() { return patientId; }
+    public VitalSign getVital() { return vital; }
+    public EarlyWarningResult getWarning() { return warning; }
+    public List<AlertEvent> getEvents() { return events; }
+    public long getTimestamp() { return timestamp; }
+    public int getReplaced() { return replaced; }
+
+    // This update with an older pending one folded in: the newer reading, and the alert events of both
+    VitalsUpdate conflate(VitalsUpdate older) {
+        List<AlertEvent> merged = events;
+        if (!older.events.isEmpty()) {
+            merged = new ArrayList<>(older.events.size() + events.size());
+            merged.addAll(older.events);
+            merged.addAll(events);
+        }
+        return new VitalsUpdate(patientId, vital, warning, merged, timestamp, replaced + older.replaced + 1);
+    }
+}
+
+// Push-based live stream of readings and alert events. Each subscription follows a set of patients and has
+// its own Flow demand; while it has none, only the latest reading per patient is kept (alert events are
+// accumulated, never dropped), so a slow subscriber costs bounded memory and never slows ingestion.
+// Publishing for a patient nobody follows is a single map lookup.
+class LiveVitalsHub {
+    private static final LongAdder CONFLATED = MetricsRegistry.global().counter(
+            "rpms_live_updates_conflated_total", "Live readings replaced by a newer one before delivery");
+    private static final LongAdder DELIVERED = MetricsRegistry.global().counter(
+            "rpms_live_updates_delivered_total", "Live updates delivered to subscribers");
+
+    private Map<String, CopyOnWriteArrayList<LiveSubscription>> subscriptions; // Followers keyed by patient ID
+    private AtomicInteger subscriptionCount;  // Open subscriptions, for the no-subscriber fast path
+    private Executor executor;                // Runs subscriber callbacks, which may block
+
+    // Constructor to deliver on virtual threads where available
+    public LiveVitalsHub() {
+        this(VirtualThreads.newPerTaskExecutor("rpms-live-vitals"));
+    }
+
+    // Constructor to deliver on the given executor
+    public LiveVitalsHub(Executor executor) {
+        this.subscriptions = new ConcurrentHashMap<>();
+        this.subscriptionCount = new AtomicInteger();
+        this.executor = executor;
+    }
+
+    // Publisher of updates for the given patients
+    public Flow.Publisher<VitalsUpdate> publisherFor(Collection<String> patientIds) {
+        List<String> ids = new ArrayList<>(patientIds);
+        return subscriber -> {
+            LiveSubscription subscription = new LiveSubscription(this, subscriber, ids);
+            subscriber.onSubscribe(subscription);
+            subscription.register();
+        };
+    }
+
+    // Publisher of updates for the patients on the doctor's list at the time of subscribing
+    public Flow.Publisher<VitalsUpdate> publisherFor(Doctor doctor) {
+        List<String> ids = new ArrayList<>();
+        for (Patient p : doctor.getPatients()) {
+            ids.add(p.getId());
+        }
+        return publisherFor(ids);
+    }
+
+    // Hands a reading to every subscription following the patient; never blocks
+    public void publish(String patientId, VitalSign vital, EarlyWarningResult warning, List<AlertEvent> events, long now) {
+        if (subscriptionCount.get() == 0) return;
+        List<LiveSubscription> followers = subscriptions.get(patientId);
+        if (followers == null || followers.isEmpty()) return;
+        VitalsUpdate update = new VitalsUpdate(patientId, vital, warning, events, now, 0);
+        for (LiveSubscription s : followers) {
+            s.offer(update);
+        }
+    }
+
+    // Number of open subscriptions
+    public int getSubscriptionCount() { return subscriptionCount.get(); }
+
+    // Completes every subscription
+    public void close() {
+        for (List<LiveSubscription> followers : subscriptions.values()) {
+            for (LiveSubscription s : followers) {
+                s.complete();
+            }
+        }
+    }
+
+    private void add(LiveSubscription subscription) {
+        subscriptionCount.incrementAndGet();
+        for (String id : subscription.patientIds) {
+            subscriptions.computeIfAbsent(id, k -> new CopyOnWriteArrayList<>()).add(subscription);
+        }
+    }
+
+    private void remove(LiveSubscription subscription) {
+        for (String id : subscription.patientIds) {
+            subscriptions.computeIfPresent(id, (k, followers) -> {
+                followers.remove(subscription);
+                return followers.isEmpty() ? null : followers;
+            });
+        }
+        subscriptionCount.decrementAndGet();
+    }
+
+    // One subscriber's demand and pending updates; signals to the subscriber are serialized by a drain loop
+    static class LiveSubscription implements Flow.Subscription {
+        private final LiveVitalsHub hub;
+        private final Flow.Subscriber<? super VitalsUpdate> subscriber;
+        private final List<String> patientIds;
+        private final Map<String, VitalsUpdate> pending = new LinkedHashMap<>(); // Latest per patient, oldest first
+        private final AtomicInteger wip = new AtomicInteger();  // Drain requests; only the 0 -> 1 caller drains
+        private long demand;                 // Outstanding requests, guarded by this
+        private Throwable error;             // Error to signal, guarded by this
+        private boolean completing;          // Complete once signalled, guarded by this
+        private boolean registered;          // Added to the hub, guarded by this
+        private volatile boolean done;       // Cancelled or terminated
+
+        LiveSubscription(LiveVitalsHub hub, Flow.Subscriber<? super VitalsUpdate> subscriber, List<String> patientIds) {
+            this.hub = hub;
+            this.subscriber = subscriber;
+            this.patientIds = patientIds;
+        }
+
+        // Starts receiving updates unless the subscriber cancelled in onSubscribe
+        void register() {
+            synchronized (this) {
+                if (done) return;
+                registered = true;
+            }
+            hub.add(this);
+        }
+
+        void offer(VitalsUpdate update) {
+            synchronized (this) {
+                if (done) return;
+                VitalsUpdate older = pending.remove(update.getPatientId()); // Re-insert so the order follows arrival
+                if (older != null) {
+                    update = update.conflate(older);
+                    CONFLATED.increment();
+                }
+                pending.put(update.getPatientId(), update);
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (done) return;
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Requested " + n + " updates; demand must be positive.");
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            boolean wasRegistered;
+            synchronized (this) {
+                if (done) return;
+                done = true;
+                wasRegistered = registered;
+                pending.clear();
+            }
+            if (wasRegistered) {
+                hub.remove(this);
+            }
+        }
+
+        void complete() {
+            synchronized (this) {
+                completing = true;
+            }
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                hub.executor.execute(this::drainLoop);
+            }
+        }
+
+        private void drainLoop() {
+            int missed = 1;
+            while (true) {
+                while (true) {
+                    VitalsUpdate next = null;
+                    Throwable failure = null;
+                    boolean finish = false;
+                    synchronized (this) {
+                        if (done) break;
+                        if (error != null) {
+                            failure = error;
+                        } else if (completing) {
+                            finish = true;
+                        } else if (demand > 0 && !pending.isEmpty()) {
+                            Iterator<VitalsUpdate> it = pending.values().iterator();
+                            next = it.next();
+                            it.remove();
+                            if (demand != Long.MAX_VALUE) demand--;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (failure != null || finish) {
+                        cancel();
+                        if (failure != null) {
+                            subscriber.onError(failure);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(next);
+                        DELIVERED.increment();
+                    } catch (RuntimeException e) {
+                        cancel(); // A subscriber that throws is treated as gone
+                        break;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+    }
+}
+
+// A patient's latest state on a doctor's triage dashboard; replaced, never changed, when a reading arrives
+class TriageEntry {
+    private Patient patient;            // Patient the entry describes
+    private VitalSign vital;            // Latest reading
+    private EarlyWarningResult warning; // Its early warning evaluation
+    private int openAlerts;             // Alert episodes open after the reading
+    private int maxSeverity;            // Highest severity among the open episodes (0 if none)
+    private long updatedAt;             // When the reading was ingested
+
+    // Constructor to initialize an entry
+    public TriageEntry(Patient patient, VitalSign vital, EarlyWarningResult warning, int openAlerts,
+                       int maxSeverity, long updatedAt) {
+        this.patient = patient;
+        this.vital = vital;
+        this.warning = warning;
+        this.openAlerts = openAlerts;
+        this.maxSeverity = maxSeverity;
+        this.updatedAt = updatedAt;
+    }
+
+    // Getters for entry attributes
+    public Patient getPatient() { return patient; }
+    public VitalSign getVital() { return vital; }
+    public EarlyWarningResult getWarning() { return warning; }
+    public int getOpenAlerts() { return openAlerts; }
+    public int getMaxSeverity() { return maxSeverity; }
+    public long getUpdatedAt() { return updatedAt; }
+}
+
+// One doctor's patients ordered sickest first, kept current as readings are ingested. Entries sit in a
+// balanced tree ordered by clinical priority and in a map by patient ID, so an update is two O(log n)
+// tree operations and the top K are the first K nodes of the tree.
+class DoctorDashboard {
+    // Early warning level, then score, then worst open alert, then number of open alerts, then most recent
+    private static final Comparator<TriageEntry> WORST_FIRST = (a, b) -> {
+        int c = b.getWarning().getLevel().compareTo(a.getWarning().getLevel());
+        if (c == 0) c = Integer.compare(b.getWarning().getScore(), a.getWarning().getScore());
+        if (c == 0) c = Integer.compare(b.getMaxSeverity(), a.getMaxSeverity());
+        if (c == 0) c = Integer.compare(b.getOpenAlerts(), a.getOpenAlerts());
+        if (c == 0) c = Long.compare(b.getUpdatedAt(), a.getUpdatedAt());
+        if (c == 0) c = a.getPatient().getId().compareTo(b.getPatient().getId());
+        return c;
+    };
+
+    private TreeSet<TriageEntry> ranking;        // Entries, sickest first
+    private Map<String, TriageEntry> byPatient;  // Current entry per patient ID
+
+    // Constructor to initialize an empty dashboard
+    public DoctorDashboard() {
+        ranking = new TreeSet<>(WORST_FIRST);
+        byPatient = new HashMap<>();
+    }
+
+    // Replaces the patient's entry
+    public synchronized void update(TriageEntry entry) {
+        TriageEntry previous = byPatient.put(entry.getPatient().getId(), entry);
+        if (previous != null) {
+            ranking.remove(previous);
+        }
+        ranking.add(entry);
+    }
+
+    // Drops a patient from the dashboard (e.g., after leaving the doctor's care)
+    public synchronized void remove(String patientId) {
+        TriageEntry previous = byPatient.remove(patientId);
+        if (previous != null) {
+            ranking.remove(previous);
+        }
+    }
+
+    // The k sickest patients, sickest first
+    public synchronized List<TriageEntry> top(int k) {
+        List<TriageEntry> result = new ArrayList<>(Math.min(Math.max(k, 0), ranking.size()));
+        Iterator<TriageEntry> it = ranking.iterator();
+        while (result.size() < k && it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    // Current entry of a patient, or null if no reading has arrived yet
+    public synchronized TriageEntry get(String patientId) { return byPatient.get(patientId); }
+
+    // Number of patients with a reading on the dashboard
+    public synchronized int size() { return byPatient.size(); }
+}
+
+// Fixed-size Bloom filter over 64-bit key hashes, sized from the number of keys it must hold and the false
+// positive rate wanted at that fill. Bits are set with atomic ORs, so lookups and inserts need no lock.
+class BloomFilter {
+    private AtomicLongArray words; // Bit array, 64 bits per word
+    private long bitCount;         // Number of usable bits
+    private int hashCount;         // Bits set per key
+
+    // Constructor for a filter holding up to capacity keys at the given false positive rate
+    public BloomFilter(long capacity, double falsePositiveRate) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+        long wordCount = Math.max(1, (bits + 63) / 64);
+        if (wordCount > Integer.MAX_VALUE) throw new IllegalArgumentException("Filter too large: " + bits + " bits");
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bitCount = wordCount * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+    }
+
+    // True if the key may have been added; false means it definitely was not
+    public boolean mightContain(long hash) {
+        long h2 = secondHash(hash);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(hash + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // Adds the key
+    public void put(long hash) {
+        long h2 = secondHash(hash);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(hash + i * h2, bitCount);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = words.get(index);
+            while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+                word = words.get(index);
+            }
+        }
+    }
+
+    // Bytes held by the bit array
+    public long sizeInBytes() { return bitCount / 8; }
+
+    // Second, independent-enough hash for double hashing; odd so it cycles through every bit position
+    private static long secondHash(long hash) {
+        return mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+    }
+
+    // 64-bit finalizer from MurmurHash3
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE1A85A63L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
+
+// Drops retransmitted readings before they are stored or evaluated. A reading carries an idempotency key:
+// the sending device's ID and a sequence number that grows with every new reading (a device timestamp in
+// milliseconds works too). Each patient's device stream keeps its highest sequence seen, so in-order readings
+// are accepted, and a repeat of the latest one dropped, without any lookup. Older sequences may be late
+// first deliveries or retries; they are checked against two Bloom filter generations. When the current
+// generation is full it becomes the previous one and the oldest is discarded, so memory stays fixed and the
+// last `capacity` keys are always remembered. A late reading is wrongly dropped at most at the configured
+// false positive rate; a retry of a forgotten key (more than `capacity` keys ago) is accepted again.
+class ReadingDeduplicator {
+    private static final LongAdder DUPLICATES = MetricsRegistry.global().counter(
+            "rpms_vitals_duplicates_total", "Retransmitted readings dropped before storage");
+    private static final LongAdder LATE_READINGS = MetricsRegistry.global().counter(
+            "rpms_vitals_out_of_order_total", "Readings accepted with a sequence below their device's latest");
+
+    // Highest sequence seen from one device of one patient
+    private static final class DeviceStream {
+        long highWater = Long.MIN_VALUE;
+    }
+
+    private long capacity;                // Keys per filter generation
+    private double falsePositiveRate;     // Chance that a late, new reading is taken for a repeat
+    private volatile BloomFilter current; // Generation receiving new keys
+    private volatile BloomFilter previous;// Generation before it, still consulted
+    private AtomicLong currentKeys;       // Keys added to the current generation
+    private Map<String, Map<String, DeviceStream>> streams; // Patient ID -> device ID -> stream
+
+    // Constructor to remember at least capacity keys with the given false positive rate
+    public ReadingDeduplicator(long capacity, double falsePositiveRate) {
+        this.capacity = capacity;
+        this.falsePositiveRate = falsePositiveRate;
+        // Two generations are consulted, so each gets half of the allowed rate
+        this.current = new BloomFilter(capacity, falsePositiveRate / 2);
+        this.previous = new BloomFilter(capacity, falsePositiveRate / 2);
+        this.currentKeys = new AtomicLong();
+        this.streams = new ConcurrentHashMap<>();
+    }
+
+    // Records the key and returns true if the reading has not been seen before
+    public boolean firstSeen(String patientId, String deviceId, long sequence) {
+        return firstSeen(patientId, deviceId, sequence, null);
+    }
+
+    // Returns false if the reading was seen before. Otherwise calls accept (if not null) while holding the
+    // device's lock, and records the key only if it returns true, so a reading turned away (e.g. shed under
+    // overload) is taken as new when the device sends it again; returns true in both cases.
+    public boolean firstSeen(String patientId, String deviceId, long sequence, BooleanSupplier accept) {
+        DeviceStream stream = streams.computeIfAbsent(patientId, k -> new ConcurrentHashMap<>())
+                                     .computeIfAbsent(deviceId, k -> new DeviceStream());
+        long hash = hash(patientId, deviceId, sequence);
+        synchronized (stream) { // One device's retries race with each other, never with other devices
+            boolean late = sequence <= stream.highWater;
+            if (late && (sequence == stream.highWater || current.mightContain(hash) || previous.mightContain(hash))) {
+                DUPLICATES.increment();
+                return false;
+            }
+            if (accept != null && !accept.getAsBoolean()) return true;
+            if (late) {
+                LATE_READINGS.increment();
+            } else {
+                stream.highWater = sequence;
+            }
+            add(hash);
+        }
+        return true;
+    }
+
+    // Forgets a patient's device streams (their filter bits age out with the generations)
+    public void forget(String patientId) {
+        streams.remove(patientId);
+    }
+
+    // Settings and footprint
+    public long getCapacity() { return capacity; }
+    public double getFalsePositiveRate() { return falsePositiveRate; }
+    public long filterBytes() { return current.sizeInBytes() + previous.sizeInBytes(); }
+
+    private void add(long hash) {
+        current.put(hash);
+        if (currentKeys.incrementAndGet() >= capacity) {
+            rotate();
+        }
+    }
+
+    private synchronized void rotate() {
+        if (currentKeys.get() < capacity) return; // Another thread rotated first
+        previous = current;
+        current = new BloomFilter(capacity, falsePositiveRate / 2);
+        currentKeys.set(0);
+    }
+
+    // 64-bit hash of the full key; String.hashCode alone is too collision-prone for millions of keys
+    static long hash(String patientId, String deviceId, long sequence) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < patientId.length(); i++) h = (h ^ patientId.charAt(i)) * 0x100000001B3L;
+        h = (h ^ 0x1F) * 0x100000001B3L;
+        for (int i = 0; i < deviceId.length(); i++) h = (h ^ deviceId.charAt(i)) * 0x100000001B3L;
+        return BloomFilter.mix(h ^ BloomFilter.mix(sequence));
+    }
+}
+
+// What happened to an uploaded reading
+enum IngestStatus {
+    PROCESSED, // Stored, evaluated and alerted on
+    DUPLICATE, // Retransmission of a reading already received
+    DEFERRED,  // Routine reading set aside under overload; ingested later unless a newer one replaces it
+    SHED       // Routine reading dropped under overload
+}
+
+// Outcome of submitting a reading to the ingestion pipeline
+class IngestOutcome {
+    private static final IngestOutcome DUPLICATE = new IngestOutcome(IngestStatus.DUPLICATE, null);
+    private static final IngestOutcome DEFERRED = new IngestOutcome(IngestStatus.DEFERRED, null);
+    private static final IngestOutcome SHED = new IngestOutcome(IngestStatus.SHED, null);
+
+    private IngestStatus status;        // What happened to the reading
+    private EarlyWarningResult warning; // Its evaluation, if it was processed
+
+    private IngestOutcome(IngestStatus status, EarlyWarningResult warning) {
+        this.status = status;
+        this.warning = warning;
+    }
+
+    // Factories for each outcome
+    static IngestOutcome processed(EarlyWarningResult warning) { return new IngestOutcome(IngestStatus.PROCESSED, warning); }
+    static IngestOutcome duplicate() { return DUPLICATE; }
+    static IngestOutcome deferred() { return DEFERRED; }
+    static IngestOutcome shed() { return SHED; }
+
+    // Getters for outcome attributes
+    public IngestStatus getStatus() { return status; }
+    public EarlyWarningResult getWarning() { return warning; }
+
+    // One-line description for replies and console output
+    public String describe() {
+        switch (status) {
+            case PROCESSED: return warning.describe();
+            case DUPLICATE: return "Duplicate reading ignored";
+            case DEFERRED: return "Server busy: reading queued, please send less often";
+            default: return "Server busy: reading dropped, please send less often";
+        }
+    }
+}
+
+// Admission control for the ingestion pipeline. At most maxInFlight readings are ingested at once, and the
+// notification backlog is watched as a sign that delivery has fallen behind. Urgent readings (a vital out of
+// range, an early warning such as a rising score or baseline drift, or a patient with an open alert) are always
+// admitted: when every slot is busy their producer waits for one, which slows it down instead of queueing
+// without bound. Routine readings never wait: under overload they are deferred, keeping only the newest one
+// per patient, and a drainer ingests them once there is room.
+// When maxDeferred patients already have a reading waiting, further routine readings are dropped.
+class IngestionGate {
+    private static final long DRAIN_PAUSE_MILLIS = 50; // Drainer's wait while the notification backlog is too long
+    private static final LongAdder DEFERRED = shedCounter("deferred");
+    private static final LongAdder COALESCED = shedCounter("coalesced");
+    private static final LongAdder DROPPED = shedCounter("dropped");
+    private static final LongAdder URGENT_WAITS = MetricsRegistry.global().counter(
+            "rpms_ingest_backpressure_waits_total", "Urgent readings that waited for an ingestion slot");
+
+    // A routine reading waiting for capacity
+    static final class DeferredReading {
+        private final Patient patient;
+        private final VitalSign vital;
+        private final long receivedAt;
+
+        DeferredReading(Patient patient, VitalSign vital, long receivedAt) {
+            this.patient = patient;
+            this.vital = vital;
+            this.receivedAt = receivedAt;
+        }
+
+        Patient getPatient() { return patient; }
+        VitalSign getVital() { return vital; }
+        long getReceivedAt() { return receivedAt; }
+    }
+
+    private int maxInFlight;          // Readings ingested at the same time
+    private Semaphore slots;          // Free ingestion slots
+    private int maxDeferred;          // Patients that may have a routine reading waiting
+    private LongSupplier backlog;     // Notifications waiting for delivery
+    private long backlogLimit;        // Backlog above which routine readings are deferred
+    private LinkedHashMap<String, DeferredReading> deferred; // Newest waiting reading per patient ID, oldest first
+    private volatile int deferredCount; // Size of deferred, readable without the lock
+    private Map<String, DeferredReading> taken; // Readings handed to a drainer and not yet claimed, by patient ID
+
+    // Constructor to initialize the gate; backlog may be null if there is no delivery queue to watch
+    public IngestionGate(int maxInFlight, int maxDeferred, LongSupplier backlog, long backlogLimit) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Readings in flight must be positive: " + maxInFlight);
+        if (maxDeferred < 0) throw new IllegalArgumentException("Deferred readings must not be negative: " + maxDeferred);
+        this.maxInFlight = maxInFlight;
+        this.slots = new Semaphore(maxInFlight);
+        this.maxDeferred = maxDeferred;
+        this.backlog = backlog != null ? backlog : () -> 0;
+        this.backlogLimit = backlogLimit;
+        this.deferred = new LinkedHashMap<>();
+        this.taken = new ConcurrentHashMap<>();
+    }
+
+    // Takes a slot for an urgent reading, waiting for one if necessary
+    public void enterUrgent() {
+        if (!slots.tryAcquire()) {
+            URGENT_WAITS.increment();
+            slots.acquireUninterruptibly();
+        }
+    }
+
+    // Takes a slot for a routine reading; false if the pipeline is overloaded
+    public boolean tryEnterRoutine() {
+        return backlog.getAsLong() <= backlogLimit && slots.tryAcquire();
+    }
+
+    // Returns a slot taken by enterUrgent, tryEnterRoutine or takeDeferred
+    public void exit() {
+        slots.release();
+    }
+
+    // True if a routine reading of the patient could be deferred rather than dropped
+    public synchronized boolean canDefer(String patientId) {
+        return deferred.size() < maxDeferred || deferred.containsKey(patientId);
+    }
+
+    // Sets a routine reading aside, replacing an older one of the same patient; false (and counted as dropped)
+    // if too many patients are already waiting
+    public synchronized boolean defer(Patient patient, VitalSign vital, long now) {
+        String patientId = patient.getId();
+        DeferredReading reading = new DeferredReading(patient, vital, now);
+        if (deferred.containsKey(patientId)) {
+            deferred.put(patientId, reading); // Keeps the patient's place in line
+            COALESCED.increment();
+            return true;
+        }
+        if (deferred.size() >= maxDeferred) {
+            DROPPED.increment();
+            return false;
+        }
+        deferred.put(patientId, reading);
+        deferredCount = deferred.size();
+        DEFERRED.increment();
+        notifyAll();
+        return true;
+    }
+
+    // Counts a routine reading dropped without trying to defer it
+    public void drop() {
+        DROPPED.increment();
+    }
+
+    // Discards the patient's waiting reading, which a newer admitted reading makes stale, including one a
+    // drainer has taken but not yet claimed
+    public void supersede(String patientId) {
+        if (deferredCount == 0 && taken.isEmpty()) return;
+        synchronized (this) {
+            if (deferred.remove(patientId) != null) {
+                deferredCount = deferred.size();
+                COALESCED.increment();
+            }
+            if (taken.remove(patientId) != null) {
+                COALESCED.increment();
+            }
+        }
+    }
+
+    // Waits for the oldest deferred reading and for room to ingest it; returns holding a slot. The reading
+    // must be claimed before it is ingested, since a newer one may supersede it while it waits for room.
+    public DeferredReading takeDeferred() throws InterruptedException {
+        DeferredReading reading;
+        synchronized (this) {
+            while (deferred.isEmpty()) {
+                wait();
+            }
+            Iterator<DeferredReading> it = deferred.values().iterator();
+            reading = it.next();
+            it.remove();
+            deferredCount = deferred.size();
+            taken.put(reading.getPatient().getId(), reading);
+        }
+        try {
+            while (backlog.getAsLong() > backlogLimit) {
+                Thread.sleep(DRAIN_PAUSE_MILLIS);
+            }
+            slots.acquire();
+        } catch (InterruptedException e) {
+            taken.remove(reading.getPatient().getId(), reading);
+            throw e;
+        }
+        return reading;
+    }
+
+    // True if a reading returned by takeDeferred is still the patient's newest and may be ingested; false if
+    // a newer reading superseded it. Called under the patient's lock, which orders it against that reading.
+    public boolean claim(DeferredReading reading) {
+        return taken.remove(reading.getPatient().getId(), reading);
+    }
+
+    // Current load
+    public int getDeferredCount() { return deferredCount; }
+    public int getBusySlots() { return maxInFlight - slots.availablePermits(); }
+
+    private static LongAdder shedCounter(String action) {
+        return MetricsRegistry.global().counter("rpms_ingest_shed_total",
+                                                "Routine readings deferred, coalesced or dropped under overload", "action", action);
+    }
+}
+
+// Reusable ingestion path for one reading: store it, evaluate it once, and notify the cached care team
+class VitalsIngestionPipeline {
+    private static final LatencyHistogram INGEST_LATENCY = MetricsRegistry.global().timer(
+            "rpms_vitals_ingest_seconds", "Time to store, evaluate and alert on one reading");
+    private static final LatencyHistogram EVALUATION_LATENCY = MetricsRegistry.global().timer(
+            "rpms_threshold_evaluation_seconds", "Time to score a reading and update its alert episodes");
+    private static final LatencyHistogram FANOUT_LATENCY = MetricsRegistry.global().timer(
+            "rpms_alert_fanout_seconds", "Time to hand alert events to every care team member");
+    private static final LongAdder ALERT_EVENTS = MetricsRegistry.global().counter(
+            "rpms_alert_events_total", "Alert episode events raised by ingested readings");
+    private static final LongAdder ALERT_FAILURES = MetricsRegistry.global().counter(
+            "rpms_alert_notify_failures_total", "Alert notifications that could not be handed off");
+
+    private VitalsDatabase vitalsDB;                 // Store for the readings
+    private EarlyWarningEngine earlyWarningEngine;   // Streaming early warning scores
+    private AlertTracker alertTracker;               // Alert episodes per patient and condition
+    private Notifiable alertNotifier;                // Notifier shared by all alert messages
+    private Map<String, CopyOnWriteArrayList<Doctor>> careTeams; // Doctors to alert, keyed by patient ID
+    private Map<String, NotificationService> doctorServices; // Notification service per doctor email
+    private LiveVitalsHub liveVitals;                // Pushes readings and alert events to live subscribers
+    private Map<Doctor, DoctorDashboard> dashboards; // Triage view per doctor, updated by every reading
+    private ReadingDeduplicator deduplicator;        // Drops retransmitted readings that carry a device key
+    private IngestionGate gate;                      // Admission control and load shedding for submitted readings
+    private Thread drainer;                          // Ingests deferred readings; started on the first deferral
+
+    // Constructor to initialize the pipeline with the default duplicate suppression and admission settings
+    public VitalsIngestionPipeline(VitalsDatabase vitalsDB, EarlyWarningEngine earlyWarningEngine,
+                                   AlertTracker alertTracker, Notifiable alertNotifier) {
+        this(vitalsDB, earlyWarningEngine, alertTracker, alertNotifier, new ReadingDeduplicator(1_000_000, 0.001),
+             new IngestionGate(64, 10_000, null, Long.MAX_VALUE));
+    }
+
+    // Constructor to initialize the pipeline
+    public VitalsIngestionPipeline(VitalsDatabase vitalsDB, EarlyWarningEngine earlyWarningEngine,
+                                   AlertTracker alertTracker, Notifiable alertNotifier,
+                                   ReadingDeduplicator deduplicator, IngestionGate gate) {
+        this.vitalsDB = vitalsDB;
+        this.earlyWarningEngine = earlyWarningEngine;
+        this.alertTracker = alertTracker;
+        this.alertNotifier = alertNotifier;
+        this.careTeams = new ConcurrentHashMap<>();
+        this.doctorServices = new ConcurrentHashMap<>();
+        this.liveVitals = new LiveVitalsHub();
+        this.dashboards = new ConcurrentHashMap<>();
+        this.deduplicator = deduplicator;
+        this.gate = gate;
+    }
+
+    // Adds a doctor to the set of recipients for a patient's alerts
+    public void addCareTeamMember(Patient patient, Doctor doctor) {
+        careTeams.computeIfAbsent(patient.getId(), k -> new CopyOnWriteArrayList<>()).addIfAbsent(doctor);
+    }
+
+    // Doctors who receive alerts for the patient (empty if none)
+    public List<Doctor> getCareTeam(Patient patient) {
+        List<Doctor> team = careTeams.get(patient.getId());
+        return team != null ? team : Collections.emptyList();
+    }
+
+    // Forgets everything kept about a patient: care team, dashboard entries, baseline and open alerts
+    public void removePatient(Patient patient) {
+        synchronized (patient) {
+            for (Doctor d : getCareTeam(patient)) {
+                dashboardFor(d).remove(patient.getId());
+            }
+            careTeams.remove(patient.getId());
+            earlyWarningEngine.reset(patient.getId());
+            alertTracker.forget(patient.getId());
+            deduplicator.forget(patient.getId());
+        }
+    }
+
+    // Triage dashboard of a doctor (empty until one of their patients sends a reading)
+    public DoctorDashboard dashboardFor(Doctor doctor) {
+        return dashboards.computeIfAbsent(doctor, d -> new DoctorDashboard());
+    }
+
+    // Cached notification service for a doctor
+    public NotificationService serviceFor(Doctor doctor) {
+        return doctorServices.computeIfAbsent(doctor.getEmail(), email -> new NotificationService(alertNotifier, email));
+    }
+
+    // Submits an uploaded reading through admission control
+    public IngestOutcome submit(Patient patient, VitalSign vital, long now) {
+        return submit(patient, vital, now, null, 0);
+    }
+
+    // Submits an uploaded reading through admission control. A reading with a device key (deviceId non-null)
+    // that the device already delivered is ignored. The key of a routine reading dropped under overload is not
+    // recorded, so the device can send it again.
+    public IngestOutcome submit(Patient patient, VitalSign vital, long now, String deviceId, long sequence) {
+        String patientId = patient.getId();
+        boolean urgent = AlertCondition.anyAbnormal(vital) || alertTracker.openEpisodeCount(patientId) > 0
+                         || earlyWarningEngine.wouldAlert(patientId, vital);
+        boolean admitted;
+        if (urgent) {
+            gate.enterUrgent();
+            admitted = true;
+        } else {
+            admitted = gate.tryEnterRoutine();
+        }
+        try {
+            if (!admitted && !gate.canDefer(patientId)) {
+                gate.drop();
+                return IngestOutcome.shed();
+            }
+            if (!admitted) {
+                boolean[] kept = new boolean[1];
+                BooleanSupplier defer = () -> kept[0] = gate.defer(patient, vital, now);
+                if (deviceId == null) {
+                    defer.getAsBoolean();
+                } else if (!deduplicator.firstSeen(patientId, deviceId, sequence, defer)) {
+                    return IngestOutcome.duplicate();
+                }
+                if (!kept[0]) return IngestOutcome.shed();
+                startDrainer();
+                return IngestOutcome.deferred();
+            }
+            if (deviceId != null && !deduplicator.firstSeen(patientId, deviceId, sequence)) {
+                return IngestOutcome.duplicate();
+            }
+            gate.supersede(patientId);
+            return IngestOutcome.processed(ingest(patient, vital, now));
+        } finally {
+            if (admitted) gate.exit();
+        }
+    }
+
+    private synchronized void startDrainer() {
+        if (drainer != null) return;
+        drainer = new Thread(this::drainDeferred, "ingest-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // Ingests deferred readings as capacity frees up, until stopped
+    private void drainDeferred() {
+        while (true) {
+            IngestionGate.DeferredReading reading;
+            try {
+                reading = gate.takeDeferred();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                ingest(reading.getPatient(), reading.getVital(), reading.getReceivedAt(), reading);
+            } catch (RuntimeException e) {
+                System.out.println("Error: could not ingest deferred reading: " + e.getMessage());
+            } finally {
+                gate.exit();
+            }
+        }
+    }
+
+    // Stops the deferred-reading drainer; readings still deferred are discarded
+    public synchronized void shutdown() {
+        if (drainer != null) {
+            drainer.interrupt();
+        }
+    }
+
+    // Stores and evaluates a reading and notifies the care team of alert episode changes
+    public EarlyWarningResult ingest(Patient patient, VitalSign vital, long now) {
+        return ingest(patient, vital, now, null);
+    }
+
+    // As above; a deferred reading is first claimed from the gate, and skipped (returning null) if a newer
+    // reading of the patient superseded it while it waited for a slot
+    private EarlyWarningResult ingest(Patient patient, VitalSign vital, long now, IngestionGate.DeferredReading deferred) {
+        long start = System.nanoTime();
+        String patientId = patient.getId();
+        EarlyWarningResult warning;
+        List<AlertEvent> events;
+        List<Doctor> team = getCareTeam(patient);
+        // Keeps one patient's readings in the same order in the store, engine, tracker and dashboards
+        synchronized (patient) {
+            if (deferred != null && !gate.claim(deferred)) return null;
+            vitalsDB.addVitalSign(patientId, vital);
+            warning = earlyWarningEngine.evaluate(patientId, vital);
+            events = alertTracker.update(patientId, vital, warning, now);
+            if (!team.isEmpty()) {
+                TriageEntry entry = new TriageEntry(patient, vital, warning, alertTracker.openEpisodeCount(patientId),
+                                                    alertTracker.maxOpenSeverity(patientId), now);
+                for (Doctor d : team) {
+                    dashboardFor(d).update(entry);
+                }
+            }
+        }
+        long evaluated = System.nanoTime();
+        EVALUATION_LATENCY.record(evaluated - start);
+        if (!events.isEmpty()) {
+            vitalsDB.getEvents().publish(patientId, PatientChange.ALERT);
+        }
+        liveVitals.publish(patientId, vital, warning, events, now);
+        if (!events.isEmpty()) {
+            ALERT_EVENTS.add(events.size());
+            for (Doctor d : team) {
+                EmergencyAlert alert = new EmergencyAlert(patient, vital, warning, serviceFor(d));
+                try {
+                    alert.notifyEvents(events, now);
+                } catch (VitalThresholdException | NotificationException e) {
+                    ALERT_FAILURES.increment();
+                    System.out.println("Error: " + e.getMessage());
+                }
+            }
+            FANOUT_LATENCY.record(System.nanoTime() - evaluated);
+        }
+        INGEST_LATENCY.record(System.nanoTime() - start);
+        return warning;
+    }
+
+    // Getters for the pipeline stages
+    public VitalsDatabase getVitalsDB() { return vitalsDB; }
+    public EarlyWarningEngine getEarlyWarningEngine() { return earlyWarningEngine; }
+    public AlertTracker getAlertTracker() { return alertTracker; }
+    public LiveVitalsHub getLiveVitals() { return liveVitals; }
+    public ReadingDeduplicator getDeduplicator() { return deduplicator; }
+    public IngestionGate getGate() { return gate; }
+}
+
+// What a doctor sees first when opening a patient: latest reading, open alerts, next appointment and the
+// prescriptions in force (the newest one per medication). Immutable; built by PatientSummaryCache.
+class PatientSummary {
+    private final Patient patient;                 // Patient summarized
+    private final VitalSign latestVital;           // Newest reading, or null if none
+    private final int readingCount;                // Readings stored
+    private final int openAlerts;                  // Open alert episodes
+    private final int maxSeverity;                 // Highest notified severity among them (0 if none)
+    private final Appointment nextAppointment;     // Next open appointment, or null
+    private final List<Prescription> prescriptions; // Newest prescription per medication, newest first
+    private final LocalDate day;                   // Day the next appointment was worked out for
+
+    // Constructor to initialize a summary
+    public PatientSummary(Patient patient, VitalSign latestVital, int readingCount, int openAlerts, int maxSeverity,
+                          Appointment nextAppointment, List<Prescription> prescriptions, LocalDate day) {
+        this.patient = patient;
+        this.latestVital = latestVital;
+        this.readingCount = readingCount;
+        this.openAlerts = openAlerts;
+        this.maxSeverity = maxSeverity;
+        this.nextAppointment = nextAppointment;
+        this.prescriptions = Collections.unmodifiableList(prescriptions);
+        this.day = day;
+    }
+
+    // Builds a summary from the stores: one pass over the readings, the history (newest first) and the
+    // appointment snapshot
+    public static PatientSummary load(Patient patient, VitalsDatabase vitals, AppointmentManager appointments,
+                                      AlertTracker alerts, LocalDate today) {
+        String id = patient.getId();
+        VitalSign latest = null;
+        int readings = 0;
+        for (VitalSign v : vitals.readings(id)) {
+            latest = v;
+            readings++;
+        }
+        List<Prescription> prescriptions = new ArrayList<>();
+        Set<String> medications = new HashSet<>();
+        for (Feedback f : patient.getMedicalHistory().newestFirst()) {
+            Prescription p = f.getPrescription();
+            if (p != null && medications.add(String.valueOf(p.getMedication()).toLowerCase(Locale.ROOT))) {
+                prescriptions.add(p);
+            }
+        }
+        // The earliest open appointment dated today or later; one with a free-text date only if none is dated
+        Appointment next = null;
+        LocalDate nextDate = null;
+        Appointment undated = null;
+        for (Appointment a : appointments.getAppointments()) {
+            if (a.getPatient() != patient || "Cancelled".equals(a.getStatus())) continue;
+            LocalDate date;
+            try {
+                date = LocalDate.parse(a.getAppointmentDate());
+            } catch (DateTimeParseException | NullPointerException e) {
+                if (undated == null) undated = a;
+                continue;
+            }
+            if (!date.isBefore(today) && (nextDate == null || date.isBefore(nextDate))) {
+                next = a;
+                nextDate = date;
+            }
+        }
+        return new PatientSummary(patient, latest, readings, alerts.openEpisodeCount(id), alerts.maxOpenSeverity(id),
+                                  next != null ? next : undated, prescriptions, today);
+    }
+
+    // Getters for summary attributes
+    public Patient getPatient() { return patient; }
+    public VitalSign getLatestVital() { return latestVital; }
+    public int getReadingCount() { return readingCount; }
+    public int getOpenAlerts() { return openAlerts; }
+    public int getMaxSeverity() { return maxSeverity; }
+    public Appointment getNextAppointment() { return nextAppointment; }
+    public List<Prescription> getPrescriptions() { return prescriptions; }
+    public LocalDate getDay() { return day; }
+
+    // The summary as protocol rows
+    public List<String> rows() {
+        List<String> rows = new ArrayList<>();
+        rows.add("PATIENT|" + patient.getId() + "|" + patient.getName());
+        VitalSign v = latestVital;
+        rows.add(v == null ? "LATEST|none" : "LATEST|" + v.getHeartRate() + "|" + v.getOxygenLevel() + "|"
+                 + v.getBloodPressure() + "|" + v.getTemperature() + "|" + readingCount + " readings");
+        rows.add("ALERTS|" + openAlerts + "|" + maxSeverity);
+        Appointment a = nextAppointment;
+        rows.add(a == null ? "NEXT|none" : "NEXT|" + a.getAppointmentDate() + "|" + a.getDoctor().getId() + "|" + a.getStatus());
+        for (Prescription p : prescriptions) {
+            rows.add("PRESCRIPTION|" + p.getMedication() + "|" + p.getDosage() + "|" + p.getSchedule());
+        }
+        return rows;
+    }
+
+    // Displays the summary
+    public void display() {
+        System.out.println("Summary for " + patient.getName() + " (" + patient.getId() + "):");
+        if (latestVital == null) {
+            System.out.println("No vitals recorded.");
+        } else {
+            System.out.print("Latest of " + readingCount + " readings: ");
+            latestVital.displayVitals();
+        }
+        System.out.println("Open alerts: " + openAlerts + (openAlerts > 0 ? ", worst severity " + maxSeverity : ""));
+        if (nextAppointment == null) {
+            System.out.println("No upcoming appointment.");
+        } else {
+            System.out.print("Next appointment: ");
+            nextAppointment.displayAppointment();
+        }
+        if (prescriptions.isEmpty()) {
+            System.out.println("No prescriptions.");
+        }
+        for (Prescription p : prescriptions) {
+            p.displayPrescription();
+        }
+    }
+}
+
+// Read-through cache of patient summaries, so a patient opened by several doctors, or several times, is built
+// once. At most maxEntries summaries are kept, least recently used evicted first (0 turns caching off).
+// Entries are dropped when PatientEvents reports a change to the patient, and a summary is never served on a
+// later day than it was built for, since its next appointment may have passed. A change made while a summary
+// is being built keeps that summary out of the cache: changes bump a counter for the patient's stripe, and
+// a load is only cached if the counter did not move.
+// The registry counters add up every cache in the process; hitRatio() and describe() report this cache alone.
+class PatientSummaryCache implements PatientChangeListener {
+    private static final LongAdder HITS = MetricsRegistry.global().counter(
+            "rpms_patient_summary_requests_total", "Patient summary requests by cache result", "result", "hit");
+    private static final LongAdder MISSES = MetricsRegistry.global().counter(
+            "rpms_patient_summary_requests_total", "Patient summary requests by cache result", "result", "miss");
+    private static final LongAdder EVICTIONS = MetricsRegistry.global().counter(
+            "rpms_patient_summary_evictions_total", "Patient summaries evicted to stay within the cache size");
+    private static final LatencyHistogram LOAD_LATENCY = MetricsRegistry.global().timer(
+            "rpms_patient_summary_load_seconds", "Time to build a patient summary from the stores");
+    private static final Map<PatientChange, LongAdder> INVALIDATIONS = new EnumMap<>(PatientChange.class);
+    private static final int STRIPES = 1024; // Change counters; patients sharing one only skip caching more often
+
+    static {
+        for (PatientChange change : PatientChange.values()) {
+            INVALIDATIONS.put(change, MetricsRegistry.global().counter("rpms_patient_summary_invalidations_total",
+                    "Cached patient summaries dropped because the patient changed", "change",
+                    change.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    private VitalsDatabase vitals;                   // Source of readings
+    private AppointmentManager appointments;         // Source of appointments
+    private AlertTracker alerts;                     // Source of alert state
+    private int maxEntries;                          // Most summaries kept
+    private LinkedHashMap<String, PatientSummary> entries; // Summaries by patient ID, least recently used first (guarded by this)
+    private Set<String> cachedIds;                   // Keys of entries, checked without locking on every change
+    private AtomicLongArray changes;                 // Changes seen per stripe of patient IDs
+    private LongAdder hits = new LongAdder();        // Requests answered from this cache
+    private LongAdder misses = new LongAdder();      // Requests that built a summary
+    private LongAdder evictions = new LongAdder();   // Summaries evicted to stay within maxEntries
+    private LongAdder invalidations = new LongAdder(); // Summaries dropped because the patient changed
+    private LatencyHistogram loadLatency = new LatencyHistogram(); // Time to build a summary
+
+    // Constructor to initialize an empty cache over the given stores
+    public PatientSummaryCache(VitalsDatabase vitals, AppointmentManager appointments, AlertTracker alerts,
+                               int maxEntries) {
+        if (maxEntries < 0) throw new IllegalArgumentException("The summary cache size cannot be negative.");
+        this.vitals = vitals;
+        this.appointments = appointments;
+        this.alerts = alerts;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.cachedIds = ConcurrentHashMap.newKeySet();
+        this.changes = new AtomicLongArray(STRIPES);
+    }
+
+    // Summary of a patient, from the cache or built from the stores
+    public PatientSummary get(Patient patient) {
+        String id = patient.getId();
+        LocalDate today = LocalDate.now();
+        synchronized (this) {
+            PatientSummary cached = entries.get(id);
+            if (cached != null && cached.getDay().equals(today)) {
+                HITS.increment();
+                hits.increment();
+                return cached;
+            }
+        }
+        MISSES.increment();
+        misses.increment();
+        int stripe = stripe(id);
+        long seen = changes.get(stripe);
+        long start = System.nanoTime();
+        PatientSummary summary = PatientSummary.load(patient, vitals, appointments, alerts, today);
+        long elapsed = System.nanoTime() - start;
+        LOAD_LATENCY.record(elapsed);
+        loadLatency.record(elapsed);
+        if (maxEntries > 0) {
+            synchronized (this) {
+                // Published before the change counter is read again, so a change either sees the ID or is seen here
+                cachedIds.add(id);
+                entries.put(id, summary);
+                if (changes.get(stripe) != seen) {
+                    entries.remove(id);
+                    cachedIds.remove(id);
+                }
+                evict();
+            }
+        }
+        return summary;
+    }
+
+    // Drops the patient's summary; cheap when it is not cached, which is the case for most readings
+    @Override
+    public void patientChanged(String patientId, PatientChange change) {
+        changes.incrementAndGet(stripe(patientId));
+        if (!cachedIds.contains(patientId)) return;
+        synchronized (this) {
+            if (entries.remove(patientId) != null) {
+                cachedIds.remove(patientId);
+                INVALIDATIONS.get(change).increment();
+                invalidations.increment();
+            }
+        }
+    }
+
+    // Number of cached summaries
+    public synchronized int size() { return entries.size(); }
+
+    public int getMaxEntries() { return maxEntries; }
+
+    // Share of requests this cache answered since it was created
+    public double hitRatio() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0.0 : (double) hit / total;
+    }
+
+    // One-line statistics of this cache for administrators
+    public String describe() {
+        return String.format("Patient summary cache: %d of %d entries | hit ratio %.1f%% (%d hits, %d misses) | "
+                             + "%d evictions | %d invalidations | load p50 %.3f ms, p99 %.3f ms", size(), maxEntries,
+                             hitRatio() * 100, hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(),
+                             loadLatency.valueAtPercentile(50) / 1e6, loadLatency.valueAtPercentile(99) / 1e6);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, PatientSummary>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries) {
+            cachedIds.remove(eldest.next().getKey());
+            eldest.remove();
+            EVICTIONS.increment();
+            evictions.increment();
+        }
+    }
+
+    private static int stripe(String patientId) {
+        int h = patientId.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
+
+// Server class to handle chat between doctor and patient
+class ChatServer {
+    private List<String> messages; // List of chat messages
+    private Doctor doctor;         // Doctor in the chat
+    private Patient patient;       // Patient in the chat
+    private TextIndex index;       // Where messages are indexed for search
+
+    // Constructor to initialize the chat server, with messages indexed only for this chat
+    public ChatServer(Doctor doctor, Patient patient) {
+        this(doctor, patient, new TextIndex());
+    }
+
+    // Constructor to initialize the chat server indexing messages in the given index
+    public ChatServer(Doctor doctor, Patient patient, TextIndex index) {
+        this.messages = new ArrayList<>();
+        this.doctor = doctor;
+        this.patient = patient;
+        this.index = index;
+    }
+
+    // Adds a message to the chat
+    public void sendMessage(String sender, String message) {
+        messages.add(sender + ": " + message);
+        index.add(DocumentKind.CHAT, patient.getId(), doctor.getId(), sender + ": " + message);
+    }
+
+    // Returns a copy of the chat messages
+    public List<String> getMessages() { return new ArrayList<>(messages); }
+
+    // Getters for the participants
+    public Doctor getDoctor() { return doctor; }
+    public Patient getPatient() { return patient; }
+}
+
+// Client class for chat functionality
+class ChatClient {
+    private User user;        // User participating in the chat
+    private ChatServer server;// Chat server instance
+
+    // Constructor to initialize the chat client
+    public ChatClient(User user, ChatServer server) {
+        this.user = user;
+        this.server = server;
+    }
+
+    // Sends a message through the server
+    public void sendMessage(String message) {
+        server.sendMessage(user.getName(), message);
+    }
+
+    // Displays all messages in the chat
+    public void displayMessages() {
+        for (String msg : server.getMessages()) {
+            System.out.println(msg);
+        }
+    }
+}
+
+// Class to handle video calls between doctor and patient
+class VideoCall {
+    private String meetingLink; // Link for the video call
+    private Doctor doctor;      // Doctor in the call
+    private Patient patient;    // Patient in the call
+
+    // Constructor to initialize a video call
+    public VideoCall(Doctor doctor, Patient patient, String meetingLink) {
+        this.doctor = doctor;
+        this.patient = patient;
+        this.meetingLink = meetingLink;
+    }
+
+    // Starts the video call and returns the meeting link
+    public String startCall() throws Exception {
+        if (doctor == null || patient == null) {
+            throw new Exception("Invalid doctor or patient for video call.");
+        }
+        return "Video call started: " + meetingLink;
+    }
+}
+
+// Service class to handle sending reminders
+class ReminderService {
+    private static final LatencyHistogram APPOINTMENT_RUN = MetricsRegistry.global().timer(
+            "rpms_reminder_run_seconds", "Duration of a reminder run", "kind", "appointment");
+    private static final LatencyHistogram MEDICATION_RUN = MetricsRegistry.global().timer(
+            "rpms_reminder_run_seconds", "Duration of a reminder run", "kind", "medication");
+    private static final LongAdder APPOINTMENT_SENT = MetricsRegistry.global().counter(
+            "rpms_reminders_sent_total", "Reminders handed to the notifier", "kind", "appointment");
+    private static final LongAdder MEDICATION_SENT = MetricsRegistry.global().counter(
+            "rpms_reminders_sent_total", "Reminders handed to the notifier", "kind", "medication");
+
+    private List<Appointment> appointments; // List of appointments
+    private List<Prescription> prescriptions; // List of prescriptions
+    private Notifiable notifier;           // Notifier for sending reminders
+
+    // Constructor to initialize the reminder service
+    public ReminderService(Notifiable notifier) {
+        this.appointments = new ArrayList<>();
+        this.prescriptions = new ArrayList<>();
+        this.notifier = notifier;
+    }
+
+    // Constructor for a run over snapshots of the appointments and prescriptions; they are read, not copied
+    public ReminderService(Notifiable notifier, List<Appointment> appointments, List<Prescription> prescriptions) {
+        this.appointments = appointments;
+        this.prescriptions = prescriptions;
+        this.notifier = notifier;
+    }
+
+    // Adds an appointment to the reminder list
+    public void addAppointment(Appointment appointment) {
+        appointments.add(appointment);
+    }
+
+    // Adds a prescription to the reminder list
+    public void addPrescription(Prescription prescription) {
+        prescriptions.add(prescription);
+    }
+
+    // Sends reminders for approved appointments
+    public void sendAppointmentReminder() throws NotificationException {
+        long start = System.nanoTime();
+        try {
+            for (Appointment a : appointments) {
+                if ("Approved".equals(a.getStatus())) {
+                    String message = "Reminder: Appointment with Dr. " + a.getDoctor().getName() +
+                                     " on " + a.getAppointmentDate();
+                    notifier.sendNotification(message, a.getPatient().getEmail());
+                    APPOINTMENT_SENT.increment();
+                }
+            }
+        } finally {
+            APPOINTMENT_RUN.record(System.nanoTime() - start);
+        }
+    }
+
+    // Sends reminders for medication schedules
+    public void sendMedicationReminder() throws NotificationException {
+        long start = System.nanoTime();
+        try {
+            for (Prescription p : prescriptions) {
+                String message = "Reminder: Take " + p.getMedication() + " (" + p.getDosage() +
+                                 ") as per schedule: " + p.getSchedule();
+                notifier.sendNotification(message, p.getPatient().getEmail());
+                MEDICATION_SENT.increment();
+            }
+        } finally {
+            MEDICATION_RUN.record(System.nanoTime() - start);
+        }
+    }
+}
+
+// Users of every role in registration order, as of one point in time; later changes do not affect it
+class UserSnapshot {
+    private final PersistentVector<Patient> patients;      // Patients in registration order
+    private final PersistentVector<Doctor> doctors;        // Doctors in registration order
+    private final PersistentVector<Administrator> admins;  // Administrators in registration order
+
+    // Constructor to initialize a snapshot
+    UserSnapshot(PersistentVector<Patient> patients, PersistentVector<Doctor> doctors,
+                 PersistentVector<Administrator> admins) {
+        this.patients = patients;
+        this.doctors = doctors;
+        this.admins = admins;
+    }
+
+    // Unmodifiable lists per role
+    public List<Patient> getPatients() { return patients; }
+    public List<Doctor> getDoctors() { return doctors; }
+    public List<Administrator> getAdministrators() { return admins; }
+
+    // The next version, with a user added to or removed from its role
+    UserSnapshot plus(User user) {
+        if (user instanceof Patient) return new UserSnapshot(patients.plus((Patient) user), doctors, admins);
+        if (user instanceof Doctor) return new UserSnapshot(patients, doctors.plus((Doctor) user), admins);
+        return new UserSnapshot(patients, doctors, admins.plus((Administrator) user));
+    }
+
+    UserSnapshot minus(User user) {
+        if (user instanceof Patient) return new UserSnapshot(patients.without(u -> u == user), doctors, admins);
+        if (user instanceof Doctor) return new UserSnapshot(patients, doctors.without(u -> u == user), admins);
+        return new UserSnapshot(patients, doctors, admins.without(u -> u == user));
+    }
+}
+
+// Thread-safe user store: an ID index per role for constant-time login and lookup, plus registration order
+// for listings. IDs are matched case-insensitively for lookups and exactly for login, as before. Listings
+// come from an immutable UserSnapshot that writers replace, so a long listing never blocks a registration
+// and always shows one consistent version of every role.
+class UserDirectory {
+    private Map<String, Patient> patientsById;     // Patients keyed by lower-case ID
+    private Map<String, Doctor> doctorsById;       // Doctors keyed by lower-case ID
+    private Map<String, Administrator> adminsById; // Administrators keyed by lower-case ID
+    private volatile UserSnapshot snapshot;        // Registration order of every role, latest version
+
+    // Constructor to initialize an empty directory
+    public UserDirectory() {
+        patientsById = new ConcurrentHashMap<>();
+        doctorsById = new ConcurrentHashMap<>();
+        adminsById = new ConcurrentHashMap<>();
+        snapshot = new UserSnapshot(PersistentVector.empty(), PersistentVector.empty(), PersistentVector.empty());
+    }
+
+    // Adds a user under its role; returns false if another user of that role already has the ID
+    public boolean add(User user) {
+        String key = keyOf(user.getId());
+        if (user instanceof Patient) {
+            if (patientsById.putIfAbsent(key, (Patient) user) != null) return false;
+        } else if (user instanceof Doctor) {
+            if (doctorsById.putIfAbsent(key, (Doctor) user) != null) return false;
+        } else if (user instanceof Administrator) {
+            if (adminsById.putIfAbsent(key, (Administrator) user) != null) return false;
+        } else {
+            return false;
+        }
+        synchronized (this) {
+            snapshot = snapshot.plus(user);
+        }
+        return true;
+    }
+
+    // Removes a user; returns false if the directory does not hold this user
+    public boolean remove(User user) {
+        String key = keyOf(user.getId());
+        if (user instanceof Patient) {
+            if (!patientsById.remove(key, user)) return false;
+        } else if (user instanceof Doctor) {
+            if (!doctorsById.remove(key, user)) return false;
+        } else if (user instanceof Administrator) {
+            if (!adminsById.remove(key, user)) return false;
+        } else {
+            return false;
+        }
+        synchronized (this) {
+            snapshot = snapshot.minus(user);
+        }
+        return true;
+    }
+
+    // Returns the user with the given credentials, or null if they do not match; patients are checked first
+    public User authenticate(String id, String password) {
+        if (id == null || password == null) return null;
+        String key = keyOf(id);
+        User user = matches(patientsById.get(key), id, password);
+        if (user == null) user = matches(doctorsById.get(key), id, password);
+        if (user == null) user = matches(adminsById.get(key), id, password);
+        return user;
+    }
+
+    // Lookups by ID, ignoring case
+    public Patient findPatient(String id) { return id == null ? null : patientsById.get(keyOf(id)); }
+    public Doctor findDoctor(String id) { return id == null ? null : doctorsById.get(keyOf(id)); }
+
+    // Any user with the ID, ignoring case; patients first, then doctors, then administrators
+    public User find(String id) {
+        if (id == null) return null;
+        String key = keyOf(id);
+        User user = patientsById.get(key);
+        if (user == null) user = doctorsById.get(key);
+        if (user == null) user = adminsById.get(key);
+        return user;
+    }
+
+    // All users as of now; take one snapshot when listing several roles so they agree with each other
+    public UserSnapshot snapshot() { return snapshot; }
+
+    // Users of each role in registration order, each from the latest snapshot
+    public List<Patient> getPatients() { return snapshot.getPatients(); }
+    public List<Doctor> getDoctors() { return snapshot.getDoctors(); }
+    public List<Administrator> getAdministrators() { return snapshot.getAdministrators(); }
+
+    // Counts per role
+    public int getPatientCount() { return patientsById.size(); }
+    public int getDoctorCount() { return doctorsById.size(); }
+    public int getAdministratorCount() { return adminsById.size(); }
+
+    private static User matches(User user, String id, String password) {
+        return user != null && user.getId().equals(id) && user.getPassword().equals(password) ? user : null;
+    }
+
+    private static String keyOf(String id) {
+        return id.toLowerCase(Locale.ROOT);
+    }
+}
+
+// Outcome of one session command: a status message plus optional data rows
+class CommandResult {
+    private boolean ok;           // Whether the command succeeded
+    private String message;       // Status text
+    private List<String> rows;    // Data rows (e.g., appointments), empty for most commands
+    private boolean endSession;   // Set by QUIT
+
+    private CommandResult(boolean ok, String message, List<String> rows, boolean endSession) {
+        this.ok = ok;
+        this.message = message;
+        this.rows = rows;
+        this.endSession = endSession;
+    }
+
+    // Factory methods for the possible outcomes
+    public static CommandResult ok(String message) { return new CommandResult(true, message, Collections.emptyList(), false); }
+    public static CommandResult ok(String message, List<String> rows) { return new CommandResult(true, message, rows, false); }
+    public static CommandResult error(String message) { return new CommandResult(false, message, Collections.emptyList(), false); }
+    public static CommandResult error(String message, List<String> rows) { return new CommandResult(false, message, rows, false); }
+    public static CommandResult bye() { return new CommandResult(true, "Goodbye", Collections.emptyList(), true); }
+
+    // Getters for the result
+    public boolean isOk() { return ok; }
+    public String getMessage() { return message; }
+    public List<String> getRows() { return rows; }
+    public boolean isEndSession() { return endSession; }
+}
+
+// Command interpreter behind one server connection: a session on this process, or one routed to shards
+interface LineSession {
+    CommandResult execute(String line);
+    void setPushSink(ClientSession.PushSink pushSink);
+    void close();
+}
+
+// One user's session: who is logged in, and the commands they can run against the shared domain state.
+// Commands are a word followed by '|'-separated arguments, e.g. "LOGIN p1|secret" or "UPLOAD 72|98|120/80|36.6".
+class ClientSession implements LineSession {
+    private static final Map<String, LatencyHistogram> COMMAND_LATENCY = new ConcurrentHashMap<>();
+    static final List<String> HELP = List.of(
+            "REGISTER PATIENT|id|name|email|password (or DOCTOR, ADMIN)", "LOGIN id|password", "LOGOUT", "WHOAMI",
+            "UPLOAD heartRate|oxygenLevel|systolic/diastolic|temperature[|deviceId|sequence] (patient; repeats are ignored)",
+            "HISTORY [count|cursor] (patient: newest first)",
+            "SCHEDULE doctorId|date (patient)", "PANIC (patient)", "APPOINTMENTS", "APPROVE index (doctor)",
+            "CANCEL index (doctor)",
+            "ARCHIVED [id] (cancelled and past appointments: your own, a patient's for doctors, any user's for admins)",
+            "ARCHIVE (admin: archive cancelled and past appointments now)", "FEEDBACK patientId|feedback|medication|dosage|schedule (doctor)",
+            "SUMMARY [patientId] (latest reading, alerts, next appointment, prescriptions; admin without ID: cache statistics)",
+            "TRIAGE [count] (doctor: sickest patients first)",
+            "WATCH (doctor: live readings and alerts of your patients)", "UNWATCH", "REMIND (doctor, admin)",
+            "ONMEDICATION medication (doctor, admin: patients prescribed it)",
+            "SEARCH query[|patientId[|count]] (words, \"a phrase\", prefix*; newest first)",
+            "USERS (admin)", "IMPORT path[|rejectsPath] (admin)",
+            "EXPORT format|directory[|patientId,patientId...] (admin: csv, jsonl or binary, .gz to compress; all patients by default)",
+            "EXPORTSTAFF, EXPORTPATIENT id, RESTORE row, DROPPATIENT id (admin: moving patients between shards)", "QUIT");
+
+    private static final int WATCH_WINDOW = 16; // Live updates a watcher may have in flight before conflation starts
+
+    private RPMSApp app;       // Shared application state
+    private User currentUser;  // Logged-in user, null until LOGIN
+    private PushSink pushSink; // Where live updates go; null when the session cannot receive them
+    private volatile Flow.Subscription watch; // Live vitals subscription started by WATCH
+
+    // Receives live update lines; may block while the client is slow to read
+    interface PushSink {
+        void push(String line) throws IOException;
+    }
+
+    // Constructor to start a logged-out session
+    public ClientSession(RPMSApp app) {
+        this.app = app;
+    }
+
+    // Sets where live updates are written (server connections only)
+    @Override
+    public void setPushSink(PushSink pushSink) {
+        this.pushSink = pushSink;
+    }
+
+    // Ends the session's live subscription, if any
+    @Override
+    public void close() {
+        Flow.Subscription current = watch;
+        watch = null;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    // Getter for the logged-in user
+    public User getCurrentUser() { return currentUser; }
+
+    // Switches the session to a user without checking a password; only for trusted local input (batch files)
+    void actAs(User user) {
+        currentUser = user;
+    }
+
+    // Parses and runs one command line
+    @Override
+    public CommandResult execute(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty()) {
+            return CommandResult.error("Empty command.");
+        }
+        int space = trimmed.indexOf(' ');
+        String command = (space < 0 ? trimmed : trimmed.substring(0, space)).toUpperCase(Locale.ROOT);
+        String[] args = space < 0 ? new String[0] : trimmed.substring(space + 1).split("\\|", -1);
+        for (int i = 0; i < args.length; i++) {
+            args[i] = args[i].trim();
+        }
+        long start = System.nanoTime();
+        CommandResult result = dispatch(command, args);
+        latencyFor(result != null ? command : "UNKNOWN").record(System.nanoTime() - start);
+        return result != null ? result : CommandResult.error("Unknown command " + command + ". Try HELP.");
+    }
+
+    // Runs a parsed command; null if the command does not exist
+    private CommandResult dispatch(String command, String[] args) {
+        try {
+            switch (command) {
+                case "HELP": return CommandResult.ok("Commands", HELP);
+                case "REGISTER": return register(args);
+                case "LOGIN": return login(args);
+                case "LOGOUT": close(); currentUser = null; return CommandResult.ok("Logged out");
+                case "WHOAMI": return whoami();
+                case "UPLOAD": return uploadVitals(args);
+                case "HISTORY": return history(args);
+                case "SCHEDULE": return schedule(args);
+                case "PANIC": return panic();
+                case "APPOINTMENTS": return appointments();
+                case "APPROVE": return modifyAppointment(args, "Approved");
+                case "CANCEL": return modifyAppointment(args, "Cancelled");
+                case "ARCHIVED": return archived(args);
+                case "ARCHIVE": return archiveNow();
+                case "FEEDBACK": return feedback(args);
+                case "SUMMARY": return summary(args);
+                case "REMIND": return remind();
+                case "USERS": return users();
+                case "ONMEDICATION": return onMedication(args);
+                case "SEARCH": return search(args);
+                case "IMPORT": return importUsers(args);
+                case "EXPORT": return exportRecords(args);
+                case "WATCH": return watch();
+                case "TRIAGE": return triage(args);
+                case "UNWATCH": close(); return CommandResult.ok("Stopped watching");
+                case "EXPORTSTAFF": return exportStaff();
+                case "EXPORTPATIENT": return exportPatient(args);
+                case "RESTORE": return restore(args);
+                case "DROPPATIENT": return dropPatient(args);
+                case "QUIT": return CommandResult.bye();
+                default: return null;
+            }
+        } catch (NumberFormatException e) {
+            return CommandResult.error("Invalid number: " + e.getMessage());
+        }
+    }
+
+    private CommandResult register(String[] args) {
+        if (args.length != 5) return usage("REGISTER PATIENT|id|name|email|password");
+        User user;
+        switch (args[0].toUpperCase(Locale.ROOT)) {
+            case "PATIENT": user = new Patient(args[1], args[2], args[3], args[4]); break;
+            case "DOCTOR": user = new Doctor(args[1], args[2], args[3], args[4]); break;
+            case "ADMIN": user = new Administrator(args[1], args[2], args[3], args[4]); break;
+            default: return CommandResult.error("Unknown role " + args[0] + ".");
+        }
+        if (args[1].isEmpty()) return CommandResult.error("User ID is required.");
+        if (!app.addUser(user)) return CommandResult.error(roleOf(user) + " ID " + args[1] + " is already registered.");
+        return CommandResult.ok("Registered " + roleOf(user) + " " + user.getId());
+    }
+
+    private CommandResult login(String[] args) {
+        if (args.length != 2) return usage("LOGIN id|password");
+        User user = app.authenticate(args[0], args[1]);
+        if (user == null) return CommandResult.error("Invalid ID or password.");
+        currentUser = user;
+        return CommandResult.ok("Logged in as " + roleOf(user) + ": " + user.getName());
+    }
+
+    private CommandResult whoami() {
+        if (currentUser == null) return CommandResult.error("Not logged in.");
+        return CommandResult.ok(roleOf(currentUser) + " " + currentUser.getId() + " " + currentUser.getName());
+    }
+
+    private CommandResult uploadVitals(String[] args) {
+        if (!(currentUser instanceof Patient)) return notAllowed("patients");
+        if (args.length != 4 && args.length != 6) {
+            return usage("UPLOAD heartRate|oxygenLevel|systolic/diastolic|temperature[|deviceId|sequence]");
+        }
+        String bp = args[2];
+        if (bp.indexOf('/') < 0 || bp.indexOf('/') != bp.lastIndexOf('/')) {
+            return CommandResult.error("Invalid blood pressure format. Please use 'systolic/diastolic'.");
+        }
+        VitalSign vital = new VitalSign(Integer.parseInt(args[0]), Integer.parseInt(args[1]), bp,
+                                        Double.parseDouble(args[3]));
+        if (!vital.hasValidBloodPressure()) {
+            return CommandResult.error("Invalid blood pressure values. Please enter numbers.");
+        }
+        Patient patient = (Patient) currentUser;
+        IngestOutcome outcome;
+        if (args.length == 6) {
+            if (args[4].isEmpty()) return CommandResult.error("Device ID must not be empty.");
+            outcome = patient.uploadVitals(app.getIngestionPipeline(), vital, System.currentTimeMillis(), args[4],
+                                           Long.parseLong(args[5]));
+        } else {
+            outcome = patient.uploadVitals(app.getIngestionPipeline(), vital, System.currentTimeMillis());
+        }
+        // A dropped reading is an error so the device sends it again later; everything else was accepted
+        return outcome.getStatus() == IngestStatus.SHED ? CommandResult.error(outcome.describe())
+                                                        : CommandResult.ok(outcome.describe());
+    }
+
+    // One page of the patient's history, newest first; the reply names the cursor for the next page
+    private CommandResult history(String[] args) {
+        if (!(currentUser instanceof Patient)) return notAllowed("patients");
+        int limit = args.length > 0 && !args[0].isEmpty() ? Integer.parseInt(args[0]) : 20;
+        int cursor = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+        HistoryPage page = ((Patient) currentUser).getMedicalHistory().page(cursor, limit);
+        List<String> rows = new ArrayList<>();
+        for (Feedback f : page.getEntries()) {
+            Prescription p = f.getPrescription();
+            rows.add(f.getFeedbackText() + (p == null ? "" : "|" + p.getMedication() + "|" + p.getDosage() + "|" + p.getSchedule()));
+        }
+        return CommandResult.ok(rows.size() + " of " + page.getTotal() + " feedback records"
+                                + (page.hasMore() ? "; next cursor " + page.getNextCursor() : ""), rows);
+    }
+
+    private CommandResult schedule(String[] args) {
+        if (!(currentUser instanceof Patient)) return notAllowed("patients");
+        if (args.length != 2) return usage("SCHEDULE doctorId|date");
+        Doctor doctor = app.findDoctorById(args[0]);
+        if (doctor == null) return CommandResult.error("Doctor not found.");
+        app.requestAppointment((Patient) currentUser, doctor, args[1]);
+        return CommandResult.ok("Appointment requested on " + args[1] + " with Dr. " + doctor.getName());
+    }
+
+    private CommandResult panic() {
+        if (!(currentUser instanceof Patient)) return notAllowed("patients");
+        Patient patient = (Patient) currentUser;
+        if (app.getIngestionPipeline().getCareTeam(patient).isEmpty()) {
+            return CommandResult.error("No doctors associated with this patient.");
+        }
+        return CommandResult.ok(app.pressPanicButton(patient) + " doctors notified");
+    }
+
+    // Patients see their own appointments; doctors and administrators see all, with the index APPROVE takes
+    private CommandResult appointments() {
+        if (currentUser == null) return CommandResult.error("Not logged in.");
+        List<Appointment> all = app.getAppointmentManager().getAppointments();
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < all.size(); i++) {
+            Appointment a = all.get(i);
+            if (currentUser instanceof Patient && a.getPatient() != currentUser) continue;
+            rows.add(i + "|" + a.getAppointmentDate() + "|" + a.getDoctor().getId() + "|" + a.getPatient().getId()
+                     + "|" + a.getStatus());
+        }
+        return CommandResult.ok(rows.size() + " appointments", rows);
+    }
+
+    private CommandResult modifyAppointment(String[] args, String status) {
+        if (!(currentUser instanceof Doctor)) return notAllowed("doctors");
+        if (args.length != 1) return usage(("Approved".equals(status) ? "APPROVE" : "CANCEL") + " index");
+        int index = Integer.parseInt(args[0]);
+        AppointmentManager manager = app.getAppointmentManager();
+        if (manager.getAppointment(index) == null) return CommandResult.error("Invalid appointment index.");
+        if ("Approved".equals(status)) {
+            manager.approveAppointment(index);
+        } else {
+            manager.cancelAppointment(index);
+        }
+        return CommandResult.ok("Appointment " + index + " " + status.toLowerCase(Locale.ROOT));
+    }
+
+    // Archived appointments: date|doctorId|patientId|status, oldest first. Patients see their own; doctors see
+    // their own, or a patient's (only those with them unless the patient is in their care); administrators
+    // see those of any patient or doctor.
+    private CommandResult archived(String[] args) {
+        if (currentUser == null) return CommandResult.error("Not logged in.");
+        AppointmentArchive archive = app.getAppointmentManager().getArchive();
+        if (archive == null) return CommandResult.error("Appointments are not archived on this server.");
+        String id = args.length > 0 && !args[0].isEmpty() ? args[0] : null;
+        List<ArchivedAppointment> found = new ArrayList<>();
+        if (currentUser instanceof Patient) {
+            found.addAll(archive.findByPatient(currentUser.getId()));
+        } else if (currentUser instanceof Doctor) {
+            if (id == null) {
+                found.addAll(archive.findByDoctor(currentUser.getId()));
+            } else {
+                Patient patient = app.findPatientById(id);
+                boolean inCare = patient != null && app.getIngestionPipeline().getCareTeam(patient).contains(currentUser);
+                for (ArchivedAppointment a : archive.findByPatient(id)) {
+                    if (inCare || a.getDoctorId().equals(currentUser.getId())) found.add(a);
+                }
+            }
+        } else {
+            if (id == null) return usage("ARCHIVED patientId|doctorId");
+            found.addAll(archive.findByPatient(id));
+            found.addAll(archive.findByDoctor(id));
+        }
+        List<String> rows = new ArrayList<>();
+        for (ArchivedAppointment a : found) {
+            rows.add(a.getAppointmentDate() + "|" + a.getDoctorId() + "|" + a.getPatientId() + "|" + a.getStatus());
+        }
+        return CommandResult.ok(rows.size() + " archived appointments", rows);
+    }
+
+    private CommandResult archiveNow() {
+        if (!(currentUser instanceof Administrator)) return notAllowed("administrators");
+        if (app.getAppointmentManager().getArchive() == null) {
+            return CommandResult.error("Appointments are not archived on this server.");
+        }
+        return CommandResult.ok("Archived " + app.archiveAppointments() + " appointments");
+    }
+
+    private CommandResult feedback(String[] args) {
+        if (!(currentUser instanceof Doctor)) return notAllowed("doctors");
+        if (args.length != 5) return usage("FEEDBACK patientId|feedback|medication|dosage|schedule");
+        Patient patient = app.findPatientById(args[0]);
+        if (patient == null) return CommandResult.error("Patient not found.");
+        app.provideFeedback((Doctor) currentUser, patient, args[1], args[2], args[3], args[4]);
+        return CommandResult.ok("Feedback added for " + patient.getId());
+    }
+
+    // Summary of a patient: the patient's own, one in a doctor's care, or any for administrators
+    private CommandResult summary(String[] args) {
+        if (currentUser == null) return CommandResult.error("Not logged in.");
+        String id = args.length > 0 && !args[0].isEmpty() ? args[0] : null;
+        PatientSummaryCache cache = app.getSummaryCache();
+        Patient patient;
+        if (currentUser instanceof Patient) {
+            patient = (Patient) currentUser;
+        } else {
+            if (id == null) {
+                if (currentUser instanceof Administrator) return CommandResult.ok(cache.describe());
+                return usage("SUMMARY patientId");
+            }
+            patient = app.findPatientById(id);
+            if (patient == null) return CommandResult.error("Patient not found.");
+            if (currentUser instanceof Doctor && !app.getIngestionPipeline().getCareTeam(patient).contains(currentUser)) {
+                return CommandResult.error("Patient " + patient.getId() + " is not in your care.");
+            }
+        }
+        return CommandResult.ok("Summary of " + patient.getId(), cache.get(patient).rows());
+    }
+
+    private CommandResult remind() {
+        if (!(currentUser instanceof Doctor) && !(currentUser instanceof Administrator)) {
+            return notAllowed("doctors and administrators");
+        }
+        try {
+            app.runReminders();
+            return CommandResult.ok("Reminders sent");
+        } catch (NotificationException e) {
+            return CommandResult.error("Error sending reminders: " + e.getMessage());
+        }
+    }
+
+    // Feedback, prescriptions and chat messages matching a query: documentId|kind|patientId|doctorId|text.
+    // Patients search their own records; doctors search what they wrote or took part in, or one patient in
+    // their care; administrators search everything.
+    private CommandResult search(String[] args) {
+        if (currentUser == null) return CommandResult.error("Not logged in.");
+        if (args.length < 1 || args.length > 3 || args[0].isEmpty()) return usage("SEARCH query[|patientId[|count]]");
+        String patientId = args.length > 1 && !args[1].isEmpty() ? args[1] : null;
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        String doctorId = null;
+        if (currentUser instanceof Patient) {
+            patientId = currentUser.getId();
+        } else if (currentUser instanceof Doctor) {
+            if (patientId == null) {
+                doctorId = currentUser.getId();
+            } else {
+                Patient patient = app.findPatientById(patientId);
+                if (patient == null) return CommandResult.error("Patient not found.");
+                // Outside the care team a doctor still sees the records they wrote themselves
+                if (!app.getIngestionPipeline().getCareTeam(patient).contains(currentUser)) {
+                    doctorId = currentUser.getId();
+                }
+                patientId = patient.getId();
+            }
+        }
+        List<String> rows = new ArrayList<>();
+        for (SearchHit hit : app.getTextIndex().search(args[0], patientId, doctorId, count)) {
+            rows.add(hit.getDocumentId() + "|" + hit.getKind() + "|" + (hit.getPatientId() == null ? "" : hit.getPatientId())
+                     + "|" + (hit.getDoctorId() == null ? "" : hit.getDoctorId()) + "|" + hit.getText());
+        }
+        return CommandResult.ok(rows.size() + " matches", rows);
+    }
+
+    // Patients ever prescribed a medication: patientId|name
+    private CommandResult onMedication(String[] args) {
+        if (!(currentUser instanceof Doctor) && !(currentUser instanceof Administrator)) {
+            return notAllowed("doctors and administrators");
+        }
+        if (args.length != 1 || args[0].isEmpty()) return usage("ONMEDICATION medication");
+        List<String> rows = new ArrayList<>();
+        for (Patient p : app.getMedicationIndex().patientsOn(args[0])) {
+            rows.add(p.getId() + "|" + p.getName());
+        }
+        return CommandResult.ok(rows.size() + " patients on " + args[0], rows);
+    }
+
+    private CommandResult users() {
+        if (!(currentUser instanceof Administrator)) return notAllowed("administrators");
+        UserSnapshot snapshot = app.getUsers().snapshot();
+        List<String> rows = new ArrayList<>();
+        for (User u : snapshot.getPatients()) rows.add(describe(u));
+        for (User u : snapshot.getDoctors()) rows.add(describe(u));
+        for (User u : snapshot.getAdministrators()) rows.add(describe(u));
+        return CommandResult.ok(rows.size() + " users", rows);
+    }
+
+    // The doctor's sickest patients: rank|patientId|name|score|level|openAlerts|maxSeverity|heartRate|oxygenLevel|
+    // bloodPressure|temperature|updatedAt
+    private CommandResult triage(String[] args) {
+        if (!(currentUser instanceof Doctor)) return notAllowed("doctors");
+        int count = args.length > 0 && !args[0].isEmpty() ? Integer.parseInt(args[0]) : 10;
+        DoctorDashboard dashboard = app.getIngestionPipeline().dashboardFor((Doctor) currentUser);
+        List<String> rows = new ArrayList<>();
+        int rank = 1;
+        for (TriageEntry e : dashboard.top(count)) {
+            VitalSign v = e.getVital();
+            rows.add(rank++ + "|" + e.getPatient().getId() + "|" + e.getPatient().getName() + "|" + e.getWarning().getScore()
+                     + "|" + e.getWarning().getLevel() + "|" + e.getOpenAlerts() + "|" + e.getMaxSeverity() + "|"
+                     + v.getHeartRate() + "|" + v.getOxygenLevel() + "|" + v.getBloodPressure() + "|" + v.getTemperature()
+                     + "|" + e.getUpdatedAt());
+        }
+        return CommandResult.ok(rows.size() + " of " + dashboard.size() + " patients", rows);
+    }
+
+    // Subscribes to live readings and alert events of the doctor's patients; each arrives as one pushed line
+    private CommandResult watch() {
+        if (!(currentUser instanceof Doctor)) return notAllowed("doctors");
+        if (pushSink == null) return CommandResult.error("Live updates need a server connection.");
+        close();
+        Doctor doctor = (Doctor) currentUser;
+        PushSink sink = pushSink;
+        app.getIngestionPipeline().getLiveVitals().publisherFor(doctor).subscribe(new Flow.Subscriber<VitalsUpdate>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                watch = subscription;
+                subscription.request(WATCH_WINDOW);
+            }
+
+            @Override
+            public void onNext(VitalsUpdate update) {
+                try {
+                    sink.push(formatUpdate(update));
+                    subscription.request(1); // Ask for more only once the client has taken this one
+                } catch (IOException e) {
+                    subscription.cancel();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                watch = null;
+            }
+
+            @Override
+            public void onComplete() {
+                watch = null;
+            }
+        });
+        return CommandResult.ok("Watching " + doctor.getPatients().size() + " patients");
+    }
+
+    // patientId|heartRate|oxygenLevel|bloodPressure|temperature|score|level|replaced|alert;alert...
+    private static String formatUpdate(VitalsUpdate update) {
+        VitalSign v = update.getVital();
+        StringBuilder line = new StringBuilder(96);
+        line.append(update.getPatientId()).append('|').append(v.getHeartRate()).append('|').append(v.getOxygenLevel())
+            .append('|').append(v.getBloodPressure()).append('|').append(v.getTemperature())
+            .append('|').append(update.getWarning().getScore()).append('|').append(update.getWarning().getLevel())
+            .append('|').append(update.getReplaced()).append('|');
+        for (int i = 0; i < update.getEvents().size(); i++) {
+            if (i > 0) line.append(';');
+            line.append(update.getEvents().get(i).describe(update.getTimestamp()));
+        }
+        return line.toString();
+    }
+
+    // Imports users from a file on the server's disk
+    private CommandResult importUsers(String[] args) {
+        if (!(currentUser instanceof Administrator)) return notAllowed("administrators");
+        if (args.length < 1 || args.length > 2 || args[0].isEmpty()) return usage("IMPORT path[|rejectsPath]");
+        try {
+            ImportReport report = app.importUsers(Paths.get(args[0]), args.length == 2 ? Paths.get(args[1]) : null);
+            return CommandResult.ok(report.describe(), report.getRejections());
+        } catch (IOException | InvalidPathException e) {
+            return CommandResult.error("Import failed: " + e.getMessage());
+        }
+    }
+
+    // Writes patient records to files in a directory on the server's disk
+    private CommandResult exportRecords(String[] args) {
+        if (!(currentUser instanceof Administrator)) return notAllowed("administrators");
+        if (args.length < 2 || args.length > 3 || args[1].isEmpty()) {
+            return usage("EXPORT format|directory[|patientId,patientId...]");
+        }
+        String name = args[0].toLowerCase(Locale.ROOT);
+        boolean gzip = name.endsWith(".gz");
+        ExportFormat format = ExportFormat.parse(gzip ? name.substring(0, name.length() - 3) : name);
+        if (format == null) return CommandResult.error("Unknown format " + args[0] + "; use csv, jsonl or binary.");
+        List<Patient> patients = app.patientsById(args.length == 3 ? args[2] : "");
+        if (patients == null) return CommandResult.error("Patient not found.");
+        try {
+            ExportReport report = app.exportRecords(patients, Paths.get(args[1]), format, gzip);
+            return report.getFailed() == 0 ? CommandResult.ok(report.describe(), report.getFailures())
+                                           : CommandResult.error(report.describe(), report.getFailures());
+        } catch (IOException | InvalidPathException e) {
+            return CommandResult.error("Export failed: " + e.getMessage());
+        }
+    }
+
+    // Doctors and administrators with their passwords, for copying to a new shard
+    private CommandResult exportStaff() {
+        if (!(currentUser instanceof Administrator)) return notAllowed("administrators");
+        List<String> rows = ShardTransfer.exportStaff(app);
+        return CommandResult.ok(rows.size() + " staff", rows);
+    }
+
+    // Everything kept about one patient, as rows RESTORE accepts
+    private CommandResult exportPatient(String[] args) {
+        if (!(currentUser instanceof Administrator)) return notAllowed("administrators");
+        if (args.length != 1) return usage("EXPORTPATIENT id");
+        Patient patient = app.findPatientById(args[0]);
+        if (patient == null) return CommandResult.error("Patient not found.");
+        List<String> rows = ShardTransfer.exportPatient(app, patient);
+        return CommandResult.ok(rows.size() + " rows", rows);
+    }
+
+    private CommandResult restore(String[] args) {
+        if (!(currentUser instanceof Administrator)) return notAllowed("administrators");
+        if (args.length < 2) return usage("RESTORE row");
+        try {
+            ShardTransfer.restore(app, String.join("|", args));
+            return CommandResult.ok("Restored " + args[0]);
+        } catch (IllegalArgumentException e) {
+            return CommandResult.error(e.getMessage());
+        }
+    }
+
+    private CommandResult dropPatient(String[] args) {
+        if (!(currentUser instanceof Administrator)) return notAllowed("administrators");
+        if (args.length != 1) return usage("DROPPATIENT id");
+        Patient patient = app.findPatientById(args[0]);
+        if (patient == null) return CommandResult.error("Patient not found.");
+        ShardTransfer.dropPatient(app, patient);
+        return CommandResult.ok("Dropped " + patient.getId());
+    }
+
+    private static String describe(User user) {
+        return roleOf(user) + "|" + user.getId() + "|" + user.getName() + "|" + user.getEmail();
+    }
+
+    private static String roleOf(User user) {
+        if (user instanceof Patient) return "Patient";
+        if (user instanceof Doctor) return "Doctor";
+        return "Administrator";
+    }
+
+    private CommandResult notAllowed(String who) {
+        return CommandResult.error(currentUser == null ? "Not logged in." : "Only " + who + " can do that.");
+    }
+
+    private static CommandResult usage(String syntax) {
+        return CommandResult.error("Usage: " + syntax);
+    }
+
+    private static LatencyHistogram latencyFor(String command) {
+        LatencyHistogram timer = COMMAND_LATENCY.get(command);
+        if (timer == null) {
+            timer = COMMAND_LATENCY.computeIfAbsent(command, c -> MetricsRegistry.global().timer(
+                    "rpms_session_command_seconds", "Latency of session commands",
+                    "command", c.toLowerCase(Locale.ROOT)));
+        }
+        return timer;
+    }
+}
+
+// Line-protocol server: one ClientSession per connection, each served by its own thread (a virtual thread
+// when the runtime has them). Replies are zero or more "DATA ..." lines followed by one "OK ..." or "ERR ..." line;
+// a session watching live vitals also receives "EVENT ..." lines between replies.
+class RPMSServer {
+    private Supplier<LineSession> sessionFactory; // Creates the interpreter for each connection
+    private ServerSocket serverSocket;   // Listening socket
+    private ExecutorService sessions;    // One task per connection
+    private AtomicInteger activeSessions;// Connections currently open
+    private DoubleSupplier sessionGauge; // Registered gauge of open connections, removed by stop()
+    private Thread acceptor;             // Accept loop
+    private volatile boolean running;    // Cleared by stop()
+
+    // Constructor to bind the listening socket; port 0 picks a free port
+    public RPMSServer(RPMSApp app, String host, int port) throws IOException {
+        this(() -> new ClientSession(app), host, port);
+    }
+
+    // Constructor serving connections with sessions from the factory (e.g., routed to shards)
+    public RPMSServer(Supplier<LineSession> sessionFactory, String host, int port) throws IOException {
+        this.sessionFactory = sessionFactory;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(host, port), 4096);
+        this.sessions = newSessionExecutor();
+        this.activeSessions = new AtomicInteger();
+        this.sessionGauge = activeSessions::get;
+        MetricsRegistry.global().gauge("rpms_sessions_active", "Open client connections", sessionGauge);
+    }
+
+    // Starts accepting connections in the background
+    public void start() {
+        running = true;
+        acceptor = new Thread(this::acceptLoop, "rpms-acceptor");
+        acceptor.start();
+    }
+
+    // Port the server is listening on
+    public int getPort() { return serverSocket.getLocalPort(); }
+
+    // Number of open connections
+    public int getActiveSessions() { return activeSessions.get(); }
+
+    // Stops accepting connections and closes the open ones
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+        sessions.shutdownNow();
+        MetricsRegistry.global().removeGauge("rpms_sessions_active", sessionGauge);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sessions.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Error accepting connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Reads commands until the client quits or disconnects
+    private void serve(Socket socket) {
+        activeSessions.incrementAndGet();
+        LineSession session = sessionFactory.get();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            // Live updates (WATCH) are written from delivery threads, so every write holds the writer's lock
+            session.setPushSink(event -> {
+                synchronized (out) {
+                    out.write("EVENT ");
+                    out.write(singleLine(event));
+                    out.write('\n');
+                    out.flush();
+                }
+            });
+            synchronized (out) {
+                out.write("OK RPMS ready. Try HELP.\n");
+                out.flush();
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                CommandResult result = session.execute(line);
+                synchronized (out) {
+                    write(out, result);
+                    out.flush();
+                }
+                if (result.isEndSession()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Client went away; nothing to clean up beyond the socket
+        } finally {
+            session.close();
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    private static void write(BufferedWriter out, CommandResult result) throws IOException {
+        for (String row : result.getRows()) {
+            out.write("DATA ");
+            out.write(singleLine(row));
+            out.write('\n');
+        }
+        out.write(result.isOk() ? "OK " : "ERR ");
+        out.write(singleLine(result.getMessage()));
+        out.write('\n');
+    }
+
+    private static String singleLine(String text) {
+        return text.indexOf('\n') < 0 ? text : text.replace('\n', ' ');
+    }
+
+    // One thread per connection: virtual where available
+    static ExecutorService newSessionExecutor() {
+        return VirtualThreads.newPerTaskExecutor("rpms-session");
+    }
+}
+
+// Moves patients between the shards of a partitioned deployment. A patient is exported as rows of '|'-separated
+// fields, each escaped so it holds no '|', space or line break; the receiving shard applies the rows one at a
+// time with restore(). Staff rows copy doctors and administrators, who exist on every shard.
+final class ShardTransfer {
+    private ShardTransfer() {}
+
+    // Doctors and administrators: DOCTOR|id|name|email|password or ADMIN|id|name|email|password
+    static List<String> exportStaff(RPMSApp app) {
+        UserSnapshot snapshot = app.getUsers().snapshot();
+        List<String> rows = new ArrayList<>();
+        for (Doctor d : snapshot.getDoctors()) rows.add(row("DOCTOR", d.getId(), d.getName(), d.getEmail(), d.getPassword()));
+        for (Administrator a : snapshot.getAdministrators()) {
+            rows.add(row("ADMIN", a.getId(), a.getName(), a.getEmail(), a.getPassword()));
+        }
+        return rows;
+    }
+
+    // Everything kept about a patient, in the order restore() needs it: the patient, care team, readings,
+    // medical history and appointments
+    static List<String> exportPatient(RPMSApp app, Patient patient) {
+        String id = patient.getId();
+        List<String> rows = new ArrayList<>();
+        rows.add(row("PATIENT", id, patient.getName(), patient.getEmail(), patient.getPassword()));
+        for (Doctor d : app.getIngestionPipeline().getCareTeam(patient)) {
+            rows.add(row("CARETEAM", id, d.getId()));
+        }
+        for (VitalSign v : app.getVitalsDB().getVitals(id)) {
+            rows.add(row("VITAL", id, String.valueOf(v.getHeartRate()), String.valueOf(v.getOxygenLevel()),
+                         v.getBloodPressure(), String.valueOf(v.getTemperature())));
+        }
+        for (Feedback f : patient.getMedicalHistory().oldestFirst()) {
+            Prescription p = f.getPrescription();
+            rows.add(p == null ? row("FEEDBACK", id, f.getFeedbackText())
+                               : row("FEEDBACK", id, f.getFeedbackText(), p.getMedication(), p.getDosage(), p.getSchedule()));
+        }
+        for (Appointment a : app.getAppointmentManager().getAppointments()) {
+            if (a.getPatient() == patient) {
+                rows.add(row("APPOINTMENT", id, a.getAppointmentDate(), a.getDoctor().getId(), a.getStatus()));
+            }
+        }
+        return rows;
+    }
+
+    // Applies one exported row; throws IllegalArgumentException if it cannot be applied
+    static void restore(RPMSApp app, String row) {
+        String[] f = row.split("\\|", -1);
+        for (int i = 0; i < f.length; i++) {
+            f[i] = unescape(f[i]);
+        }
+        switch (f[0]) {
+            case "DOCTOR":
+                expect(f, 5);
+                app.addUser(new Doctor(f[1], f[2], f[3], f[4])); // Already present is fine: staff exist everywhere
+                return;
+            case "ADMIN":
+                expect(f, 5);
+                app.addUser(new Administrator(f[1], f[2], f[3], f[4]));
+                return;
+            case "PATIENT":
+                expect(f, 5);
+                if (!app.addUser(new Patient(f[1], f[2], f[3], f[4]))) {
+                    throw new IllegalArgumentException("Patient " + f[1] + " already exists on this shard.");
+                }
+                return;
+            default:
+                break;
+        }
+        Patient patient = app.findPatientById(f.length > 1 ? f[1] : null);
+        if (patient == null) throw new IllegalArgumentException("Unknown patient in row: " + row);
+        switch (f[0]) {
+            case "CARETEAM":
+                expect(f, 3);
+                app.assignDoctor(patient, doctor(app, f[2]));
+                break;
+            case "VITAL":
+                expect(f, 6);
+                app.getVitalsDB().addVitalSign(patient.getId(), new VitalSign(Integer.parseInt(f[2]),
+                        Integer.parseInt(f[3]), f[4], Double.parseDouble(f[5])));
+                break;
+            case "FEEDBACK":
+                Feedback feedback;
+                if (f.length == 3) {
+                    feedback = new Feedback(f[2], null);
+                } else {
+                    expect(f, 6);
+                    feedback = new Feedback(f[2], new Prescription(f[3], f[4], f[5], patient));
+                    app.getMedicationIndex().add(feedback.getPrescription());
+                }
+                app.addFeedback(patient, feedback);
+                app.getTextIndex().addFeedback(null, patient, feedback); // The author is not part of the history
+                break;
+            case "APPOINTMENT":
+                expect(f, 5);
+                app.getAppointmentManager().addAppointment(new Appointment(f[2], doctor(app, f[3]), patient, f[4]));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown row type " + f[0] + ".");
+        }
+    }
+
+    // Removes a patient and everything kept about them from this shard
+    static void dropPatient(RPMSApp app, Patient patient) {
+        app.getUsers().remove(patient);
+        app.getVitalsDB().removePatient(patient.getId());
+        app.getAppointmentManager().removeAppointmentsOf(patient);
+        app.getMedicationIndex().remove(patient);
+        app.getTextIndex().removePatient(patient.getId());
+        for (Doctor d : app.getIngestionPipeline().getCareTeam(patient)) {
+            d.removePatient(patient);
+        }
+        app.getIngestionPipeline().removePatient(patient);
+    }
+
+    private static Doctor doctor(RPMSApp app, String id) {
+        Doctor doctor = app.findDoctorById(id);
+        if (doctor == null) throw new IllegalArgumentException("Unknown doctor " + id + ".");
+        return doctor;
+    }
+
+    private static void expect(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException(fields[0] + " rows have " + count + " fields, got " + fields.length + ".");
+        }
+    }
+
+    private static String row(String type, String... fields) {
+        StringBuilder row = new StringBuilder(type);
+        for (String field : fields) {
+            row.append('|').append(escape(field));
+        }
+        return row.toString();
+    }
+
+    // Percent-escapes '%', '|', whitespace and control characters
+    static String escape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' || c == '|' || c <= ' ') {
+                out.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('%') < 0) return value;
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()) {
+                out.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
+
+// Consistent hashing of patient IDs onto shards: each shard owns many points on a 64-bit ring and an ID belongs
+// to the first point at or after its hash, so adding a shard moves only about 1/N of the patients. Rings are
+// immutable; adding a shard builds a new one.
+class HashRing {
+    private static final int POINTS_PER_SHARD = 128; // Virtual nodes per shard, to even out the share of each
+
+    private List<String> shards;         // Shard addresses in the order they joined
+    private TreeMap<Long, String> points; // Ring positions and the shard owning each
+
+    // Constructor to build a ring over the given shard addresses
+    public HashRing(Collection<String> shards) {
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.points = new TreeMap<>();
+        for (String shard : this.shards) {
+            for (int i = 0; i < POINTS_PER_SHARD; i++) {
+                points.put(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    // A ring with one more shard
+    public HashRing withShard(String shard) {
+        List<String> grown = new ArrayList<>(shards);
+        grown.add(shard);
+        return new HashRing(grown);
+    }
+
+    // Shard owning a patient ID (IDs are compared ignoring case)
+    public String shardFor(String patientId) {
+        Map.Entry<Long, String> owner = points.ceilingEntry(hash(patientId.toLowerCase(Locale.ROOT)));
+        return owner != null ? owner.getValue() : points.firstEntry().getValue();
+    }
+
+    // Shard addresses in the order they joined
+    public List<String> getShards() { return shards; }
+
+    // First 8 bytes of the MD5 digest: stable across JVMs and evenly spread
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
+
+// A router's connection to one shard, speaking the line protocol. A reader thread separates replies from pushed
+// EVENT lines, so live updates from a WATCH keep flowing while commands are in flight.
+class ShardConnection {
+    private static final long REPLY_TIMEOUT_SECONDS = 30; // Longest wait for a shard's reply
+    private static final String CLOSED = "ERR Shard connection closed"; // Queued when the shard hangs up
+
+    private String address;                // host:port of the shard
+    private Socket socket;                 // Open connection
+    private BufferedWriter out;            // Commands to the shard
+    private BlockingQueue<String> replies; // DATA, OK and ERR lines, in order
+    private volatile ClientSession.PushSink events; // Where EVENT lines go; dropped while null
+    private volatile boolean closed;       // Set once either side has closed the connection
+
+    // Constructor to connect to a shard at host:port and read its greeting
+    public ShardConnection(String address) throws IOException {
+        this.address = address;
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) throw new IOException("Shard address must be host:port: " + address);
+        socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        socket.setTcpNoDelay(true);
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        replies = new LinkedBlockingQueue<>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        Thread reader = new Thread(() -> readLoop(in), "shard-reader-" + address);
+        reader.setDaemon(true);
+        reader.start();
+        String greeting = nextReply();
+        if (!greeting.startsWith("OK")) throw new IOException("Unexpected greeting from shard " + address + ": " + greeting);
+    }
+
+    // Sets where pushed EVENT lines are forwarded
+    public void setEventSink(ClientSession.PushSink events) {
+        this.events = events;
+    }
+
+    // Sends one command and collects its reply
+    public synchronized CommandResult call(String line) throws IOException {
+        if (closed) throw new IOException("Connection to shard " + address + " is closed.");
+        out.write(line);
+        out.write('\n');
+        out.flush();
+        List<String> rows = new ArrayList<>();
+        while (true) {
+            String reply = nextReply();
+            if (reply.startsWith("DATA ")) {
+                rows.add(reply.substring(5));
+            } else if (reply == CLOSED) {
+                throw new IOException("Shard " + address + " closed the connection.");
+            } else if (reply.startsWith("OK")) {
+                return CommandResult.ok(reply.length() > 3 ? reply.substring(3) : "", rows);
+            } else if (reply.startsWith("ERR")) {
+                return CommandResult.error(reply.length() > 4 ? reply.substring(4) : "");
+            }
+        }
+    }
+
+    // Closes the connection; the shard ends the session on its side
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    public String getAddress() { return address; }
+
+    private String nextReply() throws IOException {
+        try {
+            String reply = replies.poll(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (reply == null) throw new IOException("No reply from shard " + address + " within " + REPLY_TIMEOUT_SECONDS + " s.");
+            return reply;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for shard " + address + ".");
+        }
+    }
+
+    private void readLoop(BufferedReader in) {
+        try (BufferedReader reader = in) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("EVENT ")) {
+                    ClientSession.PushSink sink = events;
+                    if (sink != null) sink.push(line.substring(6));
+                } else {
+                    replies.add(line);
+                }
+            }
+        } catch (IOException e) {
+            // Shard or router closed the socket
+        } finally {
+            closed = true;
+            replies.add(CLOSED);
+        }
+    }
+}
+
+// Outcome of adding a shard: patients moved to it, and those whose copy on the old shard could not be dropped
+class ShardAddition {
+    private int moved;                          // Patients now owned by the new shard
+    private Map<String, List<String>> undropped; // Old shard to the moved patients still held there
+
+    // Constructor to initialize the outcome
+    public ShardAddition(int moved, Map<String, List<String>> undropped) {
+        this.moved = moved;
+        this.undropped = undropped;
+    }
+
+    public int getMoved() { return moved; }
+    public Map<String, List<String>> getUndropped() { return undropped; }
+
+    // Summary for the ADDSHARD reply, naming the old copies left behind
+    public String describe() {
+        StringBuilder text = new StringBuilder("moved " + moved + " patients");
+        for (Map.Entry<String, List<String>> shard : undropped.entrySet()) {
+            text.append("; not dropped from ").append(shard.getKey()).append(" (retry DROPPATIENT): ")
+                .append(String.join(",", shard.getValue()));
+        }
+        return text.toString();
+    }
+}
+
+// Front end of a partitioned deployment: clients speak the usual line protocol to the router, which forwards
+// each command to the shard owning the patient it concerns and scatters admin and doctor queries to every
+// shard. Adding a shard copies the staff to it, moves the patients it now owns, then switches the ring.
+class ShardRouter {
+    private volatile HashRing ring;           // Current patient-to-shard assignment
+    private ReentrantReadWriteLock rebalance; // Commands hold the read lock; adding a shard holds the write lock
+    private ExecutorService scatter;          // Runs the per-shard calls of a scatter-gather in parallel
+    private Set<RouterSession> sessions;      // Open client sessions, told when a shard is added
+
+    // Constructor to route over the given shard addresses (host:port)
+    public ShardRouter(List<String> shards) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("At least one shard is required.");
+        this.ring = new HashRing(shards);
+        this.rebalance = new ReentrantReadWriteLock();
+        this.scatter = VirtualThreads.newPerTaskExecutor("rpms-router-scatter");
+        this.sessions = ConcurrentHashMap.newKeySet();
+    }
+
+    // Starts a client session
+    public RouterSession newSession() {
+        RouterSession session = new RouterSession(this);
+        sessions.add(session);
+        return session;
+    }
+
+    void sessionClosed(RouterSession session) { sessions.remove(session); }
+
+    public HashRing getRing() { return ring; }
+    ReentrantReadWriteLock.ReadLock commandLock() { return rebalance.readLock(); }
+    ExecutorService getScatterExecutor() { return scatter; }
+
+    // Adds a shard and moves the patients it now owns, acting as the given administrator on every shard.
+    // Patients are copied first and the ring switched only once all copies succeeded, so a failure leaves the
+    // old assignment intact. The old copies are dropped after the switch: a drop that fails does not undo the
+    // move (the router already reads the new shard), it is reported in the result with the others that failed,
+    // and DROPPATIENT can be retried on the old shard.
+    public ShardAddition addShard(String address, String adminId, String adminPassword) throws IOException {
+        rebalance.writeLock().lock();
+        Map<String, ShardConnection> connections = new LinkedHashMap<>();
+        try {
+            HashRing current = ring;
+            if (current.getShards().contains(address)) {
+                throw new IllegalArgumentException("Shard " + address + " is already part of the ring.");
+            }
+            for (String shard : current.getShards()) {
+                connections.put(shard, adminConnection(shard, adminId, adminPassword));
+            }
+            ShardConnection target = new ShardConnection(address);
+            connections.put(address, target);
+
+            // Staff first: the acting administrator is registered so it can log in, then everyone is restored
+            List<String> staff = expectOk(connections.get(current.getShards().get(0)).call("EXPORTSTAFF")).getRows();
+            for (String row : staff) {
+                String[] f = row.split("\\|", -1);
+                if ("ADMIN".equals(f[0]) && ShardTransfer.unescape(f[1]).equals(adminId)) {
+                    target.call("REGISTER ADMIN|" + ShardTransfer.unescape(f[1]) + "|" + ShardTransfer.unescape(f[2])
+                                + "|" + ShardTransfer.unescape(f[3]) + "|" + adminPassword);
+                }
+            }
+            expectOk(target.call("LOGIN " + adminId + "|" + adminPassword));
+            for (String row : staff) {
+                expectOk(target.call("RESTORE " + row));
+            }
+
+            HashRing grown = current.withShard(address);
+            Map<String, List<String>> moving = new LinkedHashMap<>(); // Source shard to the patients leaving it
+            List<String> copied = new ArrayList<>();
+            try {
+                for (String shard : current.getShards()) {
+                    List<String> leaving = new ArrayList<>();
+                    for (String row : expectOk(connections.get(shard).call("USERS")).getRows()) {
+                        String[] f = row.split("\\|", -1);
+                        if ("Patient".equals(f[0]) && grown.shardFor(f[1]).equals(address)) {
+                            leaving.add(f[1]);
+                        }
+                    }
+                    for (String patientId : leaving) {
+                        List<String> rows = expectOk(connections.get(shard).call("EXPORTPATIENT " + patientId)).getRows();
+                        copied.add(patientId);
+                        for (String row : rows) {
+                            expectOk(target.call("RESTORE " + row));
+                        }
+                    }
+                    moving.put(shard, leaving);
+                }
+            } catch (IOException | RuntimeException e) {
+                dropCopies(target, copied, e); // The old ring stays
+                throw e;
+            }
+
+            ring = grown;
+            for (RouterSession session : sessions) {
+                session.shardAdded(address);
+            }
+            int moved = 0;
+            Map<String, List<String>> undropped = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> source : moving.entrySet()) {
+                for (String patientId : source.getValue()) {
+                    moved++;
+                    try {
+                        expectOk(connections.get(source.getKey()).call("DROPPATIENT " + patientId));
+                    } catch (IOException | RuntimeException e) {
+                        undropped.computeIfAbsent(source.getKey(), k -> new ArrayList<>()).add(patientId);
+                    }
+                }
+            }
+            return new ShardAddition(moved, undropped);
+        } finally {
+            for (ShardConnection c : connections.values()) {
+                c.close();
+            }
+            rebalance.writeLock().unlock();
+        }
+    }
+
+    // Undoes a partial copy on the new shard. The error that caused the rollback is kept; failures to drop are
+    // attached to it, and a dead connection ends the rollback (the shard is not in the ring, so nothing routes there)
+    private static void dropCopies(ShardConnection target, List<String> copied, Exception cause) {
+        for (String patientId : copied) {
+            try {
+                target.call("DROPPATIENT " + patientId);
+            } catch (IOException | RuntimeException e) {
+                cause.addSuppressed(e);
+                return;
+            }
+        }
+    }
+
+    private static ShardConnection adminConnection(String shard, String adminId, String adminPassword) throws IOException {
+        ShardConnection connection = new ShardConnection(shard);
+        CommandResult login = connection.call("LOGIN " + adminId + "|" + adminPassword);
+        if (!login.isOk()) {
+            connection.close();
+            throw new IOException("Could not log in on shard " + shard + ": " + login.getMessage());
+        }
+        return connection;
+    }
+
+    private static CommandResult expectOk(CommandResult result) throws IOException {
+        if (!result.isOk()) throw new IOException(result.getMessage());
+        return result;
+    }
+
+    // Stops the scatter threads
+    public void shutdown() {
+        scatter.shutdownNow();
+    }
+}
+
+// One client's session on the router. Patient commands go to the patient's shard; doctors and administrators
+// exist on every shard, so their queries are scattered and the replies merged. Connections to shards are
+// opened on first use and logged in as the session's user.
+class RouterSession implements LineSession {
+    private static final List<String> ROUTER_HELP = List.of(
+            "SHARDS (list the shards)", "ADDSHARD host:port (admin: add a shard and move the patients it owns)");
+
+    private ShardRouter router;                       // Ring and rebalancing
+    private Map<String, ShardConnection> connections; // Open connections by shard address
+    private String userId;                            // Logged-in user, null until LOGIN
+    private String password;                          // Their password, for logging in on further shards
+    private String role;                              // "Patient", "Doctor" or "Administrator"
+    private boolean watching;                         // Whether WATCH is active on every shard
+    private volatile ClientSession.PushSink pushSink; // Where EVENT lines from the shards go
+
+    // Constructor to start a logged-out session
+    public RouterSession(ShardRouter router) {
+        this.router = router;
+        this.connections = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void setPushSink(ClientSession.PushSink pushSink) {
+        this.pushSink = pushSink;
+    }
+
+    @Override
+    public void close() {
+        for (ShardConnection c : connections.values()) {
+            c.close();
+        }
+        connections.clear();
+        router.sessionClosed(this);
+    }
+
+    // Parses one command line and routes it
+    @Override
+    public CommandResult execute(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty()) return CommandResult.error("Empty command.");
+        int space = trimmed.indexOf(' ');
+        String command = (space < 0 ? trimmed : trimmed.substring(0, space)).toUpperCase(Locale.ROOT);
+        String[] args = space < 0 ? new String[0] : trimmed.substring(space + 1).split("\\|", -1);
+        for (int i = 0; i < args.length; i++) {
+            args[i] = args[i].trim();
+        }
+        if ("ADDSHARD".equals(command)) {
+            return addShard(args); // Takes the rebalancing lock itself
+        }
+        router.commandLock().lock();
+        try {
+            return route(command, args, trimmed);
+        } catch (IOException e) {
+            return CommandResult.error("Shard unavailable: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            return CommandResult.error("Invalid number: " + e.getMessage());
+        } finally {
+            router.commandLock().unlock();
+        }
+    }
+
+    private synchronized CommandResult route(String command, String[] args, String line) throws IOException {
+        HashRing ring = router.getRing();
+        switch (command) {
+            case "HELP": return help();
+            case "REGISTER":
+                if (args.length > 1 && "PATIENT".equalsIgnoreCase(args[0])) {
+                    return connection(ring.shardFor(args[1])).call(line);
+                }
+                return broadcast(line, ring.getShards());
+            case "LOGIN": return login(args, line, ring);
+            case "LOGOUT": {
+                CommandResult result = broadcast(line, new ArrayList<>(connections.keySet()));
+                userId = null;
+                password = null;
+                role = null;
+                watching = false;
+                return result.isOk() || connections.isEmpty() ? CommandResult.ok("Logged out") : result;
+            }
+            case "WHOAMI": case "UPLOAD": case "HISTORY": case "SCHEDULE": case "PANIC":
+                return connection(home(ring)).call(line);
+            case "FEEDBACK":
+                return connection(args.length > 0 && !args[0].isEmpty() ? ring.shardFor(args[0]) : home(ring)).call(line);
+            case "SUMMARY":
+                if (userId == null || "Patient".equals(role)) return connection(home(ring)).call(line);
+                if (args.length > 0 && !args[0].isEmpty()) return connection(ring.shardFor(args[0])).call(line);
+                if ("Administrator".equals(role)) return summaryStatistics(line, ring);
+                return connection(home(ring)).call(line);
+            case "APPOINTMENTS":
+                if (userId == null || "Patient".equals(role)) return connection(home(ring)).call(line);
+                return appointments(ring);
+            case "APPROVE": case "CANCEL": return modifyAppointment(command, args, ring);
+            case "ARCHIVED":
+                if (userId == null || "Patient".equals(role)) return connection(home(ring)).call(line);
+                return concatenate(line, ring);
+            case "ARCHIVE": return broadcast(line, ring.getShards());
+            case "TRIAGE": return triage(args, line, ring);
+            case "WATCH": {
+                CommandResult result = broadcast(line, ring.getShards());
+                watching = result.isOk();
+                return result;
+            }
+            case "UNWATCH":
+                watching = false;
+                return broadcast(line, new ArrayList<>(connections.keySet()));
+            case "REMIND": return broadcast(line, ring.getShards());
+            case "USERS": return users(line, ring);
+            case "ONMEDICATION": return concatenate(line, ring);
+            case "SEARCH":
+                if (userId != null && "Patient".equals(role)) return connection(home(ring)).call(line);
+                if (args.length > 1 && !args[1].isEmpty()) return connection(ring.shardFor(args[1])).call(line);
+                return concatenate(line, ring);
+            case "SHARDS": return CommandResult.ok(ring.getShards().size() + " shards", ring.getShards());
+            case "IMPORT":
+                return CommandResult.error("IMPORT is not available through the router; register users instead.");
+            case "EXPORT":
+                return CommandResult.error("EXPORT is not available through the router; run it on each shard.");
+            case "QUIT": return CommandResult.bye();
+            default: return CommandResult.error("Unknown command " + command + ". Try HELP.");
+        }
+    }
+
+    private CommandResult help() {
+        List<String> rows = new ArrayList<>();
+        for (String entry : ClientSession.HELP) {
+            if (!entry.startsWith("IMPORT") && !entry.startsWith("EXPORT")) rows.add(entry);
+        }
+        rows.addAll(ROUTER_HELP);
+        return CommandResult.ok("Commands", rows);
+    }
+
+    // Logs in on the user's home shard; connections opened before the login are reopened as the user
+    private CommandResult login(String[] args, String line, HashRing ring) throws IOException {
+        if (args.length != 2) return CommandResult.error("Usage: LOGIN id|password");
+        String home = ring.shardFor(args[0]);
+        CommandResult result = connection(home).call(line);
+        if (result.isOk()) {
+            for (String shard : new ArrayList<>(connections.keySet())) {
+                if (!shard.equals(home)) connections.remove(shard).close();
+            }
+            userId = args[0];
+            password = args[1];
+            String message = result.getMessage(); // "Logged in as <role>: <name>"
+            int colon = message.indexOf(':');
+            role = message.startsWith("Logged in as ") && colon > 0 ? message.substring(13, colon) : null;
+        }
+        return result;
+    }
+
+    // Appointments of every shard, numbered consecutively in ring order
+    private CommandResult appointments(HashRing ring) throws IOException {
+        Map<String, CommandResult> replies = gather("APPOINTMENTS", ring.getShards());
+        List<String> rows = new ArrayList<>();
+        for (CommandResult reply : replies.values()) {
+            if (!reply.isOk()) return reply;
+            int offset = rows.size();
+            for (String row : reply.getRows()) {
+                int bar = row.indexOf('|');
+                rows.add((offset + Integer.parseInt(row.substring(0, bar))) + row.substring(bar));
+            }
+        }
+        return CommandResult.ok(rows.size() + " appointments", rows);
+    }
+
+    // Maps a router-wide appointment index to its shard and local index
+    private CommandResult modifyAppointment(String command, String[] args, HashRing ring) throws IOException {
+        if (args.length != 1) return CommandResult.error("Usage: " + command + " index");
+        int index = Integer.parseInt(args[0]);
+        int offset = 0;
+        for (Map.Entry<String, CommandResult> reply : gather("APPOINTMENTS", ring.getShards()).entrySet()) {
+            if (!reply.getValue().isOk()) return reply.getValue();
+            int count = reply.getValue().getRows().size();
+            if (index >= offset && index < offset + count) {
+                CommandResult result = connection(reply.getKey()).call(command + " " + (index - offset));
+                if (!result.isOk()) return result;
+                return CommandResult.ok("Appointment " + index + ("APPROVE".equals(command) ? " approved" : " cancelled"));
+            }
+            offset += count;
+        }
+        return CommandResult.error("Invalid appointment index.");
+    }
+
+    // Top K of every shard merged into the overall top K, in the order DoctorDashboard uses
+    private CommandResult triage(String[] args, String line, HashRing ring) throws IOException {
+        int count = args.length > 0 && !args[0].isEmpty() ? Integer.parseInt(args[0]) : 10;
+        List<String[]> entries = new ArrayList<>();
+        int patients = 0;
+        for (CommandResult reply : gather(line, ring.getShards()).values()) {
+            if (!reply.isOk()) return reply;
+            for (String row : reply.getRows()) {
+                entries.add(row.split("\\|", -1));
+            }
+            String message = reply.getMessage(); // "<shown> of <total> patients"
+            patients += Integer.parseInt(message.substring(message.indexOf(" of ") + 4, message.indexOf(" patients")));
+        }
+        entries.sort((a, b) -> {
+            int c = EarlyWarningLevel.valueOf(b[4]).compareTo(EarlyWarningLevel.valueOf(a[4]));
+            if (c == 0) c = Integer.compare(Integer.parseInt(b[3]), Integer.parseInt(a[3]));
+            if (c == 0) c = Integer.compare(Integer.parseInt(b[6]), Integer.parseInt(a[6]));
+            if (c == 0) c = Integer.compare(Integer.parseInt(b[5]), Integer.parseInt(a[5]));
+            if (c == 0) c = Long.compare(Long.parseLong(b[11]), Long.parseLong(a[11]));
+            if (c == 0) c = a[1].compareTo(b[1]);
+            return c;
+        });
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, entries.size()); i++) {
+            String[] e = entries.get(i);
+            e[0] = String.valueOf(i + 1);
+            rows.add(String.join("|", e));
+        }
+        return CommandResult.ok(rows.size() + " of " + patients + " patients", rows);
+    }
+
+    // Patients of every shard, then the staff once (they are registered on every shard)
+    private CommandResult users(String line, HashRing ring) throws IOException {
+        List<String> patients = new ArrayList<>();
+        Set<String> staff = new LinkedHashSet<>();
+        for (CommandResult reply : gather(line, ring.getShards()).values()) {
+            if (!reply.isOk()) return reply;
+            for (String row : reply.getRows()) {
+                if (row.startsWith("Patient|")) patients.add(row); else staff.add(row);
+            }
+        }
+        patients.addAll(staff);
+        return CommandResult.ok(patients.size() + " users", patients);
+    }
+
+    // Summary cache statistics of every shard, one row each
+    private CommandResult summaryStatistics(String line, HashRing ring) throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (Map.Entry<String, CommandResult> reply : gather(line, ring.getShards()).entrySet()) {
+            if (!reply.getValue().isOk()) return reply.getValue();
+            rows.add(reply.getKey() + ": " + reply.getValue().getMessage());
+        }
+        return CommandResult.ok(rows.size() + " shards", rows);
+    }
+
+    private CommandResult concatenate(String line, HashRing ring) throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (CommandResult reply : gather(line, ring.getShards()).values()) {
+            if (!reply.isOk()) return reply;
+            rows.addAll(reply.getRows());
+        }
+        return CommandResult.ok(rows.size() + " results", rows);
+    }
+
+    // Sends a command to every listed shard; the first failure is returned, else the first reply
+    private CommandResult broadcast(String line, List<String> shards) throws IOException {
+        CommandResult first = null;
+        for (CommandResult reply : gather(line, shards).values()) {
+            if (!reply.isOk()) return reply;
+            if (first == null) first = reply;
+        }
+        return first != null ? first : CommandResult.ok("");
+    }
+
+    // Sends a command to every listed shard in parallel; replies in the order of the list
+    private Map<String, CommandResult> gather(String line, List<String> shards) throws IOException {
+        Map<String, Future<CommandResult>> pending = new LinkedHashMap<>();
+        for (String shard : shards) {
+            ShardConnection c = connection(shard);
+            pending.put(shard, router.getScatterExecutor().submit(() -> c.call(line)));
+        }
+        Map<String, CommandResult> replies = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<CommandResult>> p : pending.entrySet()) {
+            try {
+                replies.put(p.getKey(), p.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for shard " + p.getKey() + ".");
+            } catch (ExecutionException e) {
+                dropConnection(p.getKey());
+                throw new IOException(p.getKey() + ": " + e.getCause().getMessage());
+            }
+        }
+        return replies;
+    }
+
+    // Shard owning the logged-in user (any shard before login: staff exist on all of them)
+    private String home(HashRing ring) {
+        return ring.shardFor(userId != null ? userId : ring.getShards().get(0));
+    }
+
+    // Open connection to a shard, logged in (and watching) as this session
+    private ShardConnection connection(String shard) throws IOException {
+        ShardConnection c = connections.get(shard);
+        if (c != null) return c;
+        c = new ShardConnection(shard);
+        c.setEventSink(line -> {
+            ClientSession.PushSink sink = pushSink;
+            if (sink != null) sink.push(line);
+        });
+        try {
+            if (userId != null) {
+                CommandResult login = c.call("LOGIN " + userId + "|" + password);
+                if (!login.isOk()) throw new IOException("Could not log in on shard " + shard + ": " + login.getMessage());
+                if (watching) c.call("WATCH");
+            }
+        } catch (IOException e) {
+            c.close();
+            throw e;
+        }
+        connections.put(shard, c);
+        return c;
+    }
+
+    private void dropConnection(String shard) {
+        ShardConnection c = connections.remove(shard);
+        if (c != null) c.close();
+    }
+
+    // Called after a shard joined the ring: a watching session starts watching it too
+    synchronized void shardAdded(String shard) {
+        if (!watching) return;
+        try {
+            connection(shard);
+        } catch (IOException e) {
+            System.out.println("Error: could not watch new shard " + shard + ": " + e.getMessage());
+        }
+    }
+
+    private CommandResult addShard(String[] args) {
+        if (!"Administrator".equals(role)) {
+            return CommandResult.error(userId == null ? "Not logged in." : "Only administrators can do that.");
+        }
+        if (args.length != 1 || args[0].indexOf(':') < 0) return CommandResult.error("Usage: ADDSHARD host:port");
+        try {
+            return CommandResult.ok("Added shard " + args[0] + "; " + router.addShard(args[0], userId, password).describe());
+        } catch (IOException | RuntimeException e) {
+            return CommandResult.error("Could not add shard " + args[0] + ": " + e.getMessage());
+        }
+    }
+}
+
+// Runs a command file without prompts: one command per line in the server protocol, straight against the
+// domain layer. A line may start with "@userId " to run as that user without logging in; blank lines and
+// lines starting with '#' are skipped. Every command produces one JSON line, followed by a summary line.
+class BatchRunner {
+    private ClientSession session;  // Carries the acting user from one line to the next
+    private UserDirectory users;    // Resolves "@userId" prefixes
+    private long commands;          // Commands run
+    private long failures;          // Commands that returned ERR
+
+    // Constructor to run commands against the application
+    public BatchRunner(RPMSApp app) {
+        this.session = new ClientSession(app);
+        this.users = app.getUsers();
+    }
+
+    // Runs every command from the reader and writes the results; the writer is flushed but not closed
+    public void run(BufferedReader in, Writer out) throws IOException {
+        long start = System.nanoTime();
+        StringBuilder json = new StringBuilder(256);
+        String line;
+        long lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            String command = line.trim();
+            if (command.isEmpty() || command.charAt(0) == '#') {
+                continue;
+            }
+            CommandResult result;
+            if (command.charAt(0) == '@') {
+                int space = command.indexOf(' ');
+                String userId = space < 0 ? command.substring(1) : command.substring(1, space);
+                User user = users.find(userId);
+                command = space < 0 ? "" : command.substring(space + 1).trim();
+                if (user == null) {
+                    result = CommandResult.error("Unknown user " + userId + ".");
+                } else {
+                    session.actAs(user);
+                    result = command.isEmpty() ? CommandResult.ok("Acting as " + user.getId()) : session.execute(command);
+                }
+            } else {
+                result = session.execute(command);
+            }
+            commands++;
+            if (!result.isOk()) {
+                failures++;
+            }
+            json.setLength(0);
+            json.append("{\"line\":").append(lineNumber).append(",\"ok\":").append(result.isOk());
+            json.append(",\"command\":");
+            appendJsonString(json, commandWord(command));
+            json.append(",\"message\":");
+            appendJsonString(json, result.getMessage());
+            if (!result.getRows().isEmpty()) {
+                json.append(",\"rows\":[");
+                for (int i = 0; i < result.getRows().size(); i++) {
+                    if (i > 0) json.append(',');
+                    appendJsonString(json, result.getRows().get(i));
+                }
+                json.append(']');
+            }
+            json.append("}\n");
+            out.append(json);
+            if (result.isEndSession()) {
+                break;
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        out.write("{\"summary\":true,\"commands\":" + commands + ",\"failed\":" + failures +
+                  ",\"elapsedMillis\":" + elapsedMillis + "}\n");
+        out.flush();
+    }
+
+    // Getters for the run totals
+    public long getCommands() { return commands; }
+    public long getFailures() { return failures; }
+
+    private static String commandWord(String command) {
+        int space = command.indexOf(' ');
+        return (space < 0 ? command : command.substring(0, space)).toUpperCase(Locale.ROOT);
+    }
+
+    // Appends the text as a JSON string literal
+    static void appendJsonString(StringBuilder out, String text) {
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
+
+// Totals of one bulk import
+class ImportReport {
+    private static final int MAX_REJECTIONS_KEPT = 100; // Rejections kept in memory for display
+
+    private long rowsRead;        // Data rows read (header and blank lines excluded)
+    private long patients;        // Patients added
+    private long doctors;         // Doctors added
+    private long administrators;  // Administrators added
+    private long links;           // Care-team links added
+    private long rejected;        // Rows rejected by validation, deduplication or link resolution
+    private long elapsedNanos;    // Wall time of the import
+    private List<String> rejections = new ArrayList<>(); // First rejections, "line N: reason"
+
+    // Recording methods used by the importer
+    void addRowsRead(long n) { rowsRead += n; }
+    void addPatient() { patients++; }
+    void addDoctor() { doctors++; }
+    void addAdministrator() { administrators++; }
+    void addLink() { links++; }
+    void setElapsedNanos(long elapsedNanos) { this.elapsedNanos = elapsedNanos; }
+    void reject(long line, String reason) {
+        rejected++;
+        if (rejections.size() < MAX_REJECTIONS_KEPT) {
+            rejections.add("line " + line + ": " + reason);
+        }
+    }
+
+    // Getters for the totals
+    public long getRowsRead() { return rowsRead; }
+    public long getPatients() { return patients; }
+    public long getDoctors() { return doctors; }
+    public long getAdministrators() { return administrators; }
+    public long getLinks() { return links; }
+    public long getRejected() { return rejected; }
+    public List<String> getRejections() { return rejections; }
+    public double getRowsPerSecond() { return elapsedNanos == 0 ? 0 : rowsRead * 1e9 / elapsedNanos; }
+
+    // One-line summary of the import
+    public String describe() {
+        return String.format("Imported %d patients, %d doctors, %d administrators and %d care-team links from %d rows " +
+                             "in %.2f s (%.0f rows/s); %d rows rejected", patients, doctors, administrators, links,
+                             rowsRead, elapsedNanos / 1e9, getRowsPerSecond(), rejected);
+    }
+}
+
+// Bulk onboarding of users and care-team links from CSV (with a header row) or JSON Lines files.
+// Columns/keys: type (patient, doctor, admin or link), id, name, email, password, and for links
+// patient_id and doctor_id; a patient row may also carry doctor_id to link it directly.
+// Lines are parsed and validated in parallel chunks, then inserted in file order, so the first row
+// with a given ID wins; links are applied once every user is in.
+class BulkImporter {
+    private static final int CHUNK_LINES = 8192; // Lines handed to one parse task
+
+    private RPMSApp app;    // Application receiving the users
+    private int threads;    // Parse threads
+
+    // Constructor to import into the application with the given parallelism
+    public BulkImporter(RPMSApp app, int threads) {
+        this.app = app;
+        this.threads = Math.max(1, threads);
+    }
+
+    // A validated row waiting to be inserted
+    private static class ImportRow {
+        private final long line;
+        private final String type;
+        private final String id;
+        private final String name;
+        private final String email;
+        private final String password;
+        private final String patientId;
+        private final String doctorId;
+
+        ImportRow(long line, String type, String id, String name, String email, String password,
+                  String patientId, String doctorId) {
+            this.line = line;
+            this.type = type;
+            this.id = id;
+            this.name = name;
+            this.email = email;
+            this.password = password;
+            this.patientId = patientId;
+            this.doctorId = doctorId;
+        }
+    }
+
+    // A row that failed parsing or validation
+    private static class Rejection {
+        private final long line;
+        private final String reason;
+
+        Rejection(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+    }
+
+    // Result of parsing one chunk: valid rows and rejections, both in line order
+    private static class ParsedChunk {
+        private final List<ImportRow> rows = new ArrayList<>();
+        private final List<Rejection> rejections = new ArrayList<>();
+        private int lines; // Non-blank lines in the chunk
+    }
+
+    // Imports a file; rejected rows are also written to the rejects file, if given, as "line<TAB>reason"
+    public ImportReport importFile(Path file, Path rejectsFile) throws IOException {
+        long start = System.nanoTime();
+        ImportReport report = new ImportReport();
+        ExecutorService parsers = Executors.newFixedThreadPool(threads);
+        List<ImportRow> deferredLinks = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             BufferedWriter rejects = rejectsFile != null ? Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8) : null) {
+            String first = in.readLine();
+            if (first == null) {
+                report.setElapsedNanos(System.nanoTime() - start);
+                return report;
+            }
+            boolean json = first.trim().startsWith("{");
+            Map<String, Integer> columns = json ? null : headerColumns(first);
+            long lineNumber = json ? 0 : 1;
+            List<String> pending = new ArrayList<>(CHUNK_LINES);
+            if (json) {
+                pending.add(first);
+            }
+
+            // Keep a bounded number of chunks in flight and insert them in file order
+            Deque<Future<ParsedChunk>> inFlight = new ArrayDeque<>();
+            String line;
+            while (true) {
+                line = in.readLine();
+                if (line != null) {
+                    pending.add(line);
+                }
+                if (pending.size() == CHUNK_LINES || (line == null && !pending.isEmpty())) {
+                    List<String> chunk = pending;
+                    long firstLine = lineNumber + 1;
+                    lineNumber += chunk.size();
+                    inFlight.add(parsers.submit(() -> parseChunk(chunk, firstLine, columns)));
+                    pending = new ArrayList<>(CHUNK_LINES);
+                    if (inFlight.size() >= threads * 2) {
+                        insert(await(inFlight.poll()), report, rejects, deferredLinks);
+                    }
+                }
+                if (line == null) {
+                    break;
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                insert(await(inFlight.poll()), report, rejects, deferredLinks);
+            }
+            for (ImportRow link : deferredLinks) {
+                applyLink(link, report, rejects);
+            }
+        } finally {
+            parsers.shutdownNow();
+        }
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    private static ParsedChunk await(Future<ParsedChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted.");
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // Maps header names (case-insensitive) to column positions
+    private static Map<String, Integer> headerColumns(String header) throws IOException {
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = splitCsv(header);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        if (!columns.containsKey("type")) {
+            throw new IOException("CSV header must have a 'type' column.");
+        }
+        return columns;
+    }
+
+    // Parses and validates one chunk; runs on a parse thread and touches no shared state
+    private static ParsedChunk parseChunk(List<String> lines, long firstLine, Map<String, Integer> columns) {
+        ParsedChunk chunk = new ParsedChunk();
+        chunk.lines = lines.size();
+        long lineNumber = firstLine;
+        for (String line : lines) {
+            long current = lineNumber++;
+            if (line.isBlank()) {
+                chunk.lines--;
+                continue;
+            }
+            Map<String, String> fields;
+            try {
+                fields = columns == null ? parseJsonObject(line) : csvFields(line, columns);
+            } catch (IllegalArgumentException e) {
+                chunk.rejections.add(new Rejection(current, e.getMessage()));
+                continue;
+            }
+            String error = validate(fields);
+            if (error != null) {
+                chunk.rejections.add(new Rejection(current, error));
+                continue;
+            }
+            chunk.rows.add(new ImportRow(current, fields.get("type").toLowerCase(Locale.ROOT), fields.get("id"),
+                                         fields.get("name"), fields.get("email"), fields.get("password"),
+                                         fields.get("patient_id"), fields.get("doctor_id")));
+        }
+        return chunk;
+    }
+
+    // Returns the reason a row is invalid, or null if it can be inserted
+    private static String validate(Map<String, String> fields) {
+        String type = fields.get("type");
+        if (type == null || type.isEmpty()) return "missing type";
+        switch (type.toLowerCase(Locale.ROOT)) {
+            case "patient":
+            case "doctor":
+            case "admin":
+                String id = fields.get("id");
+                if (id == null || id.isEmpty()) return "missing id";
+                if (id.indexOf('|') >= 0 || id.indexOf(' ') >= 0) return "id must not contain spaces or '|'";
+                if (isBlank(fields.get("name"))) return "missing name";
+                String email = fields.get("email");
+                if (email == null || email.indexOf('@') <= 0) return "invalid email";
+                if (isBlank(fields.get("password"))) return "missing password";
+                return null;
+            case "link":
+                if (isBlank(fields.get("patient_id")) || isBlank(fields.get("doctor_id"))) {
+                    return "link needs patient_id and doctor_id";
+                }
+                return null;
+            default:
+                return "unknown type " + type;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    // Inserts one parsed chunk; runs on the importing thread only, in file order
+    private void insert(ParsedChunk chunk, ImportReport report, BufferedWriter rejects,
+                        List<ImportRow> deferredLinks) throws IOException {
+        report.addRowsRead(chunk.lines);
+        // Merge parse rejections and inserts by line number so the rejects file stays in order
+        int r = 0;
+        for (ImportRow row : chunk.rows) {
+            while (r < chunk.rejections.size() && chunk.rejections.get(r).line < row.line) {
+                reject(report, rejects, chunk.rejections.get(r).line, chunk.rejections.get(r).reason);
+                r++;
+            }
+            switch (row.type) {
+                case "patient":
+                    if (app.addUser(new Patient(row.id, row.name, row.email, row.password))) {
+                        report.addPatient();
+                        if (!isBlank(row.doctorId)) {
+                            deferredLinks.add(new ImportRow(row.line, "link", null, null, null, null, row.id, row.doctorId));
+                        }
+                    } else {
+                        reject(report, rejects, row.line, "duplicate patient id " + row.id);
+                    }
+                    break;
+                case "doctor":
+                    if (app.addUser(new Doctor(row.id, row.name, row.email, row.password))) {
+                        report.addDoctor();
+                    } else {
+                        reject(report, rejects, row.line, "duplicate doctor id " + row.id);
+                    }
+                    break;
+                case "admin":
+                    if (app.addUser(new Administrator(row.id, row.name, row.email, row.password))) {
+                        report.addAdministrator();
+                    } else {
+                        reject(report, rejects, row.line, "duplicate administrator id " + row.id);
+                    }
+                    break;
+                default:
+                    deferredLinks.add(row);
+            }
+        }
+        for (; r < chunk.rejections.size(); r++) {
+            reject(report, rejects, chunk.rejections.get(r).line, chunk.rejections.get(r).reason);
+        }
+    }
+
+    private void applyLink(ImportRow link, ImportReport report, BufferedWriter rejects) throws IOException {
+        Patient patient = app.findPatientById(link.patientId);
+        Doctor doctor = app.findDoctorById(link.doctorId);
+        if (patient == null) {
+            reject(report, rejects, link.line, "unknown patient " + link.patientId);
+        } else if (doctor == null) {
+            reject(report, rejects, link.line, "unknown doctor " + link.doctorId);
+        } else if (app.assignDoctor(patient, doctor)) {
+            report.addLink();
+        }
+    }
+
+    private static void reject(ImportReport report, BufferedWriter rejects, long line, String reason) throws IOException {
+        report.reject(line, reason);
+        if (rejects != null) {
+            rejects.write(line + "\t" + reason + "\n");
+        }
+    }
+
+    // Named fields of a CSV row
+    private static Map<String, String> csvFields(String line, Map<String, Integer> columns) {
+        List<String> values = splitCsv(line);
+        Map<String, String> fields = new HashMap<>(columns.size() * 2);
+        for (Map.Entry<String, Integer> column : columns.entrySet()) {
+            int index = column.getValue();
+            if (index < values.size()) {
+                fields.put(column.getKey(), values.get(index).trim());
+            }
+        }
+        return fields;
+    }
+
+    // Splits one CSV line; fields may be quoted, with "" for a literal quote (quoted line breaks are not supported)
+    static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>(8);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        values.add(field.toString());
+        return values;
+    }
+
+    // Parses a flat JSON object whose values are strings, numbers, booleans or null
+    static Map<String, String> parseJsonObject(String line) {
+        Map<String, String> fields = new HashMap<>();
+        int[] pos = {skipSpace(line, 0)};
+        expect(line, pos, '{');
+        if (peek(line, pos) == '}') {
+            return fields;
+        }
+        while (true) {
+            String key = readJsonString(line, pos);
+            expect(line, pos, ':');
+            String value;
+            if (peek(line, pos) == '"') {
+                value = readJsonString(line, pos);
+            } else {
+                int start = pos[0];
+                while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) pos[0]++;
+                value = line.substring(start, pos[0]);
+                if (value.isEmpty() || value.startsWith("{") || value.startsWith("[")) {
+                    throw new IllegalArgumentException("unsupported value for " + key);
+                }
+                if ("null".equals(value)) value = null;
+            }
+            fields.put(key.toLowerCase(Locale.ROOT), value == null ? null : value.trim());
+            char next = peek(line, pos);
+            pos[0]++;
+            if (next == '}') return fields;
+            if (next != ',') throw new IllegalArgumentException("malformed JSON object");
+        }
+    }
+
+    private static String readJsonString(String line, int[] pos) {
+        expect(line, pos, '"');
+        StringBuilder out = new StringBuilder();
+        int i = pos[0];
+        while (i < line.length()) {
+            char c = line.charAt(i++);
+            if (c == '"') {
+                pos[0] = skipSpace(line, i);
+                return out.toString();
+            }
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (i >= line.length()) break;
+            char e = line.charAt(i++);
+            switch (e) {
+                case 'n': out.append('\n'); break;
+                case 't': out.append('\t'); break;
+                case 'r': out.append('\r'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u':
+                    if (i + 4 > line.length()) throw new IllegalArgumentException("malformed JSON escape");
+                    out.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default: out.append(e);
+            }
+        }
+        throw new IllegalArgumentException("unterminated JSON string");
+    }
+
+    private static void expect(String line, int[] pos, char c) {
+        if (peek(line, pos) != c) {
+            throw new IllegalArgumentException("malformed JSON: expected '" + c + "'");
+        }
+        pos[0] = skipSpace(line, pos[0] + 1);
+    }
+
+    private static char peek(String line, int[] pos) {
+        pos[0] = skipSpace(line, pos[0]);
+        return pos[0] < line.length() ? line.charAt(pos[0]) : '\0';
+    }
+
+    private static int skipSpace(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+        return i;
+    }
+}
+
+// File formats for record exports
+enum ExportFormat {
+    CSV("csv"),      // Header row, then comma-separated values (RFC 4180 quoting)
+    JSONL("jsonl"),  // One JSON object per record
+    BINARY("rpmx");  // Typed values with a self-describing header (see BinaryExportWriter)
+
+    private final String extension; // File name extension
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() { return extension; }
+
+    // Format named by "csv", "jsonl" or "binary" (case-insensitive), or null
+    public static ExportFormat parse(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "csv": return CSV;
+            case "jsonl": case "json": return JSONL;
+            case "binary": case "rpmx": return BINARY;
+            default: return null;
+        }
+    }
+}
+
+// Kinds of patient records an export writes, with their columns; types are S (string), I (integer) or D (double)
+enum ExportKind {
+    VITALS("vitals", "SIIIDDSD", "patient_id", "seq", "heart_rate", "oxygen_level", "systolic", "diastolic",
+           "blood_pressure", "temperature"),
+    HISTORY("history", "SISSSS", "patient_id", "seq", "feedback", "medication", "dosage", "schedule"),
+    PRESCRIPTIONS("prescriptions", "SISSS", "patient_id", "history_seq", "medication", "dosage", "schedule"),
+    APPOINTMENTS("appointments", "SISSS", "patient_id", "index", "date", "doctor_id", "status"); // Index -1: archived
+
+    private final String label;     // Used in file names and metric labels
+    private final String types;     // One type letter per column
+    private final String[] columns; // Column names
+
+    ExportKind(String label, String types, String... columns) {
+        this.label = label;
+        this.types = types;
+        this.columns = columns;
+    }
+
+    public String getLabel() { return label; }
+    public int getColumnCount() { return columns.length; }
+    public String getColumn(int i) { return columns[i]; }
+    public char getType(int i) { return types.charAt(i); }
+}
+
+// Streams the rows of one record kind to a file through one fixed-size buffer, optionally gzip-compressed, so
+// heap use does not depend on the number of rows. Call row(), one value() per column, then endRow().
+abstract class ExportWriter implements Closeable {
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    protected final ExportKind kind;     // What the file holds
+    protected final ByteBuffer buffer;   // Bytes waiting to be written
+    private final WritableByteChannel channel; // File channel, or gzip stream over it
+    protected int column;                // Column of the next value in the current row
+    private long rows;                   // Rows completed
+    private boolean closed;              // Set once the file is closed
+
+    protected ExportWriter(ExportKind kind, WritableByteChannel channel) {
+        this.kind = kind;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    }
+
+    // Opens a writer over a new (or truncated) file and writes the format's header
+    static ExportWriter open(Path file, ExportFormat format, ExportKind kind, boolean gzip) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                                   StandardOpenOption.WRITE);
+        WritableByteChannel channel = fileChannel;
+        if (gzip) {
+            channel = Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(fileChannel), BUFFER_BYTES));
+        }
+        ExportWriter writer;
+        switch (format) {
+            case CSV: writer = new CsvExportWriter(kind, channel); break;
+            case JSONL: writer = new JsonLinesExportWriter(kind, channel); break;
+            default: writer = new BinaryExportWriter(kind, channel); break;
+        }
+        try {
+            writer.writeHeader();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return writer;
+    }
+
+    // Starts a row
+    public void row() throws IOException {
+        column = 0;
+        beginRow();
+    }
+
+    // Values of the current row, in column order; a string may be null
+    public abstract void value(String value) throws IOException;
+    public abstract void value(long value) throws IOException;
+    public abstract void value(double value) throws IOException;
+
+    // Ends the current row
+    public void endRow() throws IOException {
+        if (column != kind.getColumnCount()) {
+            throw new IllegalStateException(kind.getLabel() + " rows have " + kind.getColumnCount() + " values, got " + column);
+        }
+        finishRow();
+        rows++;
+    }
+
+    // Rows written so far
+    public long getRows() { return rows; }
+
+    protected abstract void writeHeader() throws IOException;
+    protected abstract void beginRow() throws IOException;
+    protected abstract void finishRow() throws IOException;
+    protected void writeTrailer() throws IOException {}
+
+    // Makes room for at least n bytes in the buffer (n must not exceed its capacity)
+    protected void ensure(int n) throws IOException {
+        if (buffer.remaining() < n) drain();
+    }
+
+    // Writes bytes of any length through the buffer
+    protected void put(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) drain();
+            int n = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, n);
+            offset += n;
+        }
+    }
+
+    // Hands the buffered bytes to the channel
+    protected void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Writes the trailer and remaining bytes and closes the file; later calls do nothing
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            writeTrailer();
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
+
+// Text formats: each row is built in a reused StringBuilder and encoded as UTF-8 straight into the buffer
+abstract class TextExportWriter extends ExportWriter {
+    protected final StringBuilder line = new StringBuilder(256); // Current row
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    protected TextExportWriter(ExportKind kind, WritableByteChannel channel) {
+        super(kind, channel);
+    }
+
+    @Override
+    protected void beginRow() {
+        line.setLength(0);
+    }
+
+    // Encodes the current line into the buffer, draining it as it fills
+    protected void writeLine() throws IOException {
+        line.append('\n');
+        CharBuffer chars = CharBuffer.wrap(line);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            drain();
+        }
+    }
+}
+
+// CSV with a header row; values with commas, quotes or line breaks are quoted, null is an empty field
+class CsvExportWriter extends TextExportWriter {
+    CsvExportWriter(ExportKind kind, WritableByteChannel channel) {
+        super(kind, channel);
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        beginRow();
+        for (int i = 0; i < kind.getColumnCount(); i++) {
+            if (i > 0) line.append(',');
+            line.append(kind.getColumn(i));
+        }
+        writeLine();
+    }
+
+    @Override
+    public void value(String value) {
+        separate();
+        if (value == null) return;
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') line.append('"');
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    @Override
+    public void value(long value) {
+        separate();
+        line.append(value);
+    }
+
+    @Override
+    public void value(double value) {
+        separate();
+        if (!Double.isNaN(value)) line.append(value);
+    }
+
+    @Override
+    protected void finishRow() throws IOException {
+        writeLine();
+    }
+
+    private void separate() {
+        if (column++ > 0) line.append(',');
+    }
+}
+
+// One JSON object per line, keyed by column name; null strings and unparsed numbers are null
+class JsonLinesExportWriter extends TextExportWriter {
+    JsonLinesExportWriter(ExportKind kind, WritableByteChannel channel) {
+        super(kind, channel);
+    }
+
+    @Override
+    protected void writeHeader() {}
+
+    @Override
+    public void value(String value) {
+        key();
+        if (value == null) {
+            line.append("null");
+        } else {
+            BatchRunner.appendJsonString(line, value);
+        }
+    }
+
+    @Override
+    public void value(long value) {
+        key();
+        line.append(value);
+    }
+
+    @Override
+    public void value(double value) {
+        key();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            line.append("null");
+        } else {
+            line.append(value);
+        }
+    }
+
+    @Override
+    protected void finishRow() throws IOException {
+        line.append('}');
+        writeLine();
+    }
+
+    private void key() {
+        line.append(column == 0 ? '{' : ',').append('"').append(kind.getColumn(column++)).append("\":");
+    }
+}
+
+// Compact binary format. Header: "RPMX", version byte 1, the kind's label, a column count byte, then each
+// column's name and type letter. Each row is the byte 1 followed by its values: integers as zigzag varints,
+// doubles as 8 bytes, strings as a varint tag (0 null, 1 same as the row above, otherwise UTF-8 length + 2)
+// and their bytes. The file ends with the byte 0 and the row count as a varint.
+class BinaryExportWriter extends ExportWriter {
+    static final byte[] MAGIC = {'R', 'P', 'M', 'X'};
+    static final int VERSION = 1;
+
+    private final String[] previous; // Last string written in each column, for "same as above"
+
+    BinaryExportWriter(ExportKind kind, WritableByteChannel channel) {
+        super(kind, channel);
+        previous = new String[kind.getColumnCount()];
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        put(MAGIC);
+        ensure(1);
+        buffer.put((byte) VERSION);
+        writeString(kind.getLabel());
+        ensure(1);
+        buffer.put((byte) kind.getColumnCount());
+        for (int i = 0; i < kind.getColumnCount(); i++) {
+            writeString(kind.getColumn(i));
+            ensure(1);
+            buffer.put((byte) kind.getType(i));
+        }
+    }
+
+    @Override
+    protected void beginRow() throws IOException {
+        ensure(1);
+        buffer.put((byte) 1);
+    }
+
+    @Override
+    public void value(String value) throws IOException {
+        int c = next('S');
+        if (value == null) {
+            writeVarLong(0);
+        } else if (value.equals(previous[c])) {
+            writeVarLong(1);
+        } else {
+            writeString(value);
+        }
+        previous[c] = value;
+    }
+
+    @Override
+    public void value(long value) throws IOException {
+        next('I');
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    @Override
+    public void value(double value) throws IOException {
+        next('D');
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    @Override
+    protected void finishRow() {}
+
+    @Override
+    protected void writeTrailer() throws IOException {
+        ensure(1);
+        buffer.put((byte) 0);
+        writeVarLong(getRows());
+    }
+
+    // Column of the value being written, checked against its declared type
+    private int next(char type) {
+        if (column >= kind.getColumnCount() || kind.getType(column) != type) {
+            throw new IllegalStateException("Unexpected " + type + " value in column " + column + " of " + kind.getLabel());
+        }
+        return column++;
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 2L);
+        put(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
+
+// Totals of one record export; updated from the export threads
+class ExportReport {
+    private static final int MAX_FAILURES_KEPT = 100; // Failures kept in memory for display
+
+    private long patients;       // Patients whose files were all written
+    private long[] rows = new long[ExportKind.values().length]; // Rows written per kind
+    private long files;          // Files written
+    private long bytes;          // Size of the files written
+    private long failed;         // Patients whose export failed
+    private long elapsedNanos;   // Wall time of the export
+    private List<String> failures = new ArrayList<>(); // First failures, "patientId: reason"
+
+    // Recording methods used by the exporter
+    synchronized void addFile(ExportKind kind, long rowCount, long size) {
+        rows[kind.ordinal()] += rowCount;
+        files++;
+        bytes += size;
+    }
+    synchronized void addPatient() { patients++; }
+    synchronized void fail(String patientId, String reason) {
+        failed++;
+        if (failures.size() < MAX_FAILURES_KEPT) {
+            failures.add(patientId + ": " + reason);
+        }
+    }
+    synchronized void setElapsedNanos(long elapsedNanos) { this.elapsedNanos = elapsedNanos; }
+
+    // Getters for the totals
+    public synchronized long getPatients() { return patients; }
+    public synchronized long getRows(ExportKind kind) { return rows[kind.ordinal()]; }
+    public synchronized long getFiles() { return files; }
+    public synchronized long getBytes() { return bytes; }
+    public synchronized long getFailed() { return failed; }
+    public synchronized long getElapsedNanos() { return elapsedNanos; }
+    public synchronized List<String> getFailures() { return new ArrayList<>(failures); }
+
+    // One-line summary of the export
+    public synchronized String describe() {
+        return String.format("Exported %d patients (%d readings, %d history entries, %d prescriptions, %d appointments) " +
+                             "to %d files, %.1f MB in %.2f s; %d patients failed", patients, rows[0], rows[1], rows[2],
+                             rows[3], files, bytes / 1e6, elapsedNanos / 1e9, failed);
+    }
+}
+
+// Streams patients' vitals, medical history, prescriptions and appointments to files, one per patient and record
+// kind: <patientId>-<kind>.<csv|jsonl|rpmx>[.gz]. Each store is walked with a cursor (the patient's readings
+// queue, the history segment by segment, one appointments snapshot plus the patient's archived runs), so heap
+// use stays flat however many records there are. A cohort is exported in parallel, one patient per task.
+class RecordExporter {
+    private VitalsDatabase vitals;            // Readings
+    private AppointmentManager appointments;  // Appointments
+    private ExportFormat format;              // File format
+    private boolean gzip;                     // Whether files are gzip-compressed
+    private int threads;                      // Patients exported at once
+
+    // Constructor to export from the given stores with the given format and parallelism
+    public RecordExporter(VitalsDatabase vitals, AppointmentManager appointments, ExportFormat format, boolean gzip,
+                          int threads) {
+        this.vitals = vitals;
+        this.appointments = appointments;
+        this.format = format;
+        this.gzip = gzip;
+        this.threads = Math.max(1, threads);
+    }
+
+    // Exports every patient's records into the directory (created if missing); a patient whose files cannot be
+    // written is reported and the others carry on
+    public ExportReport export(List<Patient> patients, Path directory) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        ExportReport report = new ExportReport();
+        List<Appointment> snapshot = appointments.getAppointments();
+        Map<Patient, List<Integer>> appointmentIndexes = appointmentIndexes(patients, snapshot);
+        int workers = Math.min(threads, patients.size());
+        if (workers <= 1) {
+            for (Patient patient : patients) {
+                exportPatient(patient, directory, snapshot, appointmentIndexes, report);
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(workers);
+            try {
+                List<Future<?>> tasks = new ArrayList<>(patients.size());
+                for (Patient patient : patients) {
+                    tasks.add(pool.submit(() -> exportPatient(patient, directory, snapshot, appointmentIndexes, report)));
+                }
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Export interrupted.");
+            } catch (ExecutionException e) {
+                throw new IOException("Export failed: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    // Positions of the patients' appointments in one snapshot, so each patient's file needs no full scan
+    private static Map<Patient, List<Integer>> appointmentIndexes(List<Patient> patients, List<Appointment> snapshot) {
+        Map<Patient, List<Integer>> indexes = new HashMap<>();
+        for (Patient p : patients) indexes.put(p, new ArrayList<>());
+        for (int i = 0; i < snapshot.size(); i++) {
+            List<Integer> own = indexes.get(snapshot.get(i).getPatient());
+            if (own != null) own.add(i);
+        }
+        return indexes;
+    }
+
+    // Writes one patient's four files
+    private void exportPatient(Patient patient, Path directory, List<Appointment> snapshot,
+                               Map<Patient, List<Integer>> appointmentIndexes, ExportReport report) {
+        String id = patient.getId();
+        try {
+            Path file = fileFor(directory, id, ExportKind.VITALS);
+            try (ExportWriter out = ExportWriter.open(file, format, ExportKind.VITALS, gzip)) {
+                long seq = 0;
+                for (VitalSign v : vitals.readings(id)) {
+                    out.row();
+                    out.value(id);
+                    out.value(seq++);
+                    out.value(v.getHeartRate());
+                    out.value(v.getOxygenLevel());
+                    out.value(v.getSystolic());
+                    out.value(v.getDiastolic());
+                    out.value(v.getBloodPressure());
+                    out.value(v.getTemperature());
+                    out.endRow();
+                }
+                finish(out, file, report);
+            }
+
+            // History and prescriptions come from the same walk over the history
+            Path historyFile = fileFor(directory, id, ExportKind.HISTORY);
+            Path prescriptionFile = fileFor(directory, id, ExportKind.PRESCRIPTIONS);
+            try (ExportWriter history = ExportWriter.open(historyFile, format, ExportKind.HISTORY, gzip);
+                 ExportWriter prescriptions = ExportWriter.open(prescriptionFile, format, ExportKind.PRESCRIPTIONS, gzip)) {
+                long seq = 0;
+                for (Feedback f : patient.getMedicalHistory().oldestFirst()) {
+                    Prescription p = f.getPrescription();
+                    history.row();
+                    history.value(id);
+                    history.value(seq);
+                    history.value(f.getFeedbackText());
+                    history.value(p == null ? null : p.getMedication());
+                    history.value(p == null ? null : p.getDosage());
+                    history.value(p == null ? null : p.getSchedule());
+                    history.endRow();
+                    if (p != null) {
+                        prescriptions.row();
+                        prescriptions.value(id);
+                        prescriptions.value(seq);
+                        prescriptions.value(p.getMedication());
+                        prescriptions.value(p.getDosage());
+                        prescriptions.value(p.getSchedule());
+                        prescriptions.endRow();
+                    }
+                    seq++;
+                }
+                finish(history, historyFile, report);
+                finish(prescriptions, prescriptionFile, report);
+            }
+
+            file = fileFor(directory, id, ExportKind.APPOINTMENTS);
+            try (ExportWriter out = ExportWriter.open(file, format, ExportKind.APPOINTMENTS, gzip)) {
+                for (int index : appointmentIndexes.get(patient)) {
+                    Appointment a = snapshot.get(index);
+                    out.row();
+                    out.value(id);
+                    out.value(index);
+                    out.value(a.getAppointmentDate());
+                    out.value(a.getDoctor().getId());
+                    out.value(a.getStatus());
+                    out.endRow();
+                }
+                AppointmentArchive archive = appointments.getArchive();
+                if (archive != null) {
+                    for (ArchivedAppointment a : archive.findByPatient(id)) {
+                        out.row();
+                        out.value(id);
+                        out.value(-1);
+                        out.value(a.getAppointmentDate());
+                        out.value(a.getDoctorId());
+                        out.value(a.getStatus());
+                        out.endRow();
+                    }
+                }
+                finish(out, file, report);
+            }
+            report.addPatient();
+        } catch (IOException | UncheckedIOException e) {
+            report.fail(id, e.getMessage());
+        }
+    }
+
+    // Closes the writer and records the file (the later close by try-with-resources does nothing)
+    private static void finish(ExportWriter out, Path file, ExportReport report) throws IOException {
+        out.close();
+        report.addFile(out.kind, out.getRows(), Files.size(file));
+        MetricsRegistry.global().counter("rpms_export_records_total", "Records written by exports",
+                                         "kind", out.kind.getLabel()).add(out.getRows());
+    }
+
+    private Path fileFor(Path directory, String patientId, ExportKind kind) {
+        return directory.resolve(fileName(patientId) + "-" + kind.getLabel() + "." + format.getExtension()
+                                 + (gzip ? ".gz" : ""));
+    }
+
+    // Patient ID as a file name: letters, digits, '_' and '-' are kept and every other UTF-8 byte is written
+    // as %XX, so distinct IDs never share a file (p.1 and p_1 become p%2E1 and p_1)
+    static String fileName(String patientId) {
+        StringBuilder out = new StringBuilder(patientId.length());
+        for (byte b : patientId.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+                out.append(c);
+            } else {
+                out.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                   .append(Character.toUpperCase(Character.forDigit(c & 15, 16)));
+            }
+        }
+        return out.toString();
+    }
+}
+
+// Main application class for the Remote Patient Monitoring System
+public class RPMSApp {
+    private static final long ALERT_REPEAT_WINDOW_MILLIS = 15 * 60 * 1000; // Repeat unchanged alerts at most every 15 minutes
+    private static final String OUTBOX_DIRECTORY = "rpms-outbox"; // Where queued notifications are kept
+    private static final String OUTBOX_DIRECTORY_PROPERTY = "rpms.outbox.dir"; // Overrides it, e.g. per shard process
+    private static final String EMAIL_CHANNEL = "email";          // Channel for email-only delivery (reminders)
+    private static final String SMS_CHANNEL = "sms";              // Channel for SMS delivery
+    private static final String ALERT_CHANNEL = "alerts";         // Outbox channel fanning alerts out to all channels
+    private static final int DEFAULT_SERVER_PORT = 7070;           // Port for --server when none is given
+    private static final String METRICS_PORT_PROPERTY = "rpms.metrics.port"; // Set to serve /metrics on localhost
+    private static final String HISTORY_DIR_PROPERTY = "rpms.history.dir";   // Where older medical history spills
+    private static final String HISTORY_SEGMENT_PROPERTY = "rpms.history.segment-size"; // Entries per spilled segment
+    private static final String HISTORY_CACHE_PROPERTY = "rpms.history.cached-segments"; // Spilled segments kept on the heap
+    private static final String HISTORY_DICTIONARY_FILE = "dictionary.txt"; // String codes used by spilled history
+    private static final int HISTORY_PAGE_SIZE = 10;               // Entries shown per page of medical history
+    private static final String DEDUPE_CAPACITY_PROPERTY = "rpms.dedupe.capacity"; // Device reading keys remembered
+    private static final String DEDUPE_FPR_PROPERTY = "rpms.dedupe.false-positive-rate"; // Late readings wrongly dropped
+    private static final String INGEST_IN_FLIGHT_PROPERTY = "rpms.ingest.max-in-flight"; // Readings ingested at once
+    private static final String INGEST_DEFERRED_PROPERTY = "rpms.ingest.max-deferred";   // Patients with a deferred reading
+    private static final String INGEST_BACKLOG_PROPERTY = "rpms.ingest.backlog-limit";   // Pending notifications before shedding
+    private static final String ARCHIVE_DIR_PROPERTY = "rpms.appointments.archive.dir"; // Where archived appointments go
+    private static final String ARCHIVE_SEGMENTS_PROPERTY = "rpms.appointments.archive.max-segments"; // Before a merge
+    private static final String ARCHIVE_KEEP_DAYS_PROPERTY = "rpms.appointments.keep-days"; // Past days kept in memory
+    private static final String ARCHIVE_INTERVAL_PROPERTY = "rpms.appointments.archive-interval-minutes"; // 0 disables
+    private static final String VITALS_STORAGE_PROPERTY = "rpms.vitals.storage";       // heap or offheap
+    private static final String VITALS_SLAB_PROPERTY = "rpms.vitals.arena.slab-mb";    // Off-heap allocation size
+    private static final String SUMMARY_CACHE_PROPERTY = "rpms.summary.cache.size";    // Patient summaries kept
+    private static final LatencyHistogram LOGIN_LATENCY = MetricsRegistry.global().timer(
+            "rpms_login_seconds", "Time to check a user's credentials");
+    private static final LongAdder LOGIN_SUCCESSES = MetricsRegistry.global().counter(
+            "rpms_logins_total", "Login attempts by outcome", "outcome", "success");
+    private static final LongAdder LOGIN_FAILURES = MetricsRegistry.global().counter(
+            "rpms_logins_total", "Login attempts by outcome", "outcome", "failure");
+    private static String historySettings;  // History settings applied in this process (guarded by the class)
+
+    private UserDirectory users;            // All registered patients, doctors and administrators
+    private PatientEvents events;           // Changes to this application's patient records
+    private VitalsDatabase vitalsDB;        // Database for vital signs
+    private AppointmentManager appointmentManager; // Manager for appointments
+    private VitalsIngestionPipeline ingestionPipeline; // Store, evaluate and alert path for new vitals
+    private Scanner sc;                     // Scanner for user input
+    private User currentUser;               // Currently logged-in user
+    private String smtpUsername;            // SMTP username for email notifications
+    private String smtpPassword;            // SMTP password for email notifications
+    private NotificationRouter notificationRouter; // Parallel, circuit-broken delivery channels
+    private NotificationOutbox outbox;      // Durable queue for alerts and reminders
+    private MetricsHttpServer metricsServer; // Prometheus endpoint, when enabled
+    private MedicationIndex medicationIndex; // Patients by prescribed medication
+    private TextIndex textIndex;            // Full-text search over feedback, prescriptions and chats
+    private ScheduledExecutorService archiver; // Moves cancelled and past appointments to the archive, when enabled
+    private PatientSummaryCache summaryCache; // Patient summaries shown when a patient is opened
+    private List<Runnable> gaugeRemovals;   // Undo the gauge registrations of setupMetrics on shutdown
+
+    // Constructor to initialize the RPMS application
+    public RPMSApp() {
+        this(new Scanner(System.in), Paths.get(System.getProperty(OUTBOX_DIRECTORY_PROPERTY, OUTBOX_DIRECTORY)));
+    }
+
+    // Constructor reading input from the given scanner; a null outbox directory sends notifications directly
+    RPMSApp(Scanner sc, Path outboxDirectory) {
+        setupHistoryStorage();
+        users = new UserDirectory();
+        medicationIndex = new MedicationIndex();
+        textIndex = new TextIndex();
+        events = new PatientEvents();
+        vitalsDB = createVitalsDatabase(events);
+        appointmentManager = createAppointmentManager(events);
+        this.sc = sc;
+        setupSMTPCredentials(); // Prompt for SMTP credentials at startup
+        setupNotifications(outboxDirectory); // Resume delivery of notifications queued before the last shutdown
+        ingestionPipeline = new VitalsIngestionPipeline(vitalsDB, new EarlyWarningEngine(),
+                new AlertTracker(ALERT_REPEAT_WINDOW_MILLIS), createNotifier(ALERT_CHANNEL), createDeduplicator(),
+                createIngestionGate());
+        summaryCache = createSummaryCache();
+        events.subscribe(summaryCache);
+        setupMetrics();
+        startArchiver();
+    }
+
+    // Applies the medical history spill settings, if any are given as system properties. Both the storage and
+    // the dictionary are shared by the process, so applications started later with the same settings reuse them.
+    private static synchronized void setupHistoryStorage() {
+        String dir = System.getProperty(HISTORY_DIR_PROPERTY);
+        String segmentSize = System.getProperty(HISTORY_SEGMENT_PROPERTY);
+        String cachedSegments = System.getProperty(HISTORY_CACHE_PROPERTY);
+        if (dir == null && segmentSize == null && cachedSegments == null) {
+            return;
+        }
+        String settings = dir + "|" + segmentSize + "|" + cachedSegments;
+        if (settings.equals(historySettings)) {
+            return; // A new storage would hand out history file names the current one already used
+        }
+        historySettings = settings;
+        if (dir != null) {
+            // Spilled prescriptions hold dictionary codes, so the dictionary is kept next to them
+            try {
+                Path dictionaryFile = Paths.get(dir, HISTORY_DICTIONARY_FILE);
+                Files.createDirectories(dictionaryFile.getParent());
+                StringDictionary.global().attach(dictionaryFile);
+            } catch (IOException | InvalidPathException | IllegalStateException e) {
+                System.out.println("Error: could not open string dictionary in " + dir + ": " + e.getMessage());
+            }
+        }
+        try {
+            HistoryStorage.configure(new HistoryStorage(dir == null ? null : Paths.get(dir),
+                    segmentSize == null ? 64 : Integer.parseInt(segmentSize),
+                    cachedSegments == null ? 256 : Integer.parseInt(cachedSegments)));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: invalid medical history settings, using defaults. " + e.getMessage());
+        }
+    }
+
+    // Duplicate suppression for device readings, sized from system properties if given
+    private static ReadingDeduplicator createDeduplicator() {
+        String capacity = System.getProperty(DEDUPE_CAPACITY_PROPERTY, "1000000");
+        String rate = System.getProperty(DEDUPE_FPR_PROPERTY, "0.001");
+        try {
+            return new ReadingDeduplicator(Long.parseLong(capacity), Double.parseDouble(rate));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: invalid duplicate suppression settings, using defaults. " + e.getMessage());
+            return new ReadingDeduplicator(1_000_000, 0.001);
+        }
+    }
+
+    // Vitals database keeping readings on the heap, or off the heap when -Drpms.vitals.storage=offheap
+    private static VitalsDatabase createVitalsDatabase(PatientEvents events) {
+        String storage = System.getProperty(VITALS_STORAGE_PROPERTY, "heap");
+        if ("heap".equalsIgnoreCase(storage)) {
+            return new VitalsDatabase(null, events);
+        }
+        if (!"offheap".equalsIgnoreCase(storage)) {
+            System.out.println("Error: unknown vitals storage " + storage + "; keeping readings on the heap.");
+            return new VitalsDatabase(null, events);
+        }
+        try {
+            int slabMegabytes = Integer.parseInt(System.getProperty(VITALS_SLAB_PROPERTY, "4"));
+            return new VitalsDatabase(new VitalsArena(Math.multiplyExact(slabMegabytes, 1024 * 1024)), events);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            System.out.println("Error: invalid vitals arena settings, using 4 MB slabs. " + e.getMessage());
+            return new VitalsDatabase(new VitalsArena(4 * 1024 * 1024), events);
+        }
+    }
+
+    // Patient summary cache sized from a system property (10000 summaries by default)
+    private PatientSummaryCache createSummaryCache() {
+        int size;
+        try {
+            size = Integer.parseInt(System.getProperty(SUMMARY_CACHE_PROPERTY, "10000"));
+        } catch (NumberFormatException e) {
+            System.out.println("Error: invalid patient summary cache size, using 10000.");
+            size = 10_000;
+        }
+        try {
+            return new PatientSummaryCache(vitalsDB, appointmentManager, ingestionPipeline.getAlertTracker(), size);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage() + " Using 10000.");
+            return new PatientSummaryCache(vitalsDB, appointmentManager, ingestionPipeline.getAlertTracker(), 10_000);
+        }
+    }
+
+    // Appointment manager with an archive for cancelled and past appointments, configured from system properties
+    private static AppointmentManager createAppointmentManager(PatientEvents events) {
+        String dir = System.getProperty(ARCHIVE_DIR_PROPERTY);
+        try {
+            return new AppointmentManager(new AppointmentArchive(dir == null ? null : Paths.get(dir),
+                    Integer.parseInt(System.getProperty(ARCHIVE_SEGMENTS_PROPERTY, "16"))), events);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error: could not open appointment archive; appointments stay in memory. " + e.getMessage());
+            return new AppointmentManager(null, events);
+        }
+    }
+
+    // Archives cancelled and past appointments in the background every few minutes (hourly by default)
+    private void startArchiver() {
+        long minutes;
+        try {
+            minutes = Long.parseLong(System.getProperty(ARCHIVE_INTERVAL_PROPERTY, "60"));
+        } catch (NumberFormatException e) {
+            System.out.println("Error: invalid appointment archive interval, using 60 minutes.");
+            minutes = 60;
+        }
+        if (minutes <= 0 || appointmentManager.getArchive() == null) {
+            return;
+        }
+        archiver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "appointment-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        archiver.scheduleWithFixedDelay(this::archiveAppointments, minutes, minutes, TimeUnit.MINUTES);
+    }
+
+    // Moves cancelled appointments, and ones older than the days to keep, to the archive; returns how many moved
+    int archiveAppointments() {
+        int keepDays;
+        try {
+            keepDays = Integer.parseInt(System.getProperty(ARCHIVE_KEEP_DAYS_PROPERTY, "7"));
+        } catch (NumberFormatException e) {
+            keepDays = 7;
+        }
+        try {
+            return appointmentManager.archive(AppointmentManager.archivable(LocalDate.now(), keepDays));
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error: could not archive appointments; they stay in memory. " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Admission control for uploads, watching the outbox backlog when there is one
+    private IngestionGate createIngestionGate() {
+        NotificationOutbox queue = outbox;
+        LongSupplier backlog = queue == null ? null : queue::getPendingCount;
+        try {
+            return new IngestionGate(Integer.parseInt(System.getProperty(INGEST_IN_FLIGHT_PROPERTY, "64")),
+                                     Integer.parseInt(System.getProperty(INGEST_DEFERRED_PROPERTY, "10000")), backlog,
+                                     Long.parseLong(System.getProperty(INGEST_BACKLOG_PROPERTY, "10000")));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: invalid ingestion settings, using defaults. " + e.getMessage());
+            return new IngestionGate(64, 10_000, backlog, 10_000);
+        }
+    }
+
+    // Registers gauges for store sizes and queue depths, and starts the HTTP endpoint if a port is configured
+    private void setupMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        gaugeRemovals = new ArrayList<>();
+        gauge("rpms_users", "Registered users by role", users::getPatientCount, "role", "patient");
+        gauge("rpms_users", "Registered users by role", users::getDoctorCount, "role", "doctor");
+        gauge("rpms_users", "Registered users by role", users::getAdministratorCount, "role", "administrator");
+        gauge("rpms_vitals_stored", "Readings held in the vitals database", () -> vitalsDB.size());
+        gauge("rpms_patient_summaries_cached", "Patient summaries held by the summary cache", summaryCache::size);
+        gauge("rpms_patient_summary_hit_ratio", "Share of patient summary requests answered from the cache",
+              summaryCache::hitRatio);
+        VitalsArena arena = vitalsDB.getArena();
+        if (arena != null) {
+            gauge("rpms_vitals_offheap_bytes", "Direct memory of the vitals arena", arena::getReservedBytes,
+                  "state", "reserved");
+            gauge("rpms_vitals_offheap_bytes", "Direct memory of the vitals arena", arena::getUsedBytes,
+                  "state", "used");
+        }
+        gauge("rpms_appointments", "Appointments held by the appointment manager", appointmentManager::size);
+        AppointmentArchive archive = appointmentManager.getArchive();
+        if (archive != null) {
+            gauge("rpms_appointments_archive", "Appointments in the on-disk archive", archive::size);
+            gauge("rpms_appointment_archive_segments", "Segment files in the appointment archive",
+                  archive::getSegmentCount);
+        }
+        gauge("rpms_alert_episodes_open", "Alert episodes currently open",
+              () -> ingestionPipeline.getAlertTracker().openEpisodeCount());
+        gauge("rpms_live_subscriptions", "Open live vitals subscriptions",
+              () -> ingestionPipeline.getLiveVitals().getSubscriptionCount());
+        gauge("rpms_vitals_dedupe_filter_bytes", "Memory held by the duplicate reading filters",
+              () -> ingestionPipeline.getDeduplicator().filterBytes());
+        gauge("rpms_ingest_in_flight", "Readings being ingested", () -> ingestionPipeline.getGate().getBusySlots());
+        gauge("rpms_ingest_deferred", "Routine readings waiting for capacity",
+              () -> ingestionPipeline.getGate().getDeferredCount());
+        if (outbox != null) {
+            NotificationOutbox queue = outbox;
+            gauge("rpms_outbox_pending", "Notifications waiting for delivery", queue::getPendingCount);
+            gauge("rpms_outbox_journal_queue", "Outbox journal writes waiting for a group commit",
+                  queue::getJournalQueueDepth);
+            gauge("rpms_outbox_dead_letters", "Notifications dead-lettered since startup",
+                  queue::getDeadLetterCount);
+        }
+
+        String port = System.getProperty(METRICS_PORT_PROPERTY);
+        if (port == null) {
+            return;
+        }
+        try {
+            metricsServer = new MetricsHttpServer(metrics, "127.0.0.1", Integer.parseInt(port));
+            System.out.println("Serving metrics at http://127.0.0.1:" + metricsServer.getAddress().getPort() + "/metrics");
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Could not start metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    // Registers a gauge on the global registry and remembers how to remove it on shutdown
+    private void gauge(String name, String description, DoubleSupplier value, String... labels) {
+        MetricsRegistry.global().gauge(name, description, value, labels);
+        gaugeRemovals.add(() -> MetricsRegistry.global().removeGauge(name, value, labels));
+    }
+
+    // Creates the delivery channels and opens the notification outbox in front of them
+    private void setupNotifications(Path outboxDirectory) {
+        notificationRouter = new NotificationRouter();
+        notificationRouter.addChannel(EMAIL_CHANNEL, new EmailNotification(smtpUsername, smtpPassword), 15000, 8, 5, 60000);
+        notificationRouter.addChannel(SMS_CHANNEL, new SMSNotification(), 2000, 32, 5, 30000);
+        if (outboxDirectory == null) {
+            return;
+        }
+        try {
+            outbox = new NotificationOutbox(outboxDirectory, 4, 8, 2000);
+            outbox.registerChannel(ALERT_CHANNEL, notificationRouter);
+            outbox.registerChannel(EMAIL_CHANNEL, notificationRouter.getChannel(EMAIL_CHANNEL));
+            if (outbox.getPendingCount() > 0) {
+                System.out.println("Resuming delivery of " + outbox.getPendingCount() + " queued notifications.");
+            }
+            outbox.start();
+        } catch (IOException e) {
+            System.out.println("Could not open notification outbox, sending directly: " + e.getMessage());
+            outbox = null;
+        }
+    }
+
+    // Notifier for a channel: queued through the outbox when available, sent directly otherwise
+    private Notifiable createNotifier(String channel) {
+        if (outbox != null) {
+            return new OutboxNotification(outbox, channel);
+        }
+        return ALERT_CHANNEL.equals(channel) ? notificationRouter : notificationRouter.getChannel(channel);
+    }
+
+    // Prompts the user to enter SMTP credentials for email notifications
+    private void setupSMTPCredentials() {
+        System.out.println("--- SMTP Configuration ---");
+        System.out.println("Enter SMTP Username (e.g., your-email@gmail.com): ");
+        smtpUsername = sc.nextLine();
+        System.out.println("Enter SMTP Password (e.g., your app-specific password for Gmail): ");
+        smtpPassword = sc.nextLine();
+        System.out.println("SMTP credentials configured successfully.");
+    }
+
+    // Handles user login by verifying credentials
+    private boolean login() {
+        System.out.println("Enter User ID: ");
+        String id = sc.nextLine();
+        System.out.println("Enter Password: ");
+        String password = sc.nextLine();
+
+        User user = authenticate(id, password);
+        if (user instanceof Patient) {
+            System.out.println("Logged in as Patient: " + user.getName());
+        } else if (user instanceof Doctor) {
+            System.out.println("Logged in as Doctor: " + user.getName());
+        } else if (user instanceof Administrator) {
+            System.out.println("Logged in as Administrator: " + user.getName());
+        } else {
+            System.out.println("Invalid ID or password.");
+            return false;
+        }
+        currentUser = user;
+        return true;
+    }
+
+    // Returns the user with the given credentials, or null if they do not match
+    User authenticate(String id, String password) {
+        long start = System.nanoTime();
+        User user = users.authenticate(id, password);
+        LOGIN_LATENCY.record(System.nanoTime() - start);
+        (user != null ? LOGIN_SUCCESSES : LOGIN_FAILURES).increment();
+        return user;
+    }
+
+    // Adds a user to the directory for its role; returns false if the ID is already taken in that role
+    boolean addUser(User user) {
+        return users.add(user);
+    }
+
+    // Requests an appointment and adds the doctor to the patient's care team
+    void requestAppointment(Patient patient, Doctor doctor, String date) {
+        appointmentManager.requestAppointment(date, doctor, patient);
+        if (doctor.addPatient(patient)) {
+            ingestionPipeline.addCareTeamMember(patient, doctor);
+        }
+    }
+
+    // Puts the doctor on the patient's care team without a console message; returns false if already there
+    boolean assignDoctor(Patient patient, Doctor doctor) {
+        if (doctor.assignPatient(patient)) {
+            ingestionPipeline.addCareTeamMember(patient, doctor);
+            return true;
+        }
+        return false;
+    }
+
+    // Imports users and care-team links from a CSV or JSON Lines file
+    ImportReport importUsers(Path file, Path rejectsFile) throws IOException {
+        return new BulkImporter(this, Runtime.getRuntime().availableProcessors()).importFile(file, rejectsFile);
+    }
+
+    // Exports the patients' readings, medical history, prescriptions and appointments, one file per patient and kind
+    ExportReport exportRecords(List<Patient> patients, Path directory, ExportFormat format, boolean gzip) throws IOException {
+        return new RecordExporter(vitalsDB, appointmentManager, format, gzip, Runtime.getRuntime().availableProcessors())
+                .export(patients, directory);
+    }
+
+    // Records a doctor's feedback and prescription in the patient's medical history
+    Feedback provideFeedback(Doctor doctor, Patient patient, String feedbackText, String medication,
+                             String dosage, String schedule) {
+        Prescription prescription = new Prescription(medication, dosage, schedule, patient);
+        Feedback feedback = doctor.provideFeedback(feedbackText, prescription);
+        addFeedback(patient, feedback);
+        medicationIndex.add(prescription);
+        textIndex.addFeedback(doctor, patient, feedback);
+        return feedback;
+    }
+
+    // Adds feedback to the patient's medical history and tells this application's listeners
+    void addFeedback(Patient patient, Feedback feedback) {
+        patient.addFeedback(feedback);
+        events.publish(patient.getId(), PatientChange.FEEDBACK);
+    }
+
+    // Sends appointment and medication reminders to patients; stops at the first failed send. The run works on
+    // snapshots taken at its start, so appointments and prescriptions can change while it sends.
+    void runReminders() throws NotificationException {
+        ReminderService reminderService = new ReminderService(createNotifier(EMAIL_CHANNEL),
+                appointmentManager.getAppointments(), medicationIndex.getPrescriptions());
+        reminderService.sendAppointmentReminder();
+        reminderService.sendMedicationReminder();
+    }
+
+    // Sends a panic alert to every doctor in the patient's care team; returns the number notified
+    int pressPanicButton(Patient patient) {
+        int notified = 0;
+        for (Doctor d : ingestionPipeline.getCareTeam(patient)) {
+            PanicButton panicButton = new PanicButton(patient, d, ingestionPipeline.serviceFor(d));
+            try {
+                panicButton.pressPanicButton();
+                notified++;
+            } catch (NotificationException e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+        }
+        return notified;
+    }
+
+    // Getters for the domain state, used when embedding the application
+    VitalsDatabase getVitalsDB() { return vitalsDB; }
+    AppointmentManager getAppointmentManager() { return appointmentManager; }
+    VitalsIngestionPipeline getIngestionPipeline() { return ingestionPipeline; }
+    PatientSummaryCache getSummaryCache() { return summaryCache; }
+    PatientEvents getEvents() { return events; }
+    UserDirectory getUsers() { return users; }
+    MedicationIndex getMedicationIndex() { return medicationIndex; }
+    TextIndex getTextIndex() { return textIndex; }
+
+    // Stops background work and releases stored readings; queued notifications stay on disk
+    void shutdown() {
+        events.unsubscribe(summaryCache);
+        if (archiver != null) {
+            archiver.shutdownNow();
+        }
+        ingestionPipeline.shutdown();
+        if (outbox != null) {
+            outbox.shutdown();
+        }
+        vitalsDB.close();
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        for (Runnable removal : gaugeRemovals) {
+            removal.run();
+        }
+    }
+
+    // Main loop to run the application
+    public void run() {
+        System.out.println("--- Welcome to RPMS ---");
+        while (true) {
+            System.out.println("\n1. Register");
+            System.out.println("2. Login");
+            System.out.println("3. Exit");
+            System.out.print("Enter your choice: ");
+
+            int choice;
+            try {
+                choice = Integer.parseInt(sc.nextLine());
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid input. Please enter a number.");
+                continue;
+            }
+
+            switch (choice) {
+                case 1:
+                    register(); // Register a new user
+                    break;
+                case 2:
+                    if (login()) { // Log in and redirect to appropriate menu
+                        if (currentUser instanceof Patient) {
+                            patientMenuLoop();
+                        } else if (currentUser instanceof Doctor) {
+                            doctorMenuLoop();
+                        } else if (currentUser instanceof Administrator) {
+                            adminMenuLoop();
+                        }
+                    } else {
+                        System.out.println("Please try logging in again.");
+                    }
+                    break;
+                case 3:
+                    System.out.println("Exiting system. Goodbye!");
+                    shutdown();
+                    sc.close();
+                    return;
+                default:
+                    System.out.println("Invalid choice.");
+            }
+        }
+    }
+
+    // Handles user registration
+    private void register() {
+        System.out.println("\n--- Register ---");
+        System.out.println("1. Register as Patient");
+        System.out.println("2. Register as Doctor");
+        System.out.println("3. Register as Administrator");
+        System.out.print("Enter your choice: ");
+
+        int choice;
+        try {
+            choice = Integer.parseInt(sc.nextLine());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input. Please enter a number.");
+            return;
+        }
+
+        switch (choice) {
+            case 1:
+                addPatient(); // Register a new patient
+                break;
+            case 2:
+                addDoctor(); // Register a new doctor
+                break;
+            case 3:
+                addAdministrator(); // Register a new administrator
+                break;
+            default:
+                System.out.println("Invalid choice.");
+        }
+        System.out.println("Registration complete. Please login to continue.");
+    }
+
+    // Menu loop for patients
+    private void patientMenuLoop() {
+        while (true) {
+            System.out.println("\n--- Patient Menu ---");
+            System.out.println("1. Upload Vitals");
+            System.out.println("2. View Medical History");
+            System.out.println("3. Schedule Appointment");
+            System.out.println("4. Start Chat");
+            System.out.println("5. Start Video Call");
+            System.out.println("6. Trigger Panic Button");
+            System.out.println("7. Logout");
+            System.out.print("Enter your choice: ");
+
+            int choice;
+            try {
+                choice = Integer.parseInt(sc.nextLine());
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid input. Please enter a number.");
+                continue;
+            }
+
+            switch (choice) {
+                case 1: uploadVitals(); break;
+                case 2: viewMedicalHistory(); break;
+                case 3: scheduleAppointment(); break;
+                case 4: startChat(); break;
+                case 5: startVideoCall(); break;
+                case 6: triggerPanicButton(); break;
+                case 7: return;
+                default: System.out.println("Invalid choice.");
+            }
+        }
+    }
+
+    // Menu loop for doctors
+    private void doctorMenuLoop() {
+        while (true) {
+            System.out.println("\n--- Doctor Menu ---");
+            System.out.println("1. Provide Feedback");
+            System.out.println("2. Approve/Cancel Appointment");
+            System.out.println("3. Start Chat");
+            System.out.println("4. Start Video Call");
+            System.out.println("5. Send Reminders");
+            System.out.println("6. View Triage Dashboard");
+            System.out.println("7. Search Records");
+            System.out.println("8. View Patient Summary");
+            System.out.println("9. Logout");
+            System.out.print("Enter your choice: ");
+
+            int choice;
+            try {
+                choice = Integer.parseInt(sc.nextLine());
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid input. Please enter a number.");
+                continue;
+            }
+
+            switch (choice) {
+                case 1: doctorFeedback(); break;
+                case 2: modifyAppointment(); break;
+                case 3: startChat(); break;
+                case 4: startVideoCall(); break;
+                case 5: sendReminders(); break;
+                case 6: viewTriageDashboard(); break;
+                case 7: searchRecords(); break;
+                case 8: viewPatientSummary(); break;
+                case 9: return;
+                default: System.out.println("Invalid choice.");
+            }
+        }
+    }
+
+    // Menu loop for administrators
+    private void adminMenuLoop() {
+        while (true) {
+            System.out.println("\n--- Administrator Menu ---");
+            System.out.println("1. Add Patient");
+            System.out.println("2. Add Doctor");
+            System.out.println("3. Add Administrator");
+            System.out.println("4. View All Appointments");
+            System.out.println("5. Display All User Information");
+            System.out.println("6. Send Reminders");
+            System.out.println("7. View Notification Channel Stats");
+            System.out.println("8. View Metrics");
+            System.out.println("9. Import Users from File");
+            System.out.println("10. Export Patient Records");
+            System.out.println("11. Logout");
+            System.out.print("Enter your choice: ");
+
+            int choice;
+            try {
+                choice = Integer.parseInt(sc.nextLine());
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid input. Please enter a number.");
+                continue;
+            }
+
+            switch (choice) {
+                case 1: addPatient(); break;
+                case 2: addDoctor(); break;
+                case 3: addAdministrator(); break;
+                case 4: appointmentManager.displayAppointments(); break;
+                case 5: displayAllUserInfo(); break;
+                case 6: sendReminders(); break;
+                case 7: displayNotificationStats(); break;
+                case 8: MetricsRegistry.global().display(); break;
+                case 9: importUsers(); break;
+                case 10: exportRecords(); break;
+                case 11: return;
+                default: System.out.println("Invalid choice.");
+            }
+        }
+    }
+
+    // Adds a new patient to the system
+    private void addPatient() {
+        System.out.println("Enter Patient ID: ");
+        String id = sc.nextLine();
+        System.out.println("Enter Patient Name: ");
+        String name = sc.nextLine();
+        System.out.println("Enter Patient Email: ");
+        String email = sc.nextLine();
+        System.out.println("Enter Patient Password: ");
+        String password = sc.nextLine();
+        if (addUser(new Patient(id, name, email, password))) {
+            System.out.println("Patient " + name + " added.");
+        } else {
+            System.out.println("Error: Patient ID " + id + " is already registered.");
+        }
+    }
+
+    // Adds a new doctor to the system
+    private void addDoctor() {
+        System.out.println("Enter Doctor ID: ");
+        String id = sc.nextLine();
+        System.out.println("Enter Doctor Name: ");
+        String name = sc.nextLine();
+        System.out.println("Enter Doctor Email: ");
+        String email = sc.nextLine();
+        System.out.println("Enter Doctor Password: ");
+        String password = sc.nextLine();
+        if (addUser(new Doctor(id, name, email, password))) {
+            System.out.println("Doctor " + name + " added.");
+        } else {
+            System.out.println("Error: Doctor ID " + id + " is already registered.");
+        }
+    }
+
+    // Adds a new administrator to the system
+    private void addAdministrator() {
+        System.out.println("Enter Administrator ID: ");
+        String id = sc.nextLine();
+        System.out.println("Enter Administrator Name: ");
+        String name = sc.nextLine();
+        System.out.println("Enter Administrator Email: ");
+        String email = sc.nextLine();
+        System.out.println("Enter Administrator Password: ");
+        String password = sc.nextLine();
+        if (addUser(new Administrator(id, name, email, password))) {
+            System.out.println("Administrator " + name + " added.");
+        } else {
+            System.out.println("Error: Administrator ID " + id + " is already registered.");
+        }
+    }
+
+    // Allows a patient to upload vital signs and checks for abnormalities
+    private void uploadVitals() {
+        Patient patient = (Patient) currentUser;
+        try {
+            System.out.println("Enter Heart Rate (bpm): ");
+            int heartRate = Integer.parseInt(sc.nextLine());
+            System.out.println("Enter Oxygen Level (%): ");
+            int oxygenLevel = Integer.parseInt(sc.nextLine());
+            System.out.println("Enter Blood Pressure (e.g., 120/80): ");
+            String bp = sc.nextLine();
+            if (bp.indexOf('/') < 0 || bp.indexOf('/') != bp.lastIndexOf('/')) {
+                System.out.println("Invalid blood pressure format. Please use 'systolic/diastolic'.");
+                return;
+            }
+            System.out.println("Enter Temperature (°C): ");
+            double temp = Double.parseDouble(sc.nextLine());
+
+            // Create a new vital sign record; the blood pressure is parsed once here
+            VitalSign vital = new VitalSign(heartRate, oxygenLevel, bp, temp);
+            if (!vital.hasValidBloodPressure()) {
+                System.out.println("Invalid blood pressure values. Please enter numbers.");
+                return;
+            }
+            IngestOutcome outcome = patient.uploadVitals(ingestionPipeline, vital, System.currentTimeMillis());
+            vital.displayVitals();
+            System.out.println(outcome.describe());
+            if (ingestionPipeline.getCareTeam(patient).isEmpty()) {
+                System.out.println("No doctors associated with this patient to receive alerts.");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input. Please enter numeric values where required.");
+        }
+    }
+
+    // Allows a patient to schedule an appointment with a doctor
+    private void scheduleAppointment() {
+        Patient patient = (Patient) currentUser;
+        System.out.println("Enter Doctor ID: ");
+        String doctorId = sc.nextLine();
+        Doctor doctor = findDoctorById(doctorId);
+        if (doctor == null) {
+            System.out.println("Doctor not found.");
+            return;
+        }
+        System.out.println("Enter Appointment Date (e.g., 2025-03-25): ");
+        String date = sc.nextLine();
+        requestAppointment(patient, doctor, date);
+    }
+
+    // Allows a doctor to approve or cancel an appointment
+    private void modifyAppointment() {
+        appointmentManager.displayAppointments();
+        System.out.println("Enter Appointment Index: ");
+        try {
+            int index = Integer.parseInt(sc.nextLine());
+            System.out.println("Enter 'A' to Approve or 'C' to Cancel: ");
+            String action = sc.nextLine();
+            if ("A".equalsIgnoreCase(action)) {
+                appointmentManager.approveAppointment(index);
+            } else if ("C".equalsIgnoreCase(action)) {
+                appointmentManager.cancelAppointment(index);
+            } else {
+                System.out.println("Invalid action.");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid index. Please enter a number.");
+        }
+    }
+
+    // Searches the feedback, prescriptions and chats the doctor wrote or took part in
+    private void searchRecords() {
+        Doctor doctor = (Doctor) currentUser;
+        System.out.println("Enter search (words, \"a phrase\" or prefix*): ");
+        String query = sc.nextLine();
+        List<SearchHit> hits = textIndex.search(query, null, doctor.getId(), 20);
+        if (hits.isEmpty()) {
+            System.out.println("No matching records.");
+            return;
+        }
+        for (SearchHit hit : hits) {
+            System.out.println("[" + hit.getKind() + "] Patient " + hit.getPatientId() + ": " + hit.getText());
+        }
+    }
+
+    // Shows the doctor's patients sickest first, from their latest readings
+    private void viewTriageDashboard() {
+        Doctor doctor = (Doctor) currentUser;
+        System.out.println("Enter number of patients to show (default 10): ");
+        String input = sc.nextLine().trim();
+        int count;
+        try {
+            count = input.isEmpty() ? 10 : Integer.parseInt(input);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input. Please enter a number.");
+            return;
+        }
+        DoctorDashboard dashboard = ingestionPipeline.dashboardFor(doctor);
+        if (dashboard.size() == 0) {
+            System.out.println("No readings from your patients yet.");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int rank = 1;
+        for (TriageEntry e : dashboard.top(count)) {
+            VitalSign v = e.getVital();
+            System.out.printf("%d. %s (%s) | Score %d (%s) | Open alerts: %d, worst severity %d | HR %d, SpO2 %d%%, " +
+                              "BP %s, Temp %.1f | %d min ago%n", rank++, e.getPatient().getName(), e.getPatient().getId(),
+                              e.getWarning().getScore(), e.getWarning().getLevel(), e.getOpenAlerts(), e.getMaxSeverity(),
+                              v.getHeartRate(), v.getOxygenLevel(), v.getBloodPressure(), v.getTemperature(),
+                              (now - e.getUpdatedAt()) / 60000);
+        }
+    }
+
+    // Shows the summary of a patient in the doctor's care
+    private void viewPatientSummary() {
+        System.out.println("Enter Patient ID: ");
+        Patient patient = findPatientById(sc.nextLine());
+        if (patient == null) {
+            System.out.println("Patient not found.");
+            return;
+        }
+        if (!ingestionPipeline.getCareTeam(patient).contains(currentUser)) {
+            System.out.println("Patient " + patient.getId() + " is not in your care.");
+            return;
+        }
+        summaryCache.get(patient).display();
+    }
+
+    // Allows a doctor to provide feedback and a prescription for a patient
+    private void doctorFeedback() {
+        Doctor doctor = (Doctor) currentUser;
+        System.out.println("Enter Patient ID: ");
+        String patientId = sc.nextLine();
+        Patient patient = findPatientById(patientId);
+        if (patient == null) {
+            System.out.println("Patient not found.");
+            return;
+        }
+        if (ingestionPipeline.getCareTeam(patient).contains(doctor)) {
+            summaryCache.get(patient).display();
+        }
+        System.out.println("Enter Feedback: ");
+        String feedbackText = sc.nextLine();
+        System.out.println("Enter Medication Name: ");
+        String medication = sc.nextLine();
+        System.out.println("Enter Dosage: ");
+        String dosage = sc.nextLine();
+        System.out.println("Enter Schedule: ");
+        String schedule = sc.nextLine();
+
+        provideFeedback(doctor, patient, feedbackText, medication, dosage, schedule);
+        System.out.println("Feedback added.");
+    }
+
+    // Displays the medical history for the current patient
+    private void viewMedicalHistory() {
+        Patient patient = (Patient) currentUser;
+        System.out.println("Medical History for " + patient.getName() + ":");
+        HistoryPage page = patient.getMedicalHistory().page(-1, HISTORY_PAGE_SIZE);
+        if (page.getTotal() == 0) {
+            System.out.println("No medical history available.");
+            return;
+        }
+        while (true) {
+            for (Feedback f : page.getEntries()) {
+                f.displayFeedback();
+            }
+            if (!page.hasMore()) return;
+            System.out.println("Showing newest " + (page.getTotal() - page.getNextCursor()) + " of " + page.getTotal()
+                               + " entries. Press Enter for older entries or q to stop: ");
+            if (sc.nextLine().trim().equalsIgnoreCase("q")) return;
+            page = patient.getMedicalHistory().page(page.getNextCursor(), HISTORY_PAGE_SIZE);
+        }
+    }
+
+    // Displays information for all users in the system
+    private void displayAllUserInfo() {
+        UserSnapshot snapshot = users.snapshot();
+        System.out.println("\n--- Patients ---");
+        for (Patient p : snapshot.getPatients()) p.displayInfo();
+        System.out.println("\n--- Doctors ---");
+        for (Doctor d : snapshot.getDoctors()) d.displayInfo();
+        System.out.println("\n--- Administrators ---");
+        for (Administrator a : snapshot.getAdministrators()) a.displayInfo();
+    }
+
+    // Imports users from a CSV or JSON Lines file named by the administrator
+    private void importUsers() {
+        System.out.println("Enter File Path (CSV with header, or JSON Lines): ");
+        String path = sc.nextLine().trim();
+        try {
+            ImportReport report = importUsers(Paths.get(path), Paths.get(path + ".rejected"));
+            System.out.println(report.describe());
+            for (String rejection : report.getRejections()) {
+                System.out.println("Rejected " + rejection);
+            }
+            if (report.getRejected() > report.getRejections().size()) {
+                System.out.println("All rejected rows are listed in " + path + ".rejected");
+            }
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Exports patient records to a directory chosen by the administrator
+    private void exportRecords() {
+        System.out.println("Enter Directory: ");
+        String path = sc.nextLine().trim();
+        System.out.println("Enter Format (csv, jsonl or binary): ");
+        ExportFormat format = ExportFormat.parse(sc.nextLine());
+        if (format == null) {
+            System.out.println("Error: unknown format.");
+            return;
+        }
+        System.out.println("Compress with gzip? (y/n): ");
+        boolean gzip = sc.nextLine().trim().equalsIgnoreCase("y");
+        System.out.println("Enter Patient IDs separated by commas (leave blank for all patients): ");
+        List<Patient> patients = patientsById(sc.nextLine());
+        if (patients == null) return;
+        try {
+            ExportReport report = exportRecords(patients, Paths.get(path), format, gzip);
+            System.out.println(report.describe());
+            for (String failure : report.getFailures()) {
+                System.out.println("Error: " + failure);
+            }
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Patients named in a comma-separated list, or every patient if it is blank; null (after a message) if one is unknown
+    List<Patient> patientsById(String ids) {
+        if (ids.trim().isEmpty()) return users.snapshot().getPatients();
+        List<Patient> patients = new ArrayList<>();
+        for (String id : ids.split(",")) {
+            Patient patient = findPatientById(id.trim());
+            if (patient == null) {
+                System.out.println("Error: patient " + id.trim() + " not found.");
+                return null;
+            }
+            patients.add(patient);
+        }
+        return patients;
+    }
+
+    // Displays delivery statistics for each notification channel and the outbox backlog
+    private void displayNotificationStats() {
+        notificationRouter.displayStats();
+        if (outbox != null) {
+            System.out.println("Outbox pending: " + outbox.getPendingCount() +
+                               " | Dead-lettered: " + outbox.getDeadLetterCount());
+        }
+    }
+
+    // Starts a chat session between a doctor and a patient
+    private void startChat() {
+        Doctor doctor = null;
+        Patient patient = null;
+        if (currentUser instanceof Doctor) {
+            doctor = (Doctor) currentUser;
+            System.out.println("Enter Patient ID: ");
+            String patientId = sc.nextLine();
+            patient = findPatientById(patientId);
+            if (patient == null) {
+                System.out.println("Patient not found.");
+                return;
+            }
+        } else if (currentUser instanceof Patient) {
+            patient = (Patient) currentUser;
+            System.out.println("Enter Doctor ID: ");
+            String doctorId = sc.nextLine();
+            doctor = findDoctorById(doctorId);
+            if (doctor == null) {
+                System.out.println("Doctor not found.");
+                return;
+            }
+        }
+
+        ChatServer server = new ChatServer(doctor, patient, textIndex);
+        ChatClient doctorClient = new ChatClient(doctor, server);
+        ChatClient patientClient = new ChatClient(patient, server);
+
+        System.out.println("Chat started between Dr. " + doctor.getName() + " and " + patient.getName());
+        while (true) {
+            System.out.println("Enter message (or 'exit'): ");
+            String message = sc.nextLine();
+            if ("exit".equalsIgnoreCase(message)) break;
+            System.out.println("From (doctor/patient): ");
+            String sender = sc.nextLine();
+            if ("doctor".equalsIgnoreCase(sender)) {
+                doctorClient.sendMessage(message);
+            } else if ("patient".equalsIgnoreCase(sender)) {
+                patientClient.sendMessage(message);
+            } else {
+                System.out.println("Invalid sender.");
+            }
+            doctorClient.displayMessages();
+        }
+    }
+
+    // Starts a video call between a doctor and a patient
+    private void startVideoCall() {
+        Doctor doctor = null;
+        Patient patient = null;
+        if (currentUser instanceof Doctor) {
+            doctor = (Doctor) currentUser;
+            System.out.println("Enter Patient ID: ");
+            String patientId = sc.nextLine();
+            patient = findPatientById(patientId);
+            if (patient == null) {
+                System.out.println("Patient not found.");
+                return;
+            }
+        } else if (currentUser instanceof Patient) {
+            patient = (Patient) currentUser;
+            System.out.println("Enter Doctor ID: ");
+            String doctorId = sc.nextLine();
+            doctor = findDoctorById(doctorId);
+            if (doctor == null) {
+                System.out.println("Doctor not found.");
+                return;
+            }
+        }
+        System.out.println("Enter Meeting Link: ");
+        String link = sc.nextLine();
+
+        VideoCall call = new VideoCall(doctor, patient, link);
+        try {
+            System.out.println(call.startCall());
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Sends appointment and medication reminders to patients
+    private void sendReminders() {
+        try {
+            runReminders();
+        } catch (NotificationException e) {
+            System.out.println("Error sending reminders: " + e.getMessage());
+        }
+    }
+
+    // Triggers a panic button alert for the patient
+    private void triggerPanicButton() {
+        Patient patient = (Patient) currentUser;
+        if (ingestionPipeline.getCareTeam(patient).isEmpty()) {
+            System.out.println("No doctors associated with this patient.");
+            return;
+        }
+        pressPanicButton(patient);
+    }
+
+    // Finds a patient by ID
+    Patient findPatientById(String id) {
+        return users.findPatient(id);
+    }
+
+    // Finds a doctor by ID
+    Doctor findDoctorById(String id) {
+        return users.findDoctor(id);
+    }
+
+    // Main method to start the application
+    public static void main(String[] args) {
+        if (args.length > 0 && "--server".equals(args[0])) {
+            runServer(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SERVER_PORT);
+            return;
+        }
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            System.exit(runBatch(args));
+        }
+        if (args.length > 2 && "--router".equals(args[0])) {
+            runRouter(Integer.parseInt(args[1]), Arrays.asList(args[2].split(",")));
+            return;
+        }
+        new RPMSApp().run();
+    }
+
+    // Runs a command file: --batch <file|-> [--out <file>] [--verbose]. SMTP credentials come from the
+    // RPMS_SMTP_USERNAME and RPMS_SMTP_PASSWORD environment variables. Returns the process exit status:
+    // 0 if every command succeeded, 2 if some failed, 1 if the batch could not be run.
+    private static int runBatch(String[] args) {
+        String input = args.length > 1 ? args[1] : "-";
+        String output = null;
+        boolean verbose = false;
+        for (int i = 2; i < args.length; i++) {
+            if ("--out".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else if ("--verbose".equals(args[i])) {
+                verbose = true;
+            }
+        }
+
+        // Results own stdout; the per-operation console messages are dropped, or buffered to stderr if verbose
+        PrintStream console = System.out;
+        OutputStream chatter = verbose ? new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 1 << 16)
+                                       : OutputStream.nullOutputStream();
+        System.setOut(new PrintStream(chatter, false, StandardCharsets.UTF_8));
+        String credentials = envOrEmpty("RPMS_SMTP_USERNAME") + "\n" + envOrEmpty("RPMS_SMTP_PASSWORD") + "\n";
+        RPMSApp app = new RPMSApp(new Scanner(credentials), Paths.get(System.getProperty(OUTBOX_DIRECTORY_PROPERTY, OUTBOX_DIRECTORY)));
+        try (BufferedReader in = "-".equals(input)
+                     ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                     : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+             Writer out = output != null
+                     ? Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)
+                     : new BufferedWriter(new OutputStreamWriter(console, StandardCharsets.UTF_8), 1 << 16)) {
+            BatchRunner runner = new BatchRunner(app);
+            runner.run(in, out);
+            return runner.getFailures() == 0 ? 0 : 2;
+        } catch (IOException e) {
+            console.println("Error: " + e.getMessage());
+            return 1;
+        } finally {
+            app.shutdown();
+            System.out.flush();
+            System.setOut(console);
+        }
+    }
+
+    private static String envOrEmpty(String name) {
+        String value = System.getenv(name);
+        return value != null ? value : "";
+    }
+
+    // Serves concurrent sessions on localhost until the process is stopped
+    private static void runServer(int port) {
+        RPMSApp app = new RPMSApp();
+        try {
+            RPMSServer server = new RPMSServer(app, "127.0.0.1", port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                app.shutdown();
+            }));
+            server.start();
+            System.out.println("RPMS server listening on 127.0.0.1:" + server.getPort());
+        } catch (IOException e) {
+            System.out.println("Error: could not start server on port " + port + ": " + e.getMessage());
+            app.shutdown();
+        }
+    }
+
+    // Serves the line protocol in front of shard servers: --router <port> <host:port,host:port,...>
+    private static void runRouter(int port, List<String> shards) {
+        ShardRouter router = new ShardRouter(shards);
+        try {
+            RPMSServer server = new RPMSServer(router::newSession, "127.0.0.1", port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                router.shutdown();
+            }));
+            server.start();
+            System.out.println("RPMS router listening on 127.0.0.1:" + server.getPort() + " for " + shards.size() + " shards");
+        } catch (IOException e) {
+            System.out.println("Error: could not start router on port " + port + ": " + e.getMessage());
+            router.shutdown();
+        }
+    }
+}
\ No newline at end of file
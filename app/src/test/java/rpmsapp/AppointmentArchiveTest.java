@@ -0,0 +1,101 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Appointment tiering: what is archived, lookups across segments and merges, and reopening the archive
+class AppointmentArchiveTest {
+    private static final LocalDate TODAY = LocalDate.of(2025, 3, 20);
+
+    @TempDir
+    Path directory;
+
+    private static Patient patient(int i) {
+        return new Patient("P" + i, "Patient " + i, "p" + i + "@rpms.test", "pw");
+    }
+
+    private static Doctor doctor(int i) {
+        return new Doctor("D" + i, "Doctor " + i, "d" + i + "@rpms.test", "pw");
+    }
+
+    // Cancelled appointments and those older than the kept days are due; open, recent and free-text ones are not
+    @Test
+    void archivableTakesCancelledAndPastOnly() {
+        Predicate<Appointment> due = AppointmentManager.archivable(TODAY, 7);
+        assertTrue(due.test(new Appointment("2025-04-01", doctor(0), patient(0), "Cancelled")));
+        assertTrue(due.test(new Appointment("2025-03-12", doctor(0), patient(0), "Requested")));
+        assertFalse(due.test(new Appointment("2025-03-13", doctor(0), patient(0), "Requested")));
+        assertFalse(due.test(new Appointment("2025-03-25", doctor(0), patient(0), "Requested")));
+        assertFalse(due.test(new Appointment("next Tuesday", doctor(0), patient(0), "Requested")));
+    }
+
+    // Over many runs and merges, every patient's and doctor's lookups return exactly what was archived for
+    // them, the in-memory list keeps only the rest, and a reopened archive sees the same segments
+    @Test
+    void lookupsMatchWhatWasArchived() throws IOException {
+        AppointmentManager manager = new AppointmentManager(new AppointmentArchive(directory, 3));
+        Patient[] patients = new Patient[40];
+        for (int i = 0; i < patients.length; i++) patients[i] = patient(i);
+        Doctor[] doctors = {doctor(0), doctor(1), doctor(2)};
+        Map<String, Integer> byPatient = new HashMap<>();
+        Map<String, Integer> byDoctor = new HashMap<>();
+        SplittableRandom random = new SplittableRandom(5);
+        int total = 0;
+        for (int day = 0; day < 30; day++) {
+            LocalDate today = TODAY.plusDays(day);
+            for (int i = 0; i < 20; i++) {
+                manager.requestAppointment(today.plusDays(random.nextInt(10)).toString(),
+                                           doctors[random.nextInt(doctors.length)], patients[random.nextInt(patients.length)]);
+            }
+            manager.cancelAppointment(random.nextInt(manager.size()));
+            Predicate<Appointment> due = AppointmentManager.archivable(today, 2);
+            for (Appointment a : manager.getAppointments()) {
+                if (due.test(a)) {
+                    byPatient.merge(a.getPatient().getId(), 1, Integer::sum);
+                    byDoctor.merge(a.getDoctor().getId(), 1, Integer::sum);
+                    total++;
+                }
+            }
+            manager.archive(due);
+            for (Appointment a : manager.getAppointments()) assertFalse(due.test(a));
+        }
+
+        AppointmentArchive archive = manager.getArchive();
+        assertTrue(archive.getSegmentCount() <= 3, "Segments were not merged: " + archive.getSegmentCount());
+        assertEquals(total, archive.size());
+        for (Patient p : patients) {
+            List<ArchivedAppointment> found = archive.findByPatient(p.getId());
+            assertEquals(byPatient.getOrDefault(p.getId(), 0), found.size(), p.getId());
+            List<String> dates = new ArrayList<>();
+            for (ArchivedAppointment a : found) {
+                assertEquals(p.getId(), a.getPatientId());
+                dates.add(a.getAppointmentDate());
+            }
+            List<String> sorted = new ArrayList<>(dates);
+            sorted.sort(null);
+            assertEquals(sorted, dates, "Oldest date first");
+        }
+        for (Doctor d : doctors) {
+            assertEquals(byDoctor.getOrDefault(d.getId(), 0), archive.findByDoctor(d.getId()).size(), d.getId());
+        }
+        assertEquals(0, archive.findByPatient("unknown").size());
+
+        AppointmentArchive reopened = new AppointmentArchive(directory, 3);
+        assertEquals(total, reopened.size());
+        assertEquals(archive.getSegmentCount(), reopened.getSegmentCount());
+        assertEquals(byPatient.getOrDefault("P7", 0), reopened.findByPatient("P7").size());
+    }
+}
@@ -0,0 +1,50 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.function.DoubleSupplier;
+import org.junit.jupiter.api.Test;
+
+// Metrics registry: gauges go away with the instance that registered them
+class MetricsRegistryTest {
+
+    // Removing a gauge that was since replaced leaves the replacement in place
+    @Test
+    void removeGaugeLeavesReplacement() {
+        MetricsRegistry registry = new MetricsRegistry();
+        DoubleSupplier first = () -> 1;
+        DoubleSupplier second = () -> 2;
+        registry.gauge("rpms_test", "Test gauge", first, "role", "a");
+        registry.gauge("rpms_test", "Test gauge", second, "role", "a");
+        registry.removeGauge("rpms_test", first, "role", "a");
+        assertEquals(2.0, registry.snapshot().get("rpms_test{role=\"a\"}"));
+        registry.removeGauge("rpms_test", second, "role", "a");
+        assertFalse(registry.snapshot().containsKey("rpms_test{role=\"a\"}"));
+    }
+
+    // An application's gauges report the live instance after another one shuts down, and disappear with the last
+    @Test
+    void applicationGaugesGoAwayOnShutdown() {
+        RPMSApp first = new RPMSApp(new Scanner("test@rpms.test\ntest\n"), null);
+        RPMSApp second = new RPMSApp(new Scanner("test@rpms.test\ntest\n"), null);
+        second.getVitalsDB().addVitalSign("P1", new VitalSign(72, 98, "118/76", 36.7));
+        first.shutdown();
+        assertEquals(1.0, MetricsRegistry.global().snapshot().get("rpms_vitals_stored"));
+        second.shutdown();
+        assertFalse(MetricsRegistry.global().snapshot().containsKey("rpms_vitals_stored"));
+    }
+
+    // A stopped server no longer reports its connections
+    @Test
+    void serverGaugeGoesAwayOnStop() throws IOException {
+        RPMSApp app = new RPMSApp(new Scanner("test@rpms.test\ntest\n"), null);
+        RPMSServer server = new RPMSServer(app, "127.0.0.1", 0);
+        assertEquals(0.0, MetricsRegistry.global().snapshot().get("rpms_sessions_active"));
+        server.stop();
+        app.shutdown();
+        assertFalse(MetricsRegistry.global().snapshot().containsKey("rpms_sessions_active"));
+    }
+}
@@ -0,0 +1,87 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// Guarded notification channel: circuit breaker transitions and the concurrency limit
+class NotificationChannelTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    // Notifier whose sends block until released, ignoring interrupts so a timed-out send keeps its permit
+    private static final class StuckNotifier implements Notifiable {
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean stuck = true;
+
+        @Override
+        public void sendNotification(String message, String recipient) {
+            while (stuck) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // A cancelled send keeps running, as a blocked SMTP call would
+                }
+            }
+        }
+    }
+
+    // Consecutive failures open the circuit, and sends fail fast without reaching the notifier
+    @Test
+    void opensAfterThresholdAndRejectsWhileOpen() {
+        int[] calls = new int[1];
+        NotificationChannel channel = new NotificationChannel("email", (message, recipient) -> {
+            calls[0]++;
+            throw new NotificationException("SMTP down");
+        }, 1_000, 4, new CircuitBreaker(2, 60_000), executor);
+        assertThrows(NotificationException.class, () -> channel.sendNotification("m", "r"));
+        assertThrows(NotificationException.class, () -> channel.sendNotification("m", "r"));
+        assertEquals(CircuitState.OPEN, channel.getBreaker().getState());
+        NotificationException rejected = assertThrows(NotificationException.class,
+                                                      () -> channel.sendNotification("m", "r"));
+        assertTrue(rejected.getMessage().contains("circuit is open"));
+        assertEquals(2, calls[0]);
+    }
+
+    // A half-open breaker meeting a saturated channel must not use up its trial: once the stuck send
+    // finishes, the next send is let through as the trial and closes the circuit
+    @Test
+    void saturatedChannelDoesNotStrandHalfOpenTrial() throws Exception {
+        StuckNotifier notifier = new StuckNotifier();
+        NotificationChannel channel = new NotificationChannel("sms", notifier, 50, 1, new CircuitBreaker(1, 100),
+                                                              executor);
+        // Times out while still holding the only permit, which opens the circuit
+        assertThrows(NotificationException.class, () -> channel.sendNotification("m", "r"));
+        assertEquals(CircuitState.OPEN, channel.getBreaker().getState());
+
+        Thread.sleep(150); // Past the cool-down, so the next request would be the half-open trial
+        NotificationException saturated = assertThrows(NotificationException.class,
+                                                       () -> channel.sendNotification("m", "r"));
+        assertTrue(saturated.getMessage().contains("saturated"), saturated.getMessage());
+
+        notifier.stuck = false;
+        notifier.release.countDown();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (true) {
+            try {
+                channel.sendNotification("m", "r");
+                break;
+            } catch (NotificationException e) {
+                assertTrue(e.getMessage().contains("saturated"), e.getMessage());
+                assertTrue(System.currentTimeMillis() < deadline, "Permit was never returned");
+                Thread.sleep(10);
+            }
+        }
+        assertEquals(CircuitState.CLOSED, channel.getBreaker().getState());
+    }
+}
@@ -0,0 +1,123 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Notification outbox: journal compaction while running, replay after a restart, and appends racing a close
+class NotificationOutboxTest {
+    private static final long COMPACT_BYTES = 8 * 1024;
+
+    @TempDir
+    Path directory;
+
+    // Waits until the condition holds, failing after a few seconds
+    private static void awaitTrue(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting until " + what);
+            Thread.sleep(5);
+        }
+    }
+
+    // Delivered notifications are compacted away while the outbox runs, so the journal stays near the
+    // compaction size however many go through
+    @Test
+    void compactsDeliveredRecordsWhileRunning() throws Exception {
+        NotificationOutbox outbox = new NotificationOutbox(directory, 2, 3, 10, COMPACT_BYTES);
+        outbox.registerChannel("email", (message, recipient) -> { });
+        outbox.start();
+        for (int i = 0; i < 2_000; i++) outbox.enqueue("email", "p" + i + "@rpms.test", "Reminder " + i);
+        awaitTrue(() -> outbox.getPendingCount() == 0, "every notification is delivered");
+        outbox.shutdown();
+
+        assertTrue(outbox.getJournalCompactionCount() > 0, "The journal was never compacted");
+        long size = Files.size(directory.resolve("outbox.log"));
+        assertTrue(size < 4 * COMPACT_BYTES, "Journal kept growing: " + size + " bytes");
+        NotificationOutbox reopened = new NotificationOutbox(directory, 1, 3, 10, COMPACT_BYTES);
+        assertEquals(0, reopened.getPendingCount());
+        reopened.shutdown();
+    }
+
+    // Compactions taken while notifications keep arriving lose none of them: a restart finds every one pending
+    @Test
+    void keepsUndeliveredRecordsAcrossCompactions() throws Exception {
+        NotificationOutbox outbox = new NotificationOutbox(directory, 1, 3, 10, COMPACT_BYTES);
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int sender = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 250; i++) {
+                    try {
+                        outbox.enqueue("email", "s" + sender + "@rpms.test", "Message " + i);
+                    } catch (NotificationException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            senders.add(thread);
+            thread.start();
+        }
+        for (Thread thread : senders) thread.join();
+        outbox.shutdown();
+
+        assertTrue(outbox.getJournalCompactionCount() > 0, "The journal was never compacted");
+        NotificationOutbox reopened = new NotificationOutbox(directory, 1, 3, 10, COMPACT_BYTES);
+        assertEquals(1_000, reopened.getPendingCount());
+        reopened.shutdown();
+    }
+
+    // Appends racing with close either reach the disk or fail; none is left waiting forever
+    @Test
+    void appendsRacingCloseAllComplete() throws Exception {
+        OutboxJournal journal = new OutboxJournal(directory.resolve("journal.log"));
+        ConcurrentLinkedQueue<CompletableFuture<Void>> writes = new ConcurrentLinkedQueue<>();
+        List<Thread> appenders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) writes.add(journal.append("line " + i));
+            });
+            appenders.add(thread);
+            thread.start();
+        }
+        Thread.sleep(5);
+        journal.close();
+        for (Thread thread : appenders) thread.join();
+        for (CompletableFuture<Void> write : writes) {
+            try {
+                write.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException, e.getCause().toString());
+            }
+        }
+    }
+
+    // Replay passes complete lines in order and drops a last line torn by a crash mid-write
+    @Test
+    void replaySkipsTornLastLine() throws IOException {
+        Path file = directory.resolve("journal.log");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5_000; i++) content.append("E\t").append(i).append('\n');
+        content.append("\nA\t7\nE\t50"); // An empty line, then a torn one
+        Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<String> lines = new ArrayList<>();
+        OutboxJournal.forEachLine(file, lines::add);
+        assertEquals(5_001, lines.size());
+        assertEquals("E\t4999", lines.get(4_999));
+        assertEquals("A\t7", lines.get(5_000));
+    }
+}
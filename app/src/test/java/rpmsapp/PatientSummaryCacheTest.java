@@ -0,0 +1,113 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// Patient summary cache: every kind of change reaches the cache of the application that made it, and only that one
+class PatientSummaryCacheTest {
+    private final List<RPMSApp> apps = new ArrayList<>();
+
+    @AfterEach
+    void stopApps() {
+        for (RPMSApp app : apps) app.shutdown();
+    }
+
+    // Application without a console or outbox; SMTP credentials come from the scanner
+    private RPMSApp app() {
+        RPMSApp app = new RPMSApp(new Scanner("test@rpms.test\ntest\n"), null);
+        apps.add(app);
+        return app;
+    }
+
+    private static Patient patient(int i) {
+        return new Patient("P" + i, "Patient " + i, "p" + i + "@rpms.test", "pw");
+    }
+
+    private static VitalSign normalVital() {
+        return new VitalSign(72, 98, "118/76", 36.7);
+    }
+
+    // Readings, alerts, feedback, appointments and removal each drop the cached summary, and the next one
+    // shows the change
+    @Test
+    void everyChangeDropsTheCachedSummary() {
+        RPMSApp app = app();
+        PatientSummaryCache cache = app.getSummaryCache();
+        Patient patient = patient(1);
+        Doctor doctor = new Doctor("D1", "Doctor 1", "d1@rpms.test", "pw");
+        PatientSummary first = cache.get(patient);
+        assertSame(first, cache.get(patient));
+        assertNull(first.getLatestVital());
+
+        VitalSign vital = normalVital();
+        app.getVitalsDB().addVitalSign(patient.getId(), vital);
+        PatientSummary afterReading = cache.get(patient);
+        assertNotSame(first, afterReading);
+        assertSame(vital, afterReading.getLatestVital());
+
+        app.getIngestionPipeline().ingest(patient, new VitalSign(135, 88, "170/100", 39.0), System.currentTimeMillis());
+        PatientSummary afterAlert = cache.get(patient);
+        assertNotSame(afterReading, afterAlert);
+        assertTrue(afterAlert.getOpenAlerts() > 0);
+
+        app.provideFeedback(doctor, patient, "Rest", "Aspirin", "75mg", "daily");
+        PatientSummary afterFeedback = cache.get(patient);
+        assertNotSame(afterAlert, afterFeedback);
+        assertEquals("Aspirin", afterFeedback.getPrescriptions().get(0).getMedication());
+
+        String tomorrow = LocalDate.now().plusDays(1).toString();
+        app.getAppointmentManager().requestAppointment(tomorrow, doctor, patient);
+        PatientSummary afterAppointment = cache.get(patient);
+        assertNotSame(afterFeedback, afterAppointment);
+        assertEquals(tomorrow, afterAppointment.getNextAppointment().getAppointmentDate());
+
+        app.getVitalsDB().removePatient(patient.getId());
+        PatientSummary afterRemoval = cache.get(patient);
+        assertNotSame(afterAppointment, afterRemoval);
+        assertNull(afterRemoval.getLatestVital());
+    }
+
+    // Two applications in one JVM, each with a patient of the same ID: changes in one leave the other's
+    // cached summary alone
+    @Test
+    void applicationsDoNotSeeEachOthersChanges() {
+        RPMSApp first = app();
+        RPMSApp second = app();
+        Patient mine = patient(1);
+        Patient theirs = patient(1);
+        PatientSummary cached = second.getSummaryCache().get(theirs);
+
+        first.getVitalsDB().addVitalSign(mine.getId(), normalVital());
+        first.provideFeedback(new Doctor("D1", "Doctor 1", "d1@rpms.test", "pw"), mine, "Rest", "Aspirin", "75mg",
+                              "daily");
+        first.getVitalsDB().removePatient(mine.getId());
+
+        assertSame(cached, second.getSummaryCache().get(theirs));
+        assertEquals(1, second.getSummaryCache().size());
+    }
+
+    // Each application's cache reports its own traffic: requests to one leave the other's statistics alone
+    @Test
+    void statisticsArePerCache() {
+        PatientSummaryCache busy = app().getSummaryCache();
+        PatientSummaryCache idle = app().getSummaryCache();
+        idle.get(patient(1));
+        String before = idle.describe();
+        for (int i = 0; i < 10; i++) busy.get(patient(2));
+
+        assertEquals(0.9, busy.hitRatio(), 1e-9);
+        assertEquals(0.0, idle.hitRatio());
+        assertEquals(before, idle.describe());
+        assertTrue(idle.describe().contains("(0 hits, 1 misses)"), idle.describe());
+    }
+}
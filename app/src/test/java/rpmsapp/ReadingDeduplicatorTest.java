@@ -0,0 +1,96 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+// Duplicate reading suppression: device high-water marks, the Bloom filter generations and their false
+// positive rate, and the pipeline storing each keyed reading once
+class ReadingDeduplicatorTest {
+
+    // Readings above the device's latest pass; a repeat of the latest is dropped without a filter lookup
+    @Test
+    void acceptsInOrderReadingsAndDropsRepeatOfLatest() {
+        ReadingDeduplicator dedupe = new ReadingDeduplicator(1_000, 0.001);
+        assertTrue(dedupe.firstSeen("P1", "dev", 1));
+        assertTrue(dedupe.firstSeen("P1", "dev", 2));
+        assertFalse(dedupe.firstSeen("P1", "dev", 2));
+        assertTrue(dedupe.firstSeen("P1", "dev", 3));
+    }
+
+    // Below the high-water mark, a late first delivery passes once and its retry is dropped
+    @Test
+    void acceptsLateReadingOnceAndDropsItsRetry() {
+        ReadingDeduplicator dedupe = new ReadingDeduplicator(1_000, 0.001);
+        assertTrue(dedupe.firstSeen("P1", "dev", 10));
+        assertTrue(dedupe.firstSeen("P1", "dev", 7));
+        assertFalse(dedupe.firstSeen("P1", "dev", 7));
+        assertFalse(dedupe.firstSeen("P1", "dev", 10));
+    }
+
+    // Devices and patients have streams of their own
+    @Test
+    void keysAreScopedToPatientAndDevice() {
+        ReadingDeduplicator dedupe = new ReadingDeduplicator(1_000, 0.001);
+        assertTrue(dedupe.firstSeen("P1", "dev-a", 5));
+        assertTrue(dedupe.firstSeen("P1", "dev-b", 5));
+        assertTrue(dedupe.firstSeen("P2", "dev-a", 5));
+        assertFalse(dedupe.firstSeen("P2", "dev-a", 5));
+    }
+
+    // The last capacity keys survive a generation rotation; much older ones are forgotten
+    @Test
+    void remembersAtLeastCapacityKeysAcrossRotation() {
+        int capacity = 1_000;
+        ReadingDeduplicator dedupe = new ReadingDeduplicator(capacity, 0.0001);
+        for (int s = 0; s < 3 * capacity; s++) assertTrue(dedupe.firstSeen("P1", "dev", s));
+        int remembered = 0;
+        for (int s = 2 * capacity; s < 3 * capacity - 1; s++) {
+            if (!dedupe.firstSeen("P1", "dev", s)) remembered++;
+        }
+        assertEquals(capacity - 1, remembered);
+        int forgotten = 0;
+        for (int s = 0; s < capacity / 2; s++) {
+            if (dedupe.firstSeen("P1", "dev", s)) forgotten++;
+        }
+        assertTrue(forgotten > capacity / 2 * 0.99, "Only " + forgotten + " old keys were forgotten");
+    }
+
+    // A filter filled to capacity reports unseen keys present at no more than the configured rate
+    @Test
+    void bloomFilterFalsePositiveRateStaysWithinConfiguration() {
+        for (double rate : new double[] {0.01, 0.001}) {
+            int capacity = 100_000;
+            BloomFilter filter = new BloomFilter(capacity, rate);
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < capacity; i++) filter.put(random.nextLong());
+            int probes = 400_000;
+            int positives = 0;
+            for (int i = 0; i < probes; i++) {
+                if (filter.mightContain(random.nextLong())) positives++;
+            }
+            double allowed = rate + 3 * Math.sqrt(rate * (1 - rate) / probes);
+            assertTrue((double) positives / probes <= allowed,
+                       "Rate " + rate + " measured " + (double) positives / probes);
+        }
+    }
+
+    // Through the pipeline, retransmits of a reading are neither stored nor evaluated again
+    @Test
+    void pipelineStoresEachKeyedReadingOnce() {
+        VitalsDatabase database = new VitalsDatabase();
+        VitalsIngestionPipeline pipeline = new VitalsIngestionPipeline(database, new EarlyWarningEngine(),
+                new AlertTracker(15 * 60 * 1000), (message, recipient) -> { });
+        Patient patient = new Patient("P1", "Patient 1", "p1@rpms.test", "pw");
+        VitalSign vital = new VitalSign(72, 98, "118/76", 36.7);
+        for (int seq = 1; seq <= 5; seq++) {
+            assertEquals(IngestStatus.PROCESSED, pipeline.submit(patient, vital, seq, "dev", seq).getStatus());
+            assertEquals(IngestStatus.DUPLICATE, pipeline.submit(patient, vital, seq, "dev", seq).getStatus());
+        }
+        assertEquals(5, database.getVitals("P1").size());
+        pipeline.shutdown();
+    }
+}
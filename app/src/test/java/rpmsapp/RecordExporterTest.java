@@ -0,0 +1,59 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Patient record export: file naming and the rows written per patient
+class RecordExporterTest {
+    @TempDir
+    Path directory;
+
+    // IDs that differ only in characters outside the safe set get different file names
+    @Test
+    void fileNamesAreDistinctPerId() {
+        assertEquals("p_1", RecordExporter.fileName("p_1"));
+        assertEquals("p%2E1", RecordExporter.fileName("p.1"));
+        assertEquals("p%2F%2E%2E%2F1", RecordExporter.fileName("p/../1"));
+        assertEquals("%C3%A9", RecordExporter.fileName("é"));
+        assertNotEquals(RecordExporter.fileName("p%2E1"), RecordExporter.fileName("p.1"));
+    }
+
+    // Patients whose IDs used to map to one file are exported in parallel without overwriting each other
+    @Test
+    void exportsLookalikeIdsToSeparateFiles() throws IOException {
+        VitalsDatabase vitals = new VitalsDatabase();
+        Patient dotted = new Patient("p.1", "Dotted", "dotted@rpms.test", "pw");
+        Patient underscored = new Patient("p_1", "Underscored", "underscored@rpms.test", "pw");
+        vitals.addVitalSign("p.1", new VitalSign(72, 98, "118/76", 36.7));
+        for (int i = 0; i < 3; i++) vitals.addVitalSign("p_1", new VitalSign(80 + i, 97, "120/80", 36.6));
+        dotted.addFeedback(new Feedback("Rest", new Prescription("Aspirin", "75mg", "daily", dotted)));
+
+        RecordExporter exporter = new RecordExporter(vitals, new AppointmentManager(), ExportFormat.CSV, false, 2);
+        ExportReport report = exporter.export(List.of(dotted, underscored), directory);
+
+        assertEquals(2, report.getPatients());
+        assertEquals(0, report.getFailed());
+        assertEquals(8, report.getFiles());
+        try (var files = Files.list(directory)) {
+            assertEquals(8, files.count());
+        }
+        List<String> dottedVitals = Files.readAllLines(directory.resolve("p%2E1-vitals.csv"), StandardCharsets.UTF_8);
+        List<String> underscoredVitals = Files.readAllLines(directory.resolve("p_1-vitals.csv"), StandardCharsets.UTF_8);
+        assertEquals(2, dottedVitals.size()); // Header and one reading
+        assertEquals(4, underscoredVitals.size());
+        assertTrue(dottedVitals.get(1).startsWith("p.1,0,72,"), dottedVitals.get(1));
+        List<String> prescriptions = Files.readAllLines(directory.resolve("p%2E1-prescriptions.csv"),
+                                                        StandardCharsets.UTF_8);
+        assertEquals("p.1,0,Aspirin,75mg,daily", prescriptions.get(1));
+        assertEquals(1, Files.readAllLines(directory.resolve("p_1-prescriptions.csv"), StandardCharsets.UTF_8).size());
+    }
+}
@@ -0,0 +1,185 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// Router: malformed commands and rolling back a shard addition that fails part way
+class ShardRouterTest {
+    private final List<FakeShard> shards = new ArrayList<>();
+    private final List<ShardRouter> routers = new ArrayList<>();
+
+    @AfterEach
+    void stopAll() throws IOException {
+        for (ShardRouter router : routers) router.shutdown();
+        for (FakeShard shard : shards) shard.close();
+    }
+
+    // Line-protocol server answering from a script; a null reply hangs up. Records every command received.
+    private static final class FakeShard implements AutoCloseable {
+        final ServerSocket server;
+        final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+        FakeShard(Function<String, List<String>> script) throws IOException {
+            server = new ServerSocket(0);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        Thread session = new Thread(() -> serve(socket, script));
+                        session.setDaemon(true);
+                        session.start();
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void serve(Socket socket, Function<String, List<String>> script) {
+            try (Socket s = socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                 BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+                out.write("OK RPMS fake shard\n");
+                out.flush();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    received.add(line);
+                    List<String> reply = script.apply(line);
+                    if (reply == null) return;
+                    for (String r : reply) out.write(r + "\n");
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Client went away
+            }
+        }
+
+        String address() { return "127.0.0.1:" + server.getLocalPort(); }
+
+        @Override
+        public void close() throws IOException { server.close(); }
+    }
+
+    private FakeShard shard(Function<String, List<String>> script) throws IOException {
+        FakeShard shard = new FakeShard(script);
+        shards.add(shard);
+        return shard;
+    }
+
+    private ShardRouter router(List<String> addresses) {
+        ShardRouter router = new ShardRouter(addresses);
+        routers.add(router);
+        return router;
+    }
+
+    // Replies of a source shard holding patients p0 to p49, or with the given USERS rows if not null
+    private static Function<String, List<String>> source(String usersRow) {
+        return line -> {
+            if (line.startsWith("EXPORTSTAFF")) return List.of("DATA ADMIN|a1|Admin|a1@rpms.test|hash", "OK 1 rows");
+            if (line.startsWith("USERS")) {
+                List<String> rows = new ArrayList<>();
+                if (usersRow != null) {
+                    rows.add("DATA " + usersRow);
+                } else {
+                    for (int i = 0; i < 50; i++) rows.add("DATA Patient|p" + i + "|Patient " + i);
+                }
+                rows.add("OK " + rows.size() + " users");
+                return rows;
+            }
+            if (line.startsWith("EXPORTPATIENT ")) {
+                String id = line.substring(14);
+                return List.of("DATA PATIENT|" + id + "|Name|" + id + "@rpms.test|hash", "OK 1 rows");
+            }
+            return List.of("OK done");
+        };
+    }
+
+    // Non-numeric indexes and counts are answered with ERR instead of ending the client's connection
+    @Test
+    void rejectsNonNumericArguments() {
+        RouterSession session = router(List.of("127.0.0.1:1")).newSession();
+        CommandResult approve = session.execute("APPROVE x");
+        assertFalse(approve.isOk());
+        assertTrue(approve.getMessage().startsWith("Invalid number"), approve.getMessage());
+        CommandResult triage = session.execute("TRIAGE x");
+        assertFalse(triage.isOk());
+        assertTrue(triage.getMessage().startsWith("Invalid number"), triage.getMessage());
+    }
+
+    // A runtime error part way through the copy still drops the patients already copied to the new shard
+    @Test
+    void rollsBackPartialCopyOnRuntimeError() throws IOException {
+        FakeShard target = shard(line -> List.of("OK done"));
+        FakeShard first = shard(source(null));
+        FakeShard second = shard(source("Patient")); // Malformed row without a patient ID
+        List<String> current = List.of(first.address(), second.address());
+        ShardRouter router = router(current);
+
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> router.addShard(target.address(), "a1", "pw"));
+        List<String> restored = new ArrayList<>();
+        List<String> dropped = new ArrayList<>();
+        for (String command : new ArrayList<>(target.received)) {
+            if (command.startsWith("RESTORE PATIENT|")) restored.add(command.split("\\|")[1]);
+            if (command.startsWith("DROPPATIENT ")) dropped.add(command.substring(12));
+        }
+        assertFalse(restored.isEmpty(), "No patient was copied before the error");
+        assertEquals(restored, dropped);
+        assertEquals(current, router.getRing().getShards());
+        for (String command : first.received) assertFalse(command.startsWith("DROPPATIENT"), command);
+    }
+
+    // When the new shard hangs up during the copy, the rollback cannot reach it either; the error reported
+    // is the one that stopped the copy, with the failed rollback attached
+    @Test
+    void keepsFirstErrorWhenNewShardIsGone() throws IOException {
+        FakeShard target = shard(line -> line.startsWith("RESTORE PATIENT") ? null : List.of("OK done"));
+        FakeShard source = shard(source(null));
+        ShardRouter router = router(List.of(source.address()));
+
+        IOException error = assertThrows(IOException.class, () -> router.addShard(target.address(), "a1", "pw"));
+        assertTrue(error.getMessage().contains("closed the connection"), error.getMessage());
+        assertEquals(1, error.getSuppressed().length);
+        assertEquals(List.of(source.address()), router.getRing().getShards());
+    }
+
+    // Old copies that cannot be dropped after the switch are reported, not treated as a failed move: the ring
+    // includes the new shard and every moved patient is named with the shard still holding it
+    @Test
+    void reportsCopiesNotDroppedAfterSwitch() throws IOException {
+        FakeShard target = shard(line -> List.of("OK done"));
+        Function<String, List<String>> healthy = source(null);
+        FakeShard old = shard(line -> line.startsWith("DROPPATIENT") ? List.of("ERR Patient is busy") : healthy.apply(line));
+        ShardRouter router = router(List.of(old.address()));
+
+        ShardAddition result = router.addShard(target.address(), "a1", "pw");
+        List<String> restored = new ArrayList<>();
+        for (String command : new ArrayList<>(target.received)) {
+            if (command.startsWith("RESTORE PATIENT|")) restored.add(command.split("\\|")[1]);
+        }
+        assertFalse(restored.isEmpty(), "No patient moved");
+        assertEquals(restored.size(), result.getMoved());
+        assertEquals(List.of(old.address()), new ArrayList<>(result.getUndropped().keySet()));
+        assertEquals(restored, result.getUndropped().get(old.address()));
+        assertTrue(result.describe().contains("not dropped from " + old.address()), result.describe());
+        assertEquals(List.of(old.address(), target.address()), router.getRing().getShards());
+    }
+}
@@ -0,0 +1,112 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Shared string dictionary: stable codes and case-insensitive lookups while it grows
+class StringDictionaryTest {
+    @TempDir
+    Path directory;
+
+    // Codes are handed out once per distinct string and decode back to it
+    @Test
+    void encodesEachStringOnce() {
+        StringDictionary dictionary = new StringDictionary();
+        int code = dictionary.encode("Metformin");
+        assertEquals(code, dictionary.encode("Metformin"));
+        assertEquals("Metformin", dictionary.decode(code));
+        assertEquals(-1, dictionary.encode(null));
+        assertNull(dictionary.decode(-1));
+        assertEquals(-1, dictionary.codeOf("unknown"));
+    }
+
+    // Every spelling seen so far is found, in code order
+    @Test
+    void findsEverySpellingIgnoringCase() {
+        StringDictionary dictionary = new StringDictionary();
+        int lower = dictionary.encode("p1");
+        dictionary.encode("p2");
+        int upper = dictionary.encode("P1");
+        assertArrayEquals(new int[] {lower, upper}, dictionary.codesIgnoringCase("P1"));
+        assertArrayEquals(new int[0], dictionary.codesIgnoringCase("p3"));
+    }
+
+    // Scans racing with appends that keep replacing the array never read past the copy they hold
+    @Test
+    void scansWhileTheDictionaryGrows() throws InterruptedException {
+        StringDictionary dictionary = new StringDictionary();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200_000; i++) dictionary.encode("value-" + i);
+        });
+        Thread scanner = new Thread(() -> {
+            try {
+                while (writer.isAlive()) dictionary.codesIgnoringCase("VALUE-1");
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        scanner.start();
+        writer.join();
+        scanner.join();
+        if (failure.get() != null) throw new AssertionError("Scan failed while growing", failure.get());
+        assertEquals(1, dictionary.codesIgnoringCase("VALUE-1").length);
+    }
+
+    // Attaching a file keeps the codes already handed out, loads the file's extra strings and saves the
+    // missing ones, so a reopened dictionary decodes every code the same way
+    @Test
+    void attachKeepsKnownCodes() throws IOException {
+        Path file = directory.resolve("dictionary.txt");
+        Files.write(file, List.of("P1", "Metformin", "daily"), StandardCharsets.UTF_8);
+        StringDictionary dictionary = new StringDictionary();
+        dictionary.encode("P1");
+        dictionary.encode("Metformin");
+        dictionary.attach(file);
+        assertEquals(2, dictionary.codeOf("daily"));
+        int added = dictionary.encode("Aspirin");
+
+        StringDictionary shorter = new StringDictionary();
+        for (String value : List.of("P1", "Metformin", "daily", "Aspirin", "P2")) shorter.encode(value);
+        Path other = directory.resolve("other.txt");
+        Files.write(other, List.of("P1", "Metformin"), StandardCharsets.UTF_8);
+        shorter.attach(other);
+        assertEquals(List.of("P1", "Metformin", "daily", "Aspirin", "P2"), Files.readAllLines(other));
+        dictionary.close();
+        shorter.close();
+
+        StringDictionary reopened = StringDictionary.open(file);
+        assertEquals(added, reopened.codeOf("Aspirin"));
+        assertEquals(4, reopened.size());
+        reopened.close();
+    }
+
+    // The same file again is accepted; another file, or one that disagrees on a code, is refused
+    @Test
+    void attachRefusesConflicts() throws IOException {
+        Path file = directory.resolve("dictionary.txt");
+        StringDictionary dictionary = new StringDictionary();
+        dictionary.encode("P1");
+        dictionary.attach(file);
+        dictionary.attach(directory.resolve(".").resolve("dictionary.txt"));
+        assertThrows(IllegalStateException.class, () -> dictionary.attach(directory.resolve("other.txt")));
+        dictionary.close();
+
+        StringDictionary different = new StringDictionary();
+        different.encode("P2");
+        assertThrows(IllegalStateException.class, () -> different.attach(file));
+        assertEquals(List.of("P1"), Files.readAllLines(file));
+    }
+}
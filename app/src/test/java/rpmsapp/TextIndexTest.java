@@ -0,0 +1,66 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// Full-text search: scoped queries, and each application searching only what it indexed
+class TextIndexTest {
+    private final List<RPMSApp> apps = new ArrayList<>();
+
+    @AfterEach
+    void stopApps() {
+        for (RPMSApp app : apps) app.shutdown();
+    }
+
+    // Application without a console or outbox; SMTP credentials come from the scanner
+    private RPMSApp app() {
+        RPMSApp app = new RPMSApp(new Scanner("test@rpms.test\ntest\n"), null);
+        apps.add(app);
+        return app;
+    }
+
+    private static Patient patient(int i) {
+        return new Patient("P" + i, "Patient " + i, "p" + i + "@rpms.test", "pw");
+    }
+
+    private static Doctor doctor(int i) {
+        return new Doctor("D" + i, "Doctor " + i, "d" + i + "@rpms.test", "pw");
+    }
+
+    // Feedback and chat messages are found by word, phrase and prefix, within the patient or doctor asked for
+    @Test
+    void findsFeedbackAndChatsInScope() {
+        TextIndex index = new TextIndex();
+        Doctor doctor = doctor(1);
+        Patient first = patient(1);
+        Patient second = patient(2);
+        index.addFeedback(doctor, first, new Feedback("Increase fluids", new Prescription("Metformin", "500mg", "daily", first)));
+        index.addFeedback(doctor, second, new Feedback("Reduce salt", null));
+        new ChatServer(doctor, second, index).sendMessage("Patient 2", "Salt intake is lower now");
+
+        assertEquals(1, index.search("fluids", null, null, 10).size());
+        assertEquals(1, index.search("metf*", "P1", null, 10).size());
+        assertEquals(0, index.search("metf*", "P2", null, 10).size());
+        assertEquals(2, index.search("salt", "P2", "D1", 10).size());
+        assertEquals(1, index.search("\"intake is lower\"", null, "D1", 10).size());
+    }
+
+    // Feedback given in one application is not found by another in the same JVM
+    @Test
+    void applicationsSearchOnlyTheirOwnRecords() {
+        RPMSApp first = app();
+        RPMSApp second = app();
+        first.provideFeedback(doctor(1), patient(1), "Increase fluids", "Metformin", "500mg", "daily");
+
+        assertEquals(1, first.getTextIndex().search("fluids", "P1", "D1", 10).size());
+        assertEquals(1, first.getTextIndex().search("metformin", "P1", "D1", 10).size());
+        assertTrue(second.getTextIndex().search("fluids", null, null, 10).isEmpty());
+        assertTrue(second.getTextIndex().search("metformin", null, null, 10).isEmpty());
+    }
+}
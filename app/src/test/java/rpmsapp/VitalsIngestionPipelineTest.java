@@ -0,0 +1,172 @@
+package rpmsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// Ingestion pipeline: ordering of concurrent readings of one patient across the store and the evaluators,
+// and admission control under overload
+class VitalsIngestionPipelineTest {
+    private static final Notifiable NO_OP_NOTIFIER = (message, recipient) -> { };
+
+    private final List<VitalsIngestionPipeline> pipelines = new ArrayList<>();
+
+    @AfterEach
+    void stopPipelines() {
+        for (VitalsIngestionPipeline pipeline : pipelines) pipeline.shutdown();
+    }
+
+    // Early warning engine that records the order in which it saw each patient's readings
+    private static final class RecordingEngine extends EarlyWarningEngine {
+        final List<VitalSign> evaluated = new ArrayList<>();
+
+        @Override
+        public EarlyWarningResult evaluate(String patientId, VitalSign vital) {
+            evaluated.add(vital); // Called under the patient's lock
+            return super.evaluate(patientId, vital);
+        }
+    }
+
+    private VitalsIngestionPipeline pipeline(VitalsDatabase database, EarlyWarningEngine engine) {
+        VitalsIngestionPipeline pipeline = new VitalsIngestionPipeline(database, engine, new AlertTracker(15 * 60 * 1000),
+                                                                       NO_OP_NOTIFIER);
+        pipelines.add(pipeline);
+        return pipeline;
+    }
+
+    private VitalsIngestionPipeline pipeline(VitalsDatabase database, IngestionGate gate) {
+        VitalsIngestionPipeline pipeline = new VitalsIngestionPipeline(database, new EarlyWarningEngine(),
+                new AlertTracker(15 * 60 * 1000), NO_OP_NOTIFIER, new ReadingDeduplicator(1_000, 0.001), gate);
+        pipelines.add(pipeline);
+        return pipeline;
+    }
+
+    private static Patient patient(int i) {
+        return new Patient("P" + i, "Patient " + i, "p" + i + "@rpms.test", "pw");
+    }
+
+    private static VitalSign normalVital() {
+        return new VitalSign(72, 98, "118/76", 36.7);
+    }
+
+    // Waits until the condition holds, failing after a few seconds
+    private static void awaitTrue(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting until " + what);
+            Thread.sleep(5);
+        }
+    }
+
+    // A routine reading shed under overload leaves no key behind: the device's retry is ingested, not
+    // ignored as a duplicate. The gate reports room for a deferral that then fails, as when other patients
+    // take the last place in between.
+    @Test
+    void shedReadingCanBeSentAgain() {
+        IngestionGate gate = new IngestionGate(1, 0, null, Long.MAX_VALUE) {
+            @Override
+            public synchronized boolean canDefer(String patientId) { return true; }
+        };
+        VitalsDatabase database = new VitalsDatabase();
+        VitalsIngestionPipeline pipeline = pipeline(database, gate);
+        gate.enterUrgent(); // Holds the only slot, so routine readings must be deferred
+        assertEquals(IngestStatus.SHED, pipeline.submit(patient(1), normalVital(), 1, "dev-1", 1).getStatus());
+        gate.exit();
+
+        assertEquals(IngestStatus.PROCESSED, pipeline.submit(patient(1), normalVital(), 2, "dev-1", 1).getStatus());
+        assertEquals(IngestStatus.DUPLICATE, pipeline.submit(patient(1), normalVital(), 3, "dev-1", 1).getStatus());
+        assertEquals(1, database.getVitals("P1").size());
+    }
+
+    // A reading inside every normal range that still raises the patient's early warning score sharply is
+    // urgent: under overload it is stored rather than shed
+    @Test
+    void readingRaisingEarlyWarningIsNotShed() {
+        AtomicLong backlog = new AtomicLong();
+        IngestionGate gate = new IngestionGate(1, 0, backlog::get, 0);
+        VitalsDatabase database = new VitalsDatabase();
+        VitalsIngestionPipeline pipeline = pipeline(database, gate);
+        Patient patient = patient(1);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(IngestStatus.PROCESSED, pipeline.submit(patient, normalVital(), i, "dev-1", i).getStatus());
+        }
+        backlog.set(1); // Delivery has fallen behind, so routine readings are shed
+        assertEquals(IngestStatus.SHED, pipeline.submit(patient(2), normalVital(), 6, "dev-2", 1).getStatus());
+
+        VitalSign worsening = new VitalSign(100, 95, "100/70", 37.2); // Scores 4 while no vital is out of range
+        assertEquals(IngestStatus.PROCESSED, pipeline.submit(patient, worsening, 7, "dev-1", 6).getStatus());
+        List<VitalSign> stored = database.getVitals("P1");
+        assertSame(worsening, stored.get(stored.size() - 1));
+    }
+
+    // A deferred reading that a newer, urgent reading supersedes while the drainer waits for room is not
+    // ingested after it, so the patient's latest stored reading stays the newer one
+    @Test
+    void drainerSkipsReadingSupersededWhileWaiting() throws InterruptedException {
+        AtomicLong backlog = new AtomicLong(1);
+        IngestionGate gate = new IngestionGate(4, 10, backlog::get, 0);
+        VitalsDatabase database = new VitalsDatabase();
+        VitalsIngestionPipeline pipeline = pipeline(database, gate);
+        Patient patient = patient(1);
+        assertEquals(IngestStatus.DEFERRED, pipeline.submit(patient, normalVital(), 1).getStatus());
+        awaitTrue(() -> gate.getDeferredCount() == 0, "the drainer takes the reading");
+
+        VitalSign urgent = new VitalSign(135, 88, "170/100", 39.0);
+        assertEquals(IngestStatus.PROCESSED, pipeline.submit(patient, urgent, 2).getStatus());
+        backlog.set(0); // The drainer now gets its slot
+        Thread.sleep(300);
+        awaitTrue(() -> gate.getBusySlots() == 0, "the drainer returns its slot");
+
+        List<VitalSign> stored = database.getVitals("P1");
+        assertEquals(1, stored.size());
+        assertSame(urgent, stored.get(0));
+    }
+
+    // Concurrent uploads of one patient are stored in the order they were evaluated, so the latest stored
+    // reading is the one the dashboard and alert episodes reflect
+    @Test
+    void concurrentReadingsAreStoredInEvaluationOrder() throws InterruptedException {
+        VitalsDatabase database = new VitalsDatabase();
+        RecordingEngine engine = new RecordingEngine();
+        VitalsIngestionPipeline pipeline = pipeline(database, engine);
+        Patient patient = new Patient("P1", "Patient 1", "p1@rpms.test", "pw");
+        Doctor doctor = new Doctor("D1", "Doctor 1", "d1@rpms.test", "pw");
+        pipeline.addCareTeamMember(patient, doctor);
+        int threads = 4;
+        int perThread = 2_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> uploaders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * perThread;
+            Thread uploader = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    pipeline.ingest(patient, new VitalSign(60 + (offset + i) % 40, 97, 120, 80, 36.6), offset + i);
+                }
+            });
+            uploaders.add(uploader);
+            uploader.start();
+        }
+        start.countDown();
+        for (Thread uploader : uploaders) uploader.join();
+
+        List<VitalSign> stored = database.getVitals("P1");
+        assertEquals(threads * perThread, stored.size());
+        for (int i = 0; i < stored.size(); i++) {
+            assertSame(engine.evaluated.get(i), stored.get(i), "Reading " + i); // Heap storage keeps the objects
+        }
+        assertSame(stored.get(stored.size() - 1), pipeline.dashboardFor(doctor).get("P1").getVital());
+    }
+}
@@ -0,0 +1,83 @@
+package rpmsapp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Requesting, approving, cancelling and listing appointments at several list sizes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppointmentManagerBenchmark {
+    @Param({"100", "10000", "100000"})
+    int appointmentCount;
+
+    private AppointmentManager manager;
+    private Patient[] patients;
+    private Doctor[] doctors;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkFixtures.silenceConsole();
+        manager = new AppointmentManager();
+        patients = new Patient[Math.max(1, appointmentCount / 4)];
+        for (int i = 0; i < patients.length; i++) {
+            patients[i] = BenchmarkFixtures.patient(i);
+        }
+        doctors = new Doctor[Math.max(1, patients.length / 20)];
+        for (int i = 0; i < doctors.length; i++) {
+            doctors[i] = BenchmarkFixtures.doctor(i);
+        }
+        for (int i = 0; i < appointmentCount; i++) {
+            manager.requestAppointment("2025-03-" + (1 + i % 28), doctors[i % doctors.length], patients[i % patients.length]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.restoreConsole();
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = next + 1 == appointmentCount ? 0 : next + 1;
+        return i;
+    }
+
+    // Note: the list keeps growing during the trial
+    @Benchmark
+    public void requestAppointment() {
+        int i = nextIndex();
+        manager.requestAppointment("2025-04-01", doctors[i % doctors.length], patients[i % patients.length]);
+    }
+
+    @Benchmark
+    public void approveAppointment() {
+        manager.approveAppointment(nextIndex());
+    }
+
+    @Benchmark
+    public void cancelAppointment() {
+        manager.cancelAppointment(nextIndex());
+    }
+
+    @Benchmark
+    public void displayAppointments() {
+        manager.displayAppointments();
+    }
+}
@@ -0,0 +1,180 @@
+package rpmsapp;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+// Simulates years of appointment traffic day by day. Each day:
+//  - new appointments are requested for the coming weeks;
+//  - some open ones are approved or cancelled;
+//  - the archiver runs as of that day.
+// Reports the cost of the hot-path operations (approve by index, a full listing, a reminder-style walk) and of
+// archive lookups, early on and at the end, so growth over time is visible. Exits with status 1 if any
+// patient's archived appointments differ from what was archived for them. --archive=false keeps every
+// appointment in memory, as before tiering.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar rpmsapp.AppointmentTiering [--years=5] [--per-day=200]
+//        [--patients=5000] [--doctors=100] [--keep-days=7] [--max-segments=16] [--samples=2000] [--archive=true]
+public class AppointmentTiering {
+    private int years = 5;             // Simulated years
+    private int perDay = 200;          // Appointments requested per day
+    private int patients = 5_000;      // Patients booking
+    private int doctors = 100;         // Doctors booked
+    private int keepDays = 7;          // Past days kept in memory
+    private int maxSegments = 16;      // Archive segments before a merge
+    private int samples = 2_000;       // Operations timed per measurement
+    private boolean archive = true;    // false keeps everything in memory
+
+    public static void main(String[] args) throws IOException {
+        AppointmentTiering tiering = new AppointmentTiering();
+        tiering.parse(args);
+        PrintStream out = System.out;
+        BenchmarkFixtures.silenceConsole(); // Appointment operations print on every call
+        boolean passed;
+        try {
+            passed = tiering.run(out);
+        } finally {
+            BenchmarkFixtures.restoreConsole();
+        }
+        if (!passed) System.exit(1);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "years": years = Integer.parseInt(value); break;
+                case "per-day": perDay = Integer.parseInt(value); break;
+                case "patients": patients = Integer.parseInt(value); break;
+                case "doctors": doctors = Integer.parseInt(value); break;
+                case "keep-days": keepDays = Integer.parseInt(value); break;
+                case "max-segments": maxSegments = Integer.parseInt(value); break;
+                case "samples": samples = Integer.parseInt(value); break;
+                case "archive": archive = Boolean.parseBoolean(value); break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+    }
+
+    boolean run(PrintStream out) throws IOException {
+        Path directory = Files.createTempDirectory("rpms-appointment-tiering");
+        AppointmentManager manager = new AppointmentManager(archive ? new AppointmentArchive(directory, maxSegments) : null);
+        Patient[] population = new Patient[patients];
+        for (int i = 0; i < patients; i++) population[i] = BenchmarkFixtures.patient(i);
+        Doctor[] staff = new Doctor[doctors];
+        for (int i = 0; i < doctors; i++) staff[i] = BenchmarkFixtures.doctor(i);
+        long[] archivedPerPatient = new long[patients];
+        SplittableRandom random = new SplittableRandom(7);
+
+        out.println("=== RPMS appointment tiering ===");
+        out.printf("Years: %d | Per day: %d | Patients: %d | Doctors: %d | Keep days: %d | Archive: %s%n", years, perDay,
+                   patients, doctors, keepDays, archive ? "on, merge above " + maxSegments + " segments" : "off");
+        out.printf("%-8s %10s %10s %9s %12s %12s %12s %12s %12s %10s%n", "Day", "In memory", "Archived", "Segments",
+                   "Approve us", "Listing ms", "Walk ms", "Patient ms", "Doctor ms", "Approved");
+        LocalDate start = LocalDate.of(2020, 1, 1);
+        int days = years * 365;
+        for (int day = 0; day < days; day++) {
+            LocalDate today = start.plusDays(day);
+            for (int i = 0; i < perDay; i++) {
+                manager.requestAppointment(today.plusDays(1 + random.nextInt(60)).toString(),
+                                           staff[random.nextInt(doctors)], population[random.nextInt(patients)]);
+            }
+            // About half of each day's requests are approved and a tenth cancelled
+            for (int i = 0; i < perDay / 2; i++) manager.approveAppointment(random.nextInt(manager.size()));
+            for (int i = 0; i < perDay / 10; i++) manager.cancelAppointment(random.nextInt(manager.size()));
+            if (archive) {
+                List<Appointment> before = manager.getAppointments();
+                Predicate<Appointment> due = AppointmentManager.archivable(today, keepDays);
+                for (Appointment a : before) {
+                    if (due.test(a)) archivedPerPatient[Integer.parseInt(a.getPatient().getId().substring(1))]++;
+                }
+                manager.archive(due);
+            }
+            if (day == 29 || day == 364 || day == days - 1) {
+                measure(out, day + 1, manager, random);
+            }
+        }
+
+        boolean passed = true;
+        if (archive) {
+            long total = 0;
+            for (int i = 0; i < patients; i++) {
+                int found = manager.getArchive().findByPatient(population[i].getId()).size();
+                total += found;
+                if (found != archivedPerPatient[i]) {
+                    out.printf("FAILED: %s has %d archived appointments, expected %d%n", population[i].getId(), found,
+                               archivedPerPatient[i]);
+                    passed = false;
+                }
+            }
+            long byDoctor = 0;
+            for (Doctor d : staff) byDoctor += manager.getArchive().findByDoctor(d.getId()).size();
+            if (total != manager.getArchive().size() || byDoctor != total) {
+                out.printf("FAILED: archive holds %d, patient lookups found %d, doctor lookups found %d%n",
+                           manager.getArchive().size(), total, byDoctor);
+                passed = false;
+            }
+            long bytes = 0;
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) bytes += Files.size(file);
+            }
+            out.printf("Archive on disk: %.1f MB (%.1f bytes per appointment)%n", bytes / 1e6,
+                       (double) bytes / Math.max(1, manager.getArchive().size()));
+        }
+        deleteDirectory(directory);
+        out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    private void measure(PrintStream out, int day, AppointmentManager manager, SplittableRandom random) {
+        long start = System.nanoTime();
+        for (int i = 0; i < samples; i++) manager.approveAppointment(random.nextInt(manager.size()));
+        double approveMicros = (System.nanoTime() - start) / 1e3 / samples;
+
+        start = System.nanoTime();
+        manager.displayAppointments();
+        double listingMillis = (System.nanoTime() - start) / 1e6;
+
+        // The walk a reminder run makes: every appointment, checking status
+        start = System.nanoTime();
+        int approved = 0;
+        for (Appointment a : manager.getAppointments()) {
+            if ("Approved".equals(a.getStatus())) approved++;
+        }
+        double walkMillis = (System.nanoTime() - start) / 1e6;
+
+        double patientMillis = 0;
+        double doctorMillis = 0;
+        AppointmentArchive archive = manager.getArchive();
+        if (archive != null) {
+            int lookups = Math.min(samples, 200);
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) archive.findByPatient("P" + random.nextInt(patients));
+            patientMillis = (System.nanoTime() - start) / 1e6 / lookups;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) archive.findByDoctor("D" + random.nextInt(doctors));
+            doctorMillis = (System.nanoTime() - start) / 1e6 / lookups;
+        }
+        out.printf("%-8d %10d %10d %9d %12.2f %12.2f %12.3f %12.3f %12.3f %10d%n", day, manager.size(),
+                   archive == null ? 0 : archive.size(), archive == null ? 0 : archive.getSegmentCount(), approveMicros,
+                   listingMillis, walkMillis, patientMillis, doctorMillis, approved);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,57 @@
+package rpmsapp;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Scanner;
+
+// Shared setup for the benchmarks: synthetic users and readings, and a silenced console
+final class BenchmarkFixtures {
+    private static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+    private static PrintStream originalOut;
+
+    private BenchmarkFixtures() {}
+
+    // Notifier that accepts every message and does nothing, so benchmarks measure RPMS rather than SMTP
+    static final Notifiable NO_OP_NOTIFIER = (message, recipient) -> { };
+
+    // Redirects System.out to a null stream; the display methods print on every call
+    static synchronized void silenceConsole() {
+        if (originalOut == null) {
+            originalOut = System.out;
+            System.setOut(NULL_OUT);
+        }
+    }
+
+    // Restores the console silenced by silenceConsole
+    static synchronized void restoreConsole() {
+        if (originalOut != null) {
+            System.setOut(originalOut);
+            originalOut = null;
+        }
+    }
+
+    static Patient patient(int i) {
+        return new Patient("P" + i, "Patient " + i, "patient" + i + "@rpms.test", "pw" + i);
+    }
+
+    static Doctor doctor(int i) {
+        return new Doctor("D" + i, "Doctor " + i, "doctor" + i + "@rpms.test", "pw" + i);
+    }
+
+    static Administrator admin(int i) {
+        return new Administrator("A" + i, "Admin " + i, "admin" + i + "@rpms.test", "pw" + i);
+    }
+
+    static VitalSign normalVital() {
+        return new VitalSign(72, 98, "118/76", 36.7);
+    }
+
+    static VitalSign abnormalVital() {
+        return new VitalSign(128, 91, "165/98", 38.6);
+    }
+
+    // Application without console prompts or outbox; the SMTP prompts are answered from a canned scanner
+    static RPMSApp headlessApp() {
+        return new RPMSApp(new Scanner("bench@rpms.test\nbench\n"), null);
+    }
+}
@@ -0,0 +1,213 @@
+package rpmsapp;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Verifies duplicate reading suppression against its configured false positive rate, and exits with status 1
+// if any check fails. For each rate:
+//  - filter: a Bloom filter filled to capacity is probed with keys never added; the share reported present
+//    must not exceed the rate.
+//  - traffic: a device fleet sends in-order readings, retransmits of recent readings and late first deliveries.
+//    No retransmit may get through, no in-order reading may be dropped, and the share of late readings
+//    dropped must not exceed the rate.
+//  - pipeline: the same kind of traffic through VitalsIngestionPipeline stores each reading exactly once
+//    (up to late readings dropped as false positives).
+// A measured rate passes if it is within three standard deviations of the configured one.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar rpmsapp.DedupeCheck [--capacity=200000]
+//        [--readings=3000000] [--devices=2000] [--rates=0.01,0.001,0.0001]
+public class DedupeCheck {
+    private long capacity = 200_000;   // Keys per filter generation
+    private int readings = 3_000_000;  // Readings sent per traffic run
+    private int devices = 2_000;       // Devices in the simulated fleet, one patient each
+    private double[] rates = {0.01, 0.001, 0.0001}; // False positive rates to check
+    private double retransmitRatio = 0.2; // Share of sends that repeat a recent reading
+    private double lateRatio = 0.1;       // Share of new readings held back and delivered later
+
+    private boolean failed;
+
+    // Outcome of one traffic run
+    private static final class Traffic {
+        long inOrder, inOrderDropped;     // New readings above the device's latest, and how many were dropped
+        long late, lateDropped;           // New readings below the device's latest, and how many were dropped
+        long retransmits, retransmitsKept;// Repeats of delivered readings, and how many got through
+    }
+
+    // What one simulated device has sent so far
+    private static final class Device {
+        long nextSequence;                   // Next sequence number to hand out
+        long latestDelivered = -1;           // Highest sequence delivered
+        long[] recent;                       // Ring of recently delivered sequences, for retransmits
+        int recentCount;                     // Entries used in the ring
+        int recentNext;                      // Ring position written next
+        Deque<long[]> held = new ArrayDeque<>(); // Held-back readings as {sequence, due step}
+
+        Device(int window) { recent = new long[window]; }
+
+        void delivered(long sequence) {
+            recent[recentNext] = sequence;
+            recentNext = (recentNext + 1) % recent.length;
+            recentCount = Math.min(recentCount + 1, recent.length);
+            latestDelivered = Math.max(latestDelivered, sequence);
+        }
+    }
+
+    public static void main(String[] args) {
+        DedupeCheck check = new DedupeCheck();
+        check.parse(args);
+        check.run(System.out);
+        if (check.failed) System.exit(1);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "capacity": capacity = Long.parseLong(value); break;
+                case "readings": readings = Integer.parseInt(value); break;
+                case "devices": devices = Integer.parseInt(value); break;
+                case "rates":
+                    String[] parts = value.split(",");
+                    rates = new double[parts.length];
+                    for (int i = 0; i < parts.length; i++) rates[i] = Double.parseDouble(parts[i]);
+                    break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+    }
+
+    void run(PrintStream out) {
+        out.println("=== RPMS duplicate suppression check ===");
+        out.printf("Capacity: %d keys per generation | Readings: %d | Devices: %d%n", capacity, readings, devices);
+        out.printf("%-10s %-9s %12s %12s %14s %10s%n", "Rate", "Check", "Probes", "Dropped", "Measured", "Result");
+        for (double rate : rates) {
+            checkFilter(out, rate);
+            checkTraffic(out, rate);
+            checkPipeline(out, rate);
+        }
+        out.println(failed ? "FAILED" : "PASSED");
+    }
+
+    // A full filter generation probed with keys that were never added
+    private void checkFilter(PrintStream out, double rate) {
+        BloomFilter filter = new BloomFilter(capacity, rate);
+        SplittableRandom random = new SplittableRandom(1);
+        for (long i = 0; i < capacity; i++) {
+            filter.put(ReadingDeduplicator.hash("P" + (i % devices), "dev", i));
+        }
+        long probes = Math.max(1_000_000, (long) (100 / rate));
+        long hits = 0;
+        for (long i = 0; i < probes; i++) {
+            if (filter.mightContain(ReadingDeduplicator.hash("Q" + random.nextInt(devices), "dev", i))) hits++;
+        }
+        report(out, rate, "filter", probes, hits, withinRate(hits, probes, rate));
+    }
+
+    // Mixed fleet traffic straight into the deduplicator
+    private void checkTraffic(PrintStream out, double rate) {
+        ReadingDeduplicator deduplicator = new ReadingDeduplicator(capacity, rate);
+        Traffic traffic = simulate(readings, rate, (patient, sequence) -> deduplicator.firstSeen(patient, "dev", sequence));
+        report(out, rate, "traffic", traffic.late, traffic.lateDropped,
+               withinRate(traffic.lateDropped, traffic.late, rate));
+        if (traffic.retransmitsKept > 0 || traffic.inOrderDropped > 0) {
+            out.printf("  %d of %d retransmits got through, %d of %d in-order readings were dropped%n",
+                       traffic.retransmitsKept, traffic.retransmits, traffic.inOrderDropped, traffic.inOrder);
+            failed = true;
+        }
+    }
+
+    // A shorter run through the ingestion pipeline, counting what ends up stored
+    private void checkPipeline(PrintStream out, double rate) {
+        VitalsDatabase database = new VitalsDatabase();
+        VitalsIngestionPipeline pipeline = new VitalsIngestionPipeline(database, new EarlyWarningEngine(),
+                new AlertTracker(15 * 60 * 1000), BenchmarkFixtures.NO_OP_NOTIFIER, new ReadingDeduplicator(capacity, rate),
+                new IngestionGate(1, 0, null, Long.MAX_VALUE));
+        List<Patient> patients = new ArrayList<>();
+        for (int i = 0; i < devices; i++) patients.add(BenchmarkFixtures.patient(i));
+        VitalSign vital = BenchmarkFixtures.normalVital();
+        long now = System.currentTimeMillis();
+        Traffic traffic = simulate(Math.min(readings, 500_000), rate, (patient, sequence) -> pipeline.submit(
+                patients.get(Integer.parseInt(patient.substring(1))), vital, now, "dev", sequence).getStatus()
+                != IngestStatus.DUPLICATE);
+        long expected = traffic.inOrder + traffic.late - traffic.lateDropped;
+        boolean ok = database.size() == expected && traffic.retransmitsKept == 0
+                     && withinRate(traffic.lateDropped, traffic.late, rate);
+        report(out, rate, "pipeline", traffic.late, traffic.lateDropped, ok);
+        if (database.size() != expected) {
+            out.printf("  stored %d readings, expected %d%n", database.size(), expected);
+        }
+    }
+
+    // Sender callback: true if the reading was accepted
+    private interface Sender {
+        boolean send(String patientId, long sequence);
+    }
+
+    private Traffic simulate(int sends, double rate, Sender sender) {
+        // Retransmits stay within what the filters are sure to remember: fewer than capacity keys back
+        int window = (int) Math.max(1, Math.min(1000, capacity / devices / 2));
+        Device[] fleet = new Device[devices];
+        String[] patientIds = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            fleet[i] = new Device(window);
+            patientIds[i] = "P" + i;
+        }
+        Traffic traffic = new Traffic();
+        SplittableRandom random = new SplittableRandom(42);
+        for (int step = 0; step < sends; step++) {
+            int d = random.nextInt(devices);
+            Device device = fleet[d];
+            long[] due = device.held.peekFirst();
+            if (due != null && due[1] <= step) {
+                device.held.pollFirst();
+                long sequence = due[0];
+                boolean accepted = sender.send(patientIds[d], sequence);
+                if (sequence < device.latestDelivered) {
+                    traffic.late++;
+                    if (!accepted) traffic.lateDropped++;
+                } else {
+                    traffic.inOrder++;
+                    if (!accepted) traffic.inOrderDropped++;
+                }
+                if (accepted) device.delivered(sequence);
+            } else if (device.recentCount > 0 && random.nextDouble() < retransmitRatio) {
+                traffic.retransmits++;
+                if (sender.send(patientIds[d], device.recent[random.nextInt(device.recentCount)])) traffic.retransmitsKept++;
+            } else {
+                long sequence = device.nextSequence++;
+                if (random.nextDouble() < lateRatio) {
+                    device.held.addLast(new long[] {sequence, step + 1 + random.nextInt(devices * 10)});
+                    continue;
+                }
+                traffic.inOrder++;
+                if (sender.send(patientIds[d], sequence)) {
+                    device.delivered(sequence);
+                } else {
+                    traffic.inOrderDropped++;
+                }
+            }
+        }
+        return traffic;
+    }
+
+    // True if hits out of probes is at most the rate, allowing three standard deviations of sampling error
+    private static boolean withinRate(long hits, long probes, double rate) {
+        if (probes == 0) return true;
+        return hits <= probes * rate + 3 * Math.sqrt(probes * rate * (1 - rate));
+    }
+
+    private void report(PrintStream out, double rate, String check, long probes, long hits, boolean ok) {
+        out.printf("%-10s %-9s %12d %12d %14.6f %10s%n", rate, check, probes, hits,
+                   probes == 0 ? 0.0 : (double) hits / probes, ok ? "ok" : "FAILED");
+        if (!ok) failed = true;
+    }
+}
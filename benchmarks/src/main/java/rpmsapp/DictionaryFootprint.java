@@ -0,0 +1,124 @@
+package rpmsapp;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Heap used by prescriptions with dictionary codes, against the same prescriptions holding their own strings, plus the time to find every patient on one drug by index lookup and by scanning the strings.
+// Strings are built per record, as they are when parsed from console, network or batch input.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar rpmsapp.DictionaryFootprint [--records=1000000]
+//        [--patients=10000] [--medications=2000]
+public class DictionaryFootprint {
+    private int records = 1_000_000; // Prescriptions built in each form
+    private int patients = 10_000;   // Distinct patient IDs
+    private int medications = 2_000; // Distinct medication names
+
+    // The fields Prescription had before dictionary encoding, for comparison
+    private static final class StringPrescription {
+        final String medication;
+        final String dosage;
+        final String schedule;
+        final Patient patient;
+
+        StringPrescription(String medication, String dosage, String schedule, Patient patient) {
+            this.medication = medication;
+            this.dosage = dosage;
+            this.schedule = schedule;
+            this.patient = patient;
+        }
+    }
+
+    public static void main(String[] args) {
+        DictionaryFootprint footprint = new DictionaryFootprint();
+        footprint.parse(args);
+        footprint.run(System.out);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            int value = Integer.parseInt(arg.substring(eq + 1));
+            switch (name) {
+                case "records": records = value; break;
+                case "patients": patients = value; break;
+                case "medications": medications = value; break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+    }
+
+    void run(PrintStream out) {
+        Patient[] population = new Patient[patients];
+        for (int i = 0; i < patients; i++) {
+            population[i] = BenchmarkFixtures.patient(i);
+        }
+
+        long before = usedHeap();
+        StringPrescription[] plainPrescriptions = new StringPrescription[records];
+        for (int i = 0; i < records; i++) {
+            plainPrescriptions[i] = new StringPrescription(medication(i), dosage(i), schedule(i), population[i % patients]);
+        }
+        long plainPrescriptionBytes = usedHeap() - before;
+
+        before = usedHeap();
+        Prescription[] codedPrescriptions = new Prescription[records];
+        MedicationIndex index = new MedicationIndex();
+        for (int i = 0; i < records; i++) {
+            codedPrescriptions[i] = new Prescription(medication(i), dosage(i), schedule(i), population[i % patients]);
+            index.add(codedPrescriptions[i]);
+        }
+        long codedPrescriptionBytes = usedHeap() - before;
+
+        String drug = medication(medications / 2);
+        long scanNanos = Long.MAX_VALUE;
+        long indexNanos = Long.MAX_VALUE;
+        int scanned = 0;
+        int indexed = 0;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            List<Patient> matches = new ArrayList<>();
+            for (StringPrescription p : plainPrescriptions) {
+                if (p.medication.equalsIgnoreCase(drug) && !matches.contains(p.patient)) matches.add(p.patient);
+            }
+            scanNanos = Math.min(scanNanos, System.nanoTime() - start);
+            scanned = matches.size();
+
+            start = System.nanoTime();
+            indexed = index.patientsOn(drug).size();
+            indexNanos = Math.min(indexNanos, System.nanoTime() - start);
+        }
+
+        out.println("=== RPMS string dictionary footprint ===");
+        out.printf("Prescriptions: %d | Patients: %d | Medications: %d | Dictionary entries: %d%n", records,
+                   patients, medications, StringDictionary.global().size());
+        out.printf("%-14s %14s %14s %10s%n", "Records", "Strings MB", "Codes MB", "Saved");
+        printRow(out, "prescriptions", plainPrescriptionBytes, codedPrescriptionBytes);
+        out.printf("Patients on %s: %d by scan in %.3f ms, %d by index in %.3f ms%n", drug, scanned, scanNanos / 1e6,
+                   indexed, indexNanos / 1e6);
+        // Keep every array reachable until the measurements are done
+        out.printf("(%d %d)%n", plainPrescriptions.length, codedPrescriptions.length);
+    }
+
+    private String medication(int i) { return new String("Medication-" + (i % medications)); }
+    private static String dosage(int i) { return new String((i % 20 + 1) * 50 + " mg"); }
+    private static String schedule(int i) { return new String(i % 3 == 0 ? "Twice daily" : i % 3 == 1 ? "Once daily" : "Every 8 hours"); }
+
+    private static void printRow(PrintStream out, String name, long plainBytes, long codedBytes) {
+        out.printf("%-14s %14.1f %14.1f %9.0f%%%n", name, plainBytes / 1e6, codedBytes / 1e6,
+                   100.0 * (plainBytes - codedBytes) / plainBytes);
+    }
+
+    // Heap in use after a full collection
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
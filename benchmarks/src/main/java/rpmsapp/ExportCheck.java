@@ -0,0 +1,269 @@
+package rpmsapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+// Exports a synthetic cohort in every format, with and without gzip, reads every vitals file back and checks it
+// against the database row by row; exits with status 1 on any mismatch. Also reports throughput, the bytes
+// allocated per exported reading and the heap still held after an export, which stay flat as readings grow.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar rpmsapp.ExportCheck [--patients=200] [--readings=2000000]
+//        [--history=100] [--appointments=5] [--threads=<processors>]
+public class ExportCheck {
+    private int patients = 200;          // Patients in the cohort
+    private int readings = 2_000_000;    // Readings spread over the cohort
+    private int history = 100;           // Medical history entries per patient, every other one with a prescription
+    private int appointmentsEach = 5;    // Appointments per patient
+    private int threads = Runtime.getRuntime().availableProcessors(); // Export threads
+
+    private boolean failed;
+
+    public static void main(String[] args) throws IOException {
+        ExportCheck check = new ExportCheck();
+        check.parse(args);
+        PrintStream out = System.out;
+        BenchmarkFixtures.silenceConsole(); // Appointment requests print on every call
+        try {
+            check.run(out);
+        } finally {
+            BenchmarkFixtures.restoreConsole();
+        }
+        if (check.failed) System.exit(1);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            int value = Integer.parseInt(arg.substring(eq + 1));
+            switch (name) {
+                case "patients": patients = value; break;
+                case "readings": readings = value; break;
+                case "history": history = value; break;
+                case "appointments": appointmentsEach = value; break;
+                case "threads": threads = value; break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+    }
+
+    void run(PrintStream out) throws IOException {
+        List<Patient> cohort = new ArrayList<>();
+        for (int i = 0; i < patients; i++) cohort.add(BenchmarkFixtures.patient(i));
+        Doctor doctor = BenchmarkFixtures.doctor(0);
+        VitalsDatabase database = new VitalsDatabase();
+        for (int i = 0; i < readings; i++) {
+            database.addVitalSign(cohort.get(i % patients).getId(),
+                                  new VitalSign(60 + i % 40, 90 + i % 10, (110 + i % 30) + "/" + (70 + i % 20), 36.5));
+        }
+        AppointmentManager appointments = new AppointmentManager();
+        for (Patient p : cohort) {
+            for (int h = 0; h < history; h++) {
+                p.addFeedback(new Feedback("Review " + h + ", \"stable\"",
+                                           h % 2 == 0 ? new Prescription("Drug" + h % 7, "10mg", "daily", p) : null));
+            }
+            for (int a = 0; a < appointmentsEach; a++) appointments.requestAppointment("2025-04-" + (1 + a), doctor, p);
+        }
+
+        out.println("=== RPMS record export check ===");
+        out.printf("Patients: %d | Readings: %d | History entries: %d | Appointments: %d | Threads: %d%n", patients,
+                   readings, (long) patients * history, (long) patients * appointmentsEach, threads);
+        reportFootprint(out, database, appointments, cohort);
+        out.printf("%-7s %-5s %12s %10s %10s %14s %8s%n", "Format", "Gzip", "Rows", "MB", "Seconds", "Readings/s",
+                   "Result");
+        for (ExportFormat format : ExportFormat.values()) {
+            for (boolean gzip : new boolean[] {false, true}) {
+                Path directory = Files.createTempDirectory("rpms-export-check");
+                try {
+                    ExportReport report = new RecordExporter(database, appointments, format, gzip, threads)
+                            .export(cohort, directory);
+                    boolean ok = report.getFailed() == 0 && report.getRows(ExportKind.VITALS) == readings
+                                 && report.getRows(ExportKind.HISTORY) == (long) patients * history
+                                 && report.getRows(ExportKind.PRESCRIPTIONS) == (long) patients * ((history + 1) / 2)
+                                 && report.getRows(ExportKind.APPOINTMENTS) == (long) patients * appointmentsEach;
+                    for (Patient p : cohort) {
+                        ok &= verifyVitals(out, database, p, directory.resolve(p.getId() + "-vitals."
+                                                  + format.getExtension() + (gzip ? ".gz" : "")), format, gzip);
+                    }
+                    long rows = 0;
+                    for (ExportKind kind : ExportKind.values()) rows += report.getRows(kind);
+                    double seconds = report.getElapsedNanos() / 1e9;
+                    out.printf("%-7s %-5s %12d %10.1f %10.2f %14.0f %8s%n", format, gzip, rows, report.getBytes() / 1e6,
+                               seconds, readings / seconds, ok ? "ok" : "FAILED");
+                    if (!ok) failed = true;
+                } finally {
+                    deleteDirectory(directory);
+                }
+            }
+        }
+        out.println(failed ? "FAILED" : "PASSED");
+    }
+
+    // Allocation and retained heap of a single-threaded export; neither should depend on the number of readings
+    private void reportFootprint(PrintStream out, VitalsDatabase database, AppointmentManager appointments,
+                                 List<Patient> cohort) throws IOException {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Path directory = Files.createTempDirectory("rpms-export-check");
+        try {
+            long heapBefore = usedHeap();
+            long allocatedBefore = bean.getCurrentThreadAllocatedBytes();
+            new RecordExporter(database, appointments, ExportFormat.BINARY, false, 1).export(cohort, directory);
+            long allocated = bean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            long retained = usedHeap() - heapBefore;
+            out.printf("Single-threaded binary export: %.1f bytes allocated per reading, %d KB of heap still held after it%n",
+                       (double) allocated / readings, retained / 1024);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    // Compares one exported vitals file with the patient's readings, in order
+    private boolean verifyVitals(PrintStream out, VitalsDatabase database, Patient patient, Path file,
+                                 ExportFormat format, boolean gzip) throws IOException {
+        Iterator<VitalSign> expected = database.readings(patient.getId()).iterator();
+        long seq = 0;
+        try (InputStream raw = Files.newInputStream(file);
+             InputStream in = new BufferedInputStream(gzip ? new GZIPInputStream(raw, 65536) : raw, 65536)) {
+            if (format == ExportFormat.BINARY) {
+                BinaryRows rows = new BinaryRows(new DataInputStream(in));
+                Object[] row;
+                while ((row = rows.next()) != null) {
+                    if (!expected.hasNext() || !matches(expected.next(), seq, patient.getId(), row)) {
+                        return mismatch(out, file, seq);
+                    }
+                    seq++;
+                }
+                if (rows.trailerCount != seq) return mismatch(out, file, seq);
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                if (format == ExportFormat.CSV) reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!expected.hasNext() || !line.equals(textRow(format, patient.getId(), seq, expected.next()))) {
+                        return mismatch(out, file, seq);
+                    }
+                    seq++;
+                }
+            }
+        }
+        return !expected.hasNext() || mismatch(out, file, seq);
+    }
+
+    private static boolean mismatch(PrintStream out, Path file, long seq) {
+        out.println("  " + file.getFileName() + " differs from the database at reading " + seq);
+        return false;
+    }
+
+    // The line the text formats should have written for a reading
+    private static String textRow(ExportFormat format, String id, long seq, VitalSign v) {
+        if (format == ExportFormat.CSV) {
+            return id + "," + seq + "," + v.getHeartRate() + "," + v.getOxygenLevel() + "," + v.getSystolic() + ","
+                   + v.getDiastolic() + "," + v.getBloodPressure() + "," + v.getTemperature();
+        }
+        return "{\"patient_id\":\"" + id + "\",\"seq\":" + seq + ",\"heart_rate\":" + v.getHeartRate()
+               + ",\"oxygen_level\":" + v.getOxygenLevel() + ",\"systolic\":" + v.getSystolic() + ",\"diastolic\":"
+               + v.getDiastolic() + ",\"blood_pressure\":\"" + v.getBloodPressure() + "\",\"temperature\":"
+               + v.getTemperature() + "}";
+    }
+
+    private static boolean matches(VitalSign v, long seq, String id, Object[] row) {
+        return id.equals(row[0]) && (Long) row[1] == seq && (Long) row[2] == v.getHeartRate()
+               && (Long) row[3] == v.getOxygenLevel() && (Double) row[4] == v.getSystolic()
+               && (Double) row[5] == v.getDiastolic() && v.getBloodPressure().equals(row[6])
+               && (Double) row[7] == v.getTemperature();
+    }
+
+    // Reader for the binary export format (see BinaryExportWriter)
+    private static final class BinaryRows {
+        private final DataInputStream in;
+        private final char[] types;
+        private final Object[] previous;
+        long trailerCount = -1;
+
+        BinaryRows(DataInputStream in) throws IOException {
+            this.in = in;
+            byte[] magic = new byte[4];
+            in.readFully(magic);
+            if (!new String(magic, StandardCharsets.US_ASCII).equals("RPMX") || in.readByte() != BinaryExportWriter.VERSION) {
+                throw new IOException("Not an RPMX version 1 file");
+            }
+            readString(null);
+            types = new char[in.readByte()];
+            previous = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                readString(null);
+                types[i] = (char) in.readByte();
+            }
+        }
+
+        // Values of the next row, or null at the end of the file
+        Object[] next() throws IOException {
+            int marker = in.read();
+            if (marker < 0) throw new EOFException("Missing trailer");
+            if (marker == 0) {
+                trailerCount = readVarLong();
+                return null;
+            }
+            Object[] row = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                switch (types[i]) {
+                    case 'I': long z = readVarLong(); row[i] = (z >>> 1) ^ -(z & 1); break;
+                    case 'D': row[i] = in.readDouble(); break;
+                    default: row[i] = readString(previous[i]); previous[i] = row[i]; break;
+                }
+            }
+            return row;
+        }
+
+        private String readString(Object above) throws IOException {
+            long tag = readVarLong();
+            if (tag == 0) return null;
+            if (tag == 1) return (String) above;
+            byte[] bytes = new byte[(int) (tag - 2)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,41 @@
+package rpmsapp;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Local stand-in for an SMTP/SMS gateway: waits an injected latency, optionally fails, and counts what it sends
+class FakeNotifier implements Notifiable {
+    private final long latencyNanos;       // Fixed part of the injected latency
+    private final long jitterNanos;        // Uniform random extra latency
+    private final double failureRatio;     // Fraction of sends that fail
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+
+    FakeNotifier(double latencyMillis, double jitterMillis, double failureRatio) {
+        this.latencyNanos = (long) (latencyMillis * 1_000_000);
+        this.jitterNanos = (long) (jitterMillis * 1_000_000);
+        this.failureRatio = failureRatio;
+    }
+
+    @Override
+    public void sendNotification(String message, String recipient) throws NotificationException {
+        long start = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyNanos + (jitterNanos > 0 ? random.nextLong(jitterNanos) : 0);
+        if (delay > 0) {
+            LockSupport.parkNanos(delay);
+        }
+        if (failureRatio > 0 && random.nextDouble() < failureRatio) {
+            failed.increment();
+            throw new NotificationException("Injected failure sending to " + recipient);
+        }
+        delivered.increment();
+        sendLatency.record(System.nanoTime() - start);
+    }
+
+    long getDelivered() { return delivered.sum(); }
+    long getFailed() { return failed.sum(); }
+    LatencyHistogram getSendLatency() { return sendLatency; }
+}
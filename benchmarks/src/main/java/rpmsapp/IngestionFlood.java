@@ -0,0 +1,200 @@
+package rpmsapp;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Floods the ingestion pipeline and checks how admission control behaves under overload. Producer threads
+// upload as fast as they can, with no pause between readings. Alerts go through an outbox to a slow notifier,
+// so delivery falls behind and the outbox backlog crosses its limit. Exits with status 1 if:
+//  - any abnormal reading was deferred or dropped, or
+//  - fewer abnormal readings were stored than sent, or
+//  - more patients had a deferred reading than allowed.
+// --gate=false runs the same flood with admission control switched off, for comparison.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar rpmsapp.IngestionFlood [--producers=8] [--patients=10000]
+//        [--duration=20] [--abnormal-ratio=0.05] [--max-in-flight=4] [--max-deferred=1000]
+//        [--backlog-limit=2000] [--notifier-latency-ms=5] [--gate=true]
+public class IngestionFlood {
+    private int producers = 8;            // Threads uploading without pause
+    private int patients = 10_000;        // Patients the readings are spread over
+    private int durationSeconds = 20;     // Length of the flood
+    private double abnormalRatio = 0.05;  // Share of readings with vitals out of range
+    private int maxInFlight = 4;          // Gate: readings ingested at once
+    private int maxDeferred = 1_000;      // Gate: patients with a deferred reading
+    private long backlogLimit = 2_000;    // Gate: pending notifications before routine readings are deferred
+    private double notifierLatencyMillis = 5; // Time the fake gateway takes per alert
+    private boolean gate = true;          // false admits everything, as before admission control
+
+    private final Map<IngestStatus, LongAdder> routine = counters();
+    private final Map<IngestStatus, LongAdder> abnormal = counters();
+    private final LatencyHistogram routineLatency = new LatencyHistogram();
+    private final LatencyHistogram abnormalLatency = new LatencyHistogram();
+    private final AtomicLong peakDeferred = new AtomicLong();
+    private final AtomicLong peakBacklog = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        IngestionFlood flood = new IngestionFlood();
+        flood.parse(args);
+        PrintStream out = System.out;
+        BenchmarkFixtures.silenceConsole(); // The domain classes print on every operation
+        boolean passed;
+        try {
+            passed = flood.run(out);
+        } finally {
+            BenchmarkFixtures.restoreConsole();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "producers": producers = Integer.parseInt(value); break;
+                case "patients": patients = Integer.parseInt(value); break;
+                case "duration": durationSeconds = Integer.parseInt(value); break;
+                case "abnormal-ratio": abnormalRatio = Double.parseDouble(value); break;
+                case "max-in-flight": maxInFlight = Integer.parseInt(value); break;
+                case "max-deferred": maxDeferred = Integer.parseInt(value); break;
+                case "backlog-limit": backlogLimit = Long.parseLong(value); break;
+                case "notifier-latency-ms": notifierLatencyMillis = Double.parseDouble(value); break;
+                case "gate": gate = Boolean.parseBoolean(value); break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+    }
+
+    // Runs the flood and prints the report; true if every check passed
+    boolean run(PrintStream out) throws IOException, InterruptedException {
+        Path outboxDirectory = Files.createTempDirectory("rpms-flood-outbox");
+        NotificationOutbox outbox = new NotificationOutbox(outboxDirectory, 4, 5, 100);
+        FakeNotifier gateway = new FakeNotifier(notifierLatencyMillis, 0, 0);
+        outbox.registerChannel("alerts", gateway);
+        outbox.start();
+        IngestionGate admission = gate ? new IngestionGate(maxInFlight, maxDeferred, outbox::getPendingCount, backlogLimit)
+                                       : new IngestionGate(Integer.MAX_VALUE, 0, null, Long.MAX_VALUE);
+        VitalsDatabase database = new VitalsDatabase();
+        VitalsIngestionPipeline pipeline = new VitalsIngestionPipeline(database, new EarlyWarningEngine(),
+                new AlertTracker(15 * 60 * 1000), new OutboxNotification(outbox, "alerts"),
+                new ReadingDeduplicator(1_000_000, 0.001), admission);
+        Patient[] population = new Patient[patients];
+        Doctor[] doctors = new Doctor[Math.max(1, patients / 50)];
+        for (int i = 0; i < doctors.length; i++) doctors[i] = BenchmarkFixtures.doctor(i);
+        for (int i = 0; i < patients; i++) {
+            population[i] = BenchmarkFixtures.patient(i);
+            pipeline.addCareTeamMember(population[i], doctors[i % doctors.length]);
+        }
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            Thread thread = new Thread(() -> produce(pipeline, population, end), "flood-" + p);
+            threads.add(thread);
+            thread.start();
+        }
+        Thread monitor = new Thread(() -> {
+            while (System.nanoTime() < end) {
+                peakDeferred.accumulateAndGet(admission.getDeferredCount(), Math::max);
+                peakBacklog.accumulateAndGet(outbox.getPendingCount(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "flood-monitor");
+        monitor.start();
+        for (Thread thread : threads) thread.join();
+        monitor.join();
+        pipeline.shutdown();
+        outbox.shutdown();
+
+        long sentAbnormal = total(abnormal);
+        long storedAbnormal = 0;
+        for (Patient patient : population) {
+            for (VitalSign v : database.getVitals(patient.getId())) {
+                if (AlertCondition.anyAbnormal(v)) storedAbnormal++;
+            }
+        }
+        long coalesced = MetricsRegistry.global().counter("rpms_ingest_shed_total", "", "action", "coalesced").sum();
+
+        out.println("=== RPMS ingestion flood ===");
+        out.printf("Producers: %d | Patients: %d | Duration: %d s | Abnormal: %.0f%% | Gate: %s%n", producers, patients,
+                   durationSeconds, abnormalRatio * 100,
+                   gate ? maxInFlight + " in flight, " + maxDeferred + " deferred, backlog limit " + backlogLimit : "off");
+        out.printf("%-9s %10s %10s %10s %10s %10s %10s %10s%n", "Readings", "Sent", "Processed", "Deferred", "Dropped",
+                   "p50 ms", "p99 ms", "max ms");
+        printRow(out, "routine", routine, routineLatency);
+        printRow(out, "abnormal", abnormal, abnormalLatency);
+        out.printf("Deferred readings replaced by newer ones: %d | Peak deferred: %d | Peak outbox backlog: %d%n",
+                   coalesced, peakDeferred.get(), peakBacklog.get());
+        out.printf("Readings stored: %d (abnormal %d of %d sent) | Alerts delivered: %d%n", database.size(),
+                   storedAbnormal, sentAbnormal, gateway.getDelivered());
+
+        boolean passed = true;
+        if (abnormal.get(IngestStatus.DEFERRED).sum() + abnormal.get(IngestStatus.SHED).sum() > 0) {
+            out.println("FAILED: abnormal readings were deferred or dropped");
+            passed = false;
+        }
+        if (storedAbnormal != sentAbnormal) {
+            out.println("FAILED: " + (sentAbnormal - storedAbnormal) + " abnormal readings were not stored");
+            passed = false;
+        }
+        if (gate && peakDeferred.get() > maxDeferred) {
+            out.println("FAILED: deferred readings exceeded " + maxDeferred);
+            passed = false;
+        }
+        out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    private void produce(VitalsIngestionPipeline pipeline, Patient[] population, long end) {
+        VitalSign normal = BenchmarkFixtures.normalVital();
+        VitalSign high = BenchmarkFixtures.abnormalVital();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            boolean isAbnormal = random.nextDouble() < abnormalRatio;
+            Patient patient = population[random.nextInt(population.length)];
+            long start = System.nanoTime();
+            IngestOutcome outcome = pipeline.submit(patient, isAbnormal ? high : normal, System.currentTimeMillis());
+            long elapsed = System.nanoTime() - start;
+            (isAbnormal ? abnormal : routine).get(outcome.getStatus()).increment();
+            (isAbnormal ? abnormalLatency : routineLatency).record(elapsed);
+        }
+    }
+
+    private static Map<IngestStatus, LongAdder> counters() {
+        Map<IngestStatus, LongAdder> counters = new EnumMap<>(IngestStatus.class);
+        for (IngestStatus status : IngestStatus.values()) counters.put(status, new LongAdder());
+        return counters;
+    }
+
+    private static long total(Map<IngestStatus, LongAdder> counters) {
+        long sum = 0;
+        for (LongAdder counter : counters.values()) sum += counter.sum();
+        return sum;
+    }
+
+    private static void printRow(PrintStream out, String name, Map<IngestStatus, LongAdder> counts,
+                                 LatencyHistogram latency) {
+        out.printf("%-9s %10d %10d %10d %10d %10.3f %10.3f %10.3f%n", name, total(counts),
+                   counts.get(IngestStatus.PROCESSED).sum(), counts.get(IngestStatus.DEFERRED).sum(),
+                   counts.get(IngestStatus.SHED).sum(), latency.valueAtPercentile(50) / 1e6,
+                   latency.valueAtPercentile(99) / 1e6, latency.getMax() / 1e6);
+    }
+}
@@ -0,0 +1,251 @@
+package rpmsapp;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// End-to-end load generator: a synthetic device fleet uploads vitals through Patient.uploadVitals and the
+// alert pipeline, with appointment and reminder traffic interleaved, and notifications sent to a FakeNotifier.
+// The schedule is open-loop: latency is measured from when an operation was due, so a stalled system
+// shows up as queueing delay instead of silently lowering the offered load.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar rpmsapp.LoadGenerator [--patients=50000] [--interval=30]
+//        [--duration=60] [--abnormal-ratio=0.05] [--burst-every=30 --burst-multiplier=3] [--histogram] ...
+public class LoadGenerator {
+    private final LoadProfile profile;
+    private final Random random;
+    private final FakeNotifier alertSink;
+    private final FakeNotifier reminderSink;
+    private final LatencyHistogram ingestLatency = new LatencyHistogram();
+    private final LatencyHistogram appointmentLatency = new LatencyHistogram();
+    private final LatencyHistogram reminderLatency = new LatencyHistogram();
+    private NotificationOutbox outbox;
+    private Path outboxDirectory;
+    private VitalsIngestionPipeline pipeline;
+    private Notifiable reminderNotifier;
+    private AppointmentManager appointmentManager;
+    private MedicationIndex medicationIndex;
+    private Patient[] patients;
+    private Doctor[] doctors;
+    private long readings;
+    private long abnormalReadings;
+    private long burstReadings;
+    private long missedOperations;
+
+    LoadGenerator(LoadProfile profile) {
+        this.profile = profile;
+        this.random = new Random(profile.seed);
+        this.alertSink = new FakeNotifier(profile.notifierLatencyMillis, profile.notifierJitterMillis,
+                                          profile.notifierFailureRatio);
+        this.reminderSink = new FakeNotifier(profile.notifierLatencyMillis, profile.notifierJitterMillis,
+                                             profile.notifierFailureRatio);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadProfile profile = LoadProfile.parse(args);
+        PrintStream out = System.out;
+        BenchmarkFixtures.silenceConsole(); // The domain classes print on every operation
+        LoadGenerator generator = new LoadGenerator(profile);
+        try {
+            generator.setup();
+            generator.run();
+            generator.report(out);
+        } finally {
+            generator.close();
+            BenchmarkFixtures.restoreConsole();
+        }
+    }
+
+    // Builds the notification path and the synthetic population
+    void setup() throws IOException {
+        NotificationRouter router = new NotificationRouter();
+        router.addChannel("email", alertSink, 15000, 64, 5, 60000);
+        NotificationChannel reminderChannel = new NotificationRouter().addChannel("email", reminderSink, 15000, 64, 5, 60000);
+        Notifiable alertNotifier = router;
+        reminderNotifier = reminderChannel;
+        if (profile.useOutbox) {
+            // Same wiring as RPMSApp: alerts fan out through the router, reminders go to email only
+            outboxDirectory = Files.createTempDirectory("rpms-loadgen-outbox");
+            outbox = new NotificationOutbox(outboxDirectory, 16, 8, 100);
+            outbox.registerChannel("alerts", router);
+            outbox.registerChannel("email", reminderChannel);
+            outbox.start();
+            alertNotifier = new OutboxNotification(outbox, "alerts");
+            reminderNotifier = new OutboxNotification(outbox, "email");
+        }
+        pipeline = new VitalsIngestionPipeline(new VitalsDatabase(), new EarlyWarningEngine(),
+                                               new AlertTracker(15 * 60 * 1000), alertNotifier);
+        appointmentManager = new AppointmentManager();
+        medicationIndex = new MedicationIndex();
+
+        patients = new Patient[profile.patients];
+        doctors = new Doctor[Math.max(1, profile.patients / profile.patientsPerDoctor)];
+        for (int i = 0; i < doctors.length; i++) {
+            doctors[i] = BenchmarkFixtures.doctor(i);
+        }
+        for (int i = 0; i < patients.length; i++) {
+            Patient patient = BenchmarkFixtures.patient(i);
+            patients[i] = patient;
+            for (int d = 0; d < Math.min(profile.doctorsPerPatient, doctors.length); d++) {
+                Doctor doctor = doctors[(i + d * 7919) % doctors.length];
+                if (doctor.addPatient(patient)) {
+                    pipeline.addCareTeamMember(patient, doctor);
+                }
+            }
+            if (random.nextDouble() < profile.prescriptionRatio) {
+                Prescription prescription = new Prescription("Metformin", "500 mg", "Twice daily", patient);
+                patient.addFeedback(new Feedback("Continue current treatment.", prescription));
+                medicationIndex.add(prescription);
+            }
+        }
+    }
+
+    // Drives the open-loop schedule for warmup plus the measured duration
+    void run() {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(profile.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(profile.durationSeconds);
+        double readingGapNanos = 1e9 / profile.baseReadingsPerSecond();
+        double appointmentGapNanos = profile.appointmentsPerSecond > 0 ? 1e9 / profile.appointmentsPerSecond : 0;
+        long reminderGapNanos = TimeUnit.SECONDS.toNanos(profile.reminderEverySeconds);
+
+        long nextReading = start;
+        long nextAppointment = appointmentGapNanos > 0 ? start : Long.MAX_VALUE;
+        long nextReminder = reminderGapNanos > 0 ? start + reminderGapNanos : Long.MAX_VALUE;
+        int cursor = 0;
+        while (true) {
+            long due = Math.min(nextReading, Math.min(nextAppointment, nextReminder));
+            long now = System.nanoTime();
+            if (now >= end) {
+                missedOperations = countMissed(nextReading, readingGapNanos, end)
+                                   + countMissed(nextAppointment, appointmentGapNanos, end);
+                break;
+            }
+            if (due >= end) break;
+            if (due > now) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            boolean measured = due >= measureFrom;
+            if (due == nextReading) {
+                boolean burst = profile.inBurst(due - start);
+                Patient patient;
+                if (burst && random.nextDouble() > 1 / profile.burstMultiplier) {
+                    patient = patients[random.nextInt(patients.length)]; // Extra burst traffic, e.g. reconnecting devices
+                    burstReadings++;
+                } else {
+                    patient = patients[cursor];
+                    cursor = cursor + 1 == patients.length ? 0 : cursor + 1;
+                }
+                patient.uploadVitals(pipeline, sampleVital(), System.currentTimeMillis());
+                readings++;
+                if (measured) ingestLatency.record(System.nanoTime() - due);
+                nextReading += (long) (burst ? readingGapNanos / profile.burstMultiplier : readingGapNanos);
+            } else if (due == nextAppointment) {
+                Patient patient = patients[random.nextInt(patients.length)];
+                Doctor doctor = doctors[random.nextInt(doctors.length)];
+                appointmentManager.requestAppointment("2025-03-25", doctor, patient);
+                int index = appointmentManager.size() - 1;
+                if (random.nextInt(10) == 0) {
+                    appointmentManager.cancelAppointment(index);
+                } else {
+                    appointmentManager.approveAppointment(index);
+                }
+                if (measured) appointmentLatency.record(System.nanoTime() - due);
+                nextAppointment += (long) appointmentGapNanos;
+            } else {
+                runReminders();
+                if (measured) reminderLatency.record(System.nanoTime() - due);
+                nextReminder += reminderGapNanos;
+            }
+        }
+    }
+
+    // Operations that were due before the end but never started because the system fell behind
+    private static long countMissed(long next, double gapNanos, long end) {
+        return next >= end || gapNanos <= 0 ? 0 : (long) ((end - next) / gapNanos) + 1;
+    }
+
+    // Same work as RPMSApp.sendReminders
+    private void runReminders() {
+        ReminderService reminderService = new ReminderService(reminderNotifier, appointmentManager.getAppointments(),
+                                                              medicationIndex.getPrescriptions());
+        try {
+            reminderService.sendAppointmentReminder();
+            reminderService.sendMedicationReminder();
+        } catch (NotificationException e) {
+            // Injected failures abort the run, as they do in the application
+        }
+    }
+
+    // Draws a reading from the normal ranges, or from the abnormal ranges with the configured probability
+    private VitalSign sampleVital() {
+        if (random.nextDouble() < profile.abnormalRatio) {
+            abnormalReadings++;
+            return new VitalSign(105 + random.nextInt(40), 86 + random.nextInt(8),
+                                 145 + random.nextInt(40), 92 + random.nextInt(15),
+                                 37.5 + random.nextInt(25) / 10.0);
+        }
+        return new VitalSign(62 + random.nextInt(30), 96 + random.nextInt(4),
+                             105 + random.nextInt(30), 65 + random.nextInt(20),
+                             36.3 + random.nextInt(8) / 10.0);
+    }
+
+    void report(PrintStream out) {
+        double seconds = profile.durationSeconds;
+        out.println("=== RPMS load test ===");
+        out.println(profile.describe());
+        out.printf("%-22s %10s %12s %10s %10s %10s %10s%n", "Operation", "Count", "Per second", "p50 ms", "p99 ms",
+                   "p999 ms", "max ms");
+        printRow(out, "vitals.ingest", ingestLatency, seconds);
+        printRow(out, "appointment.request", appointmentLatency, seconds);
+        printRow(out, "reminder.run", reminderLatency, seconds);
+        printRow(out, "alert.send", alertSink.getSendLatency(), seconds);
+        printRow(out, "reminder.send", reminderSink.getSendLatency(), seconds);
+        out.printf("Readings offered: %d (target %.0f/s, %d abnormal, %d burst extras)%n", readings,
+                   profile.baseReadingsPerSecond(), abnormalReadings, burstReadings);
+        if (missedOperations > 0) {
+            out.printf("Fell behind: %d scheduled operations were still waiting when the run ended%n", missedOperations);
+        }
+        out.printf("Alert notifications delivered: %d (%d injected failures) | Reminder notifications: %d%n",
+                   alertSink.getDelivered(), alertSink.getFailed(), reminderSink.getDelivered());
+        out.printf("Open alert episodes: %d | Appointments: %d%n", pipeline.getAlertTracker().openEpisodeCount(),
+                   appointmentManager.size());
+        if (outbox != null) {
+            out.printf("Outbox pending at end: %d | Dead-lettered: %d%n", outbox.getPendingCount(),
+                       outbox.getDeadLetterCount());
+        }
+        if (profile.printHistogram) {
+            out.println("Ingestion latency distribution (bucket upper bound ms, count):");
+            ingestLatency.forEachBucket((upper, count) -> out.printf("  %12.3f %10d%n", upper / 1e6, count));
+        }
+    }
+
+    private static void printRow(PrintStream out, String name, LatencyHistogram histogram, double seconds) {
+        out.printf("%-22s %10d %12.1f %10.3f %10.3f %10.3f %10.3f%n", name, histogram.getCount(),
+                   histogram.getCount() / seconds, histogram.valueAtPercentile(50) / 1e6,
+                   histogram.valueAtPercentile(99) / 1e6, histogram.valueAtPercentile(99.9) / 1e6,
+                   histogram.getMax() / 1e6);
+    }
+
+    void close() throws IOException {
+        if (outbox != null) {
+            outbox.shutdown();
+        }
+        if (outboxDirectory != null) {
+            try (Stream<Path> files = Files.walk(outboxDirectory)) {
+                List<Path> paths = files.sorted(Comparator.reverseOrder()).toList();
+                for (Path path : paths) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package rpmsapp;
+
+// Settings of a load generator run, parsed from --name=value arguments
+class LoadProfile {
+    int patients = 50_000;              // Simulated patients, each with one device
+    int patientsPerDoctor = 200;        // Care-team size determines the alert fan-out
+    int doctorsPerPatient = 2;          // Doctors alerted for each patient
+    double reportIntervalSeconds = 30;  // Each device uploads once per interval
+    int durationSeconds = 60;           // Measured run time
+    int warmupSeconds = 10;             // Run time before recording starts
+    double abnormalRatio = 0.05;        // Fraction of readings drawn from the abnormal ranges
+    int burstEverySeconds = 0;          // Start a burst every N seconds (0 = no bursts)
+    int burstDurationSeconds = 5;       // Length of each burst
+    double burstMultiplier = 3;         // Reading rate multiplier during a burst
+    double appointmentsPerSecond = 5;   // Appointment requests (each also approved or cancelled)
+    int reminderEverySeconds = 30;      // Interval between reminder runs (0 = none)
+    double prescriptionRatio = 0.2;     // Fraction of patients with a prescription to remind about
+    double notifierLatencyMillis = 20;  // Injected latency of every notification send
+    double notifierJitterMillis = 10;   // Uniform random extra latency
+    double notifierFailureRatio = 0;    // Fraction of notification sends that fail
+    boolean useOutbox = true;           // Queue alerts through a durable outbox in a temporary directory
+    boolean printHistogram = false;     // Print the full ingestion latency distribution
+    long seed = 42;                     // Random seed for the synthetic population and readings
+
+    static LoadProfile parse(String[] args) {
+        LoadProfile profile = new LoadProfile();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "true" : arg.substring(eq + 1);
+            switch (name) {
+                case "patients": profile.patients = Integer.parseInt(value); break;
+                case "patients-per-doctor": profile.patientsPerDoctor = Integer.parseInt(value); break;
+                case "doctors-per-patient": profile.doctorsPerPatient = Integer.parseInt(value); break;
+                case "interval": profile.reportIntervalSeconds = Double.parseDouble(value); break;
+                case "duration": profile.durationSeconds = Integer.parseInt(value); break;
+                case "warmup": profile.warmupSeconds = Integer.parseInt(value); break;
+                case "abnormal-ratio": profile.abnormalRatio = Double.parseDouble(value); break;
+                case "burst-every": profile.burstEverySeconds = Integer.parseInt(value); break;
+                case "burst-duration": profile.burstDurationSeconds = Integer.parseInt(value); break;
+                case "burst-multiplier": profile.burstMultiplier = Double.parseDouble(value); break;
+                case "appointments-per-second": profile.appointmentsPerSecond = Double.parseDouble(value); break;
+                case "reminder-every": profile.reminderEverySeconds = Integer.parseInt(value); break;
+                case "prescription-ratio": profile.prescriptionRatio = Double.parseDouble(value); break;
+                case "notifier-latency-ms": profile.notifierLatencyMillis = Double.parseDouble(value); break;
+                case "notifier-jitter-ms": profile.notifierJitterMillis = Double.parseDouble(value); break;
+                case "notifier-failure-ratio": profile.notifierFailureRatio = Double.parseDouble(value); break;
+                case "outbox": profile.useOutbox = Boolean.parseBoolean(value); break;
+                case "histogram": profile.printHistogram = Boolean.parseBoolean(value); break;
+                case "seed": profile.seed = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+        return profile;
+    }
+
+    // Target reading rate outside bursts
+    double baseReadingsPerSecond() {
+        return patients / reportIntervalSeconds;
+    }
+
+    // True if the given time since start falls inside a burst window
+    boolean inBurst(long elapsedNanos) {
+        if (burstEverySeconds <= 0) return false;
+        long period = burstEverySeconds * 1_000_000_000L;
+        return elapsedNanos % period < burstDurationSeconds * 1_000_000_000L;
+    }
+
+    String describe() {
+        return String.format("Patients: %d | Interval: %.0f s (%.0f readings/s) | Duration: %d s + %d s warmup | " +
+                             "Abnormal: %.1f%% | Bursts: %s | Appointments: %.1f/s | Reminders every %d s | " +
+                             "Notifier latency: %.0f+%.0f ms, failures %.1f%% | Outbox: %s",
+                             patients, reportIntervalSeconds, baseReadingsPerSecond(), durationSeconds, warmupSeconds,
+                             abnormalRatio * 100,
+                             burstEverySeconds > 0 ? String.format("x%.1f for %d s every %d s", burstMultiplier,
+                                                                   burstDurationSeconds, burstEverySeconds) : "none",
+                             appointmentsPerSecond, reminderEverySeconds, notifierLatencyMillis, notifierJitterMillis,
+                             notifierFailureRatio * 100, useOutbox ? "on" : "off");
+    }
+}
@@ -0,0 +1,86 @@
+package rpmsapp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Credential checks and patient lookups in RPMSApp at several user counts
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginBenchmark {
+    @Param({"100", "10000", "100000"})
+    int patientCount;
+
+    private RPMSApp app;
+    private String[] patientIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkFixtures.silenceConsole();
+        app = BenchmarkFixtures.headlessApp();
+        patientIds = new String[patientCount];
+        for (int i = 0; i < patientCount; i++) {
+            app.addUser(BenchmarkFixtures.patient(i));
+            patientIds[i] = "P" + i;
+        }
+        for (int i = 0; i < Math.max(1, patientCount / 20); i++) {
+            app.addUser(BenchmarkFixtures.doctor(i));
+        }
+        app.addUser(BenchmarkFixtures.admin(0));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.shutdown();
+        BenchmarkFixtures.restoreConsole();
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = next + 1 == patientCount ? 0 : next + 1;
+        return i;
+    }
+
+    @Benchmark
+    public User loginPatient() {
+        int i = nextIndex();
+        return app.authenticate(patientIds[i], "pw" + i);
+    }
+
+    // Administrators are checked last, after every patient and doctor
+    @Benchmark
+    public User loginAdministrator() {
+        return app.authenticate("A0", "pw0");
+    }
+
+    @Benchmark
+    public User loginInvalid() {
+        return app.authenticate("nobody", "wrong");
+    }
+
+    @Benchmark
+    public Patient findPatientById() {
+        return app.findPatientById(patientIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public Patient findPatientByIdMissing() {
+        return app.findPatientById("missing");
+    }
+}
@@ -0,0 +1,59 @@
+package rpmsapp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Reminder runs over appointments and prescriptions against a no-op notifier
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReminderServiceBenchmark {
+    @Param({"100", "10000"})
+    int patientCount;
+
+    @Param({"1", "5"})
+    int itemsPerPatient;
+
+    private ReminderService reminderService;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkFixtures.silenceConsole();
+        reminderService = new ReminderService(BenchmarkFixtures.NO_OP_NOTIFIER);
+        Doctor doctor = BenchmarkFixtures.doctor(0);
+        for (int i = 0; i < patientCount; i++) {
+            Patient patient = BenchmarkFixtures.patient(i);
+            for (int j = 0; j < itemsPerPatient; j++) {
+                // Half of the appointments are approved and therefore produce a reminder
+                String status = j % 2 == 0 ? "Approved" : "Requested";
+                reminderService.addAppointment(new Appointment("2025-03-25", doctor, patient, status));
+                reminderService.addPrescription(new Prescription("Amoxicillin", "500 mg", "Every 8 hours", patient));
+            }
+        }
+        BenchmarkFixtures.restoreConsole();
+    }
+
+    @Benchmark
+    public void sendAppointmentReminder() throws NotificationException {
+        reminderService.sendAppointmentReminder();
+    }
+
+    @Benchmark
+    public void sendMedicationReminder() throws NotificationException {
+        reminderService.sendMedicationReminder();
+    }
+}
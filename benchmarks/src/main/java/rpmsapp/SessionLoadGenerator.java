@@ -0,0 +1,173 @@
+package rpmsapp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Many concurrent logged-in users against the server mode: every simulated user keeps one connection open,
+// logs in, and uploads a reading every interval. Each session follows its own open-loop schedule, so
+// latency is measured from when the upload was due.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar rpmsapp.SessionLoadGenerator [--sessions=2000]
+//        [--interval-ms=1000] [--duration=30] [--warmup=5] [--port=0 (in-process server) | --port=7070 --host=...]
+public class SessionLoadGenerator {
+    private int sessions = 2000;       // Simultaneous logged-in users
+    private long intervalMillis = 1000;// Time between uploads of one user
+    private int durationSeconds = 30;  // Measured run time
+    private int warmupSeconds = 5;     // Run time before recording starts
+    private String host = "127.0.0.1"; // Server to connect to
+    private int port = 0;              // 0 starts a server in this process
+
+    private final LatencyHistogram uploadLatency = new LatencyHistogram();
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        SessionLoadGenerator generator = new SessionLoadGenerator();
+        generator.parse(args);
+        PrintStream out = System.out;
+        BenchmarkFixtures.silenceConsole(); // The domain classes print on every operation
+        RPMSApp app = null;
+        RPMSServer server = null;
+        try {
+            if (generator.port == 0) {
+                app = BenchmarkFixtures.headlessApp();
+                for (int i = 0; i < generator.sessions; i++) {
+                    app.addUser(BenchmarkFixtures.patient(i));
+                }
+                server = new RPMSServer(app, generator.host, 0);
+                server.start();
+                generator.port = server.getPort();
+            }
+            generator.run();
+            generator.report(out);
+        } finally {
+            if (server != null) server.stop();
+            if (app != null) app.shutdown();
+            BenchmarkFixtures.restoreConsole();
+        }
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "sessions": sessions = Integer.parseInt(value); break;
+                case "interval-ms": intervalMillis = Long.parseLong(value); break;
+                case "duration": durationSeconds = Integer.parseInt(value); break;
+                case "warmup": warmupSeconds = Integer.parseInt(value); break;
+                case "host": host = value; break;
+                case "port": port = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+    }
+
+    // Starts one client per session and waits for all of them to finish
+    void run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        CountDownLatch done = new CountDownLatch(sessions);
+        ExecutorService clients = RPMSServer.newSessionExecutor();
+        for (int i = 0; i < sessions; i++) {
+            int user = i;
+            clients.execute(() -> {
+                try {
+                    client(user, start, measureFrom, end);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        clients.shutdown();
+    }
+
+    private void client(int user, long start, long measureFrom, long end) {
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            in.readLine(); // Greeting
+            long loginStart = System.nanoTime();
+            if (!call(in, out, "LOGIN P" + user + "|pw" + user)) {
+                errors.incrementAndGet();
+                return;
+            }
+            loginLatency.record(System.nanoTime() - loginStart);
+
+            // Spread the first uploads over one interval so the sessions do not fire in lockstep
+            long interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+            long due = start + ThreadLocalRandom.current().nextLong(interval);
+            while (due < end) {
+                long now = System.nanoTime();
+                if (due > now) {
+                    LockSupport.parkNanos(due - now);
+                    continue;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                String upload = "UPLOAD " + (64 + random.nextInt(20)) + "|" + (96 + random.nextInt(4)) + "|"
+                                + (110 + random.nextInt(20)) + "/" + (70 + random.nextInt(10)) + "|36." + random.nextInt(9);
+                if (!call(in, out, upload)) {
+                    errors.incrementAndGet();
+                }
+                if (due >= measureFrom) {
+                    uploadLatency.record(System.nanoTime() - due);
+                }
+                due += interval;
+            }
+            call(in, out, "QUIT");
+        } catch (IOException e) {
+            connectFailures.incrementAndGet();
+        }
+    }
+
+    // Sends one command and reads its reply; true if it ended with OK
+    private static boolean call(BufferedReader in, BufferedWriter out, String command) throws IOException {
+        out.write(command);
+        out.write('\n');
+        out.flush();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("OK")) return true;
+            if (line.startsWith("ERR")) return false;
+        }
+        throw new IOException("Connection closed");
+    }
+
+    void report(PrintStream out) {
+        out.println("=== RPMS session load test ===");
+        out.printf("Sessions: %d | Upload every %d ms (%.0f uploads/s) | Duration: %d s + %d s warmup%n", sessions,
+                   intervalMillis, sessions * 1000.0 / intervalMillis, durationSeconds, warmupSeconds);
+        out.printf("%-10s %10s %12s %10s %10s %10s %10s%n", "Operation", "Count", "Per second", "p50 ms", "p99 ms",
+                   "p999 ms", "max ms");
+        printRow(out, "login", loginLatency, durationSeconds + warmupSeconds);
+        printRow(out, "upload", uploadLatency, durationSeconds);
+        out.printf("Errors: %d | Connection failures: %d%n", errors.get(), connectFailures.get());
+    }
+
+    private static void printRow(PrintStream out, String name, LatencyHistogram histogram, double seconds) {
+        out.printf("%-10s %10d %12.1f %10.3f %10.3f %10.3f %10.3f%n", name, histogram.getCount(),
+                   histogram.getCount() / seconds, histogram.valueAtPercentile(50) / 1e6,
+                   histogram.valueAtPercentile(99) / 1e6, histogram.valueAtPercentile(99.9) / 1e6,
+                   histogram.getMax() / 1e6);
+    }
+}
@@ -0,0 +1,78 @@
+package rpmsapp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Writers running while a long report reads the same data: approving appointments next to a reader that walks
+// every appointment, as the admin listings and reminder runs do, plus the cost of getting a stable view
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotReadBenchmark {
+    @Param({"10000", "100000"})
+    int size;
+
+    private AppointmentManager manager;
+    private Doctor doctor;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkFixtures.silenceConsole();
+        manager = new AppointmentManager();
+        doctor = BenchmarkFixtures.doctor(0);
+        for (int i = 0; i < size; i++) {
+            Patient patient = BenchmarkFixtures.patient(i);
+            manager.requestAppointment("2025-03-" + (1 + i % 28), doctor, patient);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.restoreConsole();
+    }
+
+    @Benchmark
+    @Group("appointments")
+    @GroupThreads(1)
+    public void approve() {
+        manager.approveAppointment(next);
+        next = next + 1 == size ? 0 : next + 1;
+    }
+
+    @Benchmark
+    @Group("appointments")
+    @GroupThreads(1)
+    public int countApproved() {
+        int approved = 0;
+        for (Appointment a : manager.getAppointments()) {
+            if ("Approved".equals(a.getStatus())) approved++;
+        }
+        return approved;
+    }
+
+    // What a report pays up front to get a stable view of all appointments
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public int takeSnapshot() {
+        return manager.getAppointments().size();
+    }
+}
@@ -0,0 +1,178 @@
+package rpmsapp;
+
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Checks that the patient summary cache never serves a summary older than a change already made, and
+// reports how much it saves. Each writer owns a share of the patients and changes them at random:
+//  - stores a reading;
+//  - adds feedback with a new prescription;
+//  - or requests an appointment earlier than any before.
+// Right after each change the writer reads the summary back, and it must show that change. Meanwhile readers
+// fetch summaries, mostly of a small hot set, so loads keep racing with invalidations. Exits with status 1 if
+// any summary read back by a writer was stale.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar rpmsapp.SummaryCacheCheck [--patients=2000] [--readings=500]
+//        [--history=200] [--writers=2] [--readers=4] [--duration=10] [--cache-size=1000]
+public class SummaryCacheCheck {
+    private int patients = 2_000;   // Patients in the cohort
+    private int readings = 500;     // Readings per patient before the run
+    private int history = 200;      // Feedback entries per patient before the run, every other one with a prescription
+    private int writers = 2;        // Threads changing patients
+    private int readers = 4;        // Threads fetching summaries
+    private int durationSeconds = 10; // Length of the run
+    private int cacheSize = 1_000;  // Summaries the cache keeps
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder gets = new LongAdder();
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final AtomicLong firstStale = new AtomicLong(-1);
+
+    public static void main(String[] args) throws InterruptedException {
+        SummaryCacheCheck check = new SummaryCacheCheck();
+        check.parse(args);
+        PrintStream out = System.out;
+        BenchmarkFixtures.silenceConsole(); // Appointment requests print on every call
+        boolean passed;
+        try {
+            passed = check.run(out);
+        } finally {
+            BenchmarkFixtures.restoreConsole();
+        }
+        if (!passed) System.exit(1);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            int value = Integer.parseInt(arg.substring(eq + 1));
+            switch (name) {
+                case "patients": patients = value; break;
+                case "readings": readings = value; break;
+                case "history": history = value; break;
+                case "writers": writers = value; break;
+                case "readers": readers = value; break;
+                case "duration": durationSeconds = value; break;
+                case "cache-size": cacheSize = value; break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+    }
+
+    boolean run(PrintStream out) throws InterruptedException {
+        PatientEvents events = new PatientEvents();
+        VitalsDatabase database = new VitalsDatabase(null, events);
+        AppointmentManager appointments = new AppointmentManager(null, events);
+        AlertTracker alerts = new AlertTracker(15 * 60 * 1000);
+        Doctor doctor = BenchmarkFixtures.doctor(0);
+        Patient[] cohort = new Patient[patients];
+        for (int i = 0; i < patients; i++) {
+            Patient p = BenchmarkFixtures.patient(i);
+            cohort[i] = p;
+            for (int r = 0; r < readings; r++) database.addVitalSign(p.getId(), BenchmarkFixtures.normalVital());
+            for (int h = 0; h < history; h++) {
+                p.addFeedback(new Feedback("Review " + h, h % 2 == 0 ? new Prescription("Drug" + h % 7, "10mg", "daily", p) : null));
+            }
+        }
+        PatientSummaryCache cache = new PatientSummaryCache(database, appointments, alerts, cacheSize);
+        events.subscribe(cache);
+
+        // Cost of building a summary without the cache, for comparison
+        LatencyHistogram loadLatency = new LatencyHistogram();
+        SplittableRandom sample = new SplittableRandom(3);
+        for (int i = 0; i < 1_000; i++) {
+            long start = System.nanoTime();
+            PatientSummary.load(cohort[sample.nextInt(patients)], database, appointments, alerts, LocalDate.now());
+            loadLatency.record(System.nanoTime() - start);
+        }
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> write(writer, cohort, database, appointments, events, doctor, cache, end),
+                                   "writer-" + w));
+        }
+        for (int r = 0; r < readers; r++) {
+            int reader = r;
+            threads.add(new Thread(() -> read(reader, cohort, cache, end), "reader-" + r));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+
+        out.println("=== RPMS patient summary cache check ===");
+        out.printf("Patients: %d | Readings: %d and history entries: %d each | Writers: %d | Readers: %d | Cache: %d%n",
+                   patients, readings, history, writers, readers, cacheSize);
+        out.printf("Changes: %d | Summary requests: %d | Stale summaries after a change: %d%n", changes.sum(),
+                   gets.sum() + changes.sum(), stale.sum());
+        out.printf("Reader requests: p50 %.3f ms, p99 %.3f ms | Building without the cache: p50 %.3f ms, p99 %.3f ms%n",
+                   getLatency.valueAtPercentile(50) / 1e6, getLatency.valueAtPercentile(99) / 1e6,
+                   loadLatency.valueAtPercentile(50) / 1e6, loadLatency.valueAtPercentile(99) / 1e6);
+        out.println(cache.describe());
+        if (stale.sum() > 0) {
+            out.println("FAILED: first stale summary after change " + firstStale.get());
+            return false;
+        }
+        out.println("PASSED");
+        return true;
+    }
+
+    // Changes the writer's own patients and reads each change back through the cache
+    private void write(int writer, Patient[] cohort, VitalsDatabase database, AppointmentManager appointments,
+                       PatientEvents events, Doctor doctor, PatientSummaryCache cache, long end) {
+        SplittableRandom random = new SplittableRandom(100 + writer);
+        int[] appointmentsMade = new int[cohort.length];
+        LocalDate farAway = LocalDate.now().plusYears(100);
+        long change = 0;
+        while (System.nanoTime() < end) {
+            int index = writer + writers * random.nextInt((cohort.length - writer + writers - 1) / writers);
+            Patient patient = cohort[index];
+            int kind = random.nextInt(3);
+            boolean current;
+            if (kind == 0) {
+                int heartRate = 40 + (int) (change % 100);
+                database.addVitalSign(patient.getId(), new VitalSign(heartRate, 97, 120, 80, 36.6));
+                current = cache.get(patient).getLatestVital().getHeartRate() == heartRate;
+            } else if (kind == 1) {
+                String medication = "W" + writer + "-" + change;
+                patient.addFeedback(new Feedback("Change " + change, new Prescription(medication, "1mg", "daily", patient)));
+                events.publish(patient.getId(), PatientChange.FEEDBACK); // As RPMSApp.addFeedback does
+                current = medication.equals(cache.get(patient).getPrescriptions().get(0).getMedication());
+            } else {
+                String date = farAway.minusDays(++appointmentsMade[index]).toString();
+                appointments.requestAppointment(date, doctor, patient);
+                current = date.equals(cache.get(patient).getNextAppointment().getAppointmentDate());
+            }
+            if (!current) {
+                stale.increment();
+                firstStale.compareAndSet(-1, change);
+            }
+            changes.increment();
+            change++;
+        }
+    }
+
+    // Fetches summaries, nine in ten from the first tenth of the patients
+    private void read(int reader, Patient[] cohort, PatientSummaryCache cache, long end) {
+        SplittableRandom random = new SplittableRandom(200 + reader);
+        int hot = Math.max(1, cohort.length / 10);
+        while (System.nanoTime() < end) {
+            Patient patient = cohort[random.nextInt(10) < 9 ? random.nextInt(hot) : random.nextInt(cohort.length)];
+            long start = System.nanoTime();
+            cache.get(patient);
+            getLatency.record(System.nanoTime() - start);
+            gets.increment();
+        }
+    }
+}
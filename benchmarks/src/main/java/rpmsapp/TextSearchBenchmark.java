@@ -0,0 +1,93 @@
+package rpmsapp;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Full-text queries and index updates over a synthetic corpus of feedback and chat messages
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class TextSearchBenchmark {
+    // Common clinical words plus a long tail, so some terms match many documents and most match few
+    private static final String[] COMMON = {"patient", "reports", "blood", "pressure", "stable", "continue", "current",
+            "treatment", "increase", "dose", "mild", "headache", "review", "in", "two", "weeks", "chest", "pain",
+            "shortness", "of", "breath", "take", "with", "food", "daily", "twice", "morning", "evening"};
+    private static final int RARE_WORDS = 20000;
+
+    @Param({"100000", "1000000"})
+    int documentCount;
+
+    private TextIndex index;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        index = new TextIndex();
+        random = new Random(42);
+        for (int i = 0; i < documentCount; i++) {
+            index.add(i % 3 == 0 ? DocumentKind.CHAT : DocumentKind.FEEDBACK, "P" + (i % 10000), "D" + (i % 100),
+                      sentence());
+        }
+    }
+
+    private String sentence() {
+        StringBuilder text = new StringBuilder();
+        int words = 6 + random.nextInt(10);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) text.append(' ');
+            text.append(random.nextInt(4) == 0 ? "term" + random.nextInt(RARE_WORDS) : COMMON[random.nextInt(COMMON.length)]);
+        }
+        return text.toString();
+    }
+
+    @Benchmark
+    public int rareTerm() {
+        return index.search("term" + random.nextInt(RARE_WORDS), null, null, 20).size();
+    }
+
+    @Benchmark
+    public int twoCommonTerms() {
+        return index.search("chest pain", null, null, 20).size();
+    }
+
+    @Benchmark
+    public int phrase() {
+        return index.search("\"shortness of breath\"", null, null, 20).size();
+    }
+
+    @Benchmark
+    public int prefix() {
+        return index.search("term19*", null, null, 20).size();
+    }
+
+    @Benchmark
+    public int patientScoped() {
+        return index.search("blood pressure", "P" + random.nextInt(10000), null, 20).size();
+    }
+
+    @Benchmark
+    public int doctorScoped() {
+        return index.search("headache", null, "D" + random.nextInt(100), 20).size();
+    }
+
+    // Note: the index keeps growing during the trial, as it would in production
+    @Benchmark
+    public int addDocument() {
+        return index.add(DocumentKind.FEEDBACK, "P" + random.nextInt(10000), "D" + random.nextInt(100), sentence());
+    }
+}
@@ -0,0 +1,64 @@
+package rpmsapp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Threshold evaluation of a single reading: fixed bounds, text parsing and the early warning engine
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThresholdBenchmark {
+    @Param({"normal", "abnormal", "malformed"})
+    String reading;
+
+    private VitalSign vital;
+    private String bloodPressure;
+    private EarlyWarningEngine engine;
+
+    @Setup
+    public void setup() {
+        switch (reading) {
+            case "abnormal":
+                bloodPressure = "165/98";
+                vital = new VitalSign(128, 91, bloodPressure, 38.6);
+                break;
+            case "malformed":
+                bloodPressure = "165-98";
+                vital = new VitalSign(72, 98, bloodPressure, 36.7);
+                break;
+            default:
+                bloodPressure = "118/76";
+                vital = new VitalSign(72, 98, bloodPressure, 36.7);
+        }
+        engine = new EarlyWarningEngine();
+    }
+
+    @Benchmark
+    public boolean isWithinThreshold() {
+        return EmergencyAlert.isWithinThreshold(vital);
+    }
+
+    // Includes parsing the blood pressure text, as an upload does
+    @Benchmark
+    public boolean parseAndCheck() {
+        return EmergencyAlert.isWithinThreshold(new VitalSign(72, 98, bloodPressure, 36.7));
+    }
+
+    @Benchmark
+    public EarlyWarningResult earlyWarningEvaluate() {
+        return engine.evaluate("P1", vital);
+    }
+}
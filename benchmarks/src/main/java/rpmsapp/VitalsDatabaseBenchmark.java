@@ -0,0 +1,74 @@
+package rpmsapp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Storing and displaying readings in VitalsDatabase at several database sizes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VitalsDatabaseBenchmark {
+    @Param({"100", "10000"})
+    int patientCount;
+
+    @Param({"10", "100"})
+    int readingsPerPatient;
+
+    private VitalsDatabase db;
+    private String[] patientIds;
+    private VitalSign vital;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkFixtures.silenceConsole();
+        db = new VitalsDatabase();
+        patientIds = new String[patientCount];
+        for (int i = 0; i < patientCount; i++) {
+            patientIds[i] = "P" + i;
+        }
+        vital = BenchmarkFixtures.normalVital();
+        for (int r = 0; r < readingsPerPatient; r++) {
+            for (String id : patientIds) {
+                db.addVitalSign(id, vital);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.restoreConsole();
+    }
+
+    private String nextPatientId() {
+        String id = patientIds[next];
+        next = next + 1 == patientIds.length ? 0 : next + 1;
+        return id;
+    }
+
+    // Note: the database keeps growing during the trial, as it would in production
+    @Benchmark
+    public void addVitalSign() {
+        db.addVitalSign(nextPatientId(), vital);
+    }
+
+    @Benchmark
+    public void displayPatientVitals() {
+        db.displayPatientVitals(nextPatientId());
+    }
+}
@@ -0,0 +1,232 @@
+package rpmsapp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Compares GC behaviour of heap and off-heap vitals storage. Each storage mode runs in its own JVM with GC
+// logging on (-Xlog:gc to <log-dir>/gc-<storage>.log). That JVM stores readings round-robin over the patients,
+// scoring each one with the early warning engine as ingestion does, and records:
+//  - the heap still in use after a full GC at each quarter of the load;
+//  - the longest stall of a single store-and-score step.
+// The parent then reads the GC logs for the pauses. Full collections forced for the heap measurements are
+// left out. Exits with status 1 if:
+//  - either run reads back wrong readings, or
+//  - off-heap storage's retained heap grows by more than 16 MB from the first quarter to the last.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar rpmsapp.VitalsGcComparison [--readings=20000000]
+//        [--patients=20000] [--heap=3g] [--gc=G1] [--log-dir=<temporary directory>]
+public class VitalsGcComparison {
+    private static final Pattern PAUSE = Pattern.compile("Pause .*?(\\d+(?:\\.\\d+)?)ms$");
+    private static final long FLAT_HEAP_BYTES = 16L * 1024 * 1024; // Allowed growth of retained heap off-heap
+
+    private int readings = 20_000_000;  // Readings stored per run
+    private int patients = 20_000;      // Patients the readings are spread over
+    private String heap = "3g";         // -Xmx of each run
+    private String gc = "G1";           // Collector of each run: G1, Parallel, Serial or Z
+    private String logDirectory;        // Where the GC logs are kept
+    private String storage;             // Set in a child run: heap or offheap
+
+    public static void main(String[] args) throws Exception {
+        VitalsGcComparison comparison = new VitalsGcComparison();
+        comparison.parse(args);
+        if (comparison.storage != null) {
+            comparison.load(System.out);
+            return;
+        }
+        System.exit(comparison.compare(System.out) ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "readings": readings = Integer.parseInt(value); break;
+                case "patients": patients = Integer.parseInt(value); break;
+                case "heap": heap = value; break;
+                case "gc": gc = value; break;
+                case "log-dir": logDirectory = value; break;
+                case "storage": storage = value; break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+    }
+
+    // Runs both storage modes in child JVMs and compares their reports and GC logs; true if the checks passed
+    boolean compare(PrintStream out) throws IOException, InterruptedException {
+        Path logs = logDirectory == null ? Files.createTempDirectory("rpms-gc-comparison") : Paths.get(logDirectory);
+        Files.createDirectories(logs);
+        out.println("=== RPMS vitals GC comparison ===");
+        out.printf("Readings: %d | Patients: %d | Heap: %s | Collector: %s | GC logs: %s%n", readings, patients, heap, gc,
+                   logs);
+        out.printf("%-8s %9s %9s %9s %9s %10s %8s %11s %11s %11s %12s%n", "Storage", "Heap 25%", "Heap 50%",
+                   "Heap 75%", "Heap 100%", "Direct MB", "Pauses", "Total ms", "Max ms", "Stall ms", "Readings/s");
+        boolean passed = true;
+        for (String mode : new String[] {"heap", "offheap"}) {
+            Path log = logs.resolve("gc-" + mode + ".log");
+            Map<String, String> report = runChild(mode, log);
+            if (report == null) {
+                out.println(mode + ": run failed");
+                passed = false;
+                continue;
+            }
+            double[] pauses = pauses(log);
+            long[] retained = new long[4];
+            for (int q = 0; q < 4; q++) retained[q] = Long.parseLong(report.get("heap" + (q + 1)));
+            out.printf("%-8s %9s %9s %9s %9s %10.0f %8.0f %11.1f %11.2f %11.2f %12.0f%n", mode, megabytes(retained[0]),
+                       megabytes(retained[1]), megabytes(retained[2]), megabytes(retained[3]),
+                       Long.parseLong(report.get("direct")) / 1e6, pauses[0], pauses[1], pauses[2],
+                       Long.parseLong(report.get("stall")) / 1e6, Double.parseDouble(report.get("rate")));
+            if (!"true".equals(report.get("verified"))) {
+                out.println("FAILED: " + mode + " storage read back wrong readings");
+                passed = false;
+            }
+            if ("offheap".equals(mode) && retained[3] - retained[0] > FLAT_HEAP_BYTES) {
+                out.println("FAILED: off-heap storage retained " + megabytes(retained[3] - retained[0])
+                            + " more heap at the end than after the first quarter");
+                passed = false;
+            }
+        }
+        out.println("Heap columns: heap in use after a full GC once that share of the readings was stored. Pauses exclude those full GCs.");
+        out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    // Starts one storage mode in a JVM of its own; returns its key=value report, or null if it failed
+    private Map<String, String> runChild(String mode, Path log) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xms" + heap);
+        command.add("-Xmx" + heap);
+        command.add("-XX:+Use" + gc + "GC");
+        command.add("-Xlog:gc:file=" + log);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(VitalsGcComparison.class.getName());
+        command.add("--storage=" + mode);
+        command.add("--readings=" + readings);
+        command.add("--patients=" + patients);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Map<String, String> report = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith("RESULT ")) {
+                    System.out.println("  [" + mode + "] " + line);
+                    continue;
+                }
+                report = new HashMap<>();
+                for (String field : line.substring(7).split(" ")) {
+                    int eq = field.indexOf('=');
+                    report.put(field.substring(0, eq), field.substring(eq + 1));
+                }
+            }
+        }
+        return process.waitFor() == 0 ? report : null;
+    }
+
+    // Count, total and longest of the pauses in a GC log, leaving out collections forced with System.gc()
+    private static double[] pauses(Path log) throws IOException {
+        double count = 0;
+        double total = 0;
+        double max = 0;
+        for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+            if (line.contains("System.gc()")) continue;
+            Matcher m = PAUSE.matcher(line);
+            if (m.find()) {
+                double millis = Double.parseDouble(m.group(1));
+                count++;
+                total += millis;
+                max = Math.max(max, millis);
+            }
+        }
+        return new double[] {count, total, max};
+    }
+
+    // Child run: stores and scores the readings, then prints one RESULT line
+    void load(PrintStream out) {
+        VitalsArena arena = "offheap".equals(storage) ? new VitalsArena(4 * 1024 * 1024) : null;
+        VitalsDatabase database = new VitalsDatabase(arena);
+        EarlyWarningEngine engine = new EarlyWarningEngine();
+        String[] ids = new String[patients];
+        for (int i = 0; i < patients; i++) ids[i] = BenchmarkFixtures.patient(i).getId();
+        long[] retained = new long[4];
+        long stall = 0;
+        long loadNanos = 0;
+        for (int quarter = 0; quarter < 4; quarter++) {
+            long quarterStart = System.nanoTime();
+            int end = (int) ((long) readings * (quarter + 1) / 4);
+            for (int i = (int) ((long) readings * quarter / 4); i < end; i++) {
+                long before = System.nanoTime();
+                VitalSign vital = reading(i);
+                String id = ids[i % patients];
+                database.addVitalSign(id, vital);
+                engine.evaluate(id, vital);
+                stall = Math.max(stall, System.nanoTime() - before);
+            }
+            loadNanos += System.nanoTime() - quarterStart;
+            retained[quarter] = retainedHeap();
+        }
+        boolean verified = verify(database, ids);
+        out.printf("RESULT heap1=%d heap2=%d heap3=%d heap4=%d direct=%d stall=%d rate=%.0f verified=%s%n",
+                   retained[0], retained[1], retained[2], retained[3], arena == null ? 0 : arena.getReservedBytes(), stall,
+                   readings / (loadNanos / 1e9), verified);
+        database.close();
+    }
+
+    // Every patient's count, plus every reading of a sample of patients, against what was stored
+    private boolean verify(VitalsDatabase database, String[] ids) {
+        if (database.size() != readings) return false;
+        for (int p = 0; p < patients; p++) {
+            int expected = readings / patients + (p < readings % patients ? 1 : 0);
+            if (p % 997 != 0) {
+                if (database.getVitals(ids[p]).size() != expected) return false;
+                continue;
+            }
+            int i = p;
+            for (VitalSign v : database.readings(ids[p])) {
+                VitalSign sent = reading(i);
+                if (v.getHeartRate() != sent.getHeartRate() || v.getOxygenLevel() != sent.getOxygenLevel()
+                    || v.getSystolic() != sent.getSystolic() || v.getDiastolic() != sent.getDiastolic()
+                    || v.getTemperature() != sent.getTemperature()
+                    || !v.getBloodPressure().equals(sent.getBloodPressure())) {
+                    return false;
+                }
+                i += patients;
+            }
+            if (i != p + expected * patients) return false;
+        }
+        return true;
+    }
+
+    // The i-th reading sent, a new object each time as from a device upload
+    private static VitalSign reading(int i) {
+        return new VitalSign(60 + i % 40, 92 + i % 8, 110 + i % 30, 70 + i % 20, 36.0 + (i % 25) / 10.0);
+    }
+
+    private static long retainedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.0f MB", bytes / 1e6);
+    }
+}